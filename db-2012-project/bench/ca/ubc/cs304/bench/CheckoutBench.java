@@ -0,0 +1,197 @@
+package ca.ubc.cs304.bench;
+
+// File: CheckoutBench.java
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.tables.CheckoutPipeline;
+
+/*
+ * CheckoutBench compares the throughput of checkouts that each write
+ * their order and commit on their own, as ShopTransactions.checkout()
+ * did, with that of checkouts placed through CheckoutPipeline, which
+ * commits concurrent orders together. Each runs for a few seconds with
+ * 1, 8 and 64 customers checking out as fast as they can.
+ *
+ * The database is a StubDatabase in which each statement takes 200 us
+ * and each commit 2 ms, one commit at a time, as when commits wait for
+ * the redo log to be written, e.g.
+ *
+ *   java -cp bin ca.ubc.cs304.bench.CheckoutBench 3000
+ *
+ * runs each for 3 seconds.
+ */
+public class CheckoutBench {
+	private static final long STATEMENT_MICROS = 200;
+	private static final long COMMIT_MICROS = 2000;
+
+	private static final int[] CUSTOMERS = { 1, 8, 64 };
+
+	/*
+	 * One customer's checkout.
+	 */
+	private interface Checkout {
+		void run(String cid) throws SQLException;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long millis = (args.length > 0 ? Long.parseLong(args[0]) : 3000);
+
+		final StubDatabase db = new StubDatabase() {
+			private int next = 0;
+
+			// the receipt numbers IdAllocator takes from receipt_counter
+			protected synchronized ResultSet query(Connection con, String sql, Object[] params) {
+				if (!sql.contains("nextval")) {
+					return rows();
+				}
+
+				Object[][] ids = new Object[((Integer) params[0]).intValue()][];
+
+				for (int i = 0; i < ids.length; i++) {
+					ids[i] = new Object[] { Integer.valueOf(++next) };
+				}
+
+				return rows(ids);
+			}
+		};
+
+		StubDatabase.install(db);
+		db.setLatency(STATEMENT_MICROS, COMMIT_MICROS);
+
+		final Map<Integer, Integer> quantities = new HashMap<Integer, Integer>();
+
+		quantities.put(Integer.valueOf(1), Integer.valueOf(1));
+		quantities.put(Integer.valueOf(2), Integer.valueOf(2));
+		quantities.put(Integer.valueOf(3), Integer.valueOf(1));
+
+		final Date expire = new Date(System.currentTimeMillis());
+		final CheckoutPipeline pipeline = CheckoutPipeline.getInstance();
+
+		for (int customers : CUSTOMERS) {
+			run("One commit per checkout", db, customers, millis, new Checkout() {
+				public void run(String cid) throws SQLException {
+					commitAlone(cid, "1234567890123456", expire, 3);
+				}
+			});
+
+			run("CheckoutPipeline", db, customers, millis, new Checkout() {
+				public void run(String cid) throws SQLException {
+					pipeline.checkout(cid, "1234567890123456", expire, 3, quantities);
+				}
+			});
+		}
+
+		System.out.printf("Orders per pipeline commit: %.1f%n", Double.valueOf(pipeline.getAverageGroupSize()));
+		System.exit(0);
+	}
+
+	/*
+	 * Runs the checkout for each of the customers over and over for the
+	 * given time and prints the throughput.
+	 */
+	private static void run(String name, StubDatabase db, int customers, long millis, final Checkout checkout)
+			throws Exception {
+		db.resetCounts();
+
+		final long end = System.currentTimeMillis() + millis;
+		final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<Long>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(customers);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		long start = System.nanoTime();
+
+		for (int c = 0; c < customers; c++) {
+			final String cid = "c" + c;
+
+			futures.add(executor.submit(new Callable<Object>() {
+				public Object call() throws SQLException {
+					while (System.currentTimeMillis() < end) {
+						long began = System.nanoTime();
+
+						checkout.run(cid);
+						latencies.add(Long.valueOf(System.nanoTime() - began));
+					}
+
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		executor.shutdown();
+
+		List<Long> sorted = new ArrayList<Long>(latencies);
+
+		Collections.sort(sorted);
+
+		int n = sorted.size();
+
+		System.out.printf("%-24s %2d customers: %6.0f checkouts/s, median %5.1f ms, %.2f commits per checkout%n",
+				name, Integer.valueOf(customers), Double.valueOf(n / seconds),
+				Double.valueOf(sorted.get(n / 2).longValue() / 1e6), Double.valueOf((double) db.getCommits() / n));
+	}
+
+	/*
+	 * Writes one order and commits it, with the statements
+	 * ShopTransactions.checkout() used before CheckoutPipeline.
+	 */
+	private static void commitAlone(String cid, String cardno, Date expire, int deliverDays) throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"INSERT INTO Purchase VALUES(receipt_counter.nextval, sysdate, ?, ?, ?, sysdate + ?, null)");
+
+			ps.setString(1, cid);
+			ps.setString(2, cardno);
+			ps.setDate(3, expire);
+			ps.setInt(4, deliverDays);
+			ps.executeUpdate();
+
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"INSERT INTO PurchaseItem SELECT receipt_counter.currval, s.upc, s.quantity "
+							+ "FROM Shoppingcart s WHERE s.cid = ?");
+
+			ps.setString(1, cid);
+			ps.executeUpdate();
+
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM Shoppingcart WHERE cid = ?");
+
+			ps.setString(1, cid);
+			ps.executeUpdate();
+
+			con.commit();
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package ca.ubc.cs304.bench;
+
+// File: ColumnFootprint.java
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import ca.ubc.cs304.main.CustomTableModel;
+
+/*
+ * ColumnFootprint measures the heap used per row of an item table, first
+ * cached the way CustomTableModel used to cache it, as a Vector of
+ * boxed cells per row, and then by CustomTableModel's ColumnStore. The
+ * rows look like those of SELECT * FROM item: a unique UPC and title, a
+ * type and category out of a few values, a company, a year, a price and
+ * a stock. Each string is a new object, as getObject() returns it.
+ *
+ * Run it with a fixed heap so that the garbage collector settles, e.g.
+ *
+ *   java -Xms512m -Xmx512m -cp bin ca.ubc.cs304.bench.ColumnFootprint 200000
+ */
+public class ColumnFootprint {
+	private static final String[] COLUMNS = { "UPC", "TITLE", "TYPE", "CATEGORY", "COMPANY", "YEAR",
+			"SELLPRICE", "STOCK" };
+
+	private static final int[] TYPES = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+			Types.VARCHAR, Types.INTEGER, Types.DECIMAL, Types.INTEGER };
+
+	private static final String[] ITEM_TYPES = { "CD", "CASSETTE" };
+
+	private static final String[] CATEGORIES = { "rock", "pop", "rap", "country", "classical", "new age",
+			"instrumental" };
+
+	private static final String[] COMPANIES = { "Warner", "Sony", "EMI", "Universal", "Arista" };
+
+	// keeps what is measured reachable until it has been measured
+	private static Object kept;
+
+	public static void main(String[] args) {
+		int n = (args.length > 0 ? Integer.parseInt(args[0]) : 200000);
+
+		// warm up, so that the classes loaded are not counted
+		vectorRows(1000);
+		columnRows(1000);
+
+		long before = usedMemory();
+		kept = vectorRows(n);
+		long vectors = usedMemory() - before;
+		kept = null;
+
+		before = usedMemory();
+		kept = columnRows(n);
+		long columns = usedMemory() - before;
+		kept = null;
+
+		System.out.println(n + " item rows");
+		System.out.println("Vector of boxed cells: " + (vectors / n) + " bytes per row");
+		System.out.println("ColumnStore:           " + (columns / n) + " bytes per row");
+	}
+
+	/*
+	 * Returns the rows as CustomTableModel cached them before ColumnStore,
+	 * one Vector of cells per row.
+	 */
+	private static Vector<Vector<Object>> vectorRows(int n) {
+		Vector<Vector<Object>> rows = new Vector<Vector<Object>>();
+
+		for (int i = 0; i < n; i++) {
+			Object[] row = row(i);
+			Vector<Object> cells = new Vector<Object>(row.length);
+
+			for (Object cell : row) {
+				cells.add(cell);
+			}
+
+			rows.add(cells);
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Returns a table model holding the rows in a ColumnStore. The rows
+	 * are added a chunk at a time, so that the rows not yet added do not
+	 * count towards the model.
+	 */
+	private static CustomTableModel columnRows(int n) {
+		CustomTableModel model = new CustomTableModel(COLUMNS, TYPES, new ArrayList<Object[]>());
+		int chunk = 1000;
+
+		for (int start = 0; start < n; start += chunk) {
+			List<Object[]> rows = new ArrayList<Object[]>(chunk);
+
+			for (int i = start; i < Math.min(n, start + chunk); i++) {
+				rows.add(row(i));
+			}
+
+			model.addRows(rows);
+		}
+
+		return model;
+	}
+
+	private static Object[] row(int i) {
+		return new Object[] { Integer.valueOf(100000 + i), new String("Title " + i),
+				new String(ITEM_TYPES[i % ITEM_TYPES.length]), new String(CATEGORIES[i % CATEGORIES.length]),
+				new String(COMPANIES[i % COMPANIES.length]), Integer.valueOf(1960 + i % 50),
+				BigDecimal.valueOf(500 + i % 2000, 2), Integer.valueOf(i % 100) };
+	}
+
+	/*
+	 * Returns the heap in use once the garbage collector has settled.
+	 */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				break;
+			}
+
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+
+		return used;
+	}
+}
@@ -0,0 +1,270 @@
+package ca.ubc.cs304.bench;
+
+// File: StockStress.java
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.ubc.cs304.tables.StockReservations;
+
+/*
+ * StockStress runs many shoppers against StockReservations at once, on
+ * a few items, to show that no copy is sold twice and no reservation is
+ * left behind. Each shopper reserves copies, releases some or all of
+ * them and checks out what it holds, at random, while another thread
+ * releases expired reservations, invalidates the stock and writes the
+ * sales, and reservations expire 5 ms after they are made.
+ *
+ * item.stock is kept in memory by a StubDatabase. Once every shopper
+ * has released what it holds and the sales are written, the copies
+ * available of each item must equal its stock in the database, and the
+ * copies sold must equal what the stock went down by, with none below
+ * 0. The program exits with status 1 if they do not, e.g.
+ *
+ *   java -cp bin ca.ubc.cs304.bench.StockStress 200 100
+ *
+ * runs 200 shoppers on items with 100 copies each.
+ */
+public class StockStress {
+	private static final int ITEMS = 20;
+
+	private static final int OPERATIONS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		int shoppers = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+		final int initial = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+
+		final StockTable db = new StockTable(initial);
+
+		StubDatabase.install(db);
+
+		final StockReservations reservations = StockReservations.getInstance();
+
+		// let the reservations expire while the shoppers hold them
+		Field timeToLive = StockReservations.class.getDeclaredField("timeToLive");
+		timeToLive.setAccessible(true);
+		timeToLive.setLong(reservations, 5);
+
+		final int[] sold = new int[ITEMS];
+		final AtomicInteger checkouts = new AtomicInteger();
+		final AtomicInteger refused = new AtomicInteger();
+		final boolean[] done = new boolean[1];
+
+		Thread sweeper = new Thread("Sweeper") {
+			public void run() {
+				Random random = new Random();
+
+				while (!isDone(done)) {
+					reservations.releaseExpired();
+
+					if (random.nextInt(50) == 0) {
+						reservations.invalidate();
+					}
+
+					if (random.nextInt(20) == 0) {
+						try {
+							reservations.sync();
+						} catch (SQLException ex) {
+							// written by the next sync
+						}
+					}
+				}
+			}
+		};
+
+		sweeper.start();
+
+		ExecutorService executor = Executors.newFixedThreadPool(64);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		long start = System.nanoTime();
+
+		for (int s = 0; s < shoppers; s++) {
+			final String cid = "c" + s;
+			final long seed = s;
+
+			futures.add(executor.submit(new Callable<Object>() {
+				public Object call() throws SQLException {
+					shop(reservations, cid, new Random(seed), sold, checkouts, refused);
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+
+		double millis = (System.nanoTime() - start) / 1e6;
+
+		synchronized (done) {
+			done[0] = true;
+		}
+
+		sweeper.join();
+		executor.shutdown();
+
+		reservations.sync();
+
+		boolean ok = true;
+		int total = 0;
+
+		for (int upc = 0; upc < ITEMS; upc++) {
+			int stock = db.stock(upc);
+			int available = reservations.available(upc);
+
+			total += sold[upc];
+
+			if (stock < 0 || available != stock || initial - stock != sold[upc]) {
+				ok = false;
+				System.out.println("Item " + upc + ": " + sold[upc] + " sold, " + available + " available, "
+						+ stock + " in stock");
+			}
+		}
+
+		System.out.printf("%d shoppers x %d operations in %.0f ms: %d checkouts, %d refused, %d of %d copies sold%n",
+				Integer.valueOf(shoppers), Integer.valueOf(OPERATIONS), Double.valueOf(millis),
+				Integer.valueOf(checkouts.get()), Integer.valueOf(refused.get()), Integer.valueOf(total),
+				Integer.valueOf(ITEMS * initial));
+		System.out.println(ok ? "No copy was oversold and no reservation was left."
+				: "Copies were oversold or reservations were left.");
+
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static boolean isDone(boolean[] done) {
+		synchronized (done) {
+			return done[0];
+		}
+	}
+
+	/*
+	 * Runs one shopper: mostly reserving, sometimes releasing, and
+	 * checking out the cart otherwise.
+	 */
+	private static void shop(StockReservations reservations, String cid, Random random, int[] sold,
+			AtomicInteger checkouts, AtomicInteger refused) throws SQLException {
+		Map<Integer, Integer> cart = new HashMap<Integer, Integer>();
+
+		for (int i = 0; i < OPERATIONS; i++) {
+			int op = random.nextInt(100);
+
+			if (op < 70) {
+				int upc = random.nextInt(ITEMS);
+				int quantity = 1 + random.nextInt(3);
+
+				if (reservations.reserve(cid, upc, quantity)) {
+					add(cart, upc, quantity);
+				}
+			} else if (op < 80) {
+				reservations.releaseAll(cid);
+				cart.clear();
+			} else if (op < 85 && !cart.isEmpty()) {
+				int upc = cart.keySet().iterator().next().intValue();
+
+				reservations.release(cid, upc, 1);
+				add(cart, upc, -1);
+			} else if (!cart.isEmpty()) {
+				if (reservations.claim(cid, cart)) {
+					reservations.sold(cid, cart);
+					checkouts.incrementAndGet();
+
+					synchronized (sold) {
+						for (Map.Entry<Integer, Integer> e : cart.entrySet()) {
+							sold[e.getKey().intValue()] += e.getValue().intValue();
+						}
+					}
+				} else {
+					refused.incrementAndGet();
+					reservations.releaseAll(cid);
+				}
+
+				cart.clear();
+			}
+		}
+
+		reservations.releaseAll(cid);
+	}
+
+	private static void add(Map<Integer, Integer> cart, int upc, int quantity) {
+		Integer held = cart.get(Integer.valueOf(upc));
+		int left = (held == null ? 0 : held.intValue()) + quantity;
+
+		if (left > 0) {
+			cart.put(Integer.valueOf(upc), Integer.valueOf(left));
+		} else {
+			cart.remove(Integer.valueOf(upc));
+		}
+	}
+
+	/*
+	 * item.stock, with the updates of each connection kept until it
+	 * commits.
+	 */
+	private static class StockTable extends StubDatabase {
+		private int initial;
+		private Map<Integer, Integer> stocks = new HashMap<Integer, Integer>();
+		private Map<Connection, List<Object[]>> pending = new HashMap<Connection, List<Object[]>>();
+
+		StockTable(int initial) {
+			this.initial = initial;
+		}
+
+		synchronized int stock(int upc) {
+			Integer stock = stocks.get(Integer.valueOf(upc));
+
+			return (stock == null ? initial : stock.intValue());
+		}
+
+		// SELECT stock FROM item WHERE upc = ?
+		protected ResultSet query(Connection con, String sql, Object[] params) {
+			if (params.length == 0) {
+				return rows();
+			}
+
+			return rows(new Object[] { Integer.valueOf(stock(((Integer) params[0]).intValue())) });
+		}
+
+		// UPDATE item SET stock = stock + ? WHERE upc = ?
+		protected synchronized int update(Connection con, String sql, Object[] params) {
+			List<Object[]> updates = pending.get(con);
+
+			if (updates == null) {
+				updates = new ArrayList<Object[]>();
+				pending.put(con, updates);
+			}
+
+			updates.add(params);
+			return 1;
+		}
+
+		protected synchronized void commit(Connection con) {
+			List<Object[]> updates = pending.remove(con);
+
+			if (updates == null) {
+				return;
+			}
+
+			for (Object[] params : updates) {
+				int upc = ((Integer) params[1]).intValue();
+
+				stocks.put(Integer.valueOf(upc), Integer.valueOf(stock(upc) + ((Integer) params[0]).intValue()));
+			}
+		}
+
+		protected synchronized void rollback(Connection con) {
+			pending.remove(con);
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package ca.ubc.cs304.bench;
+
+// File: StubDatabase.java
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * StubDatabase stands in for Oracle, so that the benchmarks can run the
+ * program's own database code without a database. install() registers
+ * a JDBC driver that accepts any URL ahead of the Oracle driver and
+ * connects MvbOracleConnection through it. Its connections and
+ * statements are proxies that hand every query, update, batched update,
+ * commit and rollback to the methods below, which a benchmark overrides
+ * to keep the few tables it needs in memory. Anything else returns null,
+ * false or 0.
+ *
+ * Each statement can be made to take statementMicros, and each commit
+ * commitMicros, one commit at a time, as when commits wait for the redo
+ * log to be written.
+ */
+public class StubDatabase {
+	private static StubDatabase _database = null;
+
+	private static boolean registered = false;
+
+	private volatile long statementMicros = 0;
+	private volatile long commitMicros = 0;
+
+	// commits wait for each other, as for the redo log
+	private final Object log = new Object();
+
+	private AtomicLong statements = new AtomicLong();
+	private AtomicLong commits = new AtomicLong();
+
+	/*
+	 * Makes db the database MvbOracleConnection connects to.
+	 */
+	public static synchronized void install(StubDatabase db) throws SQLException {
+		_database = db;
+
+		if (!registered) {
+			DriverManager.registerDriver((Driver) proxy(Driver.class, new InvocationHandler() {
+				public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+					if (m.getName().equals("acceptsURL")) {
+						return Boolean.TRUE;
+					} else if (m.getName().equals("connect")) {
+						return database().connection();
+					} else if (m.getName().endsWith("Version")) {
+						return Integer.valueOf(1);
+					}
+
+					return standard(proxy, m, args);
+				}
+			}));
+
+			registered = true;
+		}
+
+		if (!MvbOracleConnection.getInstance().connect()) {
+			throw new SQLException("Could not connect to the stub database.");
+		}
+	}
+
+	private static synchronized StubDatabase database() {
+		return _database;
+	}
+
+	/*
+	 * Sets how long each statement and each commit takes.
+	 */
+	public void setLatency(long statementMicros, long commitMicros) {
+		this.statementMicros = statementMicros;
+		this.commitMicros = commitMicros;
+	}
+
+	/*
+	 * Returns the statements executed, counting a batch as one.
+	 */
+	public long getStatements() {
+		return statements.get();
+	}
+
+	/*
+	 * Returns the commits.
+	 */
+	public long getCommits() {
+		return commits.get();
+	}
+
+	/*
+	 * Sets the counts back to 0.
+	 */
+	public void resetCounts() {
+		statements.set(0);
+		commits.set(0);
+	}
+
+	/*
+	 * Answers a query; params[i] is parameter i + 1. Returns no rows
+	 * unless overridden.
+	 */
+	protected ResultSet query(Connection con, String sql, Object[] params) throws SQLException {
+		return rows();
+	}
+
+	/*
+	 * Runs an update, or one row of a batch, and returns the rows it
+	 * changed. Changes 1 row unless overridden.
+	 */
+	protected int update(Connection con, String sql, Object[] params) throws SQLException {
+		return 1;
+	}
+
+	/*
+	 * Commits the updates run on con.
+	 */
+	protected void commit(Connection con) throws SQLException {
+		// nothing is kept
+	}
+
+	/*
+	 * Rolls back the updates run on con.
+	 */
+	protected void rollback(Connection con) throws SQLException {
+		// nothing is kept
+	}
+
+	/*
+	 * Returns a result set of the given rows; getInt(i) and the other
+	 * getters return column i of the current row.
+	 */
+	public static ResultSet rows(final Object[]... rows) {
+		return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+			private int row = -1;
+			private boolean wasNull = false;
+
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				String name = m.getName();
+
+				if (name.equals("next")) {
+					return Boolean.valueOf(++row < rows.length);
+				} else if (name.equals("wasNull")) {
+					return Boolean.valueOf(wasNull);
+				} else if (name.startsWith("get") && args != null && args.length == 1
+						&& args[0] instanceof Integer) {
+					Object value = rows[row][((Integer) args[0]).intValue() - 1];
+
+					wasNull = (value == null);
+
+					if (value instanceof Number && m.getReturnType() == int.class) {
+						return Integer.valueOf(((Number) value).intValue());
+					} else if (value instanceof Number && m.getReturnType() == long.class) {
+						return Long.valueOf(((Number) value).longValue());
+					} else if (value instanceof Number && m.getReturnType() == double.class) {
+						return Double.valueOf(((Number) value).doubleValue());
+					} else if (value != null && m.getReturnType() == String.class) {
+						return value.toString();
+					} else if (value != null) {
+						return value;
+					}
+				}
+
+				return standard(proxy, m, args);
+			}
+		});
+	}
+
+	/*
+	 * Waits the given number of microseconds.
+	 */
+	public static void pause(long micros) {
+		if (micros <= 0) {
+			return;
+		}
+
+		long end = System.nanoTime() + micros * 1000;
+
+		try {
+			Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		// sleep() may wake up early
+		while (System.nanoTime() < end) {
+			Thread.yield();
+		}
+	}
+
+	/*
+	 * Returns a new connection.
+	 */
+	private Connection connection() {
+		final Connection[] con = new Connection[1];
+
+		con[0] = (Connection) proxy(Connection.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				String name = m.getName();
+
+				if (name.equals("prepareStatement")) {
+					return statement(con[0], (String) args[0]);
+				} else if (name.equals("createStatement")) {
+					return statement(con[0], null);
+				} else if (name.equals("commit")) {
+					commits.incrementAndGet();
+
+					synchronized (log) {
+						pause(commitMicros);
+						commit(con[0]);
+					}
+
+					return null;
+				} else if (name.equals("rollback")) {
+					rollback(con[0]);
+					return null;
+				}
+
+				return standard(proxy, m, args);
+			}
+		});
+
+		return con[0];
+	}
+
+	/*
+	 * Returns a new statement for sql, or one that is given its SQL when
+	 * executed if sql is null.
+	 */
+	private Statement statement(final Connection con, final String sql) {
+		Class<?> type = (sql == null ? Statement.class : PreparedStatement.class);
+
+		return (Statement) proxy(type, new InvocationHandler() {
+			private List<Object> params = new ArrayList<Object>();
+			private List<Object[]> batch = new ArrayList<Object[]>();
+
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				String name = m.getName();
+				String text = (args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+						: sql);
+
+				if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+					int i = ((Integer) args[0]).intValue();
+
+					while (params.size() < i) {
+						params.add(null);
+					}
+
+					params.set(i - 1, (name.equals("setNull") ? null : args[1]));
+					return null;
+				} else if (name.equals("clearParameters")) {
+					params.clear();
+					return null;
+				} else if (name.equals("addBatch")) {
+					batch.add(params.toArray());
+					return null;
+				} else if (name.equals("clearBatch")) {
+					batch.clear();
+					return null;
+				} else if (name.equals("executeQuery")) {
+					statements.incrementAndGet();
+					pause(statementMicros);
+					return query(con, text, params.toArray());
+				} else if (name.equals("executeUpdate")) {
+					statements.incrementAndGet();
+					pause(statementMicros);
+					return Integer.valueOf(update(con, text, params.toArray()));
+				} else if (name.equals("executeBatch")) {
+					statements.incrementAndGet();
+					pause(statementMicros);
+
+					int[] counts = new int[batch.size()];
+
+					for (int i = 0; i < counts.length; i++) {
+						counts[i] = update(con, text, batch.get(i));
+					}
+
+					batch.clear();
+					return counts;
+				} else if (name.equals("getConnection")) {
+					return con;
+				}
+
+				return standard(proxy, m, args);
+			}
+		});
+	}
+
+	private static Object proxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(StubDatabase.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	/*
+	 * Answers the methods of Object, and returns null, false or 0 for
+	 * anything else.
+	 */
+	private static Object standard(Object proxy, Method m, Object[] args) {
+		String name = m.getName();
+		Class<?> type = m.getReturnType();
+
+		if (name.equals("equals")) {
+			return Boolean.valueOf(proxy == args[0]);
+		} else if (name.equals("hashCode")) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		} else if (name.equals("toString")) {
+			return "Stub " + m.getDeclaringClass().getSimpleName();
+		} else if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return Integer.valueOf(0);
+		} else if (type == long.class) {
+			return Long.valueOf(0);
+		} else if (type == double.class) {
+			return Double.valueOf(0);
+		} else if (type == float.class) {
+			return Float.valueOf(0);
+		} else if (type == short.class) {
+			return Short.valueOf((short) 0);
+		} else if (type == byte.class) {
+			return Byte.valueOf((byte) 0);
+		}
+
+		return null;
+	}
+}
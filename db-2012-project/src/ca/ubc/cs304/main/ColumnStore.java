@@ -0,0 +1,756 @@
+package ca.ubc.cs304.main;
+
+// File: ColumnStore.java
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * ColumnStore holds the rows copied out of a result set column by
+ * column, so that CustomTableModel does not need a Vector and a boxed
+ * object for every cell. Each column is kept in the cheapest form that
+ * still gives back an equal object of the class getColumnClass()
+ * reports:
+ *
+ * - INTEGER, BIGINT, FLOAT and DOUBLE columns are primitive arrays.
+ * - NUMERIC and DECIMAL columns, which is what Oracle reports for every
+ *   NUMBER column, are kept as the unscaled long value and its scale,
+ *   e.g. a sellPrice of 12.99 is stored as 1299 with scale 2. Values
+ *   that do not fit in a long are kept as BigDecimals.
+ * - Character columns are dictionary encoded, so a category or type
+ *   column holds one int per row plus a handful of strings. A column
+ *   with too many distinct values, e.g. a title, switches to a plain
+ *   String array.
+ * - Anything else is kept as objects.
+ *
+ * Nulls are tracked in a BitSet per column. A value that does not fit a
+ * column's storage, e.g. a String set on a number column by the table
+ * editor, turns that column into an object column.
+ *
+ * ColumnStore is not thread safe.
+ */
+class ColumnStore {
+	// a character column with more distinct values than this is no
+	// longer dictionary encoded
+	static final int DICTIONARY_LIMIT = 1024;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Column[] columns;
+	private int size = 0;
+	private int capacity = INITIAL_CAPACITY;
+
+	/*
+	 * Creates an empty store for columns of the given java.sql.Types.
+	 * dateTime is CustomTableModel's choice of class for TIMESTAMP
+	 * columns.
+	 */
+	ColumnStore(int[] columnTypes, int dateTime) {
+		columns = new Column[columnTypes.length];
+
+		for (int i = 0; i < columnTypes.length; i++) {
+			columns[i] = newColumn(columnTypes[i], dateTime);
+			columns[i].grow(capacity);
+		}
+	}
+
+	private static Column newColumn(int type, int dateTime) {
+		switch (type) {
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+			return new StringColumn();
+
+		case Types.INTEGER:
+			return new IntColumn();
+
+		case Types.BIGINT:
+			return new LongColumn();
+
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return new DoubleColumn();
+
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return new DecimalColumn();
+
+		default:
+			return new ObjectColumn(type, dateTime);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	int getColumnCount() {
+		return columns.length;
+	}
+
+	/*
+	 * Appends the current row of the result set.
+	 */
+	void addRow(ResultSet rs) throws SQLException {
+		ensureCapacity();
+
+		for (int i = 0; i < columns.length; i++) {
+			// ResultSet columns start at 1 but array indices start at 0
+			columns[i].read(rs, i + 1, size);
+		}
+
+		size++;
+	}
+
+	/*
+	 * Appends a row of values, one per column.
+	 */
+	void addRow(Object[] values) {
+		ensureCapacity();
+
+		for (int i = 0; i < columns.length; i++) {
+			if (!columns[i].set(size, values[i])) {
+				columns[i] = new ObjectColumn(columns[i], size, capacity);
+				columns[i].set(size, values[i]);
+			}
+		}
+
+		size++;
+	}
+
+	/*
+	 * Appends the rows of another store with the same columns, e.g. a
+	 * chunk of rows read on another thread.
+	 */
+	void addRows(ColumnStore other) {
+		for (int row = 0; row < other.size; row++) {
+			ensureCapacity();
+
+			for (int i = 0; i < columns.length; i++) {
+				Object value = other.columns[i].get(row);
+
+				if (!columns[i].set(size, value)) {
+					columns[i] = new ObjectColumn(columns[i], size, capacity);
+					columns[i].set(size, value);
+				}
+			}
+
+			size++;
+		}
+	}
+
+	private void ensureCapacity() {
+		if (size == capacity) {
+			capacity *= 2;
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].grow(capacity);
+			}
+		}
+	}
+
+	Object get(int row, int column) {
+		if (row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+
+		return columns[column].get(row);
+	}
+
+	void set(int row, int column, Object value) {
+		if (row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+
+		if (!columns[column].set(row, value)) {
+			columns[column] = new ObjectColumn(columns[column], size, capacity);
+			columns[column].set(row, value);
+		}
+	}
+
+	/*
+	 * Returns a comparator that orders rows by the given columns, each
+	 * ascending or descending, with nulls first in ascending order. The
+	 * column types are resolved here, once, rather than on every
+	 * comparison.
+	 */
+	PermutationSort.RowComparator comparator(int[] keys, boolean[] ascending) {
+		final PermutationSort.RowComparator[] c = new PermutationSort.RowComparator[keys.length];
+		final boolean[] asc = ascending.clone();
+
+		for (int i = 0; i < keys.length; i++) {
+			c[i] = columns[keys[i]].comparator();
+		}
+
+		if (c.length == 1) {
+			final PermutationSort.RowComparator only = c[0];
+
+			if (asc[0]) {
+				return only;
+			}
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					return only.compare(row2, row1);
+				}
+			};
+		}
+
+		return new PermutationSort.RowComparator() {
+			public int compare(int row1, int row2) {
+				for (int i = 0; i < c.length; i++) {
+					int result = (asc[i] ? c[i].compare(row1, row2) : c[i].compare(row2, row1));
+
+					if (result != 0) {
+						return result;
+					}
+				}
+				return 0;
+			}
+		};
+	}
+
+	/*
+	 * Storage for one column. Rows are appended with read() in order; the
+	 * store grows every column before the first row that does not fit.
+	 */
+	abstract static class Column {
+		BitSet nulls = new BitSet();
+
+		abstract void grow(int capacity);
+
+		abstract void read(ResultSet rs, int index, int row) throws SQLException;
+
+		abstract Object get(int row);
+
+		/*
+		 * Stores a value edited in the table. Returns false if the value
+		 * cannot be stored in this column's form.
+		 */
+		abstract boolean set(int row, Object value);
+
+		/*
+		 * Returns a comparator for this column's rows in ascending order,
+		 * nulls first.
+		 */
+		abstract PermutationSort.RowComparator comparator();
+
+		/*
+		 * Orders a null before any value; returns 2 if neither row is null.
+		 */
+		int compareNulls(int row1, int row2) {
+			boolean null1 = nulls.get(row1);
+			boolean null2 = nulls.get(row2);
+
+			if (null1 || null2) {
+				return (null1 == null2 ? 0 : (null1 ? -1 : 1));
+			}
+			return 2;
+		}
+	}
+
+	static final class IntColumn extends Column {
+		int[] values = new int[0];
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			values[row] = rs.getInt(index);
+			if (rs.wasNull()) {
+				nulls.set(row);
+			}
+		}
+
+		Object get(int row) {
+			return nulls.get(row) ? null : Integer.valueOf(values[row]);
+		}
+
+		boolean set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+				return true;
+			}
+			if (!(value instanceof Integer)) {
+				return false;
+			}
+			values[row] = ((Integer) value).intValue();
+			nulls.clear(row);
+			return true;
+		}
+
+		PermutationSort.RowComparator comparator() {
+			final int[] v = values;
+			final boolean hasNulls = !nulls.isEmpty();
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					if (hasNulls) {
+						int result = compareNulls(row1, row2);
+						if (result != 2) {
+							return result;
+						}
+					}
+					return (v[row1] < v[row2] ? -1 : (v[row1] == v[row2] ? 0 : 1));
+				}
+			};
+		}
+	}
+
+	static final class LongColumn extends Column {
+		long[] values = new long[0];
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			values[row] = rs.getLong(index);
+			if (rs.wasNull()) {
+				nulls.set(row);
+			}
+		}
+
+		Object get(int row) {
+			return nulls.get(row) ? null : Long.valueOf(values[row]);
+		}
+
+		boolean set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+				return true;
+			}
+			if (!(value instanceof Long)) {
+				return false;
+			}
+			values[row] = ((Long) value).longValue();
+			nulls.clear(row);
+			return true;
+		}
+
+		PermutationSort.RowComparator comparator() {
+			final long[] v = values;
+			final boolean hasNulls = !nulls.isEmpty();
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					if (hasNulls) {
+						int result = compareNulls(row1, row2);
+						if (result != 2) {
+							return result;
+						}
+					}
+					return (v[row1] < v[row2] ? -1 : (v[row1] == v[row2] ? 0 : 1));
+				}
+			};
+		}
+	}
+
+	static final class DoubleColumn extends Column {
+		double[] values = new double[0];
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			values[row] = rs.getDouble(index);
+			if (rs.wasNull()) {
+				nulls.set(row);
+			}
+		}
+
+		Object get(int row) {
+			return nulls.get(row) ? null : Double.valueOf(values[row]);
+		}
+
+		boolean set(int row, Object value) {
+			if (value == null) {
+				nulls.set(row);
+				return true;
+			}
+			if (!(value instanceof Double)) {
+				return false;
+			}
+			values[row] = ((Double) value).doubleValue();
+			nulls.clear(row);
+			return true;
+		}
+
+		PermutationSort.RowComparator comparator() {
+			final double[] v = values;
+			final boolean hasNulls = !nulls.isEmpty();
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					if (hasNulls) {
+						int result = compareNulls(row1, row2);
+						if (result != 2) {
+							return result;
+						}
+					}
+					return Double.compare(v[row1], v[row2]);
+				}
+			};
+		}
+	}
+
+	/*
+	 * A NUMERIC column as unscaled longs. Most columns have a single
+	 * scale, e.g. 0 for a upc or stock count, so the scale is kept once;
+	 * a byte per row is only added when the first row with a different
+	 * scale shows up. Values too large for a long go into an overflow
+	 * map so that one odd value does not cost the whole column.
+	 */
+	static final class DecimalColumn extends Column {
+		long[] unscaled = new long[0];
+		int scale = Integer.MIN_VALUE;
+		byte[] scales = null;
+		Map<Integer, BigDecimal> overflow = null;
+
+		void grow(int capacity) {
+			unscaled = Arrays.copyOf(unscaled, capacity);
+			if (scales != null) {
+				scales = Arrays.copyOf(scales, capacity);
+			}
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			put(row, rs.getBigDecimal(index));
+		}
+
+		private void put(int row, BigDecimal value) {
+			if (overflow != null) {
+				overflow.remove(Integer.valueOf(row));
+			}
+
+			if (value == null) {
+				nulls.set(row);
+				return;
+			}
+
+			nulls.clear(row);
+
+			int s = value.scale();
+			BigInteger u = value.unscaledValue();
+
+			if (u.bitLength() > 63 || s < Byte.MIN_VALUE || s > Byte.MAX_VALUE) {
+				if (overflow == null) {
+					overflow = new HashMap<Integer, BigDecimal>();
+				}
+				overflow.put(Integer.valueOf(row), value);
+				return;
+			}
+
+			if (scale == Integer.MIN_VALUE) {
+				scale = s;
+			}
+
+			if (s != scale && scales == null) {
+				scales = new byte[unscaled.length];
+				Arrays.fill(scales, (byte) scale);
+			}
+
+			unscaled[row] = u.longValue();
+			if (scales != null) {
+				scales[row] = (byte) s;
+			}
+		}
+
+		Object get(int row) {
+			if (nulls.get(row)) {
+				return null;
+			}
+
+			if (overflow != null) {
+				BigDecimal big = overflow.get(Integer.valueOf(row));
+				if (big != null) {
+					return big;
+				}
+			}
+
+			return BigDecimal.valueOf(unscaled[row], scales == null ? scale : scales[row]);
+		}
+
+		boolean set(int row, Object value) {
+			if (value != null && !(value instanceof BigDecimal)) {
+				return false;
+			}
+			put(row, (BigDecimal) value);
+			return true;
+		}
+
+		/*
+		 * With a single scale and no overflow the unscaled values compare
+		 * like the numbers; otherwise the BigDecimals are compared.
+		 */
+		PermutationSort.RowComparator comparator() {
+			final long[] v = unscaled;
+			final boolean hasNulls = !nulls.isEmpty();
+
+			if (scales == null && overflow == null) {
+				return new PermutationSort.RowComparator() {
+					public int compare(int row1, int row2) {
+						if (hasNulls) {
+							int result = compareNulls(row1, row2);
+							if (result != 2) {
+								return result;
+							}
+						}
+						return (v[row1] < v[row2] ? -1 : (v[row1] == v[row2] ? 0 : 1));
+					}
+				};
+			}
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					if (hasNulls) {
+						int result = compareNulls(row1, row2);
+						if (result != 2) {
+							return result;
+						}
+					}
+					return ((BigDecimal) get(row1)).compareTo((BigDecimal) get(row2));
+				}
+			};
+		}
+	}
+
+	/*
+	 * A character column, dictionary encoded until it has more than
+	 * DICTIONARY_LIMIT distinct values and a plain array after that.
+	 * Code -1 is a null.
+	 */
+	static final class StringColumn extends Column {
+		int[] codes = new int[0];
+		List<String> dictionary = new ArrayList<String>();
+		Map<String, Integer> codeOf = new HashMap<String, Integer>();
+
+		// the values once the column is no longer dictionary encoded
+		String[] plain = null;
+
+		void grow(int capacity) {
+			if (plain != null) {
+				plain = Arrays.copyOf(plain, capacity);
+			} else {
+				codes = Arrays.copyOf(codes, capacity);
+			}
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			put(row, rs.getString(index));
+		}
+
+		private void put(int row, String value) {
+			if (plain != null) {
+				plain[row] = value;
+				return;
+			}
+
+			if (value == null) {
+				codes[row] = -1;
+				return;
+			}
+
+			Integer code = codeOf.get(value);
+
+			if (code == null) {
+				if (dictionary.size() == DICTIONARY_LIMIT) {
+					decode();
+					plain[row] = value;
+					return;
+				}
+
+				code = Integer.valueOf(dictionary.size());
+				dictionary.add(value);
+				codeOf.put(value, code);
+			}
+
+			codes[row] = code.intValue();
+		}
+
+		/*
+		 * Switches to a plain array. Rows past the last one written are
+		 * decoded too, which is harmless since they are overwritten.
+		 */
+		private void decode() {
+			plain = new String[codes.length];
+
+			for (int i = 0; i < codes.length; i++) {
+				plain[i] = (codes[i] < 0 ? null : dictionary.get(codes[i]));
+			}
+
+			codes = null;
+			dictionary = null;
+			codeOf = null;
+		}
+
+		Object get(int row) {
+			if (plain != null) {
+				return plain[row];
+			}
+			return codes[row] < 0 ? null : dictionary.get(codes[row]);
+		}
+
+		boolean set(int row, Object value) {
+			if (value != null && !(value instanceof String)) {
+				return false;
+			}
+			put(row, (String) value);
+			return true;
+		}
+
+		/*
+		 * A dictionary encoded column sorts the dictionary once and then
+		 * compares the ranks of the codes.
+		 */
+		PermutationSort.RowComparator comparator() {
+			if (plain != null) {
+				final String[] v = plain;
+
+				return new PermutationSort.RowComparator() {
+					public int compare(int row1, int row2) {
+						if (v[row1] == null || v[row2] == null) {
+							return (v[row1] == v[row2] ? 0 : (v[row1] == null ? -1 : 1));
+						}
+						return v[row1].compareTo(v[row2]);
+					}
+				};
+			}
+
+			String[] sorted = dictionary.toArray(new String[dictionary.size()]);
+			Arrays.sort(sorted);
+
+			// rank[code + 1] is the position of the code's string in sorted
+			// order; code -1, a null, gets rank 0
+			final int[] rank = new int[sorted.length + 1];
+			for (int i = 0; i < sorted.length; i++) {
+				rank[codeOf.get(sorted[i]).intValue() + 1] = i + 1;
+			}
+
+			final int[] v = codes;
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					return rank[v[row1] + 1] - rank[v[row2] + 1];
+				}
+			};
+		}
+	}
+
+	/*
+	 * Any other column, and any column that had a value set on it that
+	 * its own storage cannot hold.
+	 */
+	static final class ObjectColumn extends Column {
+		Object[] values = new Object[0];
+		int type;
+		int dateTime;
+
+		ObjectColumn(int type, int dateTime) {
+			this.type = type;
+			this.dateTime = dateTime;
+		}
+
+		/*
+		 * Copies the values of another column.
+		 */
+		ObjectColumn(Column column, int size, int capacity) {
+			values = new Object[capacity];
+			for (int i = 0; i < size; i++) {
+				values[i] = column.get(i);
+			}
+		}
+
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		void read(ResultSet rs, int index, int row) throws SQLException {
+			Object o;
+
+			switch (type) {
+			// mappings are based on Table 3 in JDBC/Oracle
+			// Tutorial 1
+
+			case Types.SMALLINT:
+				short sh = rs.getShort(index);
+				o = (rs.wasNull() ? null : Short.valueOf(sh));
+				break;
+
+			case Types.TINYINT:
+				byte b = rs.getByte(index);
+				o = (rs.wasNull() ? null : Byte.valueOf(b));
+				break;
+
+			case Types.REAL:
+				float f = rs.getFloat(index);
+				o = (rs.wasNull() ? null : Float.valueOf(f));
+				break;
+
+			case Types.BIT:
+				boolean bo = rs.getBoolean(index);
+				o = (rs.wasNull() ? null : Boolean.valueOf(bo));
+				break;
+
+			case Types.DATE:
+				o = rs.getDate(index);
+				break;
+
+			case Types.TIMESTAMP:
+				if (dateTime == Types.TIMESTAMP) {
+					o = rs.getTimestamp(index);
+				} else if (dateTime == Types.TIME) {
+					o = rs.getTime(index);
+				} else {
+					o = rs.getDate(index);
+				}
+				break;
+
+			case Types.TIME:
+				o = rs.getTime(index);
+				break;
+
+			default:
+				o = rs.getObject(index);
+				break;
+			}
+
+			values[row] = o;
+		}
+
+		Object get(int row) {
+			return values[row];
+		}
+
+		boolean set(int row, Object value) {
+			values[row] = value;
+			return true;
+		}
+
+		PermutationSort.RowComparator comparator() {
+			final Object[] v = values;
+
+			return new PermutationSort.RowComparator() {
+				public int compare(int row1, int row2) {
+					Object o1 = v[row1];
+					Object o2 = v[row2];
+
+					if (o1 == null || o2 == null) {
+						return (o1 == o2 ? 0 : (o1 == null ? -1 : 1));
+					}
+					if (o1 instanceof Comparable && o1.getClass() == o2.getClass()) {
+						// o2 is of o1's class, so o1 can compare itself to it
+						@SuppressWarnings("unchecked")
+						Comparable<Object> c = (Comparable<Object>) o1;
+
+						return c.compareTo(o2);
+					}
+					return o1.toString().compareTo(o2.toString());
+				}
+			};
+		}
+	}
+}
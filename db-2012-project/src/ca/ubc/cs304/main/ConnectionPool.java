@@ -0,0 +1,643 @@
+package ca.ubc.cs304.main;
+
+// File: ConnectionPool.java
+
+import java.sql.*;
+import java.util.*;
+
+import javax.swing.event.EventListenerList;
+
+/*
+ * ConnectionPool is a bounded pool of database connections. Callers
+ * borrow a connection with getConnection() for the length of one
+ * operation and hand it back with releaseConnection(). This lets clerk,
+ * customer and manager work run on separate JDBC sessions instead of
+ * queueing up behind a single shared connection.
+ *
+ * The pool keeps at least minSize connections open and never opens more
+ * than maxSize. Idle connections above minSize are closed after
+ * idleTimeout milliseconds. When validateOnBorrow is set, an idle
+ * connection is checked with a cheap query before it is handed out and
+ * replaced if it has gone stale. Every borrow records the borrowing
+ * thread and call site, and a connection that is held for longer than
+ * leakThreshold milliseconds is reported to the registered
+ * ExceptionListeners as a possible leak.
+ *
+ * All connections are opened with auto commit off. A connection that is
+ * released with uncommitted work is rolled back before it is reused.
+ *
+ * Each connection has its own StatementCache. Statements prepared through
+ * prepareStatement() are returned to that cache by closeStatement() and
+ * reused the next time the same SQL is prepared on the connection.
+ */
+public class ConnectionPool {
+	public static final int DEFAULT_MIN_SIZE = 2;
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+	public static final long DEFAULT_BORROW_TIMEOUT = 10 * 1000;
+	public static final long DEFAULT_LEAK_THRESHOLD = 2 * 60 * 1000;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 20;
+
+	// how often the housekeeping task evicts idle connections and looks for leaks
+	private static final long HOUSEKEEPING_PERIOD = 30 * 1000;
+
+	// Oracle does not support JDBC 4's Connection.isValid() in this driver
+	private static final String VALIDATION_QUERY = "SELECT 1 FROM dual";
+
+	private String url;
+	private String username;
+	private String password;
+
+	private int minSize = DEFAULT_MIN_SIZE;
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+	private long leakThreshold = DEFAULT_LEAK_THRESHOLD;
+	private boolean validateOnBorrow = true;
+	private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+	// idle connections; the most recently used connection is at the front
+	private LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+	// borrowed connections keyed by the physical connection
+	private Map<Connection, PooledConnection> leased = new IdentityHashMap<Connection, PooledConnection>();
+
+	// every open connection, borrowed or idle, keyed by the physical connection
+	private Map<Connection, PooledConnection> all = new IdentityHashMap<Connection, PooledConnection>();
+
+	// statement cache counters of connections that have been closed
+	private long retiredHits = 0;
+	private long retiredMisses = 0;
+
+	// number of open connections, including ones that are being opened
+	private int totalCount = 0;
+
+	private boolean closed = false;
+	private Timer housekeeper = null;
+
+	protected EventListenerList listenerList = new EventListenerList();
+
+	/*
+	 * Creates a pool for the given database. No connections are opened
+	 * until open() is called.
+	 */
+	public ConnectionPool(String url, String username, String password) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+	}
+
+	/*
+	 * Opens minSize connections and starts the housekeeping task. Throws
+	 * an SQLException if the first connection cannot be opened.
+	 */
+	public void open() throws SQLException {
+		synchronized (this) {
+			closed = false;
+		}
+
+		fill();
+
+		housekeeper = new Timer("ConnectionPool housekeeper", true);
+		housekeeper.schedule(new TimerTask() {
+			public void run() {
+				evictIdle();
+				reportLeaks();
+				try {
+					fill();
+				} catch (SQLException ex) {
+					fireExceptionGenerated(new ExceptionEvent(ConnectionPool.this, ex.getMessage()));
+				}
+			}
+		}, HOUSEKEEPING_PERIOD, HOUSEKEEPING_PERIOD);
+	}
+
+	/*
+	 * Borrows a connection from the pool, waiting up to borrowTimeout
+	 * milliseconds for one to be released if maxSize connections are in
+	 * use. The connection must be handed back with releaseConnection().
+	 */
+	public Connection getConnection() throws SQLException {
+		long deadline = System.currentTimeMillis() + borrowTimeout;
+
+		while (true) {
+			PooledConnection pc = null;
+			boolean create = false;
+
+			synchronized (this) {
+				if (closed) {
+					throw new SQLException("The connection pool is closed");
+				}
+
+				if (!idle.isEmpty()) {
+					pc = idle.removeFirst();
+				} else if (totalCount < maxSize) {
+					totalCount++;
+					create = true;
+				} else {
+					long wait = deadline - System.currentTimeMillis();
+
+					if (wait <= 0) {
+						throw new SQLException("Timed out waiting for a database connection; all "
+								+ maxSize + " connections are in use");
+					}
+
+					try {
+						wait(wait);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection");
+					}
+					continue;
+				}
+			}
+
+			if (create) {
+				pc = newPooledConnection();
+			} else if (validateOnBorrow && !isValid(pc.con)) {
+				discard(pc);
+				continue;
+			}
+
+			synchronized (this) {
+				pc.borrowedAt = System.currentTimeMillis();
+				pc.borrower = Thread.currentThread();
+				pc.borrowSite = new Throwable("Connection borrowed here");
+				pc.leakReported = false;
+				leased.put(pc.con, pc);
+			}
+
+			return pc.con;
+		}
+	}
+
+	/*
+	 * Hands a borrowed connection back to the pool. Uncommitted work on
+	 * the connection is rolled back. Passing null or a connection that
+	 * did not come from this pool does nothing.
+	 */
+	public void releaseConnection(Connection con) {
+		if (con == null) {
+			return;
+		}
+
+		PooledConnection pc;
+
+		synchronized (this) {
+			pc = leased.remove(con);
+		}
+
+		if (pc == null) {
+			return;
+		}
+
+		pc.borrower = null;
+		pc.borrowSite = null;
+
+		// statements the caller did not close go back to the cache
+		pc.statements.checkInAll();
+
+		try {
+			con.rollback();
+		} catch (SQLException ex) {
+			// the connection is broken, so do not reuse it
+			discard(pc);
+			return;
+		}
+
+		synchronized (this) {
+			if (closed) {
+				totalCount--;
+				retire(pc);
+				return;
+			}
+
+			pc.lastUsed = System.currentTimeMillis();
+			idle.addFirst(pc);
+			notifyAll();
+		}
+	}
+
+	/*
+	 * Closes all idle connections and stops the housekeeping task.
+	 * Borrowed connections are closed when they are released.
+	 */
+	public void close() {
+		List<PooledConnection> toClose;
+
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<PooledConnection>(idle);
+			totalCount -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+
+		if (housekeeper != null) {
+			housekeeper.cancel();
+			housekeeper = null;
+		}
+
+		for (PooledConnection pc : toClose) {
+			retire(pc);
+		}
+
+		// the counters are final once the pool is closed
+		fireExceptionGenerated(new ExceptionEvent(this, "Connection pool closed. " + getStatistics()));
+	}
+
+	/*
+	 * Returns a prepared statement for the given SQL on a borrowed
+	 * connection, reusing one from the connection's statement cache if
+	 * possible. The statement must be handed back with closeStatement().
+	 */
+	public PreparedStatement prepareStatement(Connection con, String sql, int type, int concurrency)
+			throws SQLException {
+		PooledConnection pc;
+
+		synchronized (this) {
+			pc = all.get(con);
+		}
+
+		if (pc == null) {
+			return con.prepareStatement(sql, type, concurrency);
+		}
+
+		return pc.statements.prepare(sql, type, concurrency);
+	}
+
+	/*
+	 * Returns a statement obtained from prepareStatement() to its
+	 * connection's cache. Any other statement is simply closed.
+	 */
+	public void closeStatement(Statement stmt) {
+		if (stmt instanceof PreparedStatement) {
+			PooledConnection pc = null;
+
+			try {
+				Connection con = stmt.getConnection();
+
+				synchronized (this) {
+					pc = all.get(con);
+				}
+			} catch (SQLException ex) {
+				// the statement is already closed or broken; close it below
+			}
+
+			if (pc != null && pc.statements.checkIn((PreparedStatement) stmt)) {
+				return;
+			}
+		}
+
+		try {
+			stmt.close();
+		} catch (SQLException ex) {
+			// nothing useful can be done if close fails
+		}
+	}
+
+	/*
+	 * Cancels the statements that are executing on connections borrowed
+	 * by the given thread. Used to stop a background query that the user
+	 * no longer wants.
+	 */
+	public void cancelStatements(Thread borrower) {
+		List<PooledConnection> borrowed = new ArrayList<PooledConnection>();
+
+		synchronized (this) {
+			for (PooledConnection pc : leased.values()) {
+				if (pc.borrower == borrower) {
+					borrowed.add(pc);
+				}
+			}
+		}
+
+		for (PooledConnection pc : borrowed) {
+			pc.statements.cancelCheckedOut();
+		}
+	}
+
+	/*
+	 * Opens connections until the pool holds at least minSize of them.
+	 */
+	private void fill() throws SQLException {
+		while (true) {
+			synchronized (this) {
+				if (closed || totalCount >= minSize) {
+					return;
+				}
+				totalCount++;
+			}
+
+			PooledConnection pc = newPooledConnection();
+
+			synchronized (this) {
+				pc.lastUsed = System.currentTimeMillis();
+				idle.addLast(pc);
+				notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Opens a new connection with its own statement cache. The caller
+	 * must already have counted it in totalCount.
+	 */
+	private PooledConnection newPooledConnection() throws SQLException {
+		PooledConnection pc = new PooledConnection(openConnection());
+
+		synchronized (this) {
+			pc.statements = new StatementCache(pc.con, statementCacheSize);
+			all.put(pc.con, pc);
+		}
+
+		return pc;
+	}
+
+	/*
+	 * Opens a new physical connection. The caller must already have
+	 * counted it in totalCount; the count is given back if opening fails.
+	 */
+	private Connection openConnection() throws SQLException {
+		try {
+			Connection con = DriverManager.getConnection(url, username, password);
+			con.setAutoCommit(false);
+			return con;
+		} catch (SQLException ex) {
+			synchronized (this) {
+				totalCount--;
+				notifyAll();
+			}
+			throw ex;
+		}
+	}
+
+	/*
+	 * Returns true if the connection still answers a trivial query.
+	 */
+	private boolean isValid(Connection con) {
+		Statement stmt = null;
+
+		try {
+			stmt = con.createStatement();
+			stmt.executeQuery(VALIDATION_QUERY).close();
+			return true;
+		} catch (SQLException ex) {
+			return false;
+		} finally {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException ex) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/*
+	 * Closes a connection that will not be reused and frees its slot.
+	 */
+	private void discard(PooledConnection pc) {
+		retire(pc);
+
+		synchronized (this) {
+			totalCount--;
+			notifyAll();
+		}
+	}
+
+	/*
+	 * Closes idle connections that have not been used for idleTimeout
+	 * milliseconds, as long as more than minSize connections are open.
+	 * The least recently used connections are at the back of the list.
+	 */
+	private void evictIdle() {
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			while (totalCount > minSize && !idle.isEmpty()
+					&& now - idle.getLast().lastUsed > idleTimeout) {
+				toClose.add(idle.removeLast());
+				totalCount--;
+			}
+		}
+
+		for (PooledConnection pc : toClose) {
+			retire(pc);
+		}
+	}
+
+	/*
+	 * Reports connections that have been borrowed for longer than
+	 * leakThreshold milliseconds. Each borrow is reported at most once.
+	 */
+	private void reportLeaks() {
+		List<String> messages = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			for (PooledConnection pc : leased.values()) {
+				if (!pc.leakReported && now - pc.borrowedAt > leakThreshold) {
+					pc.leakReported = true;
+					messages.add("Possible connection leak: a connection has been held for "
+							+ (now - pc.borrowedAt) / 1000 + "s by thread "
+							+ (pc.borrower != null ? pc.borrower.getName() : "?")
+							+ ", borrowed at " + describeBorrowSite(pc.borrowSite));
+				}
+			}
+		}
+
+		for (String message : messages) {
+			fireExceptionGenerated(new ExceptionEvent(this, message));
+		}
+	}
+
+	/*
+	 * Returns the first stack frame of the borrow site that is outside
+	 * the connection classes, i.e. the model method that borrowed it.
+	 */
+	private String describeBorrowSite(Throwable site) {
+		if (site == null) {
+			return "unknown";
+		}
+
+		StackTraceElement[] frames = site.getStackTrace();
+
+		for (int i = 0; i < frames.length; i++) {
+			String className = frames[i].getClassName();
+
+			if (!className.equals(ConnectionPool.class.getName())
+					&& !className.equals(MvbOracleConnection.class.getName())) {
+				return frames[i].toString();
+			}
+		}
+
+		return "unknown";
+	}
+
+	/*
+	 * Closes a connection and its cached statements, keeping the
+	 * statement cache counters for getStatementCacheHits().
+	 */
+	private void retire(PooledConnection pc) {
+		pc.statements.closeAll();
+
+		synchronized (this) {
+			all.remove(pc.con);
+			retiredHits += pc.statements.getHits();
+			retiredMisses += pc.statements.getMisses();
+		}
+
+		closeQuietly(pc.con);
+	}
+
+	private void closeQuietly(Connection con) {
+		try {
+			con.close();
+		} catch (SQLException ex) {
+			// ignore; the connection is being thrown away
+		}
+	}
+
+	/*
+	 * Returns the number of connections that are currently borrowed.
+	 */
+	public synchronized int getActiveCount() {
+		return leased.size();
+	}
+
+	/*
+	 * Returns the number of open connections that are not borrowed.
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	public synchronized void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public synchronized void setBorrowTimeout(long borrowTimeout) {
+		this.borrowTimeout = borrowTimeout;
+	}
+
+	public synchronized void setLeakThreshold(long leakThreshold) {
+		this.leakThreshold = leakThreshold;
+	}
+
+	public synchronized void setValidateOnBorrow(boolean validateOnBorrow) {
+		this.validateOnBorrow = validateOnBorrow;
+	}
+
+	/*
+	 * Sets the number of idle statements kept per connection.
+	 */
+	public synchronized void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+
+		for (PooledConnection pc : all.values()) {
+			pc.statements.setMaxSize(statementCacheSize);
+		}
+	}
+
+	/*
+	 * Returns the number of prepareStatement() calls, over all
+	 * connections, that were served from a statement cache.
+	 */
+	public synchronized long getStatementCacheHits() {
+		long hits = retiredHits;
+
+		for (PooledConnection pc : all.values()) {
+			hits += pc.statements.getHits();
+		}
+
+		return hits;
+	}
+
+	/*
+	 * Returns the number of prepareStatement() calls, over all
+	 * connections, that had to prepare a new statement.
+	 */
+	public synchronized long getStatementCacheMisses() {
+		long misses = retiredMisses;
+
+		for (PooledConnection pc : all.values()) {
+			misses += pc.statements.getMisses();
+		}
+
+		return misses;
+	}
+
+	/*
+	 * Returns a one line summary of the pool's connections and statement
+	 * cache counters, e.g. for the status bar.
+	 */
+	public synchronized String getStatistics() {
+		long hits = getStatementCacheHits();
+		long misses = getStatementCacheMisses();
+		long total = hits + misses;
+
+		return "Connections: " + getActiveCount() + " in use, " + getIdleCount() + " idle. "
+				+ "Statement cache: " + hits + " hits, " + misses + " misses"
+				+ (total == 0 ? "." : " (" + (hits * 100 / total) + "% hits).");
+	}
+
+	/******************************************************************************
+	 * Below are the methods to add and remove ExceptionListeners.
+	 *
+	 * Connection leaks and housekeeping failures are sent to all registered
+	 * ExceptionListeners. Note that these events are fired on the pool's
+	 * housekeeping thread, not on the event dispatch thread.
+	 ******************************************************************************/
+
+	public void addExceptionListener(ExceptionListener l) {
+		listenerList.add(ExceptionListener.class, l);
+	}
+
+	public void removeExceptionListener(ExceptionListener l) {
+		listenerList.remove(ExceptionListener.class, l);
+	}
+
+	/*
+	 * This method notifies all registered ExceptionListeners. The code below is
+	 * similar to the example in the Java 2 API documentation for the
+	 * EventListenerList class.
+	 */
+	public void fireExceptionGenerated(ExceptionEvent ex) {
+		// Guaranteed to return a non-null array
+		Object[] listeners = listenerList.getListenerList();
+
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == ExceptionListener.class) {
+				((ExceptionListener) listeners[i + 1]).exceptionGenerated(ex);
+			}
+		}
+	}
+
+	/*
+	 * A physical connection and its bookkeeping.
+	 */
+	private static class PooledConnection {
+		Connection con;
+		StatementCache statements;
+		long lastUsed;
+		long borrowedAt;
+		Thread borrower;
+		Throwable borrowSite;
+		boolean leakReported;
+
+		PooledConnection(Connection con) {
+			this.con = con;
+		}
+	}
+}
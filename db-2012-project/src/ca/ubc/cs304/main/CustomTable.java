@@ -7,7 +7,12 @@ import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.table.*; 
 import java.text.*; 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
 import javax.swing.event.EventListenerList;
+import javax.swing.event.TableModelEvent;
 
 
 /*
@@ -22,6 +27,21 @@ public class CustomTable extends JTable
     protected CustomTableModel model = null;
     protected EventListenerList listenerList = new EventListenerList();
 
+    // background colours of edited cells that have not been written
+    // and of rows that could not be written because of a conflict
+    private static final Color EDITED_COLOR = new Color(255, 250, 190);
+    private static final Color CONFLICT_COLOR = new Color(255, 200, 200);
+
+    // initColumnSizes() measures this many rows at the start of the
+    // table, as many at the end, and up to as many picked at random
+    private static final int SAMPLE_ROWS = 50;
+
+    // measured cell widths by column class and length of the cell's text
+    private Map<Class<?>, Map<Integer, Integer>> measuredWidths = new HashMap<Class<?>, Map<Integer, Integer>>();
+
+    // columns to be widened once the current paint is done
+    private Map<TableColumn, Integer> pendingWidths = new HashMap<TableColumn, Integer>();
+
 
     /*
      * Parameterized constructor. Accepts a
@@ -40,17 +60,18 @@ public class CustomTable extends JTable
 	// there are many columns
 	setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
 
-	// The CustomTableModel inner class Sorter sorts a column in
-	// ascending order when the column's header is double clicked. 
-	// If the shift key is held down during the clicks, the 
-	// column will be sorted in descending order. 
+	// The CustomTableModel inner class Sorter sorts by a column 
+	// when the column's header is double clicked, and reverses the
+	// order when it is double clicked again. If the shift key is 
+	// held down during the clicks, the column is added as another
+	// sort key. 
 	(model.new Sorter(this)).addMouseListenerToHeader();
 
 	// Inform user that the table columns can be sorted
-	// if the table model is not updatable
-	if (!model.isCellEditable(0,0))
+	// if the table model is sortable
+	if (model.isSortable)
 	{
-	    getTableHeader().setToolTipText("Double click to sort");
+	    getTableHeader().setToolTipText("Double click to sort, shift double click to sort by more columns");
 	}
 
 	CellMouseListener cellListener = new CellMouseListener(this);
@@ -66,11 +87,76 @@ public class CustomTable extends JTable
     }
 
 
+    /*
+     * Returns the CustomTableModel displayed by this table
+     */ 
+    public CustomTableModel getCustomModel()
+    {
+	return model; 
+    }
+
+
+    /*
+     * Picks the column widths again when the first rows of a streamed
+     * model arrive, since the table was sized for its headers alone.
+     */ 
+    public void tableChanged(TableModelEvent e)
+    {
+	super.tableChanged(e);
+
+	// JTable's constructor calls this before model is set
+	if (model != null && e.getType() == TableModelEvent.INSERT && e.getFirstRow() == 0)
+	{
+	    initColumnSizes();
+	}
+    }
+
+
+    /*
+     * Widens the column if the cell does not fit, and highlights the
+     * cells whose edits have not been applied yet and the rows that 
+     * could not be applied because of a conflict. Selected cells keep 
+     * the selection colours.
+     */ 
+    public Component prepareRenderer(TableCellRenderer renderer, int row, int column)
+    {
+	Component comp = super.prepareRenderer(renderer, row, column);
+
+	fitCell(comp, row, column);
+
+	if (!model.isBufferingEdits() || isCellSelected(row, column))
+	{
+	    return comp;
+	}
+
+	int modelColumn = convertColumnIndexToModel(column);
+
+	if (model.isRowInConflict(row))
+	{
+	    comp.setBackground(CONFLICT_COLOR);
+	}
+	else if (model.isCellEdited(row, modelColumn))
+	{
+	    comp.setBackground(EDITED_COLOR);
+	}
+	else
+	{
+	    // renderers are shared, so undo the colour of the last cell
+	    comp.setBackground(getBackground());
+	}
+
+	return comp;
+    }
+
+
     /*
      * This method picks good column widths. It is a modified
      * version of initColumnSizes() in TableRenderDemo.java in
-     * Sun's Swing tutorial. It works only with Java 2 SDK versions
-     * 1.3 or greater.
+     * Sun's Swing tutorial. Instead of rendering every cell, which 
+     * takes far too long on a large table, it measures a sample of
+     * rows: the first and last SAMPLE_ROWS rows and SAMPLE_ROWS rows
+     * in between picked at random. Rows outside the sample widen 
+     * their column when they are painted, see prepareRenderer().
      */
     private void initColumnSizes() 
     {
@@ -83,17 +169,13 @@ public class CustomTable extends JTable
         Component comp = null;
 
 	int numColumns = getColumnCount();
-	int numRows = getRowCount();
+	int[] rows = sampleRows(getRowCount());
 	int headerWidth = 0;
 
 	// cellWidth will store the width of the widest cell 
 	// in each column
 	int cellWidth = 0;
 
-	int temp = 0;
-
-	// this is not the most efficient way of finding the widest 
-	// cell in each column
         for (int i = 0; i < numColumns; i++) 
 	{
             column = getColumnModel().getColumn(i);
@@ -104,18 +186,18 @@ public class CustomTable extends JTable
                            
 	    headerWidth = comp.getPreferredSize().width; 
          
-	    for (int j = 0; j < numRows; j++)
+	    for (int k = 0; k < rows.length; k++)
 	    {
-		comp = getDefaultRenderer(model.getColumnClass(i)).
-		    getTableCellRendererComponent(this, getValueAt(j,i),
-						  false, false, j, i);
+		int j = rows[k];
 
-		temp = comp.getPreferredSize().width;
-
-		if (temp > cellWidth)
+		// rows that are not loaded yet are skipped rather than 
+		// fetched from the database just to be measured
+		if (!model.isRowLoaded(j))
 		{
-		    cellWidth = temp;
+		    continue; 
 		}
+
+		cellWidth = Math.max(cellWidth, cellWidth(null, getValueAt(j,i), j, i));
 	    }
 
 	    // the 20 is for extra padding
@@ -125,6 +207,133 @@ public class CustomTable extends JTable
     }
 
 
+    /*
+     * Returns the rows measured by initColumnSizes(), in order and
+     * without duplicates.
+     */ 
+    private int[] sampleRows(int numRows)
+    {
+	if (numRows <= 3 * SAMPLE_ROWS)
+	{
+	    int[] rows = new int[numRows];
+
+	    for (int j = 0; j < numRows; j++)
+	    {
+		rows[j] = j;
+	    }
+
+	    return rows;
+	}
+
+	TreeSet<Integer> sample = new TreeSet<Integer>();
+	Random random = new Random();
+
+	for (int j = 0; j < SAMPLE_ROWS; j++)
+	{
+	    sample.add(Integer.valueOf(j));
+	    sample.add(Integer.valueOf(numRows - 1 - j));
+	    sample.add(Integer.valueOf(SAMPLE_ROWS + random.nextInt(numRows - 2 * SAMPLE_ROWS)));
+	}
+
+	int[] rows = new int[sample.size()];
+	int k = 0;
+
+	for (Integer row : sample)
+	{
+	    rows[k++] = row.intValue();
+	}
+
+	return rows;
+    }
+
+
+    /*
+     * Returns the preferred width of the given cell. Cells of the same
+     * class whose text is equally long are taken to be equally wide,
+     * so a width is only measured once per class and length. comp is
+     * the cell's renderer component if the caller already has it, or
+     * null.
+     */ 
+    private int cellWidth(Component comp, Object value, int row, int column)
+    {
+	Class<?> columnClass = getColumnClass(column);
+	Integer length = Integer.valueOf(value == null ? 0 : value.toString().length());
+	Map<Integer, Integer> widths = measuredWidths.get(columnClass);
+
+	if (widths == null)
+	{
+	    widths = new HashMap<Integer, Integer>();
+	    measuredWidths.put(columnClass, widths);
+	}
+
+	Integer width = widths.get(length);
+
+	if (width == null)
+	{
+	    if (comp == null)
+	    {
+		comp = getDefaultRenderer(columnClass).
+		    getTableCellRendererComponent(this, value, false, false, row, column);
+	    }
+
+	    width = Integer.valueOf(comp.getPreferredSize().width);
+	    widths.put(length, width);
+	}
+
+	return width.intValue();
+    }
+
+
+    /*
+     * Helper for prepareRenderer(). Widens the given column if a cell 
+     * being painted does not fit. The column is resized after the 
+     * paint, since resizing it during the paint would paint it again.
+     */ 
+    private void fitCell(Component comp, int row, int column)
+    {
+	int width = cellWidth(comp, getValueAt(row, column), row, column) + 20;
+	final TableColumn tableColumn = getColumnModel().getColumn(column);
+
+	if (width <= tableColumn.getPreferredWidth())
+	{
+	    return; 
+	}
+
+	Integer pending = pendingWidths.get(tableColumn);
+
+	if (pending != null && pending.intValue() >= width)
+	{
+	    return; 
+	}
+
+	pendingWidths.put(tableColumn, Integer.valueOf(width));
+
+	if (pendingWidths.size() > 1 || pending != null)
+	{
+	    // already scheduled
+	    return; 
+	}
+
+	SwingUtilities.invokeLater(new Runnable()
+	{
+	    public void run()
+	    {
+		for (Map.Entry<TableColumn, Integer> e : pendingWidths.entrySet())
+		{
+		    int w = e.getValue().intValue();
+
+		    if (w > e.getKey().getPreferredWidth())
+		    {
+			e.getKey().setPreferredWidth(w);
+		    }
+		}
+
+		pendingWidths.clear();
+	    }
+	});
+    }
+
+
     /******************************************************************************
      * Below are the methods to add and remove ExceptionListeners.
      * 
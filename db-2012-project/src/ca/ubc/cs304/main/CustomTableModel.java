@@ -5,6 +5,7 @@ package ca.ubc.cs304.main;
 
 import java.util.*;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 import java.sql.*;
 import java.math.BigDecimal;
@@ -15,8 +16,9 @@ import javax.swing.event.TableModelEvent;
 
 /*
  * CustomTableModel is a table model that stores and maintains the data   
- * in a result set. The data in the result set is cached in a Vector 
- * object to improve performance. This model extends the AbstractTableModel 
+ * in a result set. The data in the result set is cached in a ColumnStore,
+ * which keeps each column in a primitive or dictionary encoded array, 
+ * to improve performance. This model extends the AbstractTableModel 
  * class because this class provides methods to dispatch TableModelEvents to 
  * event handlers that listen for changes in the table's data.
  *
@@ -37,14 +39,46 @@ import javax.swing.event.TableModelEvent;
  * dateTime member variable.  dateTime is set to Types.DATE by default.
  * All dates, times, and timestamps must be in JDBC format.
  *
- * 2) If a change to a cell results in a tuple no longer
- * satisfying the query, the tuple will remain in the JTable.
- * However, once the change is made, if you try to make another
- * change to the same tuple, the Oracle JDBC driver will not  
- * allow you to do so.
+ * 2) An editable model is created from a read only result set whose
+ * last column is the ROWID of each row, as a string, and is given the
+ * name of the table the rows come from. The ROWIDs are not shown; a
+ * change to a cell is written with an UPDATE of that one column on 
+ * the row's ROWID, so edits work no matter how the table is sorted.
+ * The other column labels must be the table's column names. If a 
+ * change to a cell results in a tuple no longer satisfying the query, 
+ * the tuple will remain in the JTable.
  *
  * 3) This class is bias towards Oracle because it deals with the
  * mappings between Java and Oracle datatypes. 
+ *
+ * 4) The connection behind the result set is borrowed from the
+ * connection pool in MvbOracleConnection. The result set is closed 
+ * and its connection released as soon as its data has been copied.
+ * Each edit borrows a connection of its own. A model created to stream
+ * its rows keeps the result set open until streamRows() has read it.
+ *
+ * 5) By default an editable model buffers its edits: a changed cell
+ * shows its new value, but nothing is written until applyEdits() is
+ * called, which writes every pending edit as one JDBC batch in one
+ * transaction. Before writing, the edited rows are locked with 
+ * SELECT ... FOR UPDATE and compared with the values the model loaded.
+ * A row that was changed or deleted by someone else in the meantime
+ * is a conflict: it is not written, its edits stay pending and its
+ * stored values are refreshed, so applying again overwrites the new
+ * values knowingly. discardEdits() throws the pending edits away.
+ * Sorting uses the loaded values, not the pending ones. With 
+ * setBufferEdits(false) every edit is written and committed at once.
+ * Either way, once edits are committed the rows written are sent to 
+ * the EditListeners (see EditEvent).
+ *
+ * 6) A model can be shown before its rows are read. It is then created
+ * with stream set to true, which only reads the column names and types,
+ * and streamRows() is called on a background thread while the table is
+ * on the screen. The rows are added on the event dispatch thread in 
+ * chunks of STREAM_CHUNK_ROWS rows, or whatever was read in the last 
+ * STREAM_CHUNK_MILLIS milliseconds, so the first screen shows up as 
+ * soon as the database returns its first rows. Rows added after the
+ * table was sorted are added at the end.
  */
 public class CustomTableModel extends AbstractTableModel
 {
@@ -58,178 +92,151 @@ public class CustomTableModel extends AbstractTableModel
     int                numColumns; 
     String[]          columnNames = null;
 
-    // whether or not the result set is updatable
+    // column types and writability are cached because the metadata
+    // cannot be used once the result set is closed
+    int[]             columnTypes = null;
+    boolean[]      columnWritable = null;
+
+    // whether or not the table's changes are written to the database,
+    // and the table they are written to
     boolean           isUpdatable; 
+    String              tableName = null;
     
-    // whether or not the result set is sortable
+    // whether or not the table can be sorted
     boolean			  isSortable;
 
-    // a vector of rows; each row is a vector of columns
-    Vector                   rows = new Vector();
+    // the rows, stored column by column; created once the 
+    // column types are known
+    ColumnStore              data = new ColumnStore(new int[0], dateTime);
+
+    // maps a row of the table to a row of the data store once the
+    // table has been sorted; null while it is in result set order
+    int[]                rowOrder = null;
+
+    // whether or not edits are kept until applyEdits() is called
+    boolean           bufferEdits = true;
+
+    // edits that have not been written yet, by data row and column, and
+    // the data rows whose last applyEdits() found a conflict. Both are
+    // guarded by pendingEdits because applyEdits() runs in the background.
+    Map<Integer, Map<Integer, Object>> pendingEdits = new TreeMap<Integer, Map<Integer, Object>>();
+    Set<Integer>         conflicts = new HashSet<Integer>();
+
+    // set while the result set is still being read by streamRows(), 
+    // and until the last chunk has been added on the event dispatch thread
+    volatile boolean      reading = false;
+    boolean               loading = false;
+
+    // set by close() to make streamRows() stop early
+    volatile boolean  stopReading = false;
+
+    // the most rows, and the longest time, streamRows() reads before
+    // handing a chunk to the event dispatch thread
+    public static final int STREAM_CHUNK_ROWS = 1000;
+    public static final int STREAM_CHUNK_MILLIS = 50;
+
+    // rows locked with one SELECT ... FOR UPDATE by applyEdits()
+    private static final int LOCK_CHUNK = 100;
+
+    // conflicts reported one by one before the rest are summed up
+    private static final int MAX_CONFLICT_MESSAGES = 10;
 
 
     /*
      * Parameterized constructor.
-     * Accepts a non-null database connection and a non-null 
-     * scrollable ResultSet argument. The data in the ResultSet 
-     * is copied to the rows vector. If changes in the table's 
-     * data are to be propagated to the database, the result set
-     * must be updatable and the data represented by the result 
-     * set must be stored in the database represented by the 
-     * connection object.
+     * Accepts a ResultSet argument whose connection was borrowed
+     * from MvbOracleConnection. The data in the ResultSet is copied 
+     * to the data store and the table is read only. A null ResultSet
+     * gives an empty model.
+     */
+    public CustomTableModel(ResultSet rset)
+    {
+	this(rset, null);
+    }
+
+
+    /*
+     * Parameterized constructor for an editable table.
+     * Accepts a ResultSet argument whose connection was borrowed
+     * from MvbOracleConnection and whose last column is the ROWID 
+     * of each row, e.g. SELECT i.*, ROWIDTOCHAR(i.ROWID) FROM item i.
+     * Changes in the table's data are propagated to the table 
+     * named by table. If table is null the model is read only and
+     * the result set has no ROWID column.
+     */
+    public CustomTableModel(ResultSet rset, String table)
+    {
+	this(rset, table, false);
+    }
+
+
+    /*
+     * Parameterized constructor. If stream is true, only the column 
+     * names and types are read here and the result set is left open 
+     * for streamRows(); otherwise all rows are copied and the result
+     * set is closed, as in the other constructors.
      */
-    public CustomTableModel(Connection connect, ResultSet rset)
+    public CustomTableModel(ResultSet rset, String table, boolean stream)
     {
+	tableName = table;
+	isUpdatable = (table != null);
+	isSortable = true;
+
+	numColumns = 0;
+	columnNames = new String[0];
+	columnTypes = new int[0];
+	columnWritable = new boolean[0];
+
+	if (rset == null)
+	{
+	    return; 
+	}
+
 	try
         {
-	    con = connect;
 	    rs = rset;
+	    con = rs.getStatement().getConnection();
 	    rsMetaData = rs.getMetaData();
 	    numColumns = rsMetaData.getColumnCount();
-	    columnNames = new String[numColumns];
-     
-	    // Determine whether the result set is updatable.
-	    // Sometimes getConcurrency() does not return the actual
-	    // concurrency type of the ResultSet (e.g. when the query 
-	    // has an order by clause); nevertheless, the
-	    // ResultSet will still not be updatable if it does
-	    // not meet the criteria listed in Tutorial 2.
-	    if (rs.getConcurrency() == ResultSet.CONCUR_UPDATABLE)
-	    {
-		isUpdatable = true;
-		isSortable = false;
-	    }
-	    else
+
+	    // the ROWID column is stored but not shown
+	    if (isUpdatable)
 	    {
-		isUpdatable = false;
-		isSortable = true;
+		numColumns--;
 	    }
 
+	    columnNames = new String[numColumns];
+	    columnTypes = new int[numColumns];
+	    columnWritable = new boolean[numColumns];
+
 	    for (int i = 0; i < numColumns; i++)
 	    {
 		// ResultSet columns start at 1 but array indices start at 0
 		columnNames[i] = rsMetaData.getColumnLabel(i+1);
+		columnTypes[i] = rsMetaData.getColumnType(i+1);
+		columnWritable[i] = isUpdatable;
+	    }
+
+	    int[] storeTypes = columnTypes;
+
+	    if (isUpdatable)
+	    {
+		storeTypes = Arrays.copyOf(columnTypes, numColumns + 1);
+		storeTypes[numColumns] = Types.VARCHAR;
+	    }
+
+	    data = new ColumnStore(storeTypes, dateTime);
+
+	    if (stream)
+	    {
+		reading = true;
+		loading = true;
+		return; 
 	    }
  
 	    while(rs.next())
 	    {
-		Vector tempRow = new Vector(numColumns);
-
-		for (int i = 0; i < numColumns; i++) 
-		{
-		    switch(rsMetaData.getColumnType(i+1))
-		    {
-			// mappings are based on Table 3 in JDBC/Oracle
-			// Tutorial 1		
-
-	               case Types.CHAR:
-	               case Types.VARCHAR:
-	               case Types.LONGVARCHAR:
-			   String s = rs.getString(i+1);
-			   tempRow.add(s);
-			   break;
-	    				   
-		       case Types.INTEGER:
-			   int in = rs.getInt(i+1);
-			   if (rs.wasNull())
-			       tempRow.add(null);
-			   else
-			       tempRow.add(new Integer(in));
-			   break;
-
-	               case Types.SMALLINT:
-			   short sh = rs.getShort(i+1);
-			   if (rs.wasNull())
-			       tempRow.add(null);
-			   else
-			       tempRow.add(new Short(sh));
-			   break;
-
-		       case Types.TINYINT:
-			   byte b = rs.getByte(i+1);
-			   if (rs.wasNull())
-			       tempRow.add(null);
-			   else
-			       tempRow.add(new Byte(b));
-			   break;
-
-		      case Types.FLOAT:
-		      case Types.DOUBLE:
-			  double d = rs.getDouble(i+1);
-			  if (rs.wasNull())
-			      tempRow.add(null);
-			  else
-			      tempRow.add(new Double(d));
-			  break;
-
-		      case Types.REAL:
-			  float f = rs.getFloat(i+1);
-			  if (rs.wasNull())
-			      tempRow.add(null);
-			  else
-			      tempRow.add(new Float(f));
-			  break;
-
-		      case Types.BIT:
-			  boolean bo = rs.getBoolean(i+1);
-			  if (rs.wasNull())
-			      tempRow.add(null);
-			  else
-			      tempRow.add(new Boolean(bo));
-			  break;
-
-		      case Types.BIGINT:
-			  long l = rs.getLong(i+1);
-			  if (rs.wasNull())
-			      tempRow.add(null);
-			  else
-			      tempRow.add(new Long(l));
-			  break;
-
-		      case Types.NUMERIC:
-		      case Types.DECIMAL:
-			  BigDecimal bd = rs.getBigDecimal(i+1);
-			  tempRow.add(bd); 
-			  break;
-
-		      case Types.DATE:
-			  java.sql.Date date = rs.getDate(i+1);
-			  tempRow.add(date);
-			  break;
-
-		      case Types.TIMESTAMP:
-			  if (dateTime == Types.TIMESTAMP)
-			  {
-			      Timestamp ts = rs.getTimestamp(i+1);
-			      tempRow.add(ts);
-			      break; 
-			  }
-			  if (dateTime == Types.TIME)
-			  {
-			      Time t = rs.getTime(i+1);
-			      tempRow.add(t);
-			      break; 
-			  }
-			  if (dateTime == Types.DATE)
-			  {
-			      java.sql.Date date2 = rs.getDate(i+1);
-			      tempRow.add(date2);
-			      break; 
-			  } 
-
-		      case Types.TIME:	       
-			  Time t2 = rs.getTime(i+1);
-			  tempRow.add(t2);
-			  break;
-
-		      default:
-			  Object o = rs.getObject(i+1);
-			  tempRow.add(o); 
-			  break;
-		    } 				 
-		} // end for loop
-		
-		rows.add(tempRow);
+		data.addRow(rs);
 	    } // end while loop
 	}
 	catch (SQLException ex)
@@ -239,6 +246,241 @@ public class CustomTableModel extends AbstractTableModel
 	    // notify all registered listeners
 	    fireExceptionGenerated(event);
 	}
+
+	// the result set is no longer needed once it is copied
+	closeResultSet();
+    }
+
+
+    /*
+     * Parameterized constructor for a read only table of rows that
+     * do not come from a result set, e.g. rows found in an in-memory
+     * index. columnTypes are java.sql.Types, and each row holds one 
+     * value per column of the class getColumnClass() reports for it.
+     */
+    public CustomTableModel(String[] columnNames, int[] columnTypes, List<Object[]> rows)
+    {
+	isUpdatable = false;
+	isSortable = true;
+
+	numColumns = columnNames.length;
+	this.columnNames = columnNames;
+	this.columnTypes = columnTypes;
+	columnWritable = new boolean[numColumns];
+
+	data = new ColumnStore(columnTypes, dateTime);
+
+	for (Object[] row : rows)
+	{
+	    data.addRow(row);
+	}
+    }
+
+
+    /*
+     * Returns true if the model was created to stream its rows and 
+     * streamRows() has not finished reading them.
+     */ 
+    public boolean isStreaming()
+    {
+	return reading;
+    }
+
+
+    /*
+     * Returns true until every row that streamRows() read has been 
+     * added to the model. Called on the event dispatch thread.
+     */ 
+    public boolean isLoading()
+    {
+	return loading;
+    }
+
+
+    /*
+     * Reads the rows of a model created with stream set to true and 
+     * adds them a chunk at a time on the event dispatch thread, firing 
+     * a TableModelEvent for each chunk. Returns the number of rows 
+     * read. The result set is closed and its connection released when
+     * it has been read, when it fails, or when close() is called.
+     *
+     * Must be called once, on a background thread.
+     */ 
+    public int streamRows() throws SQLException
+    {
+	int count = 0;
+
+	try
+	{
+	    ColumnStore chunk = newChunk();
+	    long flushed = System.currentTimeMillis();
+
+	    while (!stopReading && rs.next())
+	    {
+		chunk.addRow(rs);
+		count++;
+
+		if (chunk.size() >= STREAM_CHUNK_ROWS || 
+		    System.currentTimeMillis() - flushed >= STREAM_CHUNK_MILLIS)
+		{
+		    addChunk(chunk, false);
+		    chunk = newChunk();
+		    flushed = System.currentTimeMillis();
+		}
+	    }
+
+	    addChunk(chunk, true);
+	}
+	catch (SQLException ex)
+	{
+	    addChunk(newChunk(), true);
+	    throw ex; 
+	}
+	finally
+	{
+	    closeResultSet();
+	    reading = false;
+	}
+
+	return count;
+    }
+
+
+    /*
+     * Helper for streamRows(). Returns an empty store for a chunk of rows.
+     */ 
+    private ColumnStore newChunk()
+    {
+	int[] storeTypes = columnTypes;
+
+	if (isUpdatable)
+	{
+	    storeTypes = Arrays.copyOf(columnTypes, numColumns + 1);
+	    storeTypes[numColumns] = Types.VARCHAR;
+	}
+
+	return new ColumnStore(storeTypes, dateTime);
+    }
+
+
+    /*
+     * Helper for streamRows(). Adds a chunk of rows on the event dispatch
+     * thread. last is true for the final chunk, which may be empty.
+     */ 
+    private void addChunk(final ColumnStore chunk, final boolean last)
+    {
+	SwingUtilities.invokeLater(new Runnable()
+	{
+	    public void run()
+	    {
+		if (last)
+		{
+		    loading = false;
+		}
+
+		appendRows(chunk);
+	    }
+	});
+    }
+
+
+    /*
+     * Adds rows to the end of a model created from a list of rows, e.g.
+     * the next page of search results. Must be called on the event 
+     * dispatch thread.
+     */ 
+    public void addRows(List<Object[]> rows)
+    {
+	ColumnStore chunk = new ColumnStore(columnTypes, dateTime);
+
+	for (Object[] row : rows)
+	{
+	    chunk.addRow(row);
+	}
+
+	appendRows(chunk);
+    }
+
+
+    /*
+     * Helper for addChunk() and addRows(). Called on the event dispatch
+     * thread.
+     */ 
+    private void appendRows(ColumnStore chunk)
+    {
+	if (chunk.size() == 0)
+	{
+	    return; 
+	}
+
+	int first = data.size();
+
+	data.addRows(chunk);
+
+	// rows of a sorted table are added after the sorted ones
+	if (rowOrder != null)
+	{
+	    int[] order = Arrays.copyOf(rowOrder, data.size());
+
+	    for (int i = first; i < order.length; i++)
+	    {
+		order[i] = i;
+	    }
+
+	    rowOrder = order;
+	}
+
+	fireTableRowsInserted(first, data.size() - 1);
+    }
+
+
+    /*
+     * Closes the result set and its statement and returns the
+     * connection to the pool, if that has not been done already.
+     * If streamRows() is still reading, it is told to stop and 
+     * releases the result set itself.
+     */ 
+    public void close()
+    {
+	if (reading)
+	{
+	    stopReading = true;
+	    return; 
+	}
+
+	closeResultSet();
+    }
+
+
+    /*
+     * Helper for close() and streamRows(). Closes the result set and
+     * its statement and returns the connection to the pool, if that 
+     * has not been done already.
+     */ 
+    private void closeResultSet()
+    {
+	if (rs == null)
+	{
+	    return; 
+	}
+
+	Statement stmt = null;
+
+	try
+	{
+	    stmt = rs.getStatement();
+	    rs.close();
+	}
+	catch (SQLException ex)
+	{
+	    // ignore; the statement and connection are released below
+	}
+
+	MvbOracleConnection.getInstance().closeStatement(stmt);
+	MvbOracleConnection.getInstance().releaseConnection(con);
+
+	rs = null;
+	con = null; 
     }
 
     
@@ -259,222 +501,821 @@ public class CustomTableModel extends AbstractTableModel
      */
     public Class getColumnClass(int columnIndex)
     {
+	switch(columnTypes[columnIndex])
+	{
+	    // mappings are based on Table 3 in JDBC/Oracle
+	    // Tutorial 1		
+
+	    // In Java 2 SDK v1.2x and 1.3x, there are no default 
+	    // renderers and editors for date, time, and timestamp, 
+	    // so you need to create your own for those types 
+
+	    case Types.CHAR:
+	    case Types.VARCHAR:
+	    case Types.LONGVARCHAR:
+		return String.class;
+	    	
+	    case Types.INTEGER:
+		return Integer.class;
+
+	    case Types.SMALLINT:
+		return Short.class;
+
+	    case Types.TINYINT:
+		return Byte.class;
+
+	    case Types.FLOAT:
+	    case Types.DOUBLE:
+		return Double.class;
+
+	    case Types.REAL:
+		return Float.class;
+
+	    // There is no boolean datatype in Oracle
+	    case Types.BIT:
+		return Boolean.class;
+
+	    case Types.BIGINT:
+		return Long.class;
+
+	    case Types.NUMERIC:
+	    case Types.DECIMAL:
+		return BigDecimal.class;
+
+	    case Types.DATE:
+		return java.sql.Date.class;
+
+	    case Types.TIMESTAMP:
+		return (dateTime == Types.DATE ? java.sql.Date.class :
+			(dateTime == Types.TIMESTAMP ? Timestamp.class : Time.class)); 
+
+	    case Types.TIME:
+		return Time.class; 
+
+	    default:
+		return Object.class;
+	} 
+    }
+
+
+    /*
+     * JTable uses this method to determine how many columns to display
+     */ 
+    public int getColumnCount()
+    {
+	return numColumns;
+    }
+
+    
+    /*
+     * Returns the column name.
+     * This is used to initialize the given column's header name
+     */ 
+    public String getColumnName(int columnIndex)
+    {
+	return columnNames[columnIndex];
+    }
+     
+
+    /*
+     * JTable uses this method to determine how many rows to display
+     */ 
+    public int getRowCount()
+    {
+	return data.size();
+    }
+
+
+    /*
+     * Returns true if the given row is in memory, i.e. getValueAt() 
+     * will return its data rather than a placeholder. This method 
+     * is not part of the TableModel interface.
+     */ 
+    public boolean isRowLoaded(int rowIndex)
+    {
+	return true;
+    }
+
+
+    /*
+     * Returns the value at the given cell
+     */ 
+    public Object getValueAt(int rowIndex, int columnIndex)
+    {
+	int dataRow = toDataRow(rowIndex);
+
+	synchronized (pendingEdits)
+	{
+	    if (!pendingEdits.isEmpty())
+	    {
+		Map<Integer, Object> edits = pendingEdits.get(Integer.valueOf(dataRow));
+
+		if (edits != null && edits.containsKey(Integer.valueOf(columnIndex)))
+		{
+		    return edits.get(Integer.valueOf(columnIndex));
+		}
+	    }
+	}
+
+	return data.get(dataRow, columnIndex);
+    }
+
+
+    /*
+     * Returns the row of the data store, and of the result set, that
+     * is shown in the given row of the table.
+     */ 
+    int toDataRow(int rowIndex)
+    {
+	return (rowOrder == null ? rowIndex : rowOrder[rowIndex]);
+    }
+
+
+    /*
+     * This method determines whether a setValueAt() on the given cell
+     * will change its value
+     * 
+     */ 
+    public boolean isCellEditable(int row, int column)
+    {
+	// can edit cell if the model is editable and the column
+	// is not read only
+	if (isUpdatable && column < numColumns && columnWritable[column])
+	{
+	    return true;
+	}
+	else
+	{
+	    return false;
+	}
+    }
+
+
+    /*
+     * Sets value at the given cell to aValue.
+     * If the model is editable then the database is updated as well,
+     * using the ROWID of the row, either right away or, if edits are
+     * buffered, when applyEdits() is called.
+     */ 
+    public void setValueAt(Object aValue, int rowIndex, int columnIndex)
+    {
+	Connection editCon = null;
+	PreparedStatement ps = null;
+
 	try
-	{ 
-	    switch(rsMetaData.getColumnType(columnIndex+1))
+	{
+	    Object oldValue = getValueAt(rowIndex,columnIndex);
+
+	    // only update the data if the new value is different
+	    // from the old one
+
+	    if (oldValue == null && aValue == null)
+	    {
+		return; 
+	    }
+
+	    // can use equals() only if oldValue is not null
+	    if (oldValue != null)
+	    {
+		if (oldValue.equals(aValue))
+		{
+		    return;
+		} 
+	    }
+	    
+	    // the row's ROWID is stored after the visible columns
+	    int dataRow = toDataRow(rowIndex);
+
+	    if (bufferEdits)
+	    {
+		bufferEdit(dataRow, columnIndex, aValue);
+		fireTableCellUpdated(rowIndex, columnIndex);
+		return; 
+	    }
+
+	    String rowId = (String)data.get(dataRow, numColumns);
+	    Object[] before = rowValues(dataRow);
+
+	    editCon = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(editCon, "UPDATE " + tableName + 
+			" SET " + columnNames[columnIndex] + " = ? WHERE ROWID = CHARTOROWID(?)");
+
+	    setParameter(ps, 1, aValue, columnIndex);
+	    ps.setString(2, rowId);
+
+	    if (ps.executeUpdate() == 0)
+	    {
+		throw new SQLException("The row no longer exists in " + tableName + ".");
+	    }
+
+	    // save the change
+	    editCon.commit();
+	    
+	    data.set(dataRow, columnIndex, aValue);	
+
+	    // notify all TableModelListeners about the change
+	    fireTableCellUpdated(rowIndex, columnIndex);
+
+	    fireEditsApplied(new EditEvent(this, Collections.singletonList(before), 
+					   Collections.singletonList(rowValues(dataRow))));
+	}
+	catch (SQLException ex)
+	{
+	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
+	    fireExceptionGenerated(event);
+
+	    try
+	    {
+		// undo the change
+		if (editCon != null)
+		{
+		    editCon.rollback();
+		}
+	    }
+	    catch (SQLException ex2)
+	    {
+		event = new ExceptionEvent(this, ex2.getMessage());
+		fireExceptionGenerated(event);
+	    }
+	}
+	catch (Exception ex)
+	{
+	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
+	    fireExceptionGenerated(event);
+	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(editCon);
+	}
+    }
+
+
+    /*
+     * Helper for setValueAt(). Records an edit to be written by 
+     * applyEdits(). Setting a cell back to its loaded value removes 
+     * the edit.
+     */ 
+    private void bufferEdit(int dataRow, int columnIndex, Object aValue) throws SQLException
+    {
+	// the editors give back a String for a value they cannot parse,
+	// which would only fail once the edits are applied
+	if (aValue != null && !(aValue instanceof String && aValue.toString().trim().length() == 0) 
+	    && !getColumnClass(columnIndex).isInstance(aValue))
+	{
+	    throw new SQLException("Invalid value for " + columnNames[columnIndex] + ": " + aValue);
+	}
+
+	Integer row = Integer.valueOf(dataRow);
+	Integer column = Integer.valueOf(columnIndex);
+
+	synchronized (pendingEdits)
+	{
+	    Map<Integer, Object> edits = pendingEdits.get(row);
+
+	    if (sameValue(data.get(dataRow, columnIndex), aValue))
+	    {
+		if (edits != null)
+		{
+		    edits.remove(column);
+
+		    if (edits.isEmpty())
+		    {
+			pendingEdits.remove(row);
+			conflicts.remove(row);
+		    }
+		}
+		return; 
+	    }
+
+	    if (edits == null)
 	    {
-		// mappings are based on Table 3 in JDBC/Oracle
-		// Tutorial 1		
+		edits = new TreeMap<Integer, Object>();
+		pendingEdits.put(row, edits);
+	    }
 
-		// In Java 2 SDK v1.2x and 1.3x, there are no default 
-		// renderers and editors for date, time, and timestamp, 
-		// so you need to create your own for those types 
+	    edits.put(column, aValue);
+	}
+    }
+
+
+    /*
+     * Returns true if two cell values are the same. BigDecimals are
+     * compared by value, so that 5.0 and 5.00 are the same price.
+     */ 
+    private static boolean sameValue(Object a, Object b)
+    {
+	if (a == null || b == null)
+	{
+	    return (a == b); 
+	}
+
+	if (a instanceof BigDecimal && b instanceof BigDecimal)
+	{
+	    return (((BigDecimal)a).compareTo((BigDecimal)b) == 0);
+	}
+
+	return a.equals(b);
+    }
+
+
+    /*
+     * Buffers edits until applyEdits() is called if buffer is true, 
+     * otherwise writes every edit as it is made. Edits that are 
+     * pending when buffering is turned off stay pending. This method 
+     * is not part of the TableModel interface.
+     */ 
+    public void setBufferEdits(boolean buffer)
+    {
+	bufferEdits = buffer;
+    }
+
+
+    public boolean isBufferingEdits()
+    {
+	return (isUpdatable && bufferEdits);
+    }
+
+
+    /*
+     * Returns the number of edited cells that have not been written.
+     */ 
+    public int getPendingEditCount()
+    {
+	int count = 0;
+
+	synchronized (pendingEdits)
+	{
+	    for (Map<Integer, Object> edits : pendingEdits.values())
+	    {
+		count += edits.size();
+	    }
+	}
+
+	return count;
+    }
+
+
+    /*
+     * Returns true if the given cell has an edit that has not been written.
+     */ 
+    public boolean isCellEdited(int rowIndex, int columnIndex)
+    {
+	synchronized (pendingEdits)
+	{
+	    if (pendingEdits.isEmpty())
+	    {
+		return false; 
+	    }
+
+	    Map<Integer, Object> edits = pendingEdits.get(Integer.valueOf(toDataRow(rowIndex)));
+
+	    return (edits != null && edits.containsKey(Integer.valueOf(columnIndex)));
+	}
+    }
+
+
+    /*
+     * Returns true if the last applyEdits() could not write the given
+     * row because it had been changed or deleted in the database.
+     */ 
+    public boolean isRowInConflict(int rowIndex)
+    {
+	synchronized (pendingEdits)
+	{
+	    return (!conflicts.isEmpty() && conflicts.contains(Integer.valueOf(toDataRow(rowIndex))));
+	}
+    }
+
+
+    /*
+     * Throws away all edits that have not been written. Called on the
+     * event dispatch thread.
+     */ 
+    public void discardEdits()
+    {
+	synchronized (pendingEdits)
+	{
+	    if (pendingEdits.isEmpty())
+	    {
+		return; 
+	    }
+
+	    pendingEdits.clear();
+	    conflicts.clear();
+	}
+
+	fireTableRowsUpdated(0, getRowCount() - 1);
+    }
+
+
+    /*
+     * Writes all pending edits to the database in one transaction and
+     * returns the number of rows updated. The edited rows are locked
+     * and checked for conflicts first, a chunk of rows per query, and 
+     * the edits of the rows without conflicts are then sent as one batch 
+     * per column and committed together. Each conflict is reported to
+     * the ExceptionListeners. If anything else goes wrong, the 
+     * transaction is rolled back, nothing is written and the edits 
+     * stay pending.
+     *
+     * This method runs its queries on the calling thread, which should
+     * be a background thread (e.g. in a DbTask). Edits made while it
+     * runs are kept for the next call. The model itself is updated on
+     * the event dispatch thread. It must not be called while rows are
+     * still loading. This method is not part of the TableModel interface.
+     */ 
+    public int applyEdits() throws SQLException
+    {
+	// copy the edits, so that the table can be edited meanwhile
+	final Map<Integer, Map<Integer, Object>> batch = new TreeMap<Integer, Map<Integer, Object>>();
+
+	synchronized (pendingEdits)
+	{
+	    for (Map.Entry<Integer, Map<Integer, Object>> e : pendingEdits.entrySet())
+	    {
+		batch.put(e.getKey(), new TreeMap<Integer, Object>(e.getValue()));
+	    }
+	}
+
+	if (batch.isEmpty())
+	{
+	    return 0; 
+	}
 
-	        case Types.CHAR:
-	        case Types.VARCHAR:
-	        case Types.LONGVARCHAR:
-		    return String.class;
-	    	
-	        case Types.INTEGER:
-		    return Integer.class;
+	// the columns edited in any row, in column order
+	final int[] editedColumns = editedColumns(batch);
 
-		case Types.SMALLINT:
-		    return Short.class;
+	// the current database values of the edited columns of each
+	// edited row, stored in the order of editedColumns
+	final Map<Integer, Object[]> current = new HashMap<Integer, Object[]>();
 
-	        case Types.TINYINT:
-		    return Byte.class;
+	MvbOracleConnection mvb = MvbOracleConnection.getInstance();
+	Connection editCon = mvb.getConnection();
 
-	        case Types.FLOAT:
-	        case Types.DOUBLE:
-		    return Double.class;
+	try
+	{
+	    lockRows(editCon, batch, editedColumns, current);
 
-	        case Types.REAL:
-		    return Float.class;
+	    // the rows that were deleted or whose edited columns changed
+	    final Set<Integer> conflicting = new TreeSet<Integer>();
 
-		// There is no boolean datatype in Oracle
-		case Types.BIT:
-		    return Boolean.class;
+	    for (Map.Entry<Integer, Map<Integer, Object>> e : batch.entrySet())
+	    {
+		int dataRow = e.getKey().intValue();
+		Object[] values = current.get(e.getKey());
 
-	        case Types.BIGINT:
-		    return Long.class;
+		if (values == null)
+		{
+		    conflicting.add(e.getKey());
+		    continue; 
+		}
 
-	        case Types.NUMERIC:
-	        case Types.DECIMAL:
-		    return BigDecimal.class;
+		for (int i = 0; i < editedColumns.length; i++)
+		{
+		    if (e.getValue().containsKey(Integer.valueOf(editedColumns[i])) && 
+			!sameValue(data.get(dataRow, editedColumns[i]), values[i]))
+		    {
+			conflicting.add(e.getKey());
+			break; 
+		    }
+		}
+	    }
 
-	        case Types.DATE:
-		    return java.sql.Date.class;
+	    int updated = writeBatch(editCon, batch, editedColumns, conflicting);
 
-	        case Types.TIMESTAMP:
-		    return (dateTime == Types.DATE ? java.sql.Date.class :
-			    (dateTime == Types.TIMESTAMP ? Timestamp.class : Time.class)); 
+	    editCon.commit();
 
-	        case Types.TIME:
-		    return Time.class; 
+	    SwingUtilities.invokeLater(new Runnable()
+	    {
+		public void run()
+		{
+		    editsApplied(batch, editedColumns, current, conflicting);
+		}
+	    });
 
-	        default:
-		    return Object.class;
-	    } 
+	    return updated;
 	}
 	catch (SQLException ex)
 	{
-	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
-	    fireExceptionGenerated(event);
-	    return Object.class;
+	    try
+	    {
+		// undo the part of the batch that was written
+		editCon.rollback();
+	    }
+	    catch (SQLException ex2)
+	    {
+		// the original exception is the one worth reporting
+	    }
+
+	    throw ex; 
+	}
+	finally
+	{
+	    mvb.releaseConnection(editCon);
 	}
     }
 
 
     /*
-     * JTable uses this method to determine how many columns to display
+     * Returns the stored values of the visible columns of a data row.
      */ 
-    public int getColumnCount()
+    private Object[] rowValues(int dataRow)
     {
-	return numColumns;
-    }
+	Object[] values = new Object[numColumns];
 
-    
-    /*
-     * Returns the column name.
-     * This is used to initialize the given column's header name
-     */ 
-    public String getColumnName(int columnIndex)
-    {
-	return columnNames[columnIndex];
+	for (int i = 0; i < numColumns; i++)
+	{
+	    values[i] = data.get(dataRow, i);
+	}
+
+	return values;
     }
-     
+
 
     /*
-     * JTable uses this method to determine how many rows to display
+     * Helper for applyEdits(). Returns the columns edited in any row.
      */ 
-    public int getRowCount()
+    private int[] editedColumns(Map<Integer, Map<Integer, Object>> batch)
     {
-	return rows.size();
+	Set<Integer> columns = new TreeSet<Integer>();
+
+	for (Map<Integer, Object> edits : batch.values())
+	{
+	    columns.addAll(edits.keySet());
+	}
+
+	int[] result = new int[columns.size()];
+	int i = 0;
+
+	for (Integer column : columns)
+	{
+	    result[i++] = column.intValue();
+	}
+
+	return result;
     }
 
 
     /*
-     * Returns the value at the given cell
+     * Helper for applyEdits(). Locks the edited rows with SELECT ... 
+     * FOR UPDATE and reads the current values of the edited columns 
+     * into current, by data row. Deleted rows are left out of current.
      */ 
-    public Object getValueAt(int rowIndex, int columnIndex)
+    private void lockRows(Connection editCon, Map<Integer, Map<Integer, Object>> batch, 
+			  int[] editedColumns, Map<Integer, Object[]> current) throws SQLException
     {
-	Vector aRow = (Vector)rows.get(rowIndex);
+	MvbOracleConnection mvb = MvbOracleConnection.getInstance();
+
+	String select = "SELECT ROWIDTOCHAR(ROWID)";
+	int[] types = new int[editedColumns.length + 1];
+	types[0] = Types.VARCHAR;
+
+	for (int i = 0; i < editedColumns.length; i++)
+	{
+	    select += ", " + columnNames[editedColumns[i]];
+	    types[i + 1] = columnTypes[editedColumns[i]];
+	}
+
+	select += " FROM " + tableName + " WHERE ROWID IN (";
+
+	// the data rows of the edited rows, by ROWID
+	Map<String, Integer> rowIds = new HashMap<String, Integer>();
+	List<String> chunk = new ArrayList<String>();
+	Iterator<Integer> rows = batch.keySet().iterator();
+
+	while (rows.hasNext())
+	{
+	    Integer dataRow = rows.next();
+	    String rowId = (String)data.get(dataRow.intValue(), numColumns);
+
+	    rowIds.put(rowId, dataRow);
+	    chunk.add(rowId);
+
+	    if (chunk.size() < LOCK_CHUNK && rows.hasNext())
+	    {
+		continue; 
+	    }
+
+	    String sql = select;
+
+	    for (int i = 0; i < chunk.size(); i++)
+	    {
+		sql += (i == 0 ? "CHARTOROWID(?)" : ", CHARTOROWID(?)");
+	    }
+
+	    sql += ") FOR UPDATE";
+
+	    PreparedStatement ps = null;
+
+	    try
+	    {
+		ps = mvb.prepareStatement(editCon, sql);
+
+		for (int i = 0; i < chunk.size(); i++)
+		{
+		    ps.setString(i + 1, chunk.get(i));
+		}
+
+		ResultSet locked = ps.executeQuery();
+		ColumnStore values = new ColumnStore(types, dateTime);
+
+		while (locked.next())
+		{
+		    values.addRow(locked);
+		}
+
+		locked.close();
+
+		for (int r = 0; r < values.size(); r++)
+		{
+		    Object[] rowValues = new Object[editedColumns.length];
+
+		    for (int i = 0; i < rowValues.length; i++)
+		    {
+			rowValues[i] = values.get(r, i + 1);
+		    }
+
+		    current.put(rowIds.get(values.get(r, 0)), rowValues);
+		}
+	    }
+	    finally
+	    {
+		mvb.closeStatement(ps);
+	    }
 
-	return aRow.get(columnIndex);
+	    chunk.clear();
+	}
     }
 
 
     /*
-     * This method determines whether a setValueAt() on the given cell
-     * will change its value
-     * 
+     * Helper for applyEdits(). Adds the edits of every row that is not
+     * in conflict to one batched UPDATE per column, executes the 
+     * batches and returns the number of rows updated.
      */ 
-    public boolean isCellEditable(int row, int column)
+    private int writeBatch(Connection editCon, Map<Integer, Map<Integer, Object>> batch, 
+			   int[] editedColumns, Set<Integer> conflicting) throws SQLException
     {
-	try
+	MvbOracleConnection mvb = MvbOracleConnection.getInstance();
+	int updated = 0;
+
+	for (int i = 0; i < editedColumns.length; i++)
 	{
-	    // can edit cell if the result set is updatable and 
-	    // the column is not read only
-	    if (isUpdatable && rsMetaData.isWritable(column+1))
+	    int column = editedColumns[i];
+	    PreparedStatement ps = null;
+	    boolean empty = true;
+
+	    try
 	    {
-		return true;
+		ps = mvb.prepareStatement(editCon, "UPDATE " + tableName + 
+			" SET " + columnNames[column] + " = ? WHERE ROWID = CHARTOROWID(?)");
+
+		for (Map.Entry<Integer, Map<Integer, Object>> e : batch.entrySet())
+		{
+		    Map<Integer, Object> edits = e.getValue();
+
+		    if (conflicting.contains(e.getKey()) || !edits.containsKey(Integer.valueOf(column)))
+		    {
+			continue; 
+		    }
+
+		    setParameter(ps, 1, edits.get(Integer.valueOf(column)), column);
+		    ps.setString(2, (String)data.get(e.getKey().intValue(), numColumns));
+		    ps.addBatch();
+		    empty = false;
+		}
+
+		if (!empty)
+		{
+		    ps.executeBatch();
+		}
 	    }
-	    else
+	    finally
 	    {
-		return false;
+		mvb.closeStatement(ps);
 	    }
 	}
-	catch (SQLException ex)
+
+	for (Integer dataRow : batch.keySet())
 	{
-	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
-	    fireExceptionGenerated(event);
-	    return false;
+	    if (!conflicting.contains(dataRow))
+	    {
+		updated++;
+	    }
 	}
+
+	return updated;
     }
 
 
     /*
-     * Sets value at the given cell to aValue.
-     * If the ResultSet is updatable then the ResultSet and database is updated.
+     * Helper for applyEdits(), called on the event dispatch thread once
+     * the batch is committed. Stores the written values and drops their
+     * edits, unless a cell was edited again meanwhile. The stored values
+     * of conflicting rows are refreshed and their edits kept; edits of
+     * deleted rows are dropped. The rows written are sent to the 
+     * EditListeners, and each conflict is then reported.
      */ 
-    public void setValueAt(Object aValue, int rowIndex, int columnIndex)
+    private void editsApplied(Map<Integer, Map<Integer, Object>> batch, int[] editedColumns,
+			      Map<Integer, Object[]> current, Set<Integer> conflicting)
     {
-	try
-	{
-	    Object oldValue = getValueAt(rowIndex,columnIndex);
-
-	    // only update the data if the new value is different
-	    // from the old one
+	List<String> messages = new ArrayList<String>();
+	List<Object[]> before = new ArrayList<Object[]>();
+	List<Object[]> after = new ArrayList<Object[]>();
 
-	    if (oldValue == null && aValue == null)
+	synchronized (pendingEdits)
+	{
+	    for (Map.Entry<Integer, Map<Integer, Object>> e : batch.entrySet())
 	    {
-		return; 
-	    }
+		Integer row = e.getKey();
+		int dataRow = row.intValue();
+		Map<Integer, Object> edits = pendingEdits.get(row);
+		String key = columnNames[0] + " = " + data.get(dataRow, 0);
 
-	    // can use equals() only if oldValue is not null
-	    if (oldValue != null)
-	    {
-		if (oldValue.equals(aValue))
+		if (!conflicting.contains(row))
 		{
-		    return;
-		} 
-	    }
-	    
-	    // JTable is 0 based while ResultSet is 1 based
-	    rs.absolute(rowIndex+1);
+		    before.add(rowValues(dataRow));
 
-	    updateResultSet(rs, aValue, rowIndex, columnIndex);
-	    
-	    rs.updateRow();
+		    for (Map.Entry<Integer, Object> edit : e.getValue().entrySet())
+		    {
+			data.set(dataRow, edit.getKey().intValue(), edit.getValue());
 
-	    // save the change
-	    con.commit();
-	    
-	    Vector aRow = (Vector)rows.get(rowIndex);
-	    
-	    aRow.set(columnIndex, aValue);	
+			// an edit made while the batch was written stays pending
+			if (edits != null && edits.containsKey(edit.getKey()) && 
+			    edits.get(edit.getKey()) == edit.getValue())
+			{
+			    edits.remove(edit.getKey());
+			}
+		    }
 
-	    // notify all TableModelListeners about the change
-	    fireTableCellUpdated(rowIndex, columnIndex);
+		    if (edits != null && edits.isEmpty())
+		    {
+			pendingEdits.remove(row);
+		    }
+
+		    after.add(rowValues(dataRow));
+		    conflicts.remove(row);
+		    continue; 
+		}
+
+		Object[] values = current.get(row);
+
+		if (values == null)
+		{
+		    pendingEdits.remove(row);
+		    conflicts.remove(row);
+		    messages.add("The row where " + key + " was not updated because it has been deleted.");
+		    continue; 
+		}
+
+		for (int i = 0; i < editedColumns.length; i++)
+		{
+		    data.set(dataRow, editedColumns[i], values[i]);
+		}
+
+		conflicts.add(row);
+		messages.add("The row where " + key + " was not updated because it has been changed"
+			     + " by someone else. Apply again to overwrite the changes.");
+	    }
 	}
-	catch (SQLException ex)
+
+	fireTableRowsUpdated(0, getRowCount() - 1);
+
+	if (!after.isEmpty())
 	{
-	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
-	    fireExceptionGenerated(event);
+	    fireEditsApplied(new EditEvent(this, before, after));
+	}
 
-	    try
-	    {
-		// undo the change
-		con.rollback();
-	    }
-	    catch (SQLException ex2)
-	    {
-		event = new ExceptionEvent(this, ex2.getMessage());
-		fireExceptionGenerated(event);
-	    }
+	for (int i = 0; i < messages.size() && i < MAX_CONFLICT_MESSAGES; i++)
+	{
+	    fireExceptionGenerated(new ExceptionEvent(this, messages.get(i)));
 	}
-	catch (Exception ex)
+
+	if (messages.size() > MAX_CONFLICT_MESSAGES)
 	{
-	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
-	    fireExceptionGenerated(event);
+	    fireExceptionGenerated(new ExceptionEvent(this, (messages.size() - MAX_CONFLICT_MESSAGES) 
+						      + " more rows were not updated because of conflicts."));
 	}
     }
 
 
     /*
      * Helper for setValueAt().  This method is not part of the TableModel
-     * interface.  This function performs the ResultSet updateXXX().
+     * interface.  This function performs the PreparedStatement setXXX()
+     * for the given column's value.
      */ 
-    private void updateResultSet(ResultSet rs, Object aValue, int rowIndex, int columnIndex) throws Exception
+    private void setParameter(PreparedStatement ps, int index, Object aValue, int columnIndex) throws SQLException
     {
 	// if cell is empty insert null
 	if ( aValue == null || aValue.toString().trim().length() == 0 )
 	{
-	    rs.updateNull(columnIndex+1);
+	    ps.setNull(index, columnTypes[columnIndex]);
 	    return; 
 	}
 	
-	switch(rsMetaData.getColumnType(columnIndex+1))
+	switch(columnTypes[columnIndex])
 	{
 	  // mappings are based on Table 3 in JDBC/Oracle
 	  // Tutorial 1		
@@ -482,73 +1323,97 @@ public class CustomTableModel extends AbstractTableModel
 	  case Types.CHAR:
 	  case Types.VARCHAR:
 	  case Types.LONGVARCHAR:
-	    rs.updateString(columnIndex+1, (String)aValue);
+	    ps.setString(index, (String)aValue);
 	    return;
 	    	
 	  case Types.INTEGER:
-	      rs.updateInt(columnIndex+1, ((Integer)aValue).intValue());
+	      ps.setInt(index, ((Integer)aValue).intValue());
 	      return;
 
 	  case Types.SMALLINT:
-	      rs.updateShort(columnIndex+1, ((Short)aValue).shortValue());
+	      ps.setShort(index, ((Short)aValue).shortValue());
 	      return;
 
 	  case Types.TINYINT:
-	      rs.updateByte(columnIndex+1, ((Byte)aValue).byteValue());
+	      ps.setByte(index, ((Byte)aValue).byteValue());
 	      return;
 
 	  case Types.FLOAT:
 	  case Types.DOUBLE:
-	      rs.updateDouble(columnIndex+1, ((Double)aValue).doubleValue());
+	      ps.setDouble(index, ((Double)aValue).doubleValue());
 	      return;
 
 	  case Types.REAL:
-	      rs.updateFloat(columnIndex+1, ((Float)aValue).floatValue());
+	      ps.setFloat(index, ((Float)aValue).floatValue());
 	      return;
 
 	  case Types.BIT:
-	      rs.updateBoolean(columnIndex+1, ((Boolean)aValue).booleanValue());
+	      ps.setBoolean(index, ((Boolean)aValue).booleanValue());
 	      return;
 
 	  case Types.BIGINT:
-	      rs.updateLong(columnIndex+1, ((Long)aValue).longValue());
+	      ps.setLong(index, ((Long)aValue).longValue());
 	      return;
 
 	  case Types.NUMERIC:
 	  case Types.DECIMAL:
-	      rs.updateBigDecimal(columnIndex+1, (BigDecimal)aValue);
+	      ps.setBigDecimal(index, (BigDecimal)aValue);
 	      return;
 
 	  case Types.DATE:
-	      rs.updateDate(columnIndex+1, (java.sql.Date)aValue);
+	      ps.setDate(index, (java.sql.Date)aValue);
 	      return;
 
 	  case Types.TIMESTAMP:
 	      if (dateTime == Types.TIMESTAMP)
 	      {
-		  rs.updateTimestamp(columnIndex+1, (Timestamp)aValue);
+		  ps.setTimestamp(index, (Timestamp)aValue);
 	      }
 	      if (dateTime == Types.TIME)
 	      {
-		  rs.updateTime(columnIndex+1, (Time)aValue);
+		  ps.setTime(index, (Time)aValue);
 	      }
 	      if (dateTime == Types.DATE)
 	      {
-		  rs.updateDate(columnIndex+1, (java.sql.Date)aValue);
+		  ps.setDate(index, (java.sql.Date)aValue);
 	      }
 	      return; 
 
 	  case Types.TIME:	       
-	      rs.updateTime(columnIndex+1, (Time)aValue);
+	      ps.setTime(index, (Time)aValue);
 	      return;
 
 	  default:
-	      rs.updateObject(columnIndex+1, aValue);
+	      ps.setObject(index, aValue);
 	      return;
 	} 		
     }
 
 
+    /*
+     * Sorts the table by the given columns, each in ascending or 
+     * descending order. Only the mapping from table rows to data rows
+     * is sorted; the data does not move. Rows that tie on every column
+     * keep their current order. Large tables are sorted in parallel. 
+     * This method is not part of the TableModel interface.
+     */ 
+    public void sortBy(int[] columns, boolean[] ascending)
+    {
+	int[] order = new int[data.size()];
+
+	for (int i = 0; i < order.length; i++)
+	{
+	    order[i] = toDataRow(i);
+	}
+
+	PermutationSort.sort(order, data.comparator(columns, ascending));
+
+	rowOrder = order;
+
+	fireTableDataChanged();
+    }
+
+
     /******************************************************************************
      * Below are the methods to add and remove ExceptionListeners.
      * 
@@ -596,19 +1461,57 @@ public class CustomTableModel extends AbstractTableModel
 
 
     /*
-     * This class sorts the data in a given column.
-     * This class will not sort if the result set is
-     * updatable because after the table is sorted,
-     * a cell's row index in the table won't match 
-     * the cell's row index in the result set. This 
-     * means that updates to the table won't be
-     * properly propagated to the database.
+     * Below are the methods to add and remove EditListeners, which are
+     * sent the rows written once edits are committed.
+     */ 
+    public void addEditListener(EditListener l) 
+    {
+	listenerList.add(EditListener.class, l);
+    }
+
+
+    public void removeEditListener(EditListener l) 
+    {
+	listenerList.remove(EditListener.class, l);
+    }
+
+
+    /*
+     * This method notifies all registered EditListeners, in the same 
+     * way as fireExceptionGenerated().
+     */ 
+    public void fireEditsApplied(EditEvent e) 
+    {
+	Object[] listeners = listenerList.getListenerList();
+
+	for (int i = listeners.length-2; i>=0; i-=2) 
+	{
+	    if (listeners[i]==EditListener.class) 
+	    {
+		((EditListener)listeners[i+1]).editsApplied(e);
+	    }
+	}
+    }
+
+
+    /*
+     * This class sorts the table when a column header is double
+     * clicked. Double clicking a column sorts the table by that column 
+     * alone, and double clicking it again reverses the order. Holding 
+     * down the shift key adds the column as the next sort key instead,
+     * or reverses it if it already is one, so that rows that tie on the
+     * first column are ordered by the second, and so on.
+     *
+     * This class will not sort if the model is not sortable, e.g. 
+     * because its rows are fetched from the database page by page.
      */ 
-    class Sorter extends MouseAdapter implements Comparator
+    class Sorter extends MouseAdapter
     {
 	JTable table = null; 
-	int sortIndex = -1;  // the column index to sort on
-	boolean ascendingOrder = true; 
+
+	// the sort columns, in the model's coordinate system, and their order
+	List<Integer> sortKeys = new ArrayList<Integer>();
+	List<Boolean> sortAscending = new ArrayList<Boolean>();
 
 	/*
 	 * Parameterized Constructor
@@ -630,12 +1533,6 @@ public class CustomTableModel extends AbstractTableModel
 	}
 
 
-	/*
-	 * When the user double clicks the header, the column 
-	 * will be sorted in ascending order. If the shift key
-	 * was held down as well then the column will be 
-	 * sorted in descending order.
-	 */ 
 	public void mouseClicked(MouseEvent e)
 	{
 	    if (!isSortable)
@@ -645,7 +1542,7 @@ public class CustomTableModel extends AbstractTableModel
 
 	    if (e.getClickCount() == 2)
 	    {
-		ascendingOrder = ((e.getModifiers()&InputEvent.SHIFT_MASK) == 0);
+		boolean addKey = ((e.getModifiers()&InputEvent.SHIFT_MASK) != 0);
 
 		TableColumnModel colModel = table.getColumnModel();
 
@@ -658,198 +1555,79 @@ public class CustomTableModel extends AbstractTableModel
 
 		// we need to convert the column index from the table view's
 		// coordinate system to the table model's coordinate system
-		int modelIndex = colModel.getColumn(viewIndex).getModelIndex(); 
-		
-		// Remove the sort indicator from the previously sorted column.
-		if (sortIndex >= 0)
-		{
-		    // sortIndex is in the model's coordinate system but
-		    // getColumn() requires an index in the view's coordinate system,
-		    // so we need to convert
-		    TableColumn oldColumn = colModel.getColumn(table.convertColumnIndexToView(sortIndex));
-		    String oldHeaderValue = oldColumn.getHeaderValue().toString(); 
-		    int lastIndex = oldHeaderValue.lastIndexOf('<'); 
-		    oldColumn.setHeaderValue(oldHeaderValue.substring(0,lastIndex-1));
-		}
-
-		sortIndex = modelIndex; 
-		
-		/// add sort indicator to column header
-		TableColumn newColumn = colModel.getColumn(table.convertColumnIndexToView(sortIndex));
-		String newHeaderValue = newColumn.getHeaderValue().toString(); 
-		newColumn.setHeaderValue(newHeaderValue + " <");
-
-		Collections.sort(rows, this);
-	    }
-	}
-
-
-	/**********************************************
-	 * Begin Comparator interface implementation.
-	 * By implementing this interface, we can sort 
-	 * the objects in the table.
-	 **********************************************/
-
+		Integer modelIndex = Integer.valueOf(colModel.getColumn(viewIndex).getModelIndex()); 
 
-	/*
-	 * This compares the column value of one row to 
-	 * the value of another.
-	 */ 
-	public int compare(Object obj1, Object obj2)
-	{
-	    int result = -99; 
+		// Remove the sort indicators from the previously sorted columns.
+		setIndicators(false);
 
-	    Object o1 = ((Vector)obj1).get(sortIndex);
-	    Object o2 = ((Vector)obj2).get(sortIndex);
+		int position = sortKeys.indexOf(modelIndex);
 
-	    if (o1 == null)
-	    {
-		if (o2 == null)
+		if (position >= 0 && (addKey || sortKeys.size() == 1))
 		{
-		    result = 0; 
+		    // reverse a column that is already sorted on
+		    boolean ascending = sortAscending.get(position).booleanValue();
+		    sortAscending.set(position, Boolean.valueOf(!ascending));
 		}
 		else
 		{
-		    result = -1; 
+		    if (!addKey)
+		    {
+			sortKeys.clear();
+			sortAscending.clear();
+		    }
+
+		    sortKeys.add(modelIndex);
+		    sortAscending.add(Boolean.TRUE);
 		}
-	    }
-	    else
-	    {
-	      if (o2 == null)
-	      {
-		result = 1; 
-	      }
-	    }
 
-	    if (result != -99)
-	    {
-		return (ascendingOrder ? result : -result); 
-	    }
+		setIndicators(true);
 
-	    try
-	    {
-		switch(rsMetaData.getColumnType(sortIndex+1))
+		int[] keys = new int[sortKeys.size()];
+		boolean[] ascending = new boolean[sortKeys.size()];
+
+		for (int i = 0; i < keys.length; i++)
 		{
-		  case Types.CHAR:
-		  case Types.VARCHAR:
-		  case Types.LONGVARCHAR:
-		      result = ((String)o1).compareTo((String)o2);
-		      break; 
-
-		  case Types.INTEGER:
-		      result = ((Integer)o1).compareTo((Integer)o2);
-		      break; 
-
-		  case Types.SMALLINT:
-		      result = ((Short)o1).compareTo((Short)o2);
-		      break; 
-
-		  case Types.TINYINT:
-		      result = ((Byte)o1).compareTo((Byte)o2);
-		      break; 
-
-		  case Types.FLOAT:
-		  case Types.DOUBLE:
-		      result = ((Double)o1).compareTo((Double)o2);
-		      break; 
-
-		  case Types.REAL:
-		      result = ((Float)o1).compareTo((Float)o2);
-		      break; 
-
-		  case Types.BIT:
-		      boolean b1 = ((Boolean)o1).booleanValue();
-		      boolean b2 = ((Boolean)o2).booleanValue();
-		      if (b1 == true)
-		      {
-			  if (b2 == true)
-			  {
-			      result = 0; 
-			  }
-			  else
-			  {
-			      result = 1; 
-			  }
-		      }
-		      else
-		      {
-			  if (b2 == true)
-			  {
-			      result = -1; 
-			  }
-			  else
-			  {
-			      result = 0; 
-			  }
-		      }
-		      break;
-
-		  case Types.BIGINT:
-		      result = ((Long)o1).compareTo((Long)o2);
-		      break;
-
-		  case Types.NUMERIC:
-		  case Types.DECIMAL:
-		      result = ((BigDecimal)o1).compareTo((BigDecimal)o2);
-		      break;
-
-		  case Types.DATE:
-		      result = ((java.sql.Date)o1).compareTo((java.sql.Date)o2);
-		      break;
-
-		  case Types.TIMESTAMP:
-		      if (dateTime == Types.TIMESTAMP)
-		      {
-			  result = ((Timestamp)o1).compareTo((Timestamp)o2);
-		      }
-		      if (dateTime == Types.TIME)
-		      {
-			  result = ((Time)o1).compareTo((Time)o2);
-		      }
-		      if (dateTime == Types.DATE)
-		      {
-			  result = ((java.sql.Date)o1).compareTo((java.sql.Date)o2);
-		      }
-		      break; 
-
-		  case Types.TIME:	       
-		      result = ((Time)o1).compareTo((Time)o2);
-		      break; 
+		    keys[i] = sortKeys.get(i).intValue();
+		    ascending[i] = sortAscending.get(i).booleanValue();
 		}
-	    }
-	    catch (SQLException ex)
-	    {
-		ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
-		fireExceptionGenerated(event);
-	    }
 
-	    if (ascendingOrder)
-	    {
-		return result; 
-	    }
-	    else
-	    {
-		return -result; 
+		sortBy(keys, ascending);
 	    }
 	}
 
+
 	/*
-	 * Determines whether some other object is equal to this Comparator.
+	 * Adds sort indicators to the headers of the sort columns, e.g.
+	 * "title <" for an ascending and "title >" for a descending sort,
+	 * numbered when there are several sort columns, or removes them.
 	 */ 
-	public boolean equals(Object obj)
+	private void setIndicators(boolean show)
 	{
-	    if (obj instanceof Sorter)
+	    TableColumnModel colModel = table.getColumnModel();
+
+	    for (int i = 0; i < sortKeys.size(); i++)
 	    {
-		Sorter s = (Sorter)obj;
+		int modelIndex = sortKeys.get(i).intValue();
+
+		// getColumn() requires an index in the view's coordinate system,
+		// so we need to convert
+		TableColumn column = colModel.getColumn(table.convertColumnIndexToView(modelIndex));
+		String headerValue = getColumnName(modelIndex);
 
-		if (ascendingOrder == s.ascendingOrder && sortIndex == s.sortIndex)
+		if (show)
 		{
-		    return true; 
-		}		
+		    headerValue += (sortAscending.get(i).booleanValue() ? " <" : " >");
+
+		    if (sortKeys.size() > 1)
+		    {
+			headerValue += (i + 1);
+		    }
+		}
+
+		column.setHeaderValue(headerValue);
 	    }
-	    return false; 
+
+	    table.getTableHeader().repaint();
 	}
-	// end Comparator interface implementation
     }
 }
-
@@ -0,0 +1,76 @@
+package ca.ubc.cs304.main;
+
+// File: DbExecutor.java
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/*
+ * DbExecutor is a singleton that runs DbTasks off the Swing event
+ * dispatch thread. On a Java runtime with virtual threads every task
+ * gets its own virtual thread; otherwise tasks share a small pool of
+ * daemon threads, one per pooled database connection, so that queued
+ * tasks wait here rather than inside ConnectionPool.
+ */
+public class DbExecutor {
+	private static DbExecutor _executor = null;
+
+	private ExecutorService service;
+	private boolean virtualThreads;
+
+	private DbExecutor() {
+		service = newVirtualThreadExecutor();
+		virtualThreads = (service != null);
+
+		if (service == null) {
+			service = Executors.newFixedThreadPool(ConnectionPool.DEFAULT_MAX_SIZE, new ThreadFactory() {
+				private int count = 0;
+
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Database worker " + (++count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/*
+	 * Returns the instance of DbExecutor
+	 */
+	public static synchronized DbExecutor getInstance() {
+		if (_executor == null) {
+			_executor = new DbExecutor();
+		}
+
+		return _executor;
+	}
+
+	/*
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor() by reflection so
+	 * that the code still compiles and runs on older Java versions.
+	 * Returns null if virtual threads are not available.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/*
+	 * Runs the given task on a background thread.
+	 */
+	public void execute(Runnable task) {
+		service.execute(task);
+	}
+
+	/*
+	 * Returns true if tasks run on virtual threads.
+	 */
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+}
@@ -0,0 +1,189 @@
+package ca.ubc.cs304.main;
+
+// File: DbTask.java
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/*
+ * DbTask runs database work on a DbExecutor thread so that the Swing
+ * event dispatch thread, and with it the whole MvbView window, stays
+ * responsive while a query runs. Subclasses put the JDBC calls in work(),
+ * which runs in the background, and update the GUI in succeeded(), which
+ * runs on the event dispatch thread once work() has returned.
+ *
+ * While a task runs, MvbView shows its description with a progress bar
+ * and a Cancel button. Cancelling a task cancels the statements its
+ * thread is executing, so the database stops working on them; work()
+ * then normally returns early with the error reported through the
+ * model's ExceptionListeners. The result of a cancelled task is handed
+ * to discard() instead of succeeded().
+ *
+ * A task must be started with start() from the event dispatch thread,
+ * and can only be started once.
+ */
+public abstract class DbTask<T> extends SwingWorker<T, Void> {
+	protected MvbView mvb;
+	private volatile String description;
+
+	// the thread running work(), or null if work() is not running;
+	// guarded by workerLock, which a cancel holds while it acts on the
+	// thread, so that it cannot hit the task the thread runs next
+	private Thread worker = null;
+	private final Object workerLock = new Object();
+	private volatile boolean cancelled = false;
+
+	/*
+	 * Creates a task. The description is shown next to the progress bar,
+	 * e.g. "Searching for items".
+	 */
+	public DbTask(MvbView mvb, String description) {
+		this.mvb = mvb;
+		this.description = description;
+
+		// let MvbView redraw the progress bar when setProgress() is called
+		addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent e) {
+				if ("progress".equals(e.getPropertyName())) {
+					DbTask.this.mvb.taskProgressed(DbTask.this);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Registers the task with MvbView and runs it in the background.
+	 */
+	public void start() {
+		mvb.taskStarted(this);
+		DbExecutor.getInstance().execute(this);
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/*
+	 * Changes the text shown next to the progress bar, e.g. to show how
+	 * many rows have been loaded. Called on the event dispatch thread.
+	 */
+	protected void setDescription(String description) {
+		this.description = description;
+		mvb.taskProgressed(this);
+	}
+
+	/*
+	 * Cancels the task. The statements the task is executing are cancelled
+	 * and the task's thread is interrupted in case it is still waiting for
+	 * a connection. Does nothing if the task has already finished.
+	 */
+	public void cancelTask() {
+		if (isDone()) {
+			return;
+		}
+
+		synchronized (workerLock) {
+			cancelled = true;
+
+			if (worker != null) {
+				ConnectionPool pool = MvbOracleConnection.getInstance().getPool();
+
+				if (pool != null) {
+					pool.cancelStatements(worker);
+				}
+
+				worker.interrupt();
+			}
+		}
+	}
+
+	/*
+	 * Returns true if cancelTask() was called before the task finished.
+	 */
+	public boolean isTaskCancelled() {
+		return cancelled;
+	}
+
+	/*
+	 * Does the database work. Runs on a background thread and must not
+	 * touch Swing components.
+	 */
+	protected abstract T work() throws Exception;
+
+	/*
+	 * Called on the event dispatch thread with the result of work().
+	 */
+	protected void succeeded(T result) {
+		// empty
+	}
+
+	/*
+	 * Called on the event dispatch thread with the result of a task that
+	 * was cancelled. Subclasses that return resources such as an open
+	 * CustomTableModel should release them here.
+	 */
+	protected void discard(T result) {
+		// empty
+	}
+
+	/*
+	 * Called on the event dispatch thread if work() threw an exception.
+	 */
+	protected void failed(Throwable cause) {
+		mvb.updateStatusBar(description + " failed: " + cause.getMessage());
+	}
+
+	protected final T doInBackground() throws Exception {
+		synchronized (workerLock) {
+			if (cancelled) {
+				return null;
+			}
+
+			worker = Thread.currentThread();
+		}
+
+		try {
+			return work();
+		} finally {
+			synchronized (workerLock) {
+				worker = null;
+
+				// do not leave an interrupt behind on a pooled thread
+				Thread.interrupted();
+			}
+		}
+	}
+
+	protected final void done() {
+		mvb.taskFinished(this);
+
+		T result;
+
+		try {
+			result = get();
+		} catch (InterruptedException ex) {
+			// cannot happen; done() is only called once the task has finished
+			return;
+		} catch (ExecutionException ex) {
+			if (cancelled) {
+				mvb.updateStatusBar(description + " cancelled.");
+			} else {
+				failed(ex.getCause());
+			}
+			return;
+		}
+
+		if (cancelled) {
+			if (result != null) {
+				discard(result);
+			}
+			mvb.updateStatusBar(description + " cancelled.");
+			return;
+		}
+
+		succeeded(result);
+	}
+}
@@ -0,0 +1,55 @@
+package ca.ubc.cs304.main;
+
+// File: EditEvent.java
+
+import java.util.EventObject;
+import java.util.List;
+
+
+/*
+ * A CustomTableModel fires an EditEvent once edits made in its table 
+ * have been committed, by applyEdits() or, if edits are not buffered,
+ * by setValueAt(). A component can register to receive edit events by
+ * calling the model's addEditListener() method. The event holds the 
+ * values of the visible columns of each row that was written, before
+ * and after the edits, so that listeners can tell which rows changed
+ * and how without reading the table again.
+ */
+public class EditEvent extends EventObject
+{
+    List<Object[]> before;
+    List<Object[]> after;
+
+    // source cannot be null; before.get(i) and after.get(i) are the
+    // same row
+    public EditEvent(Object source, List<Object[]> before, List<Object[]> after)
+    {
+	super(source);
+	this.before = before;
+	this.after = after;
+    }
+
+    /*
+     * Returns the number of rows written.
+     */
+    public int getRowCount()
+    {
+	return after.size();
+    }
+
+    /*
+     * Returns the values of row i before the edits.
+     */
+    public Object[] getBefore(int i)
+    {
+	return before.get(i);
+    }
+
+    /*
+     * Returns the values of row i after the edits.
+     */
+    public Object[] getAfter(int i)
+    {
+	return after.get(i);
+    }
+}
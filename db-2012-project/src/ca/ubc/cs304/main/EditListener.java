@@ -0,0 +1,17 @@
+package ca.ubc.cs304.main;
+
+// File: EditListener.java
+
+import java.util.EventListener;
+
+/*
+ * The listener interface for receiving edit events. Unlike a 
+ * TableModelListener, which is also told about rows that are loaded, 
+ * sorted or edited but not yet written, an EditListener only hears 
+ * about rows whose edits were committed. Its editsApplied() method is
+ * invoked on the event dispatch thread.
+ */ 
+public interface EditListener extends EventListener
+{
+    public void editsApplied(EditEvent e);
+}
@@ -7,15 +7,26 @@ import java.sql.*;
 
 /*
  * This class is a singleton class that provides methods 
- * to connect to an Oracle database, return the connection, 
- * set the connection, and determine whether or not the Oracle
+ * to connect to an Oracle database, borrow and release pooled 
+ * connections, and determine whether or not the Oracle
  * JDBC driver has been loaded. To obtain a reference to an
  * instance of this class, use the getInstance() method.
+ *
+ * Connections are borrowed for one operation at a time: call 
+ * getConnection() at the start of the operation and hand the 
+ * connection back with releaseConnection() when it is done. 
+ * A method that returns a ResultSet leaves its connection 
+ * borrowed; whoever consumes the ResultSet (normally a 
+ * CustomTableModel) releases it.
+ *
+ * Statements should be obtained with prepareStatement() and handed
+ * back with closeStatement(), which keeps them in a per-connection
+ * cache so that frequently run SQL is only parsed once.
  */ 
 public class MvbOracleConnection
 {
     private static MvbOracleConnection _mvb = null;
-    protected Connection con = null;
+    protected ConnectionPool pool = null;
     protected boolean driverLoaded = false;
 
 
@@ -63,9 +74,9 @@ public class MvbOracleConnection
 		driverLoaded = true; 
 	    }
  
-	    con = DriverManager.getConnection(url, username, password);
+	    pool = new ConnectionPool(url, username, password);
 
-	    con.setAutoCommit(false);
+	    pool.open();
 
 	    return true; 
 	}
@@ -77,20 +88,98 @@ public class MvbOracleConnection
 
 
     /*
-     * Returns the connection
+     * Borrows a connection from the pool. The connection must be
+     * handed back with releaseConnection(), normally in a finally block.
      */
-    public Connection getConnection()
+    public Connection getConnection() throws SQLException
     {
-	return con; 
+	if (pool == null)
+	{
+	    throw new SQLException("Not connected to the database");
+	}
+
+	return pool.getConnection(); 
+    }
+
+
+    /*
+     * Hands a borrowed connection back to the pool. 
+     * Does nothing if con is null.
+     */
+    public void releaseConnection(Connection con)
+    {
+	if (pool != null)
+	{
+	    pool.releaseConnection(con);
+	}
+    }
+
+
+    /*
+     * Returns a forward only, read only prepared statement for the 
+     * given SQL on a borrowed connection. The statement may come from 
+     * the connection's statement cache and must be handed back with 
+     * closeStatement().
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql) throws SQLException
+    {
+	return prepareStatement(con, sql, ResultSet.TYPE_FORWARD_ONLY, 
+				ResultSet.CONCUR_READ_ONLY);
+    }
+
+
+    /*
+     * Returns a prepared statement with the given result set type and
+     * concurrency. See prepareStatement(Connection, String).
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql, 
+					      int type, int concurrency) throws SQLException
+    {
+	if (pool == null)
+	{
+	    return con.prepareStatement(sql, type, concurrency);
+	}
+
+	return pool.prepareStatement(con, sql, type, concurrency); 
+    }
+
+
+    /*
+     * Hands a statement back to its connection's statement cache, or 
+     * closes it if it was not cached. Errors are ignored.
+     * Does nothing if stmt is null.
+     */
+    public void closeStatement(Statement stmt)
+    {
+	if (stmt == null)
+	{
+	    return;
+	}
+
+	if (pool != null)
+	{
+	    pool.closeStatement(stmt);
+	    return;
+	}
+
+	try
+	{
+	    stmt.close();
+	}
+	catch (SQLException ex)
+	{
+	    // nothing useful can be done if close fails
+	}
     }
 
 
     /*
-     * Sets the connection
+     * Returns the connection pool, or null if connect() 
+     * has not succeeded yet
      */
-    public void setConnection(Connection connect)
+    public ConnectionPool getPool()
     {
-	con = connect; 
+	return pool; 
     }
 
 
@@ -109,9 +198,9 @@ public class MvbOracleConnection
      */ 
     protected void finalize() throws Throwable
     {		
-	if (con != null)
+	if (pool != null)
 	{
-	    con.close();
+	    pool.close();
 	}
 
 	// finalize() must call super.finalize() as the last thing it does
@@ -7,6 +7,8 @@ import java.awt.event.*;
 
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 
 import ca.ubc.cs304.tables.ClerkController;
 import ca.ubc.cs304.tables.CustomerController;
@@ -41,6 +43,33 @@ public class MvbView extends JFrame {
 	// the scrollpane that will hold the table of database data
 	private JScrollPane tableScrPane = new JScrollPane();
 
+	// background database tasks that have not finished yet, oldest first
+	private java.util.List<DbTask<?>> runningTasks = new java.util.ArrayList<DbTask<?>>();
+
+	// how long a task must run before its progress is shown, in milliseconds
+	private static final int TASK_DISPLAY_DELAY = 400;
+
+	// shows the progress of the running tasks and lets the user cancel them
+	private JPanel taskPane = new JPanel(new BorderLayout(10, 0));
+	private JLabel taskLabel = new JLabel();
+	private JProgressBar taskProgress = new JProgressBar(0, 100);
+	private JButton taskCancel = new JButton("Cancel");
+	private Timer taskTimer;
+
+	// shows how many edits of an editable table have not been written and
+	// lets the user apply or discard them; hidden for other tables
+	private JPanel editPane = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+	private JLabel editLabel = new JLabel();
+	private JButton editApply = new JButton("Apply");
+	private JButton editDiscard = new JButton("Discard");
+	private CustomTableModel editModel = null;
+	private DbTask<Integer> applyTask = null;
+	private TableModelListener editListener = new TableModelListener() {
+		public void tableChanged(TableModelEvent e) {
+			updateEditPane();
+		}
+	};
+
 	// the branch admin menu
 	private JMenu branchAdmin;
 
@@ -105,9 +134,53 @@ public class MvbView extends JFrame {
 		statusField.setLineWrap(true);
 		statusField.setWrapStyleWord(true);
 
+		// the progress bar and cancel button for background tasks; hidden
+		// until a task has run for longer than TASK_DISPLAY_DELAY
+		taskPane.add(taskLabel, BorderLayout.WEST);
+		taskPane.add(taskProgress, BorderLayout.CENTER);
+		taskPane.add(taskCancel, BorderLayout.EAST);
+		taskPane.setVisible(false);
+
+		taskCancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				cancelTasks();
+			}
+		});
+
+		taskTimer = new Timer(TASK_DISPLAY_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				updateTaskPane();
+			}
+		});
+		taskTimer.setRepeats(false);
+
+		editPane.add(editLabel);
+		editPane.add(editApply);
+		editPane.add(editDiscard);
+		editPane.setVisible(false);
+
+		editApply.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				applyEdits();
+			}
+		});
+
+		editDiscard.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (editModel != null) {
+					editModel.discardEdits();
+				}
+			}
+		});
+
+		JPanel southPane = new JPanel(new BorderLayout(0, 5));
+		southPane.add(editPane, BorderLayout.NORTH);
+		southPane.add(taskPane, BorderLayout.SOUTH);
+
 		// add the panes to the content pane
 		contentPane.add(tableScrPane, BorderLayout.CENTER);
 		contentPane.add(statusScrPane, BorderLayout.NORTH);
+		contentPane.add(southPane, BorderLayout.SOUTH);
 
 		// center the main window
 		Dimension screenSize = getToolkit().getScreenSize();
@@ -139,6 +212,31 @@ public class MvbView extends JFrame {
 		setupReturnAdminMenu(admin);
 		setupShipItemAdminMenu(admin);
 		setupShipmentAdminMenu(admin);
+
+		admin.addSeparator();
+
+		JMenuItem stats = createMenuItem(admin, "Connection statistics", KeyEvent.VK_N, "");
+
+		stats.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showConnectionStatistics();
+			}
+		});
+	}
+
+	/*
+	 * Shows the connection pool's connections and statement cache hits and
+	 * misses in the status bar.
+	 */
+	private void showConnectionStatistics() {
+		ConnectionPool pool = MvbOracleConnection.getInstance().getPool();
+
+		if (pool == null) {
+			updateStatusBar("Not connected to the database.");
+			return;
+		}
+
+		updateStatusBar(pool.getStatistics());
 	}
 
 	private void setupCustomerMenu(JMenuBar mb) {
@@ -147,6 +245,8 @@ public class MvbView extends JFrame {
 		cust.setMnemonic(KeyEvent.VK_C);
 
 		createMenuItem(cust, "Search for item...", KeyEvent.VK_S, "Item Search");
+
+		createMenuItem(cust, "Search by song...", KeyEvent.VK_B, "Song Search");
 		
 		custAddItem = createMenuItem(cust,
 				"Add selected item to shopping cart...", KeyEvent.VK_A,
@@ -530,9 +630,20 @@ public class MvbView extends JFrame {
 	}
 
 	/*
-	 * This method adds the given string to the status text area
+	 * This method adds the given string to the status text area. It may be
+	 * called from any thread; the text area is only touched on the event
+	 * dispatch thread.
 	 */
-	public void updateStatusBar(String s) {
+	public void updateStatusBar(final String s) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					updateStatusBar(s);
+				}
+			});
+			return;
+		}
+
 		// trim() removes whitespace and control characters at both ends of the
 		// string
 		statusField.append(s.trim() + "\n");
@@ -545,13 +656,171 @@ public class MvbView extends JFrame {
 	}
 
 	/*
-	 * This method adds the given JTable into tableScrPane
+	 * This method adds the given JTable into tableScrPane. If the table
+	 * being replaced is a CustomTable, its model is closed so that any
+	 * database connection it still holds goes back to the pool, and any
+	 * of its edits that were not applied are lost.
 	 */
 	public void addTable(JTable data) {
+		Component old = tableScrPane.getViewport().getView();
+
+		if (old instanceof CustomTable && old != data) {
+			CustomTableModel oldModel = ((CustomTable) old).getCustomModel();
+			int pending = oldModel.getPendingEditCount();
+
+			if (pending > 0) {
+				updateStatusBar(pending + " unapplied changes were discarded.");
+			}
+
+			oldModel.close();
+		}
+
+		if (editModel != null) {
+			editModel.removeTableModelListener(editListener);
+			editModel = null;
+		}
+
+		if (data instanceof CustomTable && ((CustomTable) data).getCustomModel().isBufferingEdits()) {
+			editModel = ((CustomTable) data).getCustomModel();
+			editModel.addTableModelListener(editListener);
+		}
+
+		updateEditPane();
+
 		tableScrPane.setViewportView(data);
 		custAddItem.setEnabled(false);
 	}
 
+	/*
+	 * Writes the buffered edits of the table shown in tableScrPane in the
+	 * background.
+	 */
+	private void applyEdits() {
+		if (editModel == null || applyTask != null) {
+			return;
+		}
+
+		if (editModel.isLoading()) {
+			updateStatusBar("The changes can be applied once all rows are loaded.");
+			return;
+		}
+
+		final CustomTableModel model = editModel;
+
+		applyTask = new DbTask<Integer>(this, "Applying changes") {
+			protected Integer work() throws Exception {
+				return Integer.valueOf(model.applyEdits());
+			}
+
+			protected void succeeded(Integer updated) {
+				updateStatusBar(updated + " rows updated.");
+			}
+		};
+
+		applyTask.start();
+		updateEditPane();
+	}
+
+	/*
+	 * Shows the number of edits that have not been applied, or hides the
+	 * edit pane if the table shown does not buffer its edits.
+	 */
+	private void updateEditPane() {
+		if (editModel == null) {
+			editPane.setVisible(false);
+			return;
+		}
+
+		int pending = editModel.getPendingEditCount();
+
+		editLabel.setText(pending == 0 ? "No unapplied changes" : pending + " unapplied changes");
+		editApply.setEnabled(pending > 0 && applyTask == null);
+		editDiscard.setEnabled(pending > 0 && applyTask == null);
+
+		if (!editPane.isVisible()) {
+			editPane.setVisible(true);
+			editPane.revalidate();
+		}
+	}
+
+	/*
+	 * Called by DbTask on the event dispatch thread when a task is started.
+	 */
+	public void taskStarted(DbTask<?> task) {
+		runningTasks.add(task);
+
+		if (taskPane.isVisible()) {
+			updateTaskPane();
+		} else if (!taskTimer.isRunning()) {
+			taskTimer.restart();
+		}
+	}
+
+	/*
+	 * Called by DbTask on the event dispatch thread when a task has finished,
+	 * whether it succeeded, failed or was cancelled.
+	 */
+	public void taskFinished(DbTask<?> task) {
+		runningTasks.remove(task);
+		updateTaskPane();
+
+		if (task == applyTask) {
+			applyTask = null;
+			updateEditPane();
+		}
+	}
+
+	/*
+	 * Called by DbTask on the event dispatch thread when a task reports
+	 * progress with setProgress().
+	 */
+	public void taskProgressed(DbTask<?> task) {
+		if (taskPane.isVisible()) {
+			updateTaskPane();
+		}
+	}
+
+	/*
+	 * Cancels all running background tasks.
+	 */
+	public void cancelTasks() {
+		for (DbTask<?> task : new java.util.ArrayList<DbTask<?>>(runningTasks)) {
+			task.cancelTask();
+		}
+
+		updateTaskPane();
+	}
+
+	/*
+	 * Shows the most recently started task in the task pane, or hides the
+	 * pane if no task is running. A task that has not reported any progress
+	 * gets an indeterminate progress bar.
+	 */
+	private void updateTaskPane() {
+		if (runningTasks.isEmpty()) {
+			taskTimer.stop();
+			taskPane.setVisible(false);
+			return;
+		}
+
+		DbTask<?> task = runningTasks.get(runningTasks.size() - 1);
+		String text = task.getDescription() + "...";
+
+		if (runningTasks.size() > 1) {
+			text += " (" + (runningTasks.size() - 1) + " more)";
+		}
+
+		taskLabel.setText(text);
+		taskProgress.setIndeterminate(task.getProgress() == 0);
+		taskProgress.setValue(task.getProgress());
+		taskCancel.setEnabled(!task.isTaskCancelled());
+
+		if (!taskPane.isVisible()) {
+			taskPane.setVisible(true);
+			taskPane.revalidate();
+		}
+	}
+
 	/*
 	 * This method enables the "add item" menu item in the customer transactions.
 	 */
@@ -566,6 +835,20 @@ public class MvbView extends JFrame {
 	public void registerControllers() {
 		JMenuItem menuItem;
 
+		// The pool reports possible connection leaks from its housekeeping
+		// thread; updateStatusBar() hands them over to the event thread.
+		ConnectionPool pool = MvbOracleConnection.getInstance().getPool();
+
+		if (pool != null) {
+			pool.addExceptionListener(new ExceptionListener() {
+				public void exceptionGenerated(ExceptionEvent ex) {
+					if (ex.getMessage() != null) {
+						updateStatusBar(ex.getMessage());
+					}
+				}
+			});
+		}
+
 		// Register all controllers
 		CustomerController cc = new CustomerController(this);
 
@@ -0,0 +1,263 @@
+package ca.ubc.cs304.main;
+
+// File: PagedTableModel.java
+
+import java.sql.*;
+import java.util.*;
+
+import javax.swing.SwingUtilities;
+
+/*
+ * PagedTableModel is a read only CustomTableModel for tables that are
+ * too large to copy into memory in one go. Instead of draining a result
+ * set, it runs its query a page at a time, using ROWNUM to select the
+ * window of rows the JTable is currently painting, and keeps only the
+ * most recently used pages.
+ *
+ * The constructor counts the rows and loads the first page, so it must
+ * be called off the event dispatch thread (e.g. from a TableTask). Any
+ * other page is loaded on a DbExecutor thread the first time one of its
+ * rows is asked for; until then getValueAt() returns null for the row
+ * and the table repaints it once the page arrives. When a row close to
+ * the end of a page is displayed, the next page is fetched as well, so
+ * that scrolling normally does not show empty rows.
+ *
+ * Pages are fetched with an offset into the query's ORDER BY, so the
+ * order must be unique (e.g. the primary key) or rows can be skipped or
+ * shown twice. Rows inserted or deleted after the model was created
+ * shift the pages loaded after the change; the row count is not
+ * updated.
+ *
+ * The model is not sortable and not editable.
+ */
+public class PagedTableModel extends CustomTableModel {
+	// number of rows fetched with one query
+	public static final int PAGE_SIZE = 100;
+
+	// number of pages kept in memory
+	public static final int MAX_PAGES = 20;
+
+	// a row this close to the end of its page also loads the next page
+	private static final int PREFETCH_MARGIN = PAGE_SIZE / 4;
+
+	private String pageSql;
+	private int rowCount;
+
+	// pages in least recently used order; only used on the event
+	// dispatch thread once the constructor has returned
+	private LinkedHashMap<Integer, ColumnStore> pages;
+
+	// pages being loaded, and pages that could not be loaded and are
+	// not tried again
+	private Set<Integer> loading = new HashSet<Integer>();
+	private Set<Integer> failed = new HashSet<Integer>();
+
+	private volatile boolean closed = false;
+
+	/*
+	 * Creates a model for the given query, ordered by orderBy. The query
+	 * must not have an ORDER BY clause of its own.
+	 */
+	public PagedTableModel(String sql, String orderBy) throws SQLException {
+		super(null);
+
+		isUpdatable = false;
+		isSortable = false;
+
+		pageSql = "SELECT * FROM (SELECT q.*, ROWNUM page_row FROM (" + sql + " ORDER BY " + orderBy
+				+ ") q WHERE ROWNUM <= ?) WHERE page_row > ?";
+
+		pages = new LinkedHashMap<Integer, ColumnStore>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, ColumnStore> eldest) {
+				return size() > MAX_PAGES;
+			}
+		};
+
+		MvbOracleConnection mvb = MvbOracleConnection.getInstance();
+		Connection con = mvb.getConnection();
+		PreparedStatement ps = null;
+
+		try {
+			ps = mvb.prepareStatement(con, "SELECT COUNT(*) FROM (" + sql + ")");
+			ResultSet count = ps.executeQuery();
+			count.next();
+			rowCount = count.getInt(1);
+			count.close();
+			mvb.closeStatement(ps);
+
+			ps = mvb.prepareStatement(con, pageSql);
+			ResultSet rs = executePage(ps, 0);
+			ResultSetMetaData md = rs.getMetaData();
+
+			// the last column is page_row, which is not shown
+			numColumns = md.getColumnCount() - 1;
+			columnNames = new String[numColumns];
+			columnTypes = new int[numColumns];
+			columnWritable = new boolean[numColumns];
+
+			for (int i = 0; i < numColumns; i++) {
+				columnNames[i] = md.getColumnLabel(i + 1);
+				columnTypes[i] = md.getColumnType(i + 1);
+			}
+
+			pages.put(Integer.valueOf(0), readPage(rs));
+			rs.close();
+		} finally {
+			mvb.closeStatement(ps);
+			mvb.releaseConnection(con);
+		}
+	}
+
+	/*
+	 * Stops loading pages and drops the ones in memory.
+	 */
+	public void close() {
+		closed = true;
+
+		if (SwingUtilities.isEventDispatchThread()) {
+			pages.clear();
+		}
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		int pageIndex = rowIndex / PAGE_SIZE;
+		int offset = rowIndex % PAGE_SIZE;
+		ColumnStore page = pages.get(Integer.valueOf(pageIndex));
+
+		if (offset >= PAGE_SIZE - PREFETCH_MARGIN) {
+			requestPage(pageIndex + 1);
+		}
+
+		if (page == null) {
+			requestPage(pageIndex);
+			return null;
+		}
+
+		// the table may have shrunk since the rows were counted
+		if (offset >= page.size()) {
+			return null;
+		}
+
+		return page.get(offset, columnIndex);
+	}
+
+	public boolean isRowLoaded(int rowIndex) {
+		return pages.containsKey(Integer.valueOf(rowIndex / PAGE_SIZE));
+	}
+
+	public boolean isCellEditable(int row, int column) {
+		return false;
+	}
+
+	public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+		// read only
+	}
+
+	/*
+	 * Loads the given page in the background unless it is in memory,
+	 * already being loaded, or out of range.
+	 */
+	private void requestPage(int pageIndex) {
+		final Integer key = Integer.valueOf(pageIndex);
+
+		if (closed || pageIndex < 0 || pageIndex * PAGE_SIZE >= rowCount || pages.containsKey(key)
+				|| loading.contains(key) || failed.contains(key)) {
+			return;
+		}
+
+		loading.add(key);
+
+		DbExecutor.getInstance().execute(new Runnable() {
+			public void run() {
+				ColumnStore page = null;
+				String error = null;
+
+				try {
+					page = fetchPage(key.intValue());
+				} catch (SQLException ex) {
+					error = ex.getMessage();
+				}
+
+				final ColumnStore result = page;
+				final String message = error;
+
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						pageLoaded(key, result, message);
+					}
+				});
+			}
+		});
+	}
+
+	/*
+	 * Stores a page loaded by requestPage() and repaints its rows. Called
+	 * on the event dispatch thread.
+	 */
+	private void pageLoaded(Integer key, ColumnStore page, String error) {
+		loading.remove(key);
+
+		if (closed) {
+			return;
+		}
+
+		if (page == null) {
+			failed.add(key);
+			fireExceptionGenerated(new ExceptionEvent(this, error));
+			return;
+		}
+
+		pages.put(key, page);
+
+		int first = key.intValue() * PAGE_SIZE;
+		int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+
+		fireTableRowsUpdated(first, last);
+	}
+
+	/*
+	 * Runs the page query on a borrowed connection. Called on a
+	 * DbExecutor thread.
+	 */
+	private ColumnStore fetchPage(int pageIndex) throws SQLException {
+		if (closed) {
+			return new ColumnStore(columnTypes, dateTime);
+		}
+
+		MvbOracleConnection mvb = MvbOracleConnection.getInstance();
+		Connection con = mvb.getConnection();
+		PreparedStatement ps = null;
+
+		try {
+			ps = mvb.prepareStatement(con, pageSql);
+			ResultSet rs = executePage(ps, pageIndex);
+			ColumnStore page = readPage(rs);
+			rs.close();
+			return page;
+		} finally {
+			mvb.closeStatement(ps);
+			mvb.releaseConnection(con);
+		}
+	}
+
+	private ResultSet executePage(PreparedStatement ps, int pageIndex) throws SQLException {
+		ps.setInt(1, (pageIndex + 1) * PAGE_SIZE);
+		ps.setInt(2, pageIndex * PAGE_SIZE);
+		ps.setFetchSize(PAGE_SIZE);
+		return ps.executeQuery();
+	}
+
+	private ColumnStore readPage(ResultSet rs) throws SQLException {
+		ColumnStore page = new ColumnStore(columnTypes, dateTime);
+
+		while (rs.next()) {
+			page.addRow(rs);
+		}
+
+		return page;
+	}
+}
@@ -0,0 +1,133 @@
+package ca.ubc.cs304.main;
+
+// File: PermutationSort.java
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * PermutationSort sorts an array of row numbers with a RowComparator, so
+ * that a table can be sorted without moving its data. It is a stable
+ * merge sort; arrays of PARALLEL_THRESHOLD rows or more are split into
+ * halves that are sorted in parallel on a fork/join pool.
+ */
+final class PermutationSort {
+	// arrays at least this long are sorted in parallel
+	static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	// runs this short are insertion sorted
+	private static final int INSERTION_THRESHOLD = 32;
+
+	private static ForkJoinPool pool = null;
+
+	/*
+	 * Compares two rows by their row numbers. Must be safe to call from
+	 * several threads at once, which it is as long as the rows are not
+	 * modified during the sort.
+	 */
+	interface RowComparator {
+		int compare(int row1, int row2);
+	}
+
+	private PermutationSort() {
+	}
+
+	/*
+	 * Sorts the row numbers in rows in place.
+	 */
+	static void sort(int[] rows, RowComparator c) {
+		int[] buffer = new int[rows.length];
+
+		if (rows.length < PARALLEL_THRESHOLD) {
+			mergeSort(rows, buffer, 0, rows.length, c);
+		} else {
+			getPool().invoke(new SortTask(rows, buffer, 0, rows.length, c));
+		}
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	private static void mergeSort(int[] rows, int[] buffer, int lo, int hi, RowComparator c) {
+		if (hi - lo < INSERTION_THRESHOLD) {
+			insertionSort(rows, lo, hi, c);
+			return;
+		}
+
+		int mid = (lo + hi) >>> 1;
+
+		mergeSort(rows, buffer, lo, mid, c);
+		mergeSort(rows, buffer, mid, hi, c);
+		merge(rows, buffer, lo, mid, hi, c);
+	}
+
+	private static void insertionSort(int[] rows, int lo, int hi, RowComparator c) {
+		for (int i = lo + 1; i < hi; i++) {
+			int row = rows[i];
+			int j = i - 1;
+
+			while (j >= lo && c.compare(rows[j], row) > 0) {
+				rows[j + 1] = rows[j];
+				j--;
+			}
+
+			rows[j + 1] = row;
+		}
+	}
+
+	/*
+	 * Merges the sorted runs [lo, mid) and [mid, hi). Rows from the left
+	 * run win ties, which keeps the sort stable.
+	 */
+	private static void merge(int[] rows, int[] buffer, int lo, int mid, int hi, RowComparator c) {
+		// already in order, e.g. when sorting a sorted table again
+		if (c.compare(rows[mid - 1], rows[mid]) <= 0) {
+			return;
+		}
+
+		System.arraycopy(rows, lo, buffer, lo, hi - lo);
+
+		int i = lo;
+		int j = mid;
+
+		for (int k = lo; k < hi; k++) {
+			if (j >= hi || (i < mid && c.compare(buffer[i], buffer[j]) <= 0)) {
+				rows[k] = buffer[i++];
+			} else {
+				rows[k] = buffer[j++];
+			}
+		}
+	}
+
+	private static class SortTask extends RecursiveAction {
+		private int[] rows;
+		private int[] buffer;
+		private int lo;
+		private int hi;
+		private RowComparator c;
+
+		SortTask(int[] rows, int[] buffer, int lo, int hi, RowComparator c) {
+			this.rows = rows;
+			this.buffer = buffer;
+			this.lo = lo;
+			this.hi = hi;
+			this.c = c;
+		}
+
+		protected void compute() {
+			if (hi - lo < PARALLEL_THRESHOLD) {
+				mergeSort(rows, buffer, lo, hi, c);
+				return;
+			}
+
+			int mid = (lo + hi) >>> 1;
+
+			invokeAll(new SortTask(rows, buffer, lo, mid, c), new SortTask(rows, buffer, mid, hi, c));
+			merge(rows, buffer, lo, mid, hi, c);
+		}
+	}
+}
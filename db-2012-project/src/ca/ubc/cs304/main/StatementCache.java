@@ -0,0 +1,224 @@
+package ca.ubc.cs304.main;
+
+// File: StatementCache.java
+
+import java.sql.*;
+import java.util.*;
+
+/*
+ * StatementCache keeps the prepared statements of one physical
+ * connection so that the same SQL does not have to be parsed again
+ * every time a model method runs. Statements are keyed by their SQL
+ * text, result set type and result set concurrency.
+ *
+ * A statement is checked out with prepare() and handed back with
+ * checkIn() when the caller is done with it. While a statement is
+ * checked out it is not in the cache, so the same SQL can be prepared
+ * twice in one operation without the two uses interfering. The cache
+ * holds at most maxSize idle statements; the least recently used one
+ * is closed when a new one has to be added.
+ *
+ * The cache is owned by ConnectionPool and is only ever used through
+ * MvbOracleConnection.prepareStatement() and closeStatement().
+ */
+public class StatementCache {
+	private Connection con;
+	private int maxSize;
+
+	// idle statements in least recently used order
+	private LinkedHashMap<Key, PreparedStatement> cache;
+
+	// statements that are checked out, and the key to return them under
+	private Map<PreparedStatement, Key> checkedOut = new IdentityHashMap<PreparedStatement, Key>();
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public StatementCache(Connection con, int maxSize) {
+		this.con = con;
+		this.maxSize = maxSize;
+
+		cache = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+				if (size() > StatementCache.this.maxSize) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/*
+	 * Returns a prepared statement for the given SQL, reusing a cached
+	 * one if there is one. The statement must be handed back with
+	 * checkIn().
+	 */
+	public synchronized PreparedStatement prepare(String sql, int type, int concurrency) throws SQLException {
+		Key key = new Key(sql, type, concurrency);
+		PreparedStatement ps = cache.remove(key);
+
+		if (ps != null) {
+			hits++;
+		} else {
+			misses++;
+			ps = con.prepareStatement(sql, type, concurrency);
+		}
+
+		checkedOut.put(ps, key);
+		return ps;
+	}
+
+	/*
+	 * Hands a statement back to the cache. Its current result set is
+	 * closed and its parameters and batch are cleared so that the next user
+	 * starts fresh. Returns false if the statement did not come from
+	 * this cache, in which case nothing is done.
+	 */
+	public synchronized boolean checkIn(PreparedStatement ps) {
+		Key key = checkedOut.remove(ps);
+
+		if (key == null) {
+			// already back in the cache; a second close is harmless
+			return cache.containsValue(ps);
+		}
+
+		try {
+			ResultSet rs = ps.getResultSet();
+			if (rs != null) {
+				rs.close();
+			}
+		} catch (SQLException ex) {
+			// the result set was already closed by its reader
+		}
+
+		try {
+			ps.clearParameters();
+
+			// a batch that failed, or was never executed, must not run
+			// with the next caller's
+			ps.clearBatch();
+		} catch (SQLException ex) {
+			// a statement that cannot be reset is not worth keeping
+			closeQuietly(ps);
+			return true;
+		}
+
+		PreparedStatement old = cache.put(key, ps);
+
+		if (old != null && old != ps) {
+			closeQuietly(old);
+		}
+
+		return true;
+	}
+
+	/*
+	 * Hands back every statement that is still checked out. Called when
+	 * the connection is returned to the pool.
+	 */
+	public synchronized void checkInAll() {
+		List<PreparedStatement> outstanding = new ArrayList<PreparedStatement>(checkedOut.keySet());
+
+		for (PreparedStatement ps : outstanding) {
+			checkIn(ps);
+		}
+	}
+
+	/*
+	 * Cancels every statement that is checked out, i.e. every statement
+	 * the connection's borrower may be executing. Called from a thread
+	 * other than the borrower's; the borrower sees an SQLException.
+	 */
+	public void cancelCheckedOut() {
+		List<PreparedStatement> running;
+
+		synchronized (this) {
+			running = new ArrayList<PreparedStatement>(checkedOut.keySet());
+		}
+
+		// cancel() may have to talk to the database, so do not hold the lock
+		for (PreparedStatement ps : running) {
+			try {
+				ps.cancel();
+			} catch (SQLException ex) {
+				// the statement has already finished or was closed
+			}
+		}
+	}
+
+	/*
+	 * Closes every statement, cached or checked out. Called before the
+	 * connection itself is closed.
+	 */
+	public synchronized void closeAll() {
+		for (PreparedStatement ps : cache.values()) {
+			closeQuietly(ps);
+		}
+		for (PreparedStatement ps : checkedOut.keySet()) {
+			closeQuietly(ps);
+		}
+
+		cache.clear();
+		checkedOut.clear();
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+
+		// shrink right away rather than on the next insertion
+		Iterator<PreparedStatement> it = cache.values().iterator();
+		while (cache.size() > maxSize && it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static void closeQuietly(Statement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException ex) {
+			// ignore; the statement is being thrown away
+		}
+	}
+
+	/*
+	 * Cache key: the SQL text and the kind of result set it produces.
+	 */
+	private static final class Key {
+		private final String sql;
+		private final int type;
+		private final int concurrency;
+
+		Key(String sql, int type, int concurrency) {
+			this.sql = sql;
+			this.type = type;
+			this.concurrency = concurrency;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key k = (Key) obj;
+			return type == k.type && concurrency == k.concurrency && sql.equals(k.sql);
+		}
+
+		public int hashCode() {
+			return (sql.hashCode() * 31 + type) * 31 + concurrency;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package ca.ubc.cs304.main;
+
+// File: TableTask.java
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+/*
+ * TableTask is a DbTask that runs a query in the background, copies
+ * its result set into a CustomTableModel there as well, and then shows
+ * the model in a CustomTable in MvbView. Subclasses implement query(),
+ * usually as a one line call to a model method, and may override
+ * tableShown() to customize the table once it is displayed. A subclass
+ * whose model method returns a table model rather than a result set,
+ * e.g. a PagedTableModel, overrides createModel() instead of query().
+ *
+ * A model that streams its rows (see CustomTableModel) is shown as soon
+ * as it is created, and its rows are read while it is on the screen,
+ * with the number of rows loaded so far shown next to the progress bar.
+ */
+public abstract class TableTask extends DbTask<CustomTableModel> {
+	private ExceptionListener listener;
+
+	// the table, once it is shown
+	private CustomTable table = null;
+
+	/*
+	 * The listener is registered with the model and the table to be
+	 * notified of any exceptions that occur in them.
+	 */
+	public TableTask(MvbView mvb, String description, ExceptionListener listener) {
+		super(mvb, description);
+		this.listener = listener;
+	}
+
+	/*
+	 * Runs the query. Called on a background thread.
+	 */
+	protected ResultSet query() {
+		return null;
+	}
+
+	/*
+	 * Creates the model. Called on a background thread.
+	 */
+	protected CustomTableModel createModel() {
+		// CustomTableModel maintains the result set's data, e.g., if
+		// the table is editable, it will update the database when the
+		// table's data is modified.
+		return new CustomTableModel(query(), null, true);
+	}
+
+	/*
+	 * Called on the event dispatch thread after the table has been added
+	 * to MvbView.
+	 */
+	protected void tableShown(CustomTable table) {
+		// empty
+	}
+
+	protected final CustomTableModel work() throws SQLException {
+		final CustomTableModel model = createModel();
+
+		if (model == null || !model.isStreaming()) {
+			return model;
+		}
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				show(model);
+			}
+		});
+
+		model.streamRows();
+		return model;
+	}
+
+	protected void succeeded(CustomTableModel model) {
+		if (table == null) {
+			show(model);
+		} else {
+			mvb.updateStatusBar(model.getRowCount() + " rows loaded.");
+		}
+	}
+
+	protected void discard(CustomTableModel model) {
+		model.close();
+	}
+
+	/*
+	 * Shows the model in a new CustomTable.
+	 */
+	private void show(final CustomTableModel model) {
+		// a model method that failed returns null; show an empty table
+		CustomTableModel m = (model == null ? new CustomTableModel(null) : model);
+		final String description = getDescription();
+
+		table = new CustomTable(m);
+
+		m.addExceptionListener(listener);
+		table.addExceptionListener(listener);
+
+		if (m.isLoading()) {
+			m.addTableModelListener(new TableModelListener() {
+				public void tableChanged(TableModelEvent e) {
+					if (!isDone()) {
+						setDescription(description + ": " + model.getRowCount() + " rows loaded");
+					}
+				}
+			});
+		}
+
+		// Adds the table to the scrollpane.
+		// By default, a JTable does not have scroll bars.
+		mvb.addTable(table);
+
+		tableShown(table);
+	}
+}
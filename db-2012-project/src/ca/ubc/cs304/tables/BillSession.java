@@ -0,0 +1,359 @@
+package ca.ubc.cs304.tables;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * BillSession is the bill of an in-store purchase while the clerk scans
+ * its items. The items are kept in memory, one line per item: scanning
+ * an item that is on the bill already adds to its quantity. The total is
+ * kept as items are scanned, in cents as in ShoppingCart, and each line
+ * keeps the price the item had when it was first scanned.
+ *
+ * The title and price of an item are read from item the first time any
+ * bill scans it and kept for later bills. ItemModel reports new prices
+ * through priceChanged(), and code that changes prices it does not know
+ * calls pricesChanged(), which makes the next bills read them again.
+ *
+ * Nothing is written until the bill is paid. pay() then writes the
+ * purchase, its items and the stock sold in one transaction, with one
+ * batch for the items and one for the stock, and one commit.
+ */
+public class BillSession {
+	// prices and totals are kept in units of 10^-SCALE dollars
+	private static final int SCALE = 2;
+
+	// the title and price of the items scanned so far, by UPC
+	private static ConcurrentHashMap<Integer, Line> _items = new ConcurrentHashMap<Integer, Line>();
+
+	// changed by every price change, so that a price read before it is
+	// not kept; guarded by _items
+	private static int _generation = 0;
+
+	// the lines by UPC, in the order the items were scanned
+	private Map<Integer, Line> lines = new LinkedHashMap<Integer, Line>();
+
+	// the total price, in cents
+	private long total = 0;
+
+	// the receipt number once the bill is paid, 0 until then
+	private int receiptID = 0;
+
+	private static class Line {
+		int upc;
+		String title;
+		BigDecimal price;
+		long cents;
+		int quantity;
+
+		Line(int upc, String title, BigDecimal price) {
+			this.upc = upc;
+			this.title = title;
+			this.price = price;
+			this.cents = price.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+		}
+	}
+
+	public BillSession() {
+		// empty
+	}
+
+	/*
+	 * Records a new title and price for an item.
+	 */
+	public static void priceChanged(int upc, String title, BigDecimal price) {
+		synchronized (_items) {
+			_generation++;
+			_items.put(Integer.valueOf(upc), new Line(upc, title, price));
+		}
+	}
+
+	/*
+	 * Records that the prices of some items changed, without saying
+	 * which or to what.
+	 */
+	public static void pricesChanged() {
+		synchronized (_items) {
+			_generation++;
+			_items.clear();
+		}
+	}
+
+	/*
+	 * Records an item that was deleted.
+	 */
+	public static void itemDeleted(int upc) {
+		synchronized (_items) {
+			_generation++;
+			_items.remove(Integer.valueOf(upc));
+		}
+	}
+
+	/*
+	 * Adds quantity copies of the item to the bill. Returns false if there
+	 * is no such item.
+	 */
+	public boolean add(int upc, int quantity) throws SQLException {
+		return addAll(Collections.singletonMap(Integer.valueOf(upc), Integer.valueOf(quantity))).isEmpty();
+	}
+
+	/*
+	 * Adds the quantities, by UPC, to the bill, e.g. the scans queued by
+	 * ScanQueue, reading the items not yet known with one query. Returns 
+	 * the UPCs of the items that do not exist, which are not added.
+	 */
+	public List<Integer> addAll(Map<Integer, Integer> quantities) throws SQLException {
+		// the bill is not locked while the items are read, so that it can
+		// be shown in the meantime
+		Map<Integer, Line> items = findItems(quantities.keySet());
+		List<Integer> unknown = new ArrayList<Integer>();
+
+		synchronized (this) {
+			if (receiptID != 0) {
+				throw new SQLException("The bill is paid already.");
+			}
+
+			for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+				Line line = lines.get(e.getKey());
+
+				if (line == null) {
+					Line item = items.get(e.getKey());
+
+					if (item == null) {
+						unknown.add(e.getKey());
+						continue;
+					}
+
+					line = new Line(item.upc, item.title, item.price);
+					lines.put(e.getKey(), line);
+				}
+
+				line.quantity += e.getValue().intValue();
+				total += line.cents * e.getValue().intValue();
+			}
+		}
+
+		return unknown;
+	}
+
+	/*
+	 * Returns true if nothing has been scanned.
+	 */
+	public synchronized boolean isEmpty() {
+		return lines.isEmpty();
+	}
+
+	/*
+	 * Returns the total price of the items on the bill.
+	 */
+	public synchronized BigDecimal total() {
+		return BigDecimal.valueOf(total, SCALE);
+	}
+
+	/*
+	 * Returns one row of {upc, title, quantity, price} per item on the
+	 * bill, in the order they were scanned.
+	 */
+	public synchronized List<Object[]> rows() {
+		List<Object[]> rows = new ArrayList<Object[]>(lines.size());
+
+		for (Line line : lines.values()) {
+			rows.add(new Object[] { Integer.valueOf(line.upc), line.title, Integer.valueOf(line.quantity), line.price });
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Returns the quantity of each item on the bill, by UPC.
+	 */
+	public synchronized Map<Integer, Integer> quantities() {
+		Map<Integer, Integer> quantities = new HashMap<Integer, Integer>();
+
+		for (Line line : lines.values()) {
+			quantities.put(Integer.valueOf(line.upc), Integer.valueOf(line.quantity));
+		}
+
+		return quantities;
+	}
+
+	/*
+	 * Returns the receipt number of the bill, or 0 if it is not paid.
+	 */
+	public synchronized int getReceiptID() {
+		return receiptID;
+	}
+
+	/*
+	 * Writes the bill as a purchase, paid by card if cardno is not null
+	 * and in cash otherwise, takes the copies sold from item.stock and
+	 * commits. Returns the receipt number, or throws the error that kept
+	 * the bill from being written, in which case nothing is.
+	 */
+	public synchronized int pay(String cardno, Date expire) throws SQLException {
+		if (receiptID != 0) {
+			return receiptID;
+		}
+
+		if (lines.isEmpty()) {
+			throw new SQLException("The bill is empty.");
+		}
+
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			int rid = IdAllocator.RECEIPTS.next(con);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"INSERT INTO Purchase VALUES(?, sysdate, null, ?, ?, null, null)");
+
+			ps.setInt(1, rid);
+			ps.setString(2, cardno);
+
+			if (expire != null) {
+				ps.setDate(3, expire);
+			} else {
+				ps.setNull(3, Types.DATE);
+			}
+
+			ps.executeUpdate();
+
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO PurchaseItem VALUES(?,?,?)");
+
+			for (Line line : lines.values()) {
+				ps.setInt(1, rid);
+				ps.setInt(2, line.upc);
+				ps.setInt(3, line.quantity);
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"UPDATE item SET stock = stock - ? WHERE upc = ?");
+
+			for (Line line : lines.values()) {
+				ps.setInt(1, line.quantity);
+				ps.setInt(2, line.upc);
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+
+			con.commit();
+
+			receiptID = rid;
+
+			return rid;
+		} catch (SQLException ex) {
+			if (con != null) {
+				try {
+					con.rollback();
+				} catch (SQLException ex2) {
+					// the first error is the one reported
+				}
+			}
+
+			throw ex;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+
+	/*
+	 * Returns the title and price of the items, by UPC, reading those no
+	 * bill has scanned yet with one query. Items that do not exist are 
+	 * left out.
+	 */
+	private static Map<Integer, Line> findItems(Collection<Integer> upcs) throws SQLException {
+		Map<Integer, Line> items = new HashMap<Integer, Line>();
+		List<Integer> missing = new ArrayList<Integer>();
+
+		for (Integer upc : upcs) {
+			Line item = _items.get(upc);
+
+			if (item != null) {
+				items.put(upc, item);
+			} else {
+				missing.add(upc);
+			}
+		}
+
+		if (missing.isEmpty()) {
+			return items;
+		}
+
+		int generation;
+
+		synchronized (_items) {
+			generation = _generation;
+		}
+
+		StringBuilder sql = new StringBuilder("SELECT upc, title, sellPrice FROM item WHERE upc IN (?");
+
+		for (int i = 1; i < missing.size(); i++) {
+			sql.append(", ?");
+		}
+
+		sql.append(")");
+
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, sql.toString());
+
+			int i = 1;
+
+			for (Integer upc : missing) {
+				ps.setInt(i++, upc.intValue());
+			}
+
+			ResultSet rs = ps.executeQuery();
+			List<Line> read = new ArrayList<Line>();
+
+			while (rs.next()) {
+				Line item = new Line(rs.getInt(1), rs.getString(2), rs.getBigDecimal(3));
+
+				items.put(Integer.valueOf(item.upc), item);
+				read.add(item);
+			}
+
+			rs.close();
+
+			synchronized (_items) {
+				if (generation == _generation) {
+					for (Line item : read) {
+						_items.put(Integer.valueOf(item.upc), item);
+					}
+				}
+			}
+
+			return items;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+}
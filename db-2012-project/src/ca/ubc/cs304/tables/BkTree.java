@@ -0,0 +1,210 @@
+package ca.ubc.cs304.tables;
+
+import java.util.List;
+
+/*
+ * BkTree is a Burkhard-Keller tree of words, which finds the words
+ * within a given edit distance of a word without comparing it with
+ * every word. Each child of a node is at a distinct Levenshtein distance
+ * from it, and since the distance is a metric, only the children whose
+ * distance from the node is within max of the query's distance from
+ * the node can lead to a match.
+ *
+ * Words cannot be removed; callers that remove words check the words
+ * found against their own word lists.
+ */
+class BkTree {
+	private Node root = null;
+	private int size = 0;
+
+	// the rows of the distance table, reused by find(); callers
+	// synchronize access to the tree
+	private int[] previous = new int[32];
+	private int[] current = new int[32];
+
+	/*
+	 * A word and its children, kept as a linked list, which is small
+	 * since most nodes have few children.
+	 */
+	private static class Node {
+		String word;
+		int distance;
+		Node firstChild;
+		Node nextSibling;
+
+		Node(String word, int distance) {
+			this.word = word;
+			this.distance = distance;
+		}
+	}
+
+	/*
+	 * Adds word, unless it is in the tree already.
+	 */
+	void add(String word) {
+		if (root == null) {
+			root = new Node(word, 0);
+			size++;
+			return;
+		}
+
+		Node node = root;
+
+		while (true) {
+			int d = distance(node.word, word);
+
+			if (d == 0) {
+				return;
+			}
+
+			Node child = node.firstChild;
+
+			while (child != null && child.distance != d) {
+				child = child.nextSibling;
+			}
+
+			if (child == null) {
+				child = new Node(word, d);
+				child.nextSibling = node.firstChild;
+				node.firstChild = child;
+				size++;
+				return;
+			}
+
+			node = child;
+		}
+	}
+
+	/*
+	 * Adds the words within max edits of word to found.
+	 */
+	void find(String word, int max, List<String> found) {
+		if (root == null) {
+			return;
+		}
+
+		char[] chars = word.toCharArray();
+
+		if (previous.length <= chars.length) {
+			previous = new int[chars.length + 1];
+			current = new int[chars.length + 1];
+		}
+
+		find(root, chars, max, found);
+	}
+
+	private void find(Node node, char[] word, int max, List<String> found) {
+		int d = distance(node.word, word);
+
+		if (d <= max) {
+			found.add(node.word);
+		}
+
+		for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+			if (child.distance >= d - max && child.distance <= d + max) {
+				find(child, word, max, found);
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/*
+	 * Same as distance(a, new String(b)), without allocating.
+	 */
+	private int distance(String a, char[] b) {
+		int[] previous = this.previous;
+		int[] current = this.current;
+
+		for (int j = 0; j <= b.length; j++) {
+			previous[j] = j;
+		}
+
+		for (int i = 1; i <= a.length(); i++) {
+			char c = a.charAt(i - 1);
+
+			current[0] = i;
+
+			for (int j = 1; j <= b.length; j++) {
+				int replace = previous[j - 1] + (c == b[j - 1] ? 0 : 1);
+
+				current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+			}
+
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		return previous[b.length];
+	}
+
+	/*
+	 * Returns the distance between a and b counting a swap of adjacent
+	 * characters as one edit rather than two, e.g. 1 for "raod" and 
+	 * "road". It is not a metric, so the tree is built with distance().
+	 */
+	static int swapDistance(String a, String b) {
+		int[][] d = new int[a.length() + 1][b.length() + 1];
+
+		for (int i = 0; i <= a.length(); i++) {
+			d[i][0] = i;
+		}
+
+		for (int j = 0; j <= b.length(); j++) {
+			d[0][j] = j;
+		}
+
+		for (int i = 1; i <= a.length(); i++) {
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+
+				d[i][j] = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+				}
+			}
+		}
+
+		return d[a.length()][b.length()];
+	}
+
+	/*
+	 * Returns the Levenshtein distance between a and b: the fewest
+	 * characters to insert, delete or replace to turn one into the other.
+	 */
+	static int distance(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+
+		for (int i = 1; i <= a.length(); i++) {
+			char c = a.charAt(i - 1);
+
+			current[0] = i;
+
+			for (int j = 1; j <= b.length(); j++) {
+				int replace = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+
+				current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+			}
+
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		return previous[b.length()];
+	}
+}
@@ -0,0 +1,1096 @@
+package ca.ubc.cs304.tables;
+
+import java.sql.*;
+import java.util.*;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * CatalogIndex is an in-memory search index over the items that have a
+ * lead singer, i.e. the rows the shop's item search can return. Titles,
+ * categories and lead singer names are split into lower case words,
+ * and each word maps to a sorted array of the items it occurs in, one
+ * sorted map of words per field, so that the items matching a word
+ * prefix can be found without scanning the catalog. Items are numbered
+ * densely, in UPC order when the index is loaded, and the items that
+ * match a query are collected in BitSets, which are cheap to combine.
+ *
+ * The index is loaded with one query the first time it is searched. It
+ * is kept current by ItemModel and LeadSingerModel, which report every
+ * insert, update and delete, and by ShopTransactions, which reports
+ * stock changes. Changes made through the editable admin tables, or by
+ * other programs, are picked up by invalidate() and by reloading the
+ * index once it is older than MAX_AGE.
+ *
+ * The results of recent searches are cached, keyed by the sorted words
+ * of each field, so that popular searches, e.g. the same category or
+ * the same lead singer, are answered without matching them again. At
+ * most CACHE_SIZE results are kept, least recently used first out, and
+ * none for longer than CACHE_TTL. Each change reported to the index
+ * drops exactly the cached results it affects: those that list the
+ * changed item, and those the item matches after the change. The hit
+ * rate is available from getCacheHitRate().
+ *
+ * A fuzzy search also finds words that are a few typing mistakes away
+ * from the terms, e.g. "beatels" finds "Beatles". The words of each
+ * field are kept in a BkTree, which finds the words within the allowed
+ * Levenshtein distance of a term: two edits for terms of six or more
+ * characters, one for four or five, none for shorter terms. Swapped
+ * letters, e.g. "raod", are looked up separately, since they count as
+ * two edits. Fuzzy results are ranked by the total distance of the
+ * words matched, counting a swap as one edit, then by popularity, the
+ * number of copies sold.
+ *
+ * The titles, categories and lead singer names are also kept whole in
+ * a CompletionTrie per field, weighted by the copies sold of the items
+ * they belong to, to suggest completions of what the customer types.
+ *
+ * All methods are synchronized; searching takes microseconds, so
+ * readers do not wait long for each other. Loading takes much longer,
+ * so a new index is read into a CatalogIndex of its own, without the
+ * lock, and swapped in under it; until then the old index, or none,
+ * answers searches and completions, e.g. on the event dispatch thread.
+ * The changes reported while it is read, e.g. the stock of every sale,
+ * are made to the new index too before it is swapped in.
+ */
+public class CatalogIndex {
+	// the index is reloaded on the next search once it is this old
+	public static final long MAX_AGE = 5 * 60 * 1000;
+
+	// the most search results kept, and how long each is kept
+	public static final int CACHE_SIZE = 256;
+	public static final long CACHE_TTL = 60 * 1000;
+
+	private static CatalogIndex _index = null;
+
+	// the shortest terms a fuzzy search allows one and two edits in
+	private static final int MIN_ONE_EDIT = 4;
+	private static final int MIN_TWO_EDITS = 6;
+
+	// most copies sold first, then lowest UPC
+	private static final Comparator<Item> POPULAR = new Comparator<Item>() {
+		public int compare(Item item1, Item item2) {
+			if (item1.sold != item2.sold) {
+				return (item1.sold > item2.sold ? -1 : 1);
+			}
+
+			return (item1.upc < item2.upc ? -1 : (item1.upc == item2.upc ? 0 : 1));
+		}
+	};
+
+	// the fields, for complete()
+	public static final int TITLE = 0;
+	public static final int CATEGORY = 1;
+	public static final int LEAD = 2;
+
+	// the items by UPC, and by number; a deleted item leaves a null
+	private Map<Integer, Item> items = new HashMap<Integer, Item>();
+	private List<Item> numbered = new ArrayList<Item>();
+
+	// false once an item is added out of UPC order
+	private boolean inUpcOrder = true;
+
+	// word -> numbers of the items containing it, per field
+	private List<TreeMap<String, Postings>> words = new ArrayList<TreeMap<String, Postings>>();
+
+	// the words of each field, for fuzzy searches; words no longer in
+	// words are not removed from the trees
+	private List<BkTree> trees = new ArrayList<BkTree>();
+
+	// the whole values of each field, weighted by copies sold
+	private List<CompletionTrie> completions = new ArrayList<CompletionTrie>();
+
+	private boolean loaded = false;
+	private long loadedAt = 0;
+
+	// held while the index is loaded, so that one load runs at a time
+	private final Object loading = new Object();
+
+	// the changes reported while the index is loaded, to be made to the
+	// new index; null while it is not loaded
+	private List<Change> pending = null;
+
+	// set if invalidate() is called while the index is loaded
+	private boolean missed = false;
+
+	// cached search results by key(), least recently used first
+	private LinkedHashMap<String, CachedSearch> cache = new LinkedHashMap<String, CachedSearch>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, CachedSearch> eldest) {
+			if (size() > CACHE_SIZE) {
+				evictions++;
+				return true;
+			}
+
+			return false;
+		}
+	};
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	/*
+	 * One item and the names of its lead singers.
+	 */
+	private static class Item {
+		int number;
+		int upc;
+		String title;
+		String category;
+		int stock;
+		int sold;
+		List<String> singers = new ArrayList<String>();
+	}
+
+	/*
+	 * A change reported while the index is loaded.
+	 */
+	private interface Change {
+		void apply(CatalogIndex index);
+	}
+
+	/*
+	 * The result of one search: the query's words per field, the numbers
+	 * of the items found and the rows returned for them.
+	 */
+	private static class CachedSearch {
+		List<List<String>> terms;
+		boolean fuzzy;
+		BitSet matches;
+		List<Object[]> rows;
+		long createdAt = System.currentTimeMillis();
+	}
+
+	/*
+	 * A sorted, growable array of item numbers. SongIndex uses it for
+	 * song numbers.
+	 */
+	static class Postings {
+		int[] numbers = new int[4];
+		int size = 0;
+
+		void add(int number) {
+			int i = (size > 0 && numbers[size - 1] < number ? size : Arrays.binarySearch(numbers, 0, size, number));
+
+			if (i >= 0 && i < size) {
+				// already there
+				return;
+			}
+
+			int at = (i == size ? size : -i - 1);
+
+			if (size == numbers.length) {
+				numbers = Arrays.copyOf(numbers, size * 2);
+			}
+
+			System.arraycopy(numbers, at, numbers, at + 1, size - at);
+			numbers[at] = number;
+			size++;
+		}
+
+		void remove(int number) {
+			int i = Arrays.binarySearch(numbers, 0, size, number);
+
+			if (i >= 0) {
+				System.arraycopy(numbers, i + 1, numbers, i, size - i - 1);
+				size--;
+			}
+		}
+	}
+
+	private CatalogIndex() {
+		for (int i = 0; i < 3; i++) {
+			words.add(new TreeMap<String, Postings>());
+			trees.add(new BkTree());
+			completions.add(new CompletionTrie());
+		}
+	}
+
+	/*
+	 * Returns the instance of CatalogIndex
+	 */
+	public static synchronized CatalogIndex getInstance() {
+		if (_index == null) {
+			_index = new CatalogIndex();
+		}
+
+		return _index;
+	}
+
+	/*
+	 * Returns one row of {upc, title, category, lead singer, stock,
+	 * copies sold} for each item and lead singer that match. Every word of title,
+	 * category and lead must be the start of a word of the item's
+	 * title, category and lead singer name respectively, e.g. "dark
+	 * moo" matches "The Dark Side of the Moon". A null or blank
+	 * argument matches everything. Rows are ordered by UPC.
+	 */
+	public List<Object[]> search(String title, String category, String lead) throws SQLException {
+		return search(title, category, lead, Integer.MAX_VALUE);
+	}
+
+	/*
+	 * Same as search(title, category, lead), but returns at most limit
+	 * rows, those with the lowest UPCs.
+	 */
+	public List<Object[]> search(String title, String category, String lead, int limit) throws SQLException {
+		return search(title, category, lead, limit, false);
+	}
+
+	/*
+	 * Same as search(title, category, lead, limit) if fuzzy is false. If
+	 * it is true, each term may also be up to maxEdits() edits away from
+	 * a whole word of the field, and rows are ordered by how close the
+	 * item's words are to the terms, then by popularity, then by UPC.
+	 */
+	public List<Object[]> search(String title, String category, String lead, int limit, boolean fuzzy)
+			throws SQLException {
+		refresh();
+
+		synchronized (this) {
+			CachedSearch cached = lookup(title, category, lead, fuzzy);
+
+			if (cached.rows == null) {
+				cached.rows = rows(cached.matches, cached.terms);
+			}
+
+			// the cached rows are shared; callers get their own list
+			return new ArrayList<Object[]>(cached.rows.subList(0, Math.min(limit, cached.rows.size())));
+		}
+	}
+
+	/*
+	 * Returns a page of the rows search(title, category, lead) returns,
+	 * ordered by popularity instead: most copies sold first, then lowest
+	 * UPC. The page holds the rows of at most n items, those that come
+	 * after the row after, which is the last row of the previous page,
+	 * or null for the first page. Items without a lead singer, which
+	 * have no rows, are skipped, so a page without rows means there are
+	 * no more pages.
+	 *
+	 * The rows of the page are picked straight from the items that
+	 * match, with a heap of n items, so a page costs about the same
+	 * whether the search matches a hundred items or the whole catalog.
+	 */
+	public List<Object[]> searchPage(String title, String category, String lead, Object[] after, int n)
+			throws SQLException {
+		refresh();
+
+		synchronized (this) {
+			return page(lookup(title, category, lead, false), after, n);
+		}
+	}
+
+	/*
+	 * Returns the page of the cached search's rows for searchPage().
+	 */
+	private List<Object[]> page(CachedSearch cached, Object[] after, int n) {
+		int afterSold = (after == null ? Integer.MAX_VALUE : ((Number) after[5]).intValue());
+		int afterUpc = (after == null ? Integer.MIN_VALUE : ((Number) after[0]).intValue());
+
+		// the best n items after the cursor, with the last of them on top
+		PriorityQueue<Item> page = new PriorityQueue<Item>(n + 1, Collections.reverseOrder(POPULAR));
+
+		for (int i = cached.matches.nextSetBit(0); i >= 0; i = cached.matches.nextSetBit(i + 1)) {
+			Item item = numbered.get(i);
+
+			if (item == null || item.singers.isEmpty() || item.sold > afterSold
+					|| (item.sold == afterSold && item.upc <= afterUpc)) {
+				continue;
+			}
+
+			if (page.size() < n) {
+				page.add(item);
+			} else if (POPULAR.compare(item, page.peek()) < 0) {
+				page.poll();
+				page.add(item);
+			}
+		}
+
+		List<Item> found = new ArrayList<Item>(page);
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		Collections.sort(found, POPULAR);
+
+		for (Item item : found) {
+			addRows(rows, item, cached.terms.get(LEAD), false);
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Returns the cached search for the arguments, searching and caching
+	 * it first if it is not cached. The rows of an exact search are 
+	 * left to the caller.
+	 */
+	private CachedSearch lookup(String title, String category, String lead, boolean fuzzy) {
+		List<List<String>> terms = new ArrayList<List<String>>();
+
+		terms.add(split(title));
+		terms.add(split(category));
+		terms.add(split(lead));
+
+		String key = (fuzzy ? "~" : "") + key(terms);
+		CachedSearch cached = cache.get(key);
+
+		if (cached != null && System.currentTimeMillis() - cached.createdAt > CACHE_TTL) {
+			cache.remove(key);
+			evictions++;
+			cached = null;
+		}
+
+		if (cached == null) {
+			misses++;
+
+			cached = new CachedSearch();
+			cached.terms = terms;
+			cached.fuzzy = fuzzy;
+			cached.matches = new BitSet(numbered.size());
+
+			if (fuzzy) {
+				cached.rows = findFuzzy(cached.matches, terms);
+			} else {
+				find(cached.matches, terms);
+			}
+
+			cache.put(key, cached);
+		} else {
+			hits++;
+		}
+
+		return cached;
+	}
+
+	/*
+	 * Returns the number of searches answered from the cache.
+	 */
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	/*
+	 * Returns the number of searches that were not in the cache.
+	 */
+	public synchronized long getCacheMisses() {
+		return misses;
+	}
+
+	/*
+	 * Returns the fraction of searches answered from the cache, or 0 if
+	 * there were none.
+	 */
+	public synchronized double getCacheHitRate() {
+		return (hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+	}
+
+	/*
+	 * Returns a one line summary of the cache's use, e.g. for logging.
+	 */
+	public synchronized String getCacheStats() {
+		return "catalog search cache: " + cache.size() + " results, " + hits + " hits, " + misses
+				+ " misses (" + Math.round(getCacheHitRate() * 100) + "%), " + evictions + " evicted, "
+				+ invalidations + " invalidated";
+	}
+
+	/*
+	 * Finds the items that match terms, one list of words per field. The
+	 * numbers of the items found are set in matches.
+	 */
+	private void find(BitSet matches, List<List<String>> terms) {
+		matches.set(0, numbered.size());
+
+		match(matches, TITLE, terms.get(TITLE));
+		match(matches, CATEGORY, terms.get(CATEGORY));
+		match(matches, LEAD, terms.get(LEAD));
+	}
+
+	/*
+	 * Returns the rows of the items found by find(), ordered by UPC.
+	 */
+	private List<Object[]> rows(BitSet matches, List<List<String>> terms) {
+		List<String> leadTerms = terms.get(LEAD);
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+			Item item = numbered.get(i);
+
+			if (item != null) {
+				addRows(rows, item, leadTerms, false);
+			}
+		}
+
+		if (!inUpcOrder) {
+			Collections.sort(rows, new Comparator<Object[]>() {
+				public int compare(Object[] row1, Object[] row2) {
+					return ((Integer) row1[0]).compareTo((Integer) row2[0]);
+				}
+			});
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Like find(), for a fuzzy search.
+	 */
+	private List<Object[]> findFuzzy(BitSet matches, List<List<String>> terms) {
+		// for each term, the items within 0, 1, ... edits of it
+		List<BitSet[]> termMatches = new ArrayList<BitSet[]>();
+
+		matches.set(0, numbered.size());
+
+		for (int field = TITLE; field <= LEAD; field++) {
+			for (String term : terms.get(field)) {
+				BitSet[] byEdits = matchFuzzy(field, term);
+
+				matches.and(byEdits[byEdits.length - 1]);
+				termMatches.add(byEdits);
+			}
+		}
+
+		List<Item> found = new ArrayList<Item>();
+		final Map<Item, Integer> edits = new HashMap<Item, Integer>();
+
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+			Item item = numbered.get(i);
+
+			if (item == null) {
+				continue;
+			}
+
+			int total = 0;
+
+			for (BitSet[] byEdits : termMatches) {
+				int e = 0;
+
+				while (!byEdits[e].get(i)) {
+					e++;
+				}
+
+				total += e;
+			}
+
+			found.add(item);
+			edits.put(item, Integer.valueOf(total));
+		}
+
+		Collections.sort(found, new Comparator<Item>() {
+			public int compare(Item item1, Item item2) {
+				int c = edits.get(item1).compareTo(edits.get(item2));
+
+				return (c != 0 ? c : POPULAR.compare(item1, item2));
+			}
+		});
+
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		for (Item item : found) {
+			addRows(rows, item, terms.get(LEAD), true);
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Adds a row for each of the item's lead singers. An item is found
+	 * if the lead terms match any of its singers, but only the singers
+	 * that match are listed.
+	 */
+	private static void addRows(List<Object[]> rows, Item item, List<String> leadTerms, boolean fuzzy) {
+		for (String singer : item.singers) {
+			if (!leadTerms.isEmpty() && item.singers.size() > 1 && !matchesAll(split(singer), leadTerms, fuzzy)) {
+				continue;
+			}
+
+			rows.add(new Object[] { Integer.valueOf(item.upc), item.title, item.category, singer,
+					Integer.valueOf(item.stock), Integer.valueOf(item.sold) });
+		}
+	}
+
+	/*
+	 * Returns at most k titles, categories or lead singer names, as 
+	 * field is TITLE, CATEGORY or LEAD, that start with prefix, ignoring
+	 * case, those of the items that sold the most copies first. Returns
+	 * nothing until the index is loaded, so that it can be called on 
+	 * the event dispatch thread.
+	 */
+	public synchronized List<String> complete(int field, String prefix, int k) {
+		if (!loaded || prefix == null) {
+			return new ArrayList<String>();
+		}
+
+		return completions.get(field).complete(prefix, k);
+	}
+
+	/*
+	 * Returns true if the index is loaded and not older than MAX_AGE, so
+	 * that searching it does not query the database.
+	 */
+	public synchronized boolean isCurrent() {
+		return loaded && System.currentTimeMillis() - loadedAt <= MAX_AGE;
+	}
+
+	/*
+	 * Loads the index from the database unless it is current. The new
+	 * index is read without the lock, so the old one can be searched in
+	 * the meantime. The changes reported while it is read are kept and
+	 * made to it before it is swapped in, except for invalidate(), after
+	 * which it is used but not current, so that the next search loads it
+	 * again. A change committed just before the load's query started may
+	 * be counted twice, e.g. a sale's stock, until the next load.
+	 */
+	public void refresh() throws SQLException {
+		if (isCurrent()) {
+			return;
+		}
+
+		synchronized (loading) {
+			synchronized (this) {
+				// another thread may have loaded it while this one waited
+				if (isCurrent()) {
+					return;
+				}
+
+				pending = new ArrayList<Change>();
+				missed = false;
+			}
+
+			CatalogIndex fresh = new CatalogIndex();
+
+			try {
+				fresh.load();
+
+				synchronized (this) {
+					for (Change change : pending) {
+						change.apply(fresh);
+					}
+
+					items = fresh.items;
+					numbered = fresh.numbered;
+					inUpcOrder = fresh.inUpcOrder;
+					words = fresh.words;
+					trees = fresh.trees;
+					completions = fresh.completions;
+					cache.clear();
+
+					loaded = true;
+					loadedAt = (missed ? 0 : System.currentTimeMillis());
+				}
+			} finally {
+				synchronized (this) {
+					pending = null;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Makes the next search reload the index from the database.
+	 */
+	public synchronized void invalidate() {
+		loaded = false;
+		cache.clear();
+
+		if (pending != null) {
+			missed = true;
+		}
+	}
+
+	/*
+	 * Records an item that was inserted or updated.
+	 */
+	public synchronized void itemChanged(final int upc, final String title, final String category,
+			final int stock) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(CatalogIndex index) {
+					index.itemChanged(upc, title, category, stock);
+				}
+			});
+		}
+
+		if (!loaded) {
+			return;
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (item == null) {
+			item = newItem(upc);
+		} else {
+			removeWords(TITLE, item.title, item.number);
+			removeWords(CATEGORY, item.category, item.number);
+			completions.get(TITLE).remove(item.title, item.sold);
+			completions.get(CATEGORY).remove(item.category, item.sold);
+		}
+
+		item.title = title;
+		item.category = category;
+		item.stock = stock;
+
+		addWords(TITLE, title, item.number);
+		addWords(CATEGORY, category, item.number);
+		completions.get(TITLE).add(title, item.sold);
+		completions.get(CATEGORY).add(category, item.sold);
+
+		forget(item);
+	}
+
+	/*
+	 * Records an item that was deleted, with its lead singers.
+	 */
+	public synchronized void itemDeleted(final int upc) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(CatalogIndex index) {
+					index.itemDeleted(upc);
+				}
+			});
+		}
+
+		if (!loaded) {
+			return;
+		}
+
+		Item item = items.remove(Integer.valueOf(upc));
+
+		if (item == null) {
+			return;
+		}
+
+		forget(item);
+		numbered.set(item.number, null);
+
+		removeWords(TITLE, item.title, item.number);
+		removeWords(CATEGORY, item.category, item.number);
+		completions.get(TITLE).remove(item.title, item.sold);
+		completions.get(CATEGORY).remove(item.category, item.sold);
+
+		for (String singer : item.singers) {
+			removeWords(LEAD, singer, item.number);
+			completions.get(LEAD).remove(singer, item.sold);
+		}
+	}
+
+	/*
+	 * Records a change in an item's stock.
+	 */
+	public synchronized void stockChanged(final int upc, final int difference) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(CatalogIndex index) {
+					index.stockChanged(upc, difference);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (loaded && item != null) {
+			item.stock += difference;
+			forget(item);
+		}
+	}
+
+	/*
+	 * Records copies of an item that were sold.
+	 */
+	public synchronized void itemSold(final int upc, final int quantity) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(CatalogIndex index) {
+					index.itemSold(upc, quantity);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (loaded && item != null) {
+			item.sold += quantity;
+			forget(item);
+
+			completions.get(TITLE).addWeight(item.title, quantity);
+			completions.get(CATEGORY).addWeight(item.category, quantity);
+
+			for (String singer : item.singers) {
+				completions.get(LEAD).addWeight(singer, quantity);
+			}
+		}
+	}
+
+	/*
+	 * Records a lead singer that was added to an item.
+	 */
+	public synchronized void singerAdded(final int upc, final String name) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(CatalogIndex index) {
+					index.singerAdded(upc, name);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (!loaded || item == null || item.singers.contains(name)) {
+			return;
+		}
+
+		item.singers.add(name);
+		addWords(LEAD, name, item.number);
+		completions.get(LEAD).add(name, item.sold);
+
+		forget(item);
+	}
+
+	/*
+	 * Records a lead singer that was removed from an item.
+	 */
+	public synchronized void singerRemoved(final int upc, final String name) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(CatalogIndex index) {
+					index.singerRemoved(upc, name);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (!loaded || item == null || !item.singers.remove(name)) {
+			return;
+		}
+
+		// another singer of the item may share some of the words
+		removeWords(LEAD, name, item.number);
+		completions.get(LEAD).remove(name, item.sold);
+
+		for (String singer : item.singers) {
+			addWords(LEAD, singer, item.number);
+		}
+
+		forget(item);
+	}
+
+	/*
+	 * Loads every item that has a lead singer into this index, which is
+	 * a new one that refresh() swaps in, so it needs no lock.
+	 */
+	private void load() throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT item.upc, title, category, stock, name FROM item, leadsinger "
+							+ "WHERE item.upc = leadsinger.upc ORDER BY item.upc");
+
+			ps.setFetchSize(500);
+
+			ResultSet rs = ps.executeQuery();
+
+			while (rs.next()) {
+				int upc = rs.getInt(1);
+				Item item = items.get(Integer.valueOf(upc));
+
+				if (item == null) {
+					item = newItem(upc);
+					item.title = rs.getString(2);
+					item.category = rs.getString(3);
+					item.stock = rs.getInt(4);
+
+					addWords(TITLE, item.title, item.number);
+					addWords(CATEGORY, item.category, item.number);
+				}
+
+				String singer = rs.getString(5);
+
+				item.singers.add(singer);
+				addWords(LEAD, singer, item.number);
+			}
+
+			rs.close();
+
+			// hand the statement back to the cache before ps is reused
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			// the copies sold, for ranking fuzzy searches
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT upc, SUM(quantity) FROM purchaseitem GROUP BY upc");
+
+			ps.setFetchSize(500);
+
+			rs = ps.executeQuery();
+
+			while (rs.next()) {
+				Item item = items.get(Integer.valueOf(rs.getInt(1)));
+
+				if (item != null) {
+					item.sold = rs.getInt(2);
+				}
+			}
+
+			rs.close();
+
+			for (Item item : numbered) {
+				completions.get(TITLE).add(item.title, item.sold);
+				completions.get(CATEGORY).add(item.category, item.sold);
+
+				for (String singer : item.singers) {
+					completions.get(LEAD).add(singer, item.sold);
+				}
+			}
+
+			loaded = true;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+
+	private Item newItem(int upc) {
+		Item item = new Item();
+
+		item.upc = upc;
+		item.number = numbered.size();
+
+		if (!numbered.isEmpty() && numbered.get(numbered.size() - 1) != null
+				&& numbered.get(numbered.size() - 1).upc > upc) {
+			inUpcOrder = false;
+		}
+
+		numbered.add(item);
+		items.put(Integer.valueOf(upc), item);
+
+		return item;
+	}
+
+	/*
+	 * Drops the cached results that list the item or that the item
+	 * matches, i.e. those a change to the item may have made wrong.
+	 */
+	private void forget(Item item) {
+		Iterator<CachedSearch> i = cache.values().iterator();
+
+		while (i.hasNext()) {
+			CachedSearch cached = i.next();
+
+			if (cached.matches.get(item.number) || matches(item, cached.terms, cached.fuzzy)) {
+				i.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	/*
+	 * Returns true if a search for terms, one list of words per field,
+	 * finds the item.
+	 */
+	private static boolean matches(Item item, List<List<String>> terms, boolean fuzzy) {
+		if (item.singers.isEmpty() || !matchesAll(split(item.title), terms.get(TITLE), fuzzy)
+				|| !matchesAll(split(item.category), terms.get(CATEGORY), fuzzy)) {
+			return false;
+		}
+
+		// as in match(), the terms may be spread over the singers' names
+		List<String> singerWords = new ArrayList<String>();
+
+		for (String singer : item.singers) {
+			singerWords.addAll(split(singer));
+		}
+
+		return matchesAll(singerWords, terms.get(LEAD), fuzzy);
+	}
+
+	/*
+	 * Returns the number of edits a fuzzy search allows for term.
+	 */
+	static int maxEdits(String term) {
+		if (term.length() < MIN_ONE_EDIT) {
+			return 0;
+		}
+
+		return (term.length() < MIN_TWO_EDITS ? 1 : 2);
+	}
+
+	/*
+	 * Returns the items with a word starting with term, or within
+	 * maxEdits(term) of it, in the given field; element e of the result
+	 * holds the items with such a word at most e edits away.
+	 */
+	private BitSet[] matchFuzzy(int field, String term) {
+		BitSet[] byEdits = new BitSet[maxEdits(term) + 1];
+
+		for (int e = 0; e < byEdits.length; e++) {
+			byEdits[e] = new BitSet(numbered.size());
+		}
+
+		for (Postings postings : words.get(field).subMap(term, term + Character.MAX_VALUE).values()) {
+			for (int i = 0; i < postings.size; i++) {
+				byEdits[0].set(postings.numbers[i]);
+			}
+		}
+
+		List<String> close = new ArrayList<String>();
+
+		trees.get(field).find(term, byEdits.length - 1, close);
+
+		if (byEdits.length > 1) {
+			// the words with two letters of term swapped
+			for (int i = 0; i + 1 < term.length(); i++) {
+				char[] swapped = term.toCharArray();
+
+				swapped[i] = term.charAt(i + 1);
+				swapped[i + 1] = term.charAt(i);
+				close.add(new String(swapped));
+			}
+		}
+
+		for (int w = 0; w < close.size(); w++) {
+			// a removed word is still in the tree
+			Postings postings = words.get(field).get(close.get(w));
+
+			if (postings != null) {
+				// at most the Levenshtein distance
+				BitSet set = byEdits[BkTree.swapDistance(term, close.get(w))];
+
+				for (int i = 0; i < postings.size; i++) {
+					set.set(postings.numbers[i]);
+				}
+			}
+		}
+
+		for (int e = 1; e < byEdits.length; e++) {
+			byEdits[e].or(byEdits[e - 1]);
+		}
+
+		return byEdits;
+	}
+
+	/*
+	 * Returns the cache key for terms: the sorted words of each field,
+	 * so that e.g. "moon dark" and "Dark  Moon" share a result.
+	 */
+	private static String key(List<List<String>> terms) {
+		StringBuilder key = new StringBuilder();
+
+		for (List<String> field : terms) {
+			List<String> sorted = new ArrayList<String>(field);
+
+			Collections.sort(sorted);
+
+			for (String word : sorted) {
+				key.append(word).append(' ');
+			}
+
+			key.append('|');
+		}
+
+		return key.toString();
+	}
+
+	/*
+	 * Narrows matches to the items with a word starting with each term
+	 * in the given field.
+	 */
+	private void match(BitSet matches, int field, List<String> terms) {
+		for (String term : terms) {
+			// the words starting with term sort between term and the
+			// first string that no longer starts with it
+			SortedMap<String, Postings> prefixed = words.get(field).subMap(term, term + Character.MAX_VALUE);
+			BitSet found = new BitSet(matches.length());
+
+			for (Postings postings : prefixed.values()) {
+				for (int i = 0; i < postings.size; i++) {
+					found.set(postings.numbers[i]);
+				}
+			}
+
+			matches.and(found);
+		}
+	}
+
+	/*
+	 * Returns true if every term is the start of one of the words, or,
+	 * if fuzzy, within maxEdits() of one.
+	 */
+	private static boolean matchesAll(List<String> words, List<String> terms, boolean fuzzy) {
+		for (String term : terms) {
+			boolean found = false;
+
+			for (String word : words) {
+				if (word.startsWith(term) || (fuzzy && BkTree.swapDistance(word, term) <= maxEdits(term))) {
+					found = true;
+					break;
+				}
+			}
+
+			if (!found) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void addWords(int field, String text, int number) {
+		for (String word : split(text)) {
+			Postings postings = words.get(field).get(word);
+
+			if (postings == null) {
+				postings = new Postings();
+				words.get(field).put(word, postings);
+				trees.get(field).add(word);
+			}
+
+			postings.add(number);
+		}
+	}
+
+	private void removeWords(int field, String text, int number) {
+		for (String word : split(text)) {
+			Postings postings = words.get(field).get(word);
+
+			if (postings != null) {
+				postings.remove(number);
+
+				if (postings.size == 0) {
+					words.get(field).remove(word);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Splits text into lower case words of letters and digits. Returns
+	 * an empty list for null.
+	 */
+	static List<String> split(String text) {
+		List<String> result = new ArrayList<String>();
+
+		if (text == null) {
+			return result;
+		}
+
+		String lower = text.toLowerCase();
+		int start = -1;
+
+		for (int i = 0; i <= lower.length(); i++) {
+			boolean letter = (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i)));
+
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				result.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+
+		return result;
+	}
+}
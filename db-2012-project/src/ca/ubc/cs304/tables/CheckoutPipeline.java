@@ -0,0 +1,345 @@
+package ca.ubc.cs304.tables;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.event.EventListenerList;
+
+import ca.ubc.cs304.main.ExceptionEvent;
+import ca.ubc.cs304.main.ExceptionListener;
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * CheckoutPipeline places the orders of concurrent checkouts together,
+ * so that under load most of them share a commit rather than each
+ * waiting for its own. checkout() queues an order and waits for it. One
+ * thread takes the orders from the queue: once it has the first, it
+ * waits up to GROUP_DELAY for more, at most MAX_GROUP in all, and then
+ * writes the whole group in one transaction, with one batch for each
+ * statement, once it has taken the receipt numbers from IdAllocator:
+ *
+ * - an INSERT INTO purchase per order;
+ * - an INSERT INTO purchaseitem per item ordered;
+ * - a DELETE FROM shoppingcart per customer;
+ *
+ * and one commit. The orders that come in while a group is written make
+ * up the next group. If the group fails, it is rolled back and its
+ * orders are written again one by one, so that one bad order, e.g. a
+ * card number the database rejects, fails only its own checkout.
+ *
+ * The caller reserves the stock and books the delivery slot before
+ * queueing the order; see ShopTransactions.checkout(). An unexpected
+ * error while a group is written fails the orders of that group that
+ * were not committed and is reported to the ExceptionListeners; the
+ * writer goes on with the next group.
+ */
+public class CheckoutPipeline {
+	// how long the first order of a group waits for others
+	public static final long GROUP_DELAY = 2;
+
+	// the most orders written in one transaction
+	public static final int MAX_GROUP = 64;
+
+	private static CheckoutPipeline _pipeline = null;
+
+	private BlockingQueue<Order> queue = new LinkedBlockingQueue<Order>();
+
+	private int maxGroup = MAX_GROUP;
+
+	// the groups and the orders written, for getAverageGroupSize()
+	private long groups = 0;
+	private long orders = 0;
+
+	protected EventListenerList listenerList = new EventListenerList();
+
+	/*
+	 * An order waiting to be written, and then its outcome.
+	 */
+	private static class Order {
+		String cid;
+		String cardno;
+		Date expire;
+		int deliverDays;
+		Map<Integer, Integer> quantities;
+
+		int receiptID;
+		boolean committed = false;
+		SQLException error = null;
+		CountDownLatch done = new CountDownLatch(1);
+	}
+
+	private CheckoutPipeline() {
+		Thread writer = new Thread("Checkout writer") {
+			public void run() {
+				while (true) {
+					try {
+						write(nextGroup());
+					} catch (InterruptedException ex) {
+						// keep writing; the thread ends with the program
+					} catch (RuntimeException ex) {
+						// write() has failed the orders not committed; the
+						// next groups must still be written
+						ExceptionEvent event = new ExceptionEvent(CheckoutPipeline.this,
+								"Orders were not placed: " + ex);
+						fireExceptionGenerated(event);
+					}
+				}
+			}
+		};
+
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/*
+	 * Returns the instance of CheckoutPipeline
+	 */
+	public static synchronized CheckoutPipeline getInstance() {
+		if (_pipeline == null) {
+			_pipeline = new CheckoutPipeline();
+		}
+
+		return _pipeline;
+	}
+
+	/*
+	 * Places an order for the customer's cart, with the quantities by
+	 * UPC, to be delivered in deliverDays, and removes the cart from
+	 * shoppingcart. Returns the receipt number once the order is
+	 * committed, or throws the error that kept it from being committed.
+	 */
+	public int checkout(String cid, String cardno, Date expire, int deliverDays, Map<Integer, Integer> quantities)
+			throws SQLException {
+		Order order = new Order();
+
+		order.cid = cid;
+		order.cardno = cardno;
+		order.expire = expire;
+		order.deliverDays = deliverDays;
+		order.quantities = quantities;
+
+		queue.add(order);
+
+		// the order is written even if this thread is interrupted, so
+		// wait for the outcome anyway
+		boolean interrupted = false;
+
+		while (true) {
+			try {
+				order.done.await();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (order.error != null) {
+			throw order.error;
+		}
+
+		return order.receiptID;
+	}
+
+	/*
+	 * Returns the average number of orders committed together.
+	 */
+	public synchronized double getAverageGroupSize() {
+		return (groups == 0 ? 0 : (double) orders / groups);
+	}
+
+	/*
+	 * Waits for an order and returns it with the orders that come in
+	 * within GROUP_DELAY of it, up to maxGroup.
+	 */
+	private List<Order> nextGroup() throws InterruptedException {
+		List<Order> group = new ArrayList<Order>();
+
+		group.add(queue.take());
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GROUP_DELAY);
+
+		while (group.size() < maxGroup) {
+			queue.drainTo(group, maxGroup - group.size());
+
+			long left = deadline - System.nanoTime();
+
+			if (group.size() >= maxGroup || left <= 0) {
+				break;
+			}
+
+			Order next = queue.poll(left, TimeUnit.NANOSECONDS);
+
+			if (next == null) {
+				break;
+			}
+
+			group.add(next);
+		}
+
+		return group;
+	}
+
+	/*
+	 * Writes the group in one transaction, or its orders one by one if
+	 * that fails, and tells each waiting checkout its outcome.
+	 */
+	private void write(List<Order> group) {
+		try {
+			writeGroup(group);
+
+			synchronized (this) {
+				groups++;
+				orders += group.size();
+			}
+		} catch (SQLException ex) {
+			if (group.size() == 1) {
+				group.get(0).error = ex;
+			} else {
+				for (Order order : group) {
+					try {
+						writeGroup(Collections.singletonList(order));
+					} catch (SQLException ex2) {
+						order.error = ex2;
+					}
+				}
+			}
+		} finally {
+			for (Order order : group) {
+				// e.g. a runtime exception stopped the write
+				if (!order.committed && order.error == null) {
+					order.error = new SQLException("The order was not placed.");
+				}
+
+				order.done.countDown();
+			}
+		}
+	}
+
+	/*
+	 * Writes the orders and commits them, or rolls them back and throws
+	 * the error.
+	 */
+	private void writeGroup(List<Order> group) throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			for (Order order : group) {
+				order.receiptID = IdAllocator.RECEIPTS.next(con);
+			}
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"INSERT INTO Purchase VALUES(?, sysdate, ?, ?, ?, sysdate + ?, null)");
+
+			for (Order order : group) {
+				ps.setInt(1, order.receiptID);
+				ps.setString(2, order.cid);
+				ps.setString(3, order.cardno);
+				ps.setDate(4, order.expire);
+				ps.setInt(5, order.deliverDays);
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO PurchaseItem VALUES(?,?,?)");
+
+			boolean items = false;
+
+			for (Order order : group) {
+				for (Map.Entry<Integer, Integer> e : order.quantities.entrySet()) {
+					ps.setInt(1, order.receiptID);
+					ps.setInt(2, e.getKey().intValue());
+					ps.setInt(3, e.getValue().intValue());
+					ps.addBatch();
+					items = true;
+				}
+			}
+
+			if (items) {
+				ps.executeBatch();
+			}
+
+			MvbOracleConnection.getInstance().closeStatement(ps);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM Shoppingcart WHERE cid = ?");
+
+			for (Order order : group) {
+				ps.setString(1, order.cid);
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+
+			con.commit();
+
+			for (Order order : group) {
+				order.committed = true;
+			}
+		} catch (SQLException ex) {
+			if (con != null) {
+				try {
+					con.rollback();
+				} catch (SQLException ex2) {
+					// the first error is the one reported
+				}
+			}
+
+			throw ex;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+
+	/******************************************************************************
+	 * Below are the methods to add and remove ExceptionListeners.
+	 *
+	 * Whenever an exception occurs in CheckoutPipeline, an exception event
+	 * is sent to all registered ExceptionListeners.
+	 ******************************************************************************/
+
+	public void addExceptionListener(ExceptionListener l)
+	{
+		listenerList.add(ExceptionListener.class, l);
+	}
+
+
+	public void removeExceptionListener(ExceptionListener l)
+	{
+		listenerList.remove(ExceptionListener.class, l);
+	}
+
+	/*
+	 * This method notifies all registered ExceptionListeners. The code below is
+	 * similar to the example in the Java 2 API documentation for the
+	 * EventListenerList class.
+	 */
+	public void fireExceptionGenerated(ExceptionEvent ex) {
+		// Guaranteed to return a non-null array
+		Object[] listeners = listenerList.getListenerList();
+
+		// Process the listeners last to first, notifying
+		// those that are interested in this event.
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == ExceptionListener.class) {
+				((ExceptionListener) listeners[i + 1]).exceptionGenerated(ex);
+			}
+		}
+	}
+}
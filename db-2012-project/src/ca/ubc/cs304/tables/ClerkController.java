@@ -8,16 +8,19 @@ import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*;
 
-import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
+import ca.ubc.cs304.main.DbTask;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.math.BigDecimal;
 import java.sql.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClerkController implements ActionListener, ExceptionListener {
 
@@ -25,7 +28,9 @@ public class ClerkController implements ActionListener, ExceptionListener {
 	private ClerkTransactions clerk = null;
 	private Integer rid = null;
 	private BigDecimal cost = null;
-	private PurchaseItemModel item = null;
+
+	// the items scanned for the current purchase, written when it is paid
+	private BillSession bill = null;
 
 	// constants used for describing the outcome of an operation
 	public static final int OPERATIONSUCCESS = 0;
@@ -35,11 +40,9 @@ public class ClerkController implements ActionListener, ExceptionListener {
 	public ClerkController(MvbView mvb) {
 		this.mvb = mvb;
 		clerk = new ClerkTransactions();
-		item = new PurchaseItemModel();
 
 		// register to receive exception events from customer
 		clerk.addExceptionListener(this);
-		item.addExceptionListener(this);
 	}
 
 	/*
@@ -85,51 +88,17 @@ public class ClerkController implements ActionListener, ExceptionListener {
 	}
 
 	/*
-	 * This method displays the customer's shopping cart in a non-editable
-	 * JTable
+	 * This method displays the items on the bill in a non-editable JTable
 	 */
-	private void showAdded(Integer iupc) {
-		ResultSet rs = clerk.showItem(iupc);
-		// show all the items lined up to be purchased
-
-		// CustomTableModel maintains the result set's data, e.g., if
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.
-		CustomTableModel model = new CustomTableModel(clerk.getConnection(), rs);
-		CustomTable data = new CustomTable(model);
-
-		// register to be notified of any exceptions that occur in the model and
-		// table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
-
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
-
-	}
+	private void showBill() {
+		final BillSession shown = bill;
 
-	/*
-	 * This method displays the customer's Checked out items in a non-editable
-	 * JTable
-	 */
-	private void showItems() {
-		ResultSet rs = clerk.receiptItems(rid);
-
-		// CustomTableModel maintains the result set's data, e.g., if
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.
-		CustomTableModel model = new CustomTableModel(clerk.getConnection(), rs);
-		CustomTable data = new CustomTable(model);
-
-		// register to be notified of any exceptions that occur in the model and
-		// table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
-
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
+		// show all the items lined up to be purchased
+		new TableTask(mvb, "Loading bill", this) {
+			protected CustomTableModel createModel() {
+				return clerk.billModel(shown);
+			}
+		}.start();
 	}
 
 	// This class creates a dialog box for Checking out items in store.
@@ -139,6 +108,15 @@ public class ClerkController implements ActionListener, ExceptionListener {
 		private JTextField upc = new JTextField(12);
 		private JTextField quant = new JTextField(12);
 
+		// takes the scans entered in the upc field without waiting for
+		// them to be added to the bill
+		private ScanQueue scans = null;
+
+		// the scans added since the bill was last shown, and whether it is
+		// about to be shown again
+		private AtomicInteger added = new AtomicInteger();
+		private AtomicBoolean refreshing = new AtomicBoolean(false);
+
 		/*
 		 * Constructor. Creates the dialog's GUI.
 		 */
@@ -146,6 +124,11 @@ public class ClerkController implements ActionListener, ExceptionListener {
 			super(parent, "Checkout Items", true);
 			setResizable(false);
 
+			if (bill == null) // if no bill for purchase make a new one
+				bill = new BillSession();
+
+			openScans();
+
 			JPanel contentPane = new JPanel(new BorderLayout());
 			setContentPane(contentPane);
 			contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10,
@@ -195,6 +178,11 @@ public class ClerkController implements ActionListener, ExceptionListener {
 			gb.setConstraints(quant, c);
 			inputPane.add(quant);
 
+			// a scanner types the UPC followed by the return key, which
+			// queues the scan and clears the field for the next one
+			upc.addActionListener(this);
+			upc.setActionCommand("SCAN");
+
 			// panel for the PURCHASE, ADD and Cancel buttons
 			JPanel buttonPane = new JPanel();
 			buttonPane.setLayout(new BoxLayout(buttonPane, BoxLayout.X_AXIS));
@@ -231,17 +219,181 @@ public class ClerkController implements ActionListener, ExceptionListener {
 		}
 
 		/*
-		 * Event handler for the PURCHASE and ADD buttons in CheckoutStoreDialog
+		 * Starts a scan queue for the bill. The queue's events come from its
+		 * worker thread, so they are handled on the event dispatch thread.
+		 */
+		private void openScans() {
+			final BillSession scanned = bill;
+
+			scans = new ScanQueue(bill, new ScanQueue.Listener() {
+				public void scansAdded(int count, final java.util.List<Integer> unknown) {
+					added.addAndGet(count);
+
+					if (!unknown.isEmpty()) {
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								Toolkit.getDefaultToolkit().beep();
+								mvb.updateStatusBar("No item with UPC " + unknown + ".");
+							}
+						});
+					}
+
+					// one redraw of the bill covers every batch added until 
+					// it runs
+					if (refreshing.compareAndSet(false, true)) {
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								refreshing.set(false);
+
+								int count = added.getAndSet(0);
+
+								// the bill may have been paid in the meantime
+								if (bill == scanned) {
+									mvb.updateStatusBar("Scanned " + count + " items. Total: $" + bill.total());
+									showBill();
+								}
+							}
+						});
+					}
+				}
+			});
+
+			scans.addExceptionListener(new ExceptionListener() {
+				public void exceptionGenerated(final ExceptionEvent ex) {
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							ClerkController.this.exceptionGenerated(ex);
+						}
+					});
+				}
+			});
+		}
+
+		/*
+		 * Adds the scans still queued to the bill before the dialog closes.
+		 */
+		public void dispose() {
+			if (!scans.isClosed()) {
+				closeScans(false);
+			}
+
+			super.dispose();
+		}
+
+		/*
+		 * Closes the scan queue in the background, since that waits for the
+		 * scans still queued, and then, if pay is true, goes on to payment.
+		 * If the task is cancelled, the clerk goes on scanning.
+		 */
+		private void closeScans(final boolean pay) {
+			final ScanQueue closing = scans;
+
+			new DbTask<Boolean>(mvb, "Adding the last scans to the bill") {
+				protected Boolean work() {
+					closing.close();
+					return Boolean.TRUE;
+				}
+
+				protected void succeeded(Boolean result) {
+					if (pay && isDisplayable()) {
+						pay();
+					}
+				}
+
+				protected void discard(Boolean result) {
+					if (pay && isDisplayable()) {
+						openScans();
+					}
+				}
+			}.start();
+		}
+
+		/*
+		 * Opens the payment dialog once every scan is on the bill.
+		 */
+		private void pay() {
+			if (bill.isEmpty()) {
+				openScans();
+
+				Toolkit.getDefaultToolkit().beep();
+				mvb.updateStatusBar("No items have been added to the bill.");
+				return;
+			}
+
+			dispose(); // throw away add window
+			PaymentDialog iDialog = new PaymentDialog(mvb);
+			iDialog.pack();
+			mvb.centerWindow(iDialog);
+			iDialog.setVisible(true);
+		}
+
+		/*
+		 * Queues quantity copies of the item. Returns false if the bill is
+		 * being closed for payment, which takes no more scans.
+		 */
+		private boolean queue(int iupc, int iquant) {
+			if (scans.isClosed()) {
+				Toolkit.getDefaultToolkit().beep();
+				mvb.updateStatusBar("The bill is being closed; UPC " + iupc + " was not added.");
+				return false;
+			}
+
+			scans.scan(iupc, iquant);
+			return true;
+		}
+
+		/*
+		 * Queues the UPC in the upc field, with the quantity in the quantity
+		 * field, and clears the upc field. An invalid scan is only reported
+		 * in the status bar, so that the clerk can keep scanning.
+		 */
+		private void scan() {
+			String text = upc.getText().trim();
+
+			upc.setText("");
+
+			if (text.length() == 0) {
+				return;
+			}
+
+			try {
+				int iupc = Integer.parseInt(text);
+				int iquant = 1;
+
+				// Default adds 1 item per upc
+				if (quant.getText().trim().length() != 0) {
+					iquant = Integer.parseInt(quant.getText().trim());
+				}
+
+				if (iquant <= 0) {
+					throw new NumberFormatException();
+				}
+
+				queue(iupc, iquant);
+			} catch (NumberFormatException ex) {
+				Toolkit.getDefaultToolkit().beep();
+				mvb.updateStatusBar("Invalid scan: " + text);
+			}
+		}
+
+		/*
+		 * Event handler for the PURCHASE and ADD buttons and for scans in
+		 * CheckoutStoreDialog
 		 */
 		public void actionPerformed(ActionEvent e) {
 			String actionCommand = e.getActionCommand();
 
+			if (actionCommand.equals("SCAN")) {
+				scan();
+				return;
+			}
+
 			if (actionCommand.equals("PURCHASE")) {
-				dispose(); // throw away add window
-				PaymentDialog iDialog = new PaymentDialog(mvb);
-				iDialog.pack();
-				mvb.centerWindow(iDialog);
-				iDialog.setVisible(true);
+				// the bill must have every scan before it is paid
+				if (!scans.isClosed()) {
+					closeScans(true);
+				}
+
 				return;
 			}
 
@@ -262,8 +414,8 @@ public class ClerkController implements ActionListener, ExceptionListener {
 		}
 
 		/*
-		 * Validates the text fields in CheckoutStoreDialog and then adds the
-		 * items to the bill if the fields are valid. Returns the operation
+		 * Validates the text fields in CheckoutStoreDialog and then queues
+		 * the items, like a scan, if the fields are valid. Returns the operation
 		 * status, which is one of OPERATIONSUCCESS, OPERATIONFAILED,
 		 * VALIDATIONERROR.
 		 */
@@ -272,9 +424,6 @@ public class ClerkController implements ActionListener, ExceptionListener {
 				Integer iupc;
 				Integer iquant;
 
-				//if (rid == null) // if no rid for purchase make a new one
-					rid = clerk.instorePurchase();
-
 				// Disallow blank searches
 				if (upc.getText().trim().length() != 0) {
 					iupc = Integer.valueOf(upc.getText().trim());
@@ -289,28 +438,17 @@ public class ClerkController implements ActionListener, ExceptionListener {
 					iquant = 1;
 				}
 
-				mvb.updateStatusBar("Adding Item to Bill...");
-				mvb.updateStatusBar("generated rid: " + rid.toString());
-
-				if (rid == 0) {
-					mvb.updateStatusBar("Unable to generate receipt id");
-					return OPERATIONFAILED;
+				if (iquant <= 0) {
+					return VALIDATIONERROR;
 				}
 
-				
-				else {
-					if(item.insertPurchaseItem(rid, iupc, iquant) != true){
-						mvb.updateStatusBar("Unable to insert item");
-						return OPERATIONFAILED;
-					}
+				// the scan queue adds the items and shows the bill
+				if (!queue(iupc.intValue(), iquant.intValue())) {
+					return OPERATIONFAILED;
 				}
 
-				mvb.updateStatusBar("Add to bill complete.");
-
-				// Shows the entered items in a table
+				mvb.updateStatusBar("Adding Item to Bill...");
 
-				showAdded(iupc); 
-				
 				return OPERATIONSUCCESS;
 
 			} catch (NumberFormatException ex) {
@@ -669,32 +807,37 @@ public class ClerkController implements ActionListener, ExceptionListener {
 
 				mvb.updateStatusBar("Checking out Items...");
 				// no fields to validate on cash purchase
+				int receipt = clerk.payBill(bill, null, null);
+
+				if (receipt == 0) {
+					mvb.updateStatusBar("Checkout Failed");
+					return OPERATIONFAILED;
+				}
+
+				rid = Integer.valueOf(receipt);
 				mvb.updateStatusBar("Checkout complete.");
 				
 				//formatting to print receiptID and date of purchase in status bar
-				ResultSet rdate = clerk.receiptDate(rid);
-				rdate.next();
-				Date recdate = rdate.getDate(1);
+				Date recdate = clerk.receiptDate(rid);
+				if (recdate == null)
+					return VALIDATIONERROR;
 				SimpleDateFormat rdformat = new SimpleDateFormat("DD-MM-YYYY");
 				String strdate = rdformat.format(recdate);
 				mvb.updateStatusBar("Receipt# : " + rid.toString() + " Date: " + strdate);
 
-				showItems(); // show items in a table
-				cost = clerk.receiptTotal(rid);
+				showBill(); // show items in a table
+				cost = bill.total();
 				mvb.updateStatusBar("Your total cost is: $" + cost);
 
 				rid = null; // clear rid for next purchase process
 				cost = null; //clear cost for next purchase process
+				bill = null; // start a new bill for next purchase process
 
 				return OPERATIONSUCCESS;
 
 			// this exception is thrown when a string cannot be converted to an integer	
 			} catch (NumberFormatException ex) {
 				return VALIDATIONERROR;
-			// this exception is thrown when an error occurs in any SQL query when
-			// clerk.receiptDate is called.
-			} catch (SQLException ex) {
-				return VALIDATIONERROR;
 			}
 		}
 
@@ -730,38 +873,39 @@ public class ClerkController implements ActionListener, ExceptionListener {
 					return VALIDATIONERROR;
 				}
 				
-				if(clerk.updateCreditCard(rid, cardnumber, expire) == 0){
+				int receipt = clerk.payBill(bill, cardnumber, expire);
+
+				if (receipt == 0) {
 					mvb.updateStatusBar("Validate Failed");
 					return OPERATIONFAILED;
 				}
+
+				rid = Integer.valueOf(receipt);
 				
 				mvb.updateStatusBar("Checkout complete.");
 				
 				//formatting to print receiptID and date of purchase in status bar
-				ResultSet rdate = clerk.receiptDate(rid);
-				rdate.next();
-				Date recdate = rdate.getDate(1);
+				Date recdate = clerk.receiptDate(rid);
+				if (recdate == null)
+					return VALIDATIONERROR;
 				SimpleDateFormat rdformat = new SimpleDateFormat("DD-MM-YYYY");
 				String strdate = rdformat.format(recdate);
 				mvb.updateStatusBar("Receipt# : " + rid.toString() + " Date: " + strdate);
 
-				showItems(); // show purchased items in a table
+				showBill(); // show purchased items in a table
 				
 				String lastfive = cardnumber.substring(cardnumber.length() - 6, cardnumber.length() - 1);
 				mvb.updateStatusBar("Credit card# : XXXX XXXX XXXX " + lastfive);
-				cost = clerk.receiptTotal(rid);
+				cost = bill.total();
 				mvb.updateStatusBar("Your total cost is: $" + cost.toString());
 				rid = null; // clear rid for next Purchase process
 				cost = null; // clear cost for next Purchase process
+				bill = null; // start a new bill for next Purchase process
 				return OPERATIONSUCCESS;
 
 			// this exception is thrown when a string cannot be converted to a number
 			} catch (NumberFormatException ex) {
 				return VALIDATIONERROR;
-			// this exception is thrown when an error occurs in any SQL query when
-			// clerk.receiptDate is called.
-			} catch (SQLException ex) {
-				return VALIDATIONERROR;
 			}
 		}
 		
@@ -7,6 +7,7 @@ import java.util.Date;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.LoginWindow;
@@ -16,24 +17,25 @@ public class ClerkTransactions {
 
 	protected static int MAXIMUM_DAILY_TRANSACTIONS = 50;
 
-	protected PreparedStatement ps = null;
+	// the columns of an in-store bill
+	private static final String[] BILL_COLUMNS = { "UPC", "TITLE", "QUANTITY", "PRICE" };
+	private static final int[] BILL_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.DECIMAL };
+
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ClerkTransactions() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	
 	/*
 	public int getReceiptID() {
 		try
 		{
-			ps = con.prepareStatement("");
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "");
 			ps.executeQuery();
 			
 		}
@@ -41,9 +43,13 @@ public class ClerkTransactions {
 	*/
 	
 	public ResultSet showItem(Integer itupc){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("SELECT upc, title, category FROM Item i where i.upc = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT upc, title, category FROM Item i where i.upc = ?");
 			ps.setInt(1, itupc);
 			ResultSet rs = ps.executeQuery();
 			return rs;
@@ -52,40 +58,76 @@ public class ClerkTransactions {
 		{
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 			return null;
 		}
 		
 	}
 	
+	/*
+	 * Returns a read only table model of an in-store bill, one row per item.
+	 */
+	public CustomTableModel billModel(BillSession bill){
+		return new CustomTableModel(BILL_COLUMNS, BILL_TYPES, bill.rows());
+	}
+	
+	/*
+	 * Writes an in-store bill as a purchase, with its items and the stock sold, in one transaction. Pass a 
+	 * null card number for a cash payment. Returns the receipt number if successful, 0 if unsuccessful.
+	 */
+	public int payBill(BillSession bill, String cardno, java.sql.Date expire){
+		try
+		{
+			int receiptid = bill.pay(cardno, expire);
+			Map<Integer, Integer> quantities = bill.quantities();
+			
+			// the purchase has no delivered date, so it counts as pending
+			DeliveryCapacity.getInstance().added();
+			
+			StockReservations.getInstance().invalidate(quantities.keySet());
+			
+			for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+				CatalogIndex.getInstance().stockChanged(e.getKey().intValue(), -e.getValue().intValue());
+				CatalogIndex.getInstance().itemSold(e.getKey().intValue(), e.getValue().intValue());
+				SongIndex.getInstance().stockChanged(e.getKey().intValue(), -e.getValue().intValue());
+			}
+			
+			return receiptid;
+		}
+		catch (SQLException ex)
+		{
+			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
+			fireExceptionGenerated(event);
+
+			return 0;
+		}
+	}
+	
 	/*
 	 * Creates new purchase record corresponding to an instore purchase. Returns the receipt number if successful,
 	 * returns 0 if unsuccessful.
 	 */
 	public Integer instorePurchase(){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			//ps = con.prepareStatement("INSERT into Purchase VALUES(receipt_counter.nextval, sysdate, null," +
-		//" null, null, null, null)");
+			con = MvbOracleConnection.getInstance().getConnection();
 
-		
-			//ps.executeUpdate();
-		
-			//ps = con.prepareStatement("SELECT last_number from user_sequences where sequence_name = \'RECEIPT_COUNTER\'");
+			Integer receiptid = Integer.valueOf(IdAllocator.RECEIPTS.next(con));
 			
-			ps = con.prepareStatement("SELECT receipt_counter.NEXTVAL FROM Purchase");
-			ResultSet rs = ps.executeQuery();
-			rs.next();
-			Integer receiptid = new Integer(rs.getInt(1));
-			
-			ps = con.prepareStatement("INSERT into Purchase VALUES(?, sysdate, null, " +
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT into Purchase VALUES(?, sysdate, null, " +
 			"null, null, null, null)");
 			
 			ps.setInt(1, receiptid);
-			ResultSet rss = ps.executeQuery();
-	
-			
+			ps.executeUpdate();
 			
 			con.commit();
+
+			// the purchase has no delivered date, so it counts as pending
+			DeliveryCapacity.getInstance().added();
 			
 			return receiptid;
 					
@@ -97,7 +139,8 @@ public class ClerkTransactions {
 
 			try
 			{
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return 0; 
 			}
 			catch (SQLException ex2)
@@ -107,6 +150,11 @@ public class ClerkTransactions {
 				return 0; 
 			}
 		}
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	/*
@@ -115,8 +163,12 @@ public class ClerkTransactions {
 	 */
 	
 	public int updateCreditCard(Integer rid, String cardno, Date cexpire) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("UPDATE Purchase SET cardno = ?, expire = ? WHERE receiptID = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE Purchase SET cardno = ?, expire = ? WHERE receiptID = ?");
 			ps.setString(1, cardno);
 			ps.setDate(2, (java.sql.Date) cexpire);
 			ps.setInt(3, rid);
@@ -132,7 +184,8 @@ public class ClerkTransactions {
 
 			try
 			{
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return 0; 
 			}
 			catch (SQLException ex2)
@@ -142,18 +195,30 @@ public class ClerkTransactions {
 				return 0; 
 			}
 		}
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	/*
-	 * 
+	 * Returns the purchase date of a receipt, or null if the receipt does
+	 * not exist or there is an error.
 	 */
-	public ResultSet receiptDate(Integer rid){
+	public java.sql.Date receiptDate(Integer rid){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("SELECT p.purdate FROM Purchase p WHERE p.receiptID = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT p.purdate FROM Purchase p WHERE p.receiptID = ?");
 			ps.setInt(1,  rid);
 			ResultSet rs = ps.executeQuery();
-			return rs;
+			if (!rs.next())
+				return null;
+			return rs.getDate(1);
 		}
 		catch (SQLException ex)
 		{
@@ -163,16 +228,24 @@ public class ClerkTransactions {
 
 			return null; 
 		}
-		
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	/* Returns a ResultSet which contains items on a receipt
 	 * 
 	 */
 	public ResultSet receiptItems(Integer rid){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("SELECT p.upc, p.quantity, i.price FROM PurchaseItem p, Item i " +
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT p.upc, p.quantity, i.price FROM PurchaseItem p, Item i " +
 					"WHERE p.upc = i.upc AND p.receiptID = ?");
 			
 			ps.setInt(1, rid);
@@ -187,6 +260,9 @@ public class ClerkTransactions {
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null; 
 		}
 	}
@@ -196,9 +272,13 @@ public class ClerkTransactions {
 	 */
 	
 	public BigDecimal receiptTotal(Integer rid){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("SELECT SUM(p.quantity * i.price) FROM PurchaseItem p, Item i" +
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT SUM(p.quantity * i.price) FROM PurchaseItem p, Item i" +
 					"WHERE p.upc = i.upc AND p.receiptID = ?");
 			
 			ps.setInt(1,  rid);
@@ -218,6 +298,11 @@ public class ClerkTransactions {
 
 			return null; 
 		}
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}	
 		
 	/*
@@ -226,10 +311,13 @@ public class ClerkTransactions {
 	 */
 	
 	public boolean checkReturn(Integer rid){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try 
 		{
-			ps = con.prepareStatement("SELECT p.receiptID, p.purdate FROM Purchase p WHERE p.receiptID = ?", 
-					ResultSet.FETCH_UNKNOWN);
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT p.receiptID, p.purdate FROM Purchase p WHERE p.receiptID = ?");
 			ps.setInt(1,  rid);
 			ResultSet rs = ps.executeQuery();
 			//rs.beforeFirst();
@@ -261,26 +349,41 @@ public class ClerkTransactions {
 			fireExceptionGenerated(event);
 			return false;
 		}
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	/*
 	 * Updates the database to reflect an in-store return, given the receipt number, UPC of the item to be returned,
-	 * and the quantity of that item to be returned. Method returns a 1 if successful, 0 if unable to complete process.
+	 * and the quantity of that item to be returned. Method returns the return ID if successful, 0 if unable to 
+	 * complete process.
 	 */
 	public int processReturn(Integer rid, Integer upc, Integer quantity){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("INSERT into Return VALUES(return_counter.nextval, sysdate, ?)");
-			ps.setInt(1, rid);
+			con = MvbOracleConnection.getInstance().getConnection();
+			int retid = IdAllocator.RETURNS.next(con);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT into Return VALUES(?, sysdate, ?)");
+			ps.setInt(1, retid);
+			ps.setInt(2, rid);
 			ps.executeUpdate();
+			MvbOracleConnection.getInstance().closeStatement(ps);
 			
-			ps = con.prepareStatement("INSERT into ReturnItem VALUES(return_counter.currval, ?, ?)");
-			ps.setInt(1, upc);
-			ps.setInt(2,  quantity);
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT into ReturnItem VALUES(?, ?, ?)");
+			ps.setInt(1, retid);
+			ps.setInt(2, upc);
+			ps.setInt(3,  quantity);
 			ps.executeUpdate();
 			
 			con.commit();
-			return 1;
+			return retid;
 		}
 		catch (SQLException ex)
 		{
@@ -289,7 +392,8 @@ public class ClerkTransactions {
 
 			try
 			{
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return 0; 
 			}
 			catch (SQLException ex2)
@@ -298,32 +402,14 @@ public class ClerkTransactions {
 				fireExceptionGenerated(event);
 				return 0; 
 			}
-		}		
-	}
-	
-	/*
-	 * Returns the database connection used by this customer model
-	 */
-	public Connection getConnection()
-	{
-		return con; 
-	}
-
-	/*
-	 * This method allows members of this class to clean up after itself 
-	 * before it is garbage collected. It is called by the garbage collector.
-	 */ 
-	protected void finalize() throws Throwable
-	{
-		if (ps != null)
+		}
+		finally
 		{
-			ps.close();
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
-
-		// finalize() must call super.finalize() as the last thing it does
-		super.finalize();	
 	}
-
+	
 
 	/******************************************************************************
 	 * Below are the methods to add and remove ExceptionListeners.
@@ -363,9 +449,5 @@ public class ClerkTransactions {
 		}
 	}
 
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
-
 }
 
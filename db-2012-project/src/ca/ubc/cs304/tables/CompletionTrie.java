@@ -0,0 +1,368 @@
+package ca.ubc.cs304.tables;
+
+import java.util.*;
+
+/*
+ * CompletionTrie holds values, e.g. item titles, each with a weight, and
+ * returns the heaviest values starting with a prefix, ignoring case. It
+ * is a radix trie: each edge is labelled with a string rather than a
+ * single character, so a chain of nodes with one child each is stored
+ * as one node. Every node keeps the largest weight below it, so the top
+ * completions are found by always expanding the heaviest subtree first,
+ * without visiting the values that do not make the top.
+ *
+ * A value is kept while at least one add() is not matched by a
+ * remove(), e.g. while any item has the title; its weight is the sum of
+ * the weights added. Callers synchronize access.
+ */
+class CompletionTrie {
+	private Node root = new Node("");
+	private int size = 0;
+
+	private static class Node {
+		// the characters from the parent to this node
+		String label;
+
+		// the children, sorted by the first character of their label
+		Node[] children = NO_CHILDREN;
+
+		// the value ending here, as first added, and how often it was
+		// added; count is 0 if no value ends here
+		String value;
+		int count;
+		long weight;
+
+		// the largest weight of a value at or below this node, or -1 if
+		// there is none
+		long best = -1;
+
+		Node(String label) {
+			this.label = label;
+		}
+	}
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	/*
+	 * A value, or a subtree to be expanded, waiting to be returned by
+	 * complete(); ordered heaviest first.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		Node node;
+		boolean expand;
+		long weight;
+
+		Candidate(Node node, boolean expand) {
+			this.node = node;
+			this.expand = expand;
+			this.weight = (expand ? node.best : node.weight);
+		}
+
+		public int compareTo(Candidate other) {
+			if (weight != other.weight) {
+				return (weight > other.weight ? -1 : 1);
+			}
+
+			// return values before expanding subtrees of the same weight
+			return (expand == other.expand ? 0 : (expand ? 1 : -1));
+		}
+	}
+
+	/*
+	 * Adds value with the given weight, or adds weight to it if it is
+	 * there already.
+	 */
+	void add(String value, long weight) {
+		if (value == null) {
+			return;
+		}
+
+		List<Node> path = new ArrayList<Node>();
+		Node node = insert(value.toLowerCase(), path);
+
+		if (node.count == 0) {
+			node.value = value;
+			node.weight = 0;
+			size++;
+		}
+
+		node.count++;
+		node.weight += weight;
+
+		update(path);
+	}
+
+	/*
+	 * Undoes add(value, weight).
+	 */
+	void remove(String value, long weight) {
+		if (value == null) {
+			return;
+		}
+
+		List<Node> path = new ArrayList<Node>();
+		Node node = find(value.toLowerCase(), path);
+
+		if (node == null || node.count == 0) {
+			return;
+		}
+
+		node.count--;
+		node.weight -= weight;
+
+		if (node.count == 0) {
+			node.value = null;
+			node.weight = 0;
+			size--;
+		}
+
+		update(path);
+	}
+
+	/*
+	 * Adds weight to value, if it is there.
+	 */
+	void addWeight(String value, long weight) {
+		if (value == null) {
+			return;
+		}
+
+		List<Node> path = new ArrayList<Node>();
+		Node node = find(value.toLowerCase(), path);
+
+		if (node != null && node.count > 0) {
+			node.weight += weight;
+			update(path);
+		}
+	}
+
+	/*
+	 * Returns at most k values starting with prefix, ignoring case,
+	 * heaviest first.
+	 */
+	List<String> complete(String prefix, int k) {
+		List<String> result = new ArrayList<String>();
+		Node node = root;
+		String rest = prefix.toLowerCase();
+
+		// find the node whose subtree holds the values starting with prefix
+		while (rest.length() > 0) {
+			Node child = child(node, rest.charAt(0));
+
+			if (child == null) {
+				return result;
+			}
+
+			int common = common(child.label, rest);
+
+			if (common < rest.length() && common < child.label.length()) {
+				return result;
+			}
+
+			rest = rest.substring(common);
+			node = child;
+		}
+
+		if (node.best < 0) {
+			return result;
+		}
+
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+
+		queue.add(new Candidate(node, true));
+
+		while (!queue.isEmpty() && result.size() < k) {
+			Candidate next = queue.poll();
+
+			if (!next.expand) {
+				result.add(next.node.value);
+				continue;
+			}
+
+			if (next.node.count > 0) {
+				queue.add(new Candidate(next.node, false));
+			}
+
+			for (Node child : next.node.children) {
+				if (child.best >= 0) {
+					queue.add(new Candidate(child, true));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/*
+	 * Returns the number of values.
+	 */
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		root = new Node("");
+		size = 0;
+	}
+
+	/*
+	 * Returns the node for key, adding it if needed. The nodes from the
+	 * root to it are added to path.
+	 */
+	private Node insert(String key, List<Node> path) {
+		Node node = root;
+		String rest = key;
+
+		path.add(node);
+
+		while (rest.length() > 0) {
+			Node child = child(node, rest.charAt(0));
+
+			if (child == null) {
+				child = new Node(rest);
+				addChild(node, child);
+				path.add(child);
+				return child;
+			}
+
+			int common = common(child.label, rest);
+
+			if (common < child.label.length()) {
+				// split the edge where key leaves it
+				Node middle = new Node(child.label.substring(0, common));
+
+				replaceChild(node, middle);
+				child.label = child.label.substring(common);
+				addChild(middle, child);
+				middle.best = child.best;
+				child = middle;
+			}
+
+			rest = rest.substring(common);
+			node = child;
+			path.add(node);
+		}
+
+		return node;
+	}
+
+	/*
+	 * Returns the node for key, or null. The nodes from the root to it
+	 * are added to path.
+	 */
+	private Node find(String key, List<Node> path) {
+		Node node = root;
+		String rest = key;
+
+		path.add(node);
+
+		while (rest.length() > 0) {
+			Node child = child(node, rest.charAt(0));
+
+			if (child == null || !rest.startsWith(child.label)) {
+				return null;
+			}
+
+			rest = rest.substring(child.label.length());
+			node = child;
+			path.add(node);
+		}
+
+		return node;
+	}
+
+	/*
+	 * Recomputes best for the nodes on path, deepest first, and drops
+	 * the nodes that no longer hold any value.
+	 */
+	private void update(List<Node> path) {
+		for (int i = path.size() - 1; i >= 0; i--) {
+			Node node = path.get(i);
+			long best = (node.count > 0 ? node.weight : -1);
+
+			for (Node child : node.children) {
+				best = Math.max(best, child.best);
+			}
+
+			node.best = best;
+
+			if (best < 0 && i > 0) {
+				removeChild(path.get(i - 1), node);
+			}
+		}
+	}
+
+	private static Node child(Node node, char c) {
+		int i = search(node.children, c);
+
+		return (i >= 0 ? node.children[i] : null);
+	}
+
+	/*
+	 * Returns the index of the child whose label starts with c, or
+	 * -(insertion point) - 1.
+	 */
+	private static int search(Node[] children, char c) {
+		int low = 0;
+		int high = children.length - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char first = children[mid].label.charAt(0);
+
+			if (first < c) {
+				low = mid + 1;
+			} else if (first > c) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	private static void addChild(Node node, Node child) {
+		int at = -search(node.children, child.label.charAt(0)) - 1;
+		Node[] children = new Node[node.children.length + 1];
+
+		System.arraycopy(node.children, 0, children, 0, at);
+		children[at] = child;
+		System.arraycopy(node.children, at, children, at + 1, node.children.length - at);
+
+		node.children = children;
+	}
+
+	private static void replaceChild(Node node, Node child) {
+		node.children[search(node.children, child.label.charAt(0))] = child;
+	}
+
+	private static void removeChild(Node node, Node child) {
+		int at = search(node.children, child.label.charAt(0));
+
+		if (at < 0) {
+			return;
+		}
+
+		Node[] children = (node.children.length == 1 ? NO_CHILDREN : new Node[node.children.length - 1]);
+
+		System.arraycopy(node.children, 0, children, 0, at);
+		System.arraycopy(node.children, at + 1, children, at, node.children.length - at - 1);
+
+		node.children = children;
+	}
+
+	/*
+	 * Returns the length of the longest common prefix of a and b.
+	 */
+	private static int common(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+
+		while (i < n && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+
+		return i;
+	}
+}
@@ -4,22 +4,21 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class CustomerModel {
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public CustomerModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 
 	/*
@@ -28,8 +27,13 @@ public class CustomerModel {
 	 */
 	public boolean insertCustomer(String cid, String cname, String cpass,
 			String caddr, String cphone) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO customer VALUES (?,?,?,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO customer VALUES (?,?,?,?,?)");
 			
 			ps.setString(1, cid);
 			
@@ -54,7 +58,6 @@ public class CustomerModel {
 			}
 
 			ps.executeUpdate();
-			if(commit)
 			con.commit();
 			return true;
 
@@ -63,13 +66,17 @@ public class CustomerModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
@@ -81,9 +88,14 @@ public class CustomerModel {
      */
     public boolean updateCustomer(String cid, String cname, String caddr, String cphone)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE customer SET name = ?, address = ?, phone = ? WHERE cid = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE customer SET name = ?, address = ?, phone = ? WHERE cid = ?");
 
 	    if (cname != null)
 	    {
@@ -108,7 +120,6 @@ public class CustomerModel {
 
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
 	    return true; 
@@ -120,7 +131,8 @@ public class CustomerModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -130,6 +142,11 @@ public class CustomerModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 
 	/*
@@ -137,14 +154,18 @@ public class CustomerModel {
 	 * otherwise.
 	 */
 	public boolean deleteCustomer(String cid) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM customer WHERE cid = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM customer WHERE cid = ?");
 
 			ps.setString(1, cid);
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
 			return true;
@@ -153,38 +174,35 @@ public class CustomerModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
     /*
-     * Returns a ResultSet containing all customers. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
+     * Returns a read only table model of all customers. Rows are fetched
+     * from the database a page at a time as they are displayed. If
+     * there is an error, null is returned.
      */ 
-    public ResultSet showCustomer()
+    public CustomTableModel showCustomer()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT c.* FROM customer c", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT c.* FROM customer c", "c.cid");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
@@ -192,22 +210,32 @@ public class CustomerModel {
 
 
 	/*
-	 * Returns an updatable result set for Customer
+	 * Returns an editable table model of all rows of Customer. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editCustomer() {
+	public CustomTableModel editCustomer() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT c.* FROM customer c",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT c.*, ROWIDTOCHAR(c.ROWID) FROM customer c");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "customer", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -218,9 +246,14 @@ public class CustomerModel {
      */ 
     public boolean findCustomer(String cid)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT cid FROM customer where cid = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT cid FROM customer where cid = ?");
 
 	    ps.setString(1, cid);
 
@@ -242,6 +275,11 @@ public class CustomerModel {
 
 	    return false; 
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
     /*
@@ -250,9 +288,14 @@ public class CustomerModel {
      */ 
     public boolean validateCustomer(String cid, String password)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT cid FROM customer where cid = ? AND password = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT cid FROM customer where cid = ? AND password = ?");
 
 	    ps.setString(1, cid);
 
@@ -276,29 +319,11 @@ public class CustomerModel {
 
 	    return false; 
 	}
-    }
-    
-	/*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-
-    /*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -340,7 +365,4 @@ public class CustomerModel {
 		}
 	}
 	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
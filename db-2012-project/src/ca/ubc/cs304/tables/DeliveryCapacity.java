@@ -0,0 +1,173 @@
+package ca.ubc.cs304.tables;
+
+import java.sql.*;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * DeliveryCapacity estimates when an order will be delivered from the
+ * number of pending orders, those without a delivered date, without
+ * counting them for every order. The store delivers
+ * ShopTransactions.MAXIMUM_DAILY_TRANSACTIONS orders a day, so pending
+ * order n, counting from 0, takes slot n % MAXIMUM_DAILY_TRANSACTIONS of
+ * day n / MAXIMUM_DAILY_TRANSACTIONS + 1. book() takes the next slot with
+ * one atomic increment, so two concurrent checkouts never get the same
+ * one.
+ *
+ * The count is read from purchase the first time it is needed and then
+ * kept by checkout, which calls book() and then confirm() or cancel(),
+ * by ClerkTransactions, and by ManagerTransactions.setDeliveredDate().
+ * Every RECONCILE_INTERVAL it is read again, to correct changes made
+ * elsewhere, and PurchaseModel, which can change any purchase, makes the
+ * next book() read it right away by calling invalidate(). Booked orders
+ * that are not yet committed are not in purchase, so they are added to
+ * the count read.
+ */
+public class DeliveryCapacity {
+	// how often the count is read again from purchase
+	public static final long RECONCILE_INTERVAL = 5 * 60 * 1000;
+
+	private static DeliveryCapacity _capacity = null;
+
+	// the pending orders, including those booked but not yet committed
+	private AtomicInteger pending = new AtomicInteger();
+
+	// the orders booked but not yet confirmed or cancelled
+	private AtomicInteger booked = new AtomicInteger();
+
+	// false until the count is read, and after invalidate()
+	private volatile boolean known = false;
+
+	private Timer timer = null;
+
+	private DeliveryCapacity() {
+		// empty
+	}
+
+	/*
+	 * Returns the instance of DeliveryCapacity
+	 */
+	public static synchronized DeliveryCapacity getInstance() {
+		if (_capacity == null) {
+			_capacity = new DeliveryCapacity();
+		}
+
+		return _capacity;
+	}
+
+	/*
+	 * Takes the next delivery slot for an order about to be committed and
+	 * returns the number of days until it is delivered. The caller must
+	 * call confirm() once the order is committed, or cancel() if it is
+	 * not.
+	 */
+	public int book() throws SQLException {
+		if (!known) {
+			load();
+		}
+
+		booked.incrementAndGet();
+
+		int slot = pending.getAndIncrement();
+
+		return slot / ShopTransactions.MAXIMUM_DAILY_TRANSACTIONS + 1;
+	}
+
+	/*
+	 * Records that a booked order was committed.
+	 */
+	public void confirm() {
+		booked.decrementAndGet();
+	}
+
+	/*
+	 * Gives back the slot of a booked order that was not committed.
+	 */
+	public void cancel() {
+		booked.decrementAndGet();
+		pending.decrementAndGet();
+	}
+
+	/*
+	 * Records a pending order committed without book(), e.g. by a clerk.
+	 */
+	public void added() {
+		pending.incrementAndGet();
+	}
+
+	/*
+	 * Records that a pending order was delivered.
+	 */
+	public void delivered() {
+		pending.decrementAndGet();
+	}
+
+	/*
+	 * Returns the number of pending orders, including those booked.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/*
+	 * Makes the next book() read the count from purchase.
+	 */
+	public void invalidate() {
+		known = false;
+	}
+
+	/*
+	 * Reads the count unless another thread read it while this one 
+	 * waited for the lock.
+	 */
+	private synchronized void load() throws SQLException {
+		if (!known) {
+			reconcile();
+		}
+	}
+
+	/*
+	 * Reads the count of pending orders from purchase. The first call
+	 * also starts reading it every RECONCILE_INTERVAL.
+	 */
+	public synchronized void reconcile() throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT count(receiptID) FROM Purchase WHERE deliveredDate IS NULL");
+
+			ResultSet rs = ps.executeQuery();
+
+			rs.next();
+
+			pending.set(rs.getInt(1) + booked.get());
+			known = true;
+
+			rs.close();
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+
+		if (timer == null) {
+			timer = new Timer("Delivery capacity", true);
+
+			timer.schedule(new TimerTask() {
+				public void run() {
+					try {
+						reconcile();
+					} catch (SQLException ex) {
+						// the count is read again next time
+					}
+				}
+			}, RECONCILE_INTERVAL, RECONCILE_INTERVAL);
+		}
+	}
+}
@@ -9,9 +9,12 @@ import javax.swing.border.*;
 
 import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
+import ca.ubc.cs304.main.EditEvent;
+import ca.ubc.cs304.main.EditListener;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.sql.*;
 import java.text.DateFormat;
@@ -125,21 +128,13 @@ public class HasSongController implements ActionListener, ExceptionListener
      */
     private void showAllHasSongs()
     {
-	ResultSet rs = hasSong.showHasSong();
-	
-	// CustomTableModel maintains the result set's data, e.g., if  
-	// the result set is updatable, it will update the database
-	// when the table's data is modified.  
-	CustomTableModel model = new CustomTableModel(hasSong.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	// register to be notified of any exceptions that occur in the model and table
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	// Adds the table to the scrollpane.
-	// By default, a JTable does not have scroll bars.
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading item songs", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return hasSong.showHasSong();
+	    }
+	}.start();
     }
 
 
@@ -148,15 +143,33 @@ public class HasSongController implements ActionListener, ExceptionListener
      */
     private void editAllHasSongs()
     {
-	ResultSet rs = hasSong.editHasSong();
-	
-	CustomTableModel model = new CustomTableModel(hasSong.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
+	new TableTask(mvb, "Loading item songs for editing", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return hasSong.editHasSong();
+	    }
 
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	mvb.addTable(data);
+	    protected void tableShown(CustomTable table)
+	    {
+		// each row written replaces a song {upc, title} with another,
+		// as deleting and inserting it would
+		table.getCustomModel().addEditListener(new EditListener()
+		{
+		    public void editsApplied(EditEvent e)
+		    {
+			for (int i = 0; i < e.getRowCount(); i++)
+			{
+			    Object[] before = e.getBefore(i);
+			    Object[] after = e.getAfter(i);
+
+			    SongIndex.getInstance().songRemoved(((Number)before[0]).intValue(), (String)before[1]);
+			    SongIndex.getInstance().songAdded(((Number)after[0]).intValue(), (String)after[1]);
+			}
+		    }
+		});
+	    }
+	}.start();
     }
 
 
@@ -4,22 +4,21 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class HasSongModel {
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 	
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public HasSongModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 
 	/* Insert a HasSong tuple 
@@ -27,9 +26,14 @@ public class HasSongModel {
 	 *  Returns true if the insert is successful; false otherwise.
 	 */
 	public boolean insertHasSong(Integer upc, String stitle){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("INSERT INTO hassong VALUES (?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO hassong VALUES (?,?)");
 			
 			ps.setInt(1, upc.intValue());
 			
@@ -37,8 +41,9 @@ public class HasSongModel {
 			
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
+
+			SongIndex.getInstance().songAdded(upc.intValue(), stitle);
 			return true;
 		}
 		catch (SQLException ex) {
@@ -46,7 +51,8 @@ public class HasSongModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
@@ -54,6 +60,11 @@ public class HasSongModel {
 				return false;
 			}
 		}
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	/*
@@ -62,9 +73,14 @@ public class HasSongModel {
      */
     public boolean deleteHasSong(Integer upc, String stitle)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	  
-	    ps = con.prepareStatement("DELETE FROM hassong WHERE upc = ? AND title = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM hassong WHERE upc = ? AND title = ?");
 
 	    ps.setInt(1, upc.intValue());
 	    
@@ -72,9 +88,10 @@ public class HasSongModel {
 
 	    ps.executeUpdate();
 
-	    if(commit)
 	    con.commit();
 
+	    SongIndex.getInstance().songRemoved(upc.intValue(), stitle);
+
 	    return true; 
 	}
 	catch (SQLException ex)
@@ -84,7 +101,8 @@ public class HasSongModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -94,49 +112,54 @@ public class HasSongModel {
 		return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
     
     /*
-     * Returns a ResultSet containing all customers. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
+     * Returns a read only table model of all songs. Rows are fetched
+     * from the database a page at a time as they are displayed. If
+     * there is an error, null is returned.
      */ 
-    public ResultSet showHasSong()
+    public CustomTableModel showHasSong()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT h.* FROM hassong h", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT h.* FROM hassong h", "h.upc, h.title");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
     
     /*
-     * Returns an updatable result set for HasSong
+     * Returns an editable table model of all rows of HasSong. Each row
+     * carries its ROWID, and changes made in the table are written
+     * back with an UPDATE on that ROWID. The rows are read by
+     * the model's streamRows(). If there is an error, null is
+     * returned.
      */ 
-    public ResultSet editHasSong()
+    public CustomTableModel editHasSong()
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT hs.* FROM hassong hs", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_UPDATABLE);
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
 
-	    ResultSet rs = ps.executeQuery();
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT hs.*, ROWIDTOCHAR(hs.ROWID) FROM hassong hs");
 
-	    return rs; 
+	    // the model streams the rows, then closes the result set and
+	    // releases the connection
+	    return new CustomTableModel(ps.executeQuery(), "hassong", true);
 	}
 	catch (SQLException ex)
 	{
@@ -144,6 +167,9 @@ public class HasSongModel {
 	    fireExceptionGenerated(event);
 	    // no need to commit or rollback since it is only a query
 
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+
 	    return null; 
 	}
     }
@@ -154,9 +180,14 @@ public class HasSongModel {
      */ 
     public boolean findHasSong(int upc, String title)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT * FROM hassong WHERE upc = ? AND title = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT * FROM hassong WHERE upc = ? AND title = ?");
 
 	    ps.setInt(1, upc);
 	    
@@ -180,29 +211,11 @@ public class HasSongModel {
 
 	    return false; 
 	}
-    }
-    
-    /*
-     * Returns the database connection used by this shipment model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-    
-    /*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -245,7 +258,4 @@ public class HasSongModel {
 		}
 	}
 	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
@@ -0,0 +1,109 @@
+package ca.ubc.cs304.tables;
+
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * IdAllocator hands out the values of a sequence, e.g. the receipt
+ * numbers of receipt_counter, without a round trip for each. It takes
+ * BLOCK_SIZE values from the sequence with one query and hands them out
+ * from memory; a thread takes the next one with one atomic increment,
+ * and only the thread that finds the block used up reads the next.
+ *
+ * Every value is taken from the sequence itself, so IDs given by
+ * IdAllocator never clash with those given by nextval elsewhere, e.g. by
+ * another copy of the program. IDs are unique but, like those of a
+ * cached sequence, not in the order they are used, and those of the
+ * last block are skipped when the program ends.
+ */
+public class IdAllocator {
+	// the values taken from a sequence at a time
+	public static final int BLOCK_SIZE = 50;
+
+	// the allocators of the receipt, return and shipment IDs
+	public static final IdAllocator RECEIPTS = new IdAllocator("receipt_counter");
+	public static final IdAllocator RETURNS = new IdAllocator("return_counter");
+	public static final IdAllocator SHIPMENTS = new IdAllocator("shipment_counter");
+
+	private String sequence;
+
+	private volatile Block block = new Block(new int[0]);
+
+	/*
+	 * Values taken from the sequence and the next one to hand out.
+	 */
+	private static class Block {
+		int[] ids;
+		AtomicInteger next = new AtomicInteger();
+
+		Block(int[] ids) {
+			this.ids = ids;
+		}
+	}
+
+	private IdAllocator(String sequence) {
+		this.sequence = sequence;
+	}
+
+	/*
+	 * Returns the next ID. If the block is used up, the next is read with
+	 * con, which is neither committed nor rolled back.
+	 */
+	public int next(Connection con) throws SQLException {
+		while (true) {
+			Block b = block;
+			int i = b.next.getAndIncrement();
+
+			if (i < b.ids.length) {
+				return b.ids[i];
+			}
+
+			refill(con, b);
+		}
+	}
+
+	/*
+	 * Reads the next block, unless another thread read it after used
+	 * was found used up.
+	 */
+	private synchronized void refill(Connection con, Block used) throws SQLException {
+		if (block != used) {
+			return;
+		}
+
+		PreparedStatement ps = null;
+
+		try {
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT " + sequence + ".nextval FROM dual CONNECT BY LEVEL <= ?");
+
+			ps.setInt(1, BLOCK_SIZE);
+
+			ResultSet rs = ps.executeQuery();
+			int[] ids = new int[BLOCK_SIZE];
+			int n = 0;
+
+			while (n < BLOCK_SIZE && rs.next()) {
+				ids[n++] = rs.getInt(1);
+			}
+
+			rs.close();
+
+			if (n == 0) {
+				throw new SQLException("No values were read from " + sequence + ".");
+			}
+
+			if (n < BLOCK_SIZE) {
+				int[] read = new int[n];
+				System.arraycopy(ids, 0, read, 0, n);
+				ids = read;
+			}
+
+			block = new Block(ids);
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+		}
+	}
+}
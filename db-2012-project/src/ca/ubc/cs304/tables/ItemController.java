@@ -9,9 +9,12 @@ import javax.swing.border.*;
 
 import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
+import ca.ubc.cs304.main.EditEvent;
+import ca.ubc.cs304.main.EditListener;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.math.BigDecimal;
 import java.sql.*;
@@ -132,21 +135,13 @@ public class ItemController implements ActionListener, ExceptionListener
      */
     private void showAllItems()
     {
-	ResultSet rs = item.showItem();
-	
-	// CustomTableModel maintains the result set's data, e.g., if  
-	// the result set is updatable, it will update the database
-	// when the table's data is modified.  
-	CustomTableModel model = new CustomTableModel(item.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	// register to be notified of any exceptions that occur in the model and table
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	// Adds the table to the scrollpane.
-	// By default, a JTable does not have scroll bars.
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading items", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return item.showItem();
+	    }
+	}.start();
     }
 
 
@@ -155,15 +150,60 @@ public class ItemController implements ActionListener, ExceptionListener
      */
     private void editAllItems()
     {
-	ResultSet rs = item.editItem();
-	
-	CustomTableModel model = new CustomTableModel(item.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
+	new TableTask(mvb, "Loading items for editing", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return item.editItem();
+	    }
 
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	mvb.addTable(data);
+	    protected void tableShown(CustomTable table)
+	    {
+		// each item written is reported as updateItem() reports it
+		table.getCustomModel().addEditListener(new EditListener()
+		{
+		    public void editsApplied(EditEvent e)
+		    {
+			for (int i = 0; i < e.getRowCount(); i++)
+			{
+			    itemEdited(e.getBefore(i), e.getAfter(i));
+			}
+		    }
+		});
+	    }
+	}.start();
+    }
+
+
+    /*
+     * Reports an item edited in the table of all items to the search 
+     * indexes, carts, bills and stock reservations. The rows hold the
+     * columns of item in the order SELECT i.* returns them. An item 
+     * whose UPC was edited is reported as deleted and inserted again.
+     */
+    private static void itemEdited(Object[] before, Object[] after)
+    {
+	int oldUpc = ((Number)before[0]).intValue();
+	int upc = ((Number)after[0]).intValue();
+	String ititle = (String)after[1];
+	String icat = (String)after[3];
+	int istock = (after[4] == null ? 0 : ((Number)after[4]).intValue());
+	BigDecimal isellp = (BigDecimal)after[7];
+
+	if (oldUpc != upc)
+	{
+	    CatalogIndex.getInstance().itemDeleted(oldUpc);
+	    SongIndex.getInstance().itemDeleted(oldUpc);
+	    ShoppingCart.itemDeleted(oldUpc);
+	    BillSession.itemDeleted(oldUpc);
+	    StockReservations.getInstance().itemDeleted(oldUpc);
+	}
+
+	CatalogIndex.getInstance().itemChanged(upc, ititle, icat, istock);
+	SongIndex.getInstance().itemChanged(upc, ititle, istock, isellp);
+	ShoppingCart.priceChanged(upc, isellp);
+	BillSession.priceChanged(upc, ititle, isellp);
+	StockReservations.getInstance().stockSet(upc, istock);
     }
 
 
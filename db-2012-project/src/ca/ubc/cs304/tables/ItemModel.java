@@ -5,23 +5,22 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class ItemModel {
 
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ItemModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 
 	/*
@@ -30,8 +29,13 @@ public class ItemModel {
 	 */
 	public boolean insertItem(int upc, String ititle, String itype, String icat,
 			int istock, String icomp, int iyear, BigDecimal isellp) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO item VALUES (?,?,?,?,?,?,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO item VALUES (?,?,?,?,?,?,?,?)");
 
 			ps.setInt(1, upc);
 
@@ -59,8 +63,10 @@ public class ItemModel {
 
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
+
+			CatalogIndex.getInstance().itemChanged(upc, ititle, icat, istock);
+			SongIndex.getInstance().itemChanged(upc, ititle, istock, isellp);
 			return true;
 
 		} catch (SQLException ex) {
@@ -68,13 +74,17 @@ public class ItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 
@@ -87,9 +97,14 @@ public class ItemModel {
     public boolean updateItem(int upc, String ititle, String itype, String icat,
 			int istock, String icomp, int iyear, BigDecimal isellp)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE item SET title = ?, type = ?, category = ?," +
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE item SET title = ?, type = ?, category = ?," +
 	    		"stock = ?, company = ?, year = ?, sellPrice = ? WHERE upc = ?");
 
 	    ps.setString(1, ititle);
@@ -118,9 +133,14 @@ public class ItemModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
+	    CatalogIndex.getInstance().itemChanged(upc, ititle, icat, istock);
+	    SongIndex.getInstance().itemChanged(upc, ititle, istock, isellp);
+	    ShoppingCart.priceChanged(upc, isellp);
+	    BillSession.priceChanged(upc, ititle, isellp);
+	    StockReservations.getInstance().stockSet(upc, istock);
+
 	    return true; 
 	}
 	catch (SQLException ex)
@@ -130,7 +150,8 @@ public class ItemModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -140,6 +161,11 @@ public class ItemModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -147,76 +173,93 @@ public class ItemModel {
 	 * otherwise.
 	 */
 	public boolean deleteItem(Integer upc) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM item WHERE upc = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM item WHERE upc = ?");
 
 			ps.setInt(1, upc.intValue());
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
+			CatalogIndex.getInstance().itemDeleted(upc.intValue());
+			SongIndex.getInstance().itemDeleted(upc.intValue());
+			ShoppingCart.itemDeleted(upc.intValue());
+			BillSession.itemDeleted(upc.intValue());
+			StockReservations.getInstance().itemDeleted(upc.intValue());
+
 			return true;
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
 	/*
-     * Returns a ResultSet containing all items. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
-     */ 
-    public ResultSet showItem()
+	 * Returns a read only table model of all items. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
+	 */ 
+    public CustomTableModel showItem()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT i.* FROM item i", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT i.* FROM item i", "i.upc");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
 
 	/*
-	 * Returns an updatable result set for Item
+	 * Returns an editable table model of all rows of Item. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editItem() {
+	public CustomTableModel editItem() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT i.* FROM item i",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT i.*, ROWIDTOCHAR(i.ROWID) FROM item i");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "item", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -227,9 +270,14 @@ public class ItemModel {
      */ 
     public boolean findItem(int upc)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT upc FROM item where upc = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT upc FROM item where upc = ?");
 
 	    ps.setInt(1, upc);
 
@@ -251,29 +299,11 @@ public class ItemModel {
 
 	    return false; 
 	}
-    }
-	
-	/*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-
-    /*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -314,9 +344,5 @@ public class ItemModel {
 			}
 		}
 	}
-	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 
 }
@@ -4,23 +4,22 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class LeadSingerModel {
 
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public LeadSingerModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	
 	/* Insert a LeadSinger tuple 
@@ -28,9 +27,14 @@ public class LeadSingerModel {
 	 *  Returns true if the insert is successful; false otherwise.
 	 */
 	public boolean insertLeadSinger(Integer upc, String lname){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try
 		{
-			ps = con.prepareStatement("INSERT INTO leadsinger VALUES (?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO leadsinger VALUES (?,?)");
 			
 			ps.setInt(1, upc.intValue());
 			
@@ -38,6 +42,8 @@ public class LeadSingerModel {
 			
 			ps.executeUpdate();
 			con.commit();
+
+			CatalogIndex.getInstance().singerAdded(upc.intValue(), lname);
 			return true;
 		}
 		catch (SQLException ex) {
@@ -45,7 +51,8 @@ public class LeadSingerModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
@@ -53,6 +60,11 @@ public class LeadSingerModel {
 				return false;
 			}
 		}
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	  /*
@@ -61,9 +73,14 @@ public class LeadSingerModel {
      */
     public boolean deleteLeadSinger(Integer upc, String lname)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	  
-	    ps = con.prepareStatement("DELETE FROM leadsinger WHERE upc = ? AND name = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM leadsinger WHERE upc = ? AND name = ?");
 
 	    ps.setInt(1, upc.intValue());
 	    
@@ -73,6 +90,8 @@ public class LeadSingerModel {
 
 	    con.commit();
 
+	    CatalogIndex.getInstance().singerRemoved(upc.intValue(), lname);
+
 	    return true; 
 	}
 	catch (SQLException ex)
@@ -82,7 +101,8 @@ public class LeadSingerModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -92,49 +112,54 @@ public class LeadSingerModel {
 		return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
     /*
-     * Returns a ResultSet containing all leadSinger tuples. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
+     * Returns a read only table model of all lead singers. Rows are fetched
+     * from the database a page at a time as they are displayed. If
+     * there is an error, null is returned.
      */ 
-    public ResultSet showLeadSinger()
+    public CustomTableModel showLeadSinger()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT l.* FROM leadsinger l", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT l.* FROM leadsinger l", "l.upc, l.name");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
     
     /*
-     * Returns an updatable result set for LeadSinger
+     * Returns an editable table model of all rows of LeadSinger. Each row
+     * carries its ROWID, and changes made in the table are written
+     * back with an UPDATE on that ROWID. The rows are read by
+     * the model's streamRows(). If there is an error, null is
+     * returned.
      */ 
-    public ResultSet editLeadSinger()
+    public CustomTableModel editLeadSinger()
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT ls.* FROM leadsinger ls", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_UPDATABLE);
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
 
-	    ResultSet rs = ps.executeQuery();
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT ls.*, ROWIDTOCHAR(ls.ROWID) FROM leadsinger ls");
 
-	    return rs; 
+	    // the model streams the rows, then closes the result set and
+	    // releases the connection
+	    return new CustomTableModel(ps.executeQuery(), "leadsinger", true);
 	}
 	catch (SQLException ex)
 	{
@@ -142,6 +167,9 @@ public class LeadSingerModel {
 	    fireExceptionGenerated(event);
 	    // no need to commit or rollback since it is only a query
 
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+
 	    return null; 
 	}
     }
@@ -152,9 +180,14 @@ public class LeadSingerModel {
      */ 
     public boolean findLeadSinger(int upc, String name)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT * FROM leadSinger WHERE upc = ? AND name = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT * FROM leadSinger WHERE upc = ? AND name = ?");
 
 	    ps.setInt(1, upc);
 	    
@@ -178,29 +211,11 @@ public class LeadSingerModel {
 
 	    return false; 
 	}
-    }
-
-    /*
-     * Returns the database connection used by this shipment model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-    
-    /*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -242,7 +257,4 @@ public class LeadSingerModel {
 		}
 	}
 	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
@@ -12,10 +12,12 @@ import javax.swing.event.ListSelectionListener;
 
 import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
+import ca.ubc.cs304.main.DbTask;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.LoginWindow;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 import ca.ubc.cs304.tables.ClerkController.CheckoutStoreDialog;
 import ca.ubc.cs304.tables.ClerkController.ReturnDialog;
 
@@ -29,7 +31,6 @@ public class ManagerController implements ActionListener, ExceptionListener {
 	private JTable table = null;
 	private JTable table2 = null;
 	private JTable table3 = null;
-	private ResultSet rs = null;
 
 	// constants used for describing the outcome of an operation
 	public static final int OPERATIONSUCCESS = 0;
@@ -102,21 +103,13 @@ public class ManagerController implements ActionListener, ExceptionListener {
 	 */
 	 private void showAllShipments()
 	    {
-		ResultSet rs = manage.showShipment();
-		
-		// CustomTableModel maintains the result set's data, e.g., if  
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.  
-		CustomTableModel model = new CustomTableModel(manage.getConnection(), rs);
-		CustomTable data = new CustomTable(model);
-
-		// register to be notified of any exceptions that occur in the model and table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
-		    
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
+		new TableTask(mvb, "Loading shipments", this)
+		{
+		    protected ResultSet query()
+		    {
+			return manage.showShipment();
+		    }
+		}.start();
 	    }
 	 
 	 /*
@@ -261,15 +254,36 @@ public class ManagerController implements ActionListener, ExceptionListener {
 
 				mvb.updateStatusBar("Generating Daily Sales Report...");
 
-				rs = manage.showDailyReportAllItems(date);
-				ResultSet rs2 = manage.showDailyReportCategorialTotal(date);
-				ResultSet rs3 = manage.showDailyReportTotal(date);
-				
-				showResults(rs, rs2, rs3);
+				final Date reportDate = date;
 
-				mvb.updateStatusBar("Processing complete, tables show reports for all items, per category, and in total in sequential order.");
+				// the three reports are run one after the other on the
+				// same background thread
+				new DbTask<CustomTableModel[]>(mvb, "Generating daily sales report")
+				{
+					protected CustomTableModel[] work()
+					{
+						CustomTableModel[] models = new CustomTableModel[3];
+						models[0] = new CustomTableModel(manage.showDailyReportAllItems(reportDate));
+						models[1] = new CustomTableModel(manage.showDailyReportCategorialTotal(reportDate));
+						models[2] = new CustomTableModel(manage.showDailyReportTotal(reportDate));
+						return models;
+					}
 
-				
+					protected void succeeded(CustomTableModel[] models)
+					{
+						showResults(models[0], models[1], models[2]);
+
+						mvb.updateStatusBar("Processing complete, tables show reports for all items, per category, and in total in sequential order.");
+					}
+
+					protected void discard(CustomTableModel[] models)
+					{
+						for (int i = 0; i < models.length; i++)
+						{
+							models[i].close();
+						}
+					}
+				}.start();
 
 				return OPERATIONSUCCESS;
 
@@ -450,11 +464,16 @@ public class ManagerController implements ActionListener, ExceptionListener {
 
 				mvb.updateStatusBar("Generating Top " + number + "Items...");
 
-				rs = manage.topSellingItems(date, number);
+				final Date topDate = date;
+				final int topNumber = number;
 
-				mvb.updateStatusBar("Generating Complete!");
-
-				showResults(rs);
+				new ResultsTask("Generating top selling items", "Generating Complete!")
+				{
+					protected ResultSet query()
+					{
+						return manage.topSellingItems(topDate, topNumber);
+					}
+				}.start();
 
 				return OPERATIONSUCCESS;
 			    }
@@ -792,11 +811,15 @@ public class ManagerController implements ActionListener, ExceptionListener {
 
 					mvb.updateStatusBar("Processing shipment...");
 
-					rs = manage.processShipment(sid);
+					final int shipmentId = sid;
 
-					mvb.updateStatusBar("Processing complete, shipment added to stocks and prices updated!");
-
-					showResults(rs);
+					new ResultsTask("Processing shipment", "Processing complete, shipment added to stocks and prices updated!")
+					{
+						protected ResultSet query()
+						{
+							return manage.processShipment(shipmentId);
+						}
+					}.start();
 
 					return OPERATIONSUCCESS;
 
@@ -834,52 +857,47 @@ public class ManagerController implements ActionListener, ExceptionListener {
 	}    
 	
 	/*
-	 * This method displays all search results in a non-editable JTable
+	 * This task runs a report in the background and displays its 
+	 * results in a non-editable JTable
 	 */
-	private void showResults(ResultSet rs)
+	private abstract class ResultsTask extends TableTask
 	{
-		// CustomTableModel maintains the result set's data, e.g., if  
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.  
-		CustomTableModel model = new CustomTableModel(manage.getConnection(), rs);
-		final CustomTable data = new CustomTable(model);
-		table = data;
+		private String doneMessage;
+
+		public ResultsTask(String description, String doneMessage)
+		{
+			super(ManagerController.this.mvb, description, ManagerController.this);
+			this.doneMessage = doneMessage;
+		}
+
+		protected void tableShown(final CustomTable data)
+		{
+			table = data;
+
+			data.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+			data.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+
+				@Override
+				public void valueChanged(ListSelectionEvent e) {
+					if(!data.getSelectionModel().isSelectionEmpty()) {
+						mvb.enableAddItem();
+					}
 
-		// register to be notified of any exceptions that occur in the model and table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
-		
-		data.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-		data.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
-			
-			@Override
-			public void valueChanged(ListSelectionEvent e) {
-				if(!data.getSelectionModel().isSelectionEmpty()) {
-					mvb.enableAddItem();
 				}
-				
-			}
-		});
+			});
 
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
+			mvb.updateStatusBar(doneMessage);
+		}
 	}
 	
-	private void showResults(ResultSet rs, ResultSet rs2, ResultSet rs3)
+	private void showResults(CustomTableModel model, CustomTableModel model2, CustomTableModel model3)
 	{
-		// CustomTableModel maintains the result set's data, e.g., if  
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.  
-		CustomTableModel model = new CustomTableModel(manage.getConnection(), rs);
 		final CustomTable data = new CustomTable(model);
 		table = data;
 		
-		CustomTableModel model2 = new CustomTableModel(manage.getConnection(), rs2);
 		final CustomTable data2 = new CustomTable(model);
 		table2 = data2;
 		
-		CustomTableModel model3 = new CustomTableModel(manage.getConnection(), rs3);
 		final CustomTable data3 = new CustomTable(model);
 		table3 = data;
 
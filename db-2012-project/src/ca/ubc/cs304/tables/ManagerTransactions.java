@@ -12,17 +12,14 @@ import ca.ubc.cs304.main.MvbOracleConnection;
 
 public class ManagerTransactions {
 
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ManagerTransactions() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	
 	  /*
@@ -31,9 +28,13 @@ public class ManagerTransactions {
      */ 
     public ResultSet topSellingItems(Date sdate, int n)
     {
+    	Connection con = null;
+    	PreparedStatement ps = null;
+
     	try
-    	{	
-    		ps = con.prepareStatement(
+    	{
+    		con = MvbOracleConnection.getInstance().getConnection();
+    		ps = MvbOracleConnection.getInstance().prepareStatement(con, 
     				"SELECT title, company, stock, NumCopiesSold " +
     				"FROM item " +
     				"WHERE upc IN ( " +
@@ -58,6 +59,9 @@ public class ManagerTransactions {
     		fireExceptionGenerated(event);
     		// no need to commit or rollback since it is only a query
 
+    		MvbOracleConnection.getInstance().closeStatement(ps);
+    		MvbOracleConnection.getInstance().releaseConnection(con);
+
     		return null;
     	}
 	
@@ -66,9 +70,15 @@ public class ManagerTransactions {
 	
 public ResultSet processShipment(int sid)
 	{
+		Connection con = null;
+		PreparedStatement ps = null;
+		PreparedStatement update = null;
+
 		try
 		{
-			ps = con.prepareStatement(
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, 
 				"SELECT upc, quantity, supPrice " + 
 				"FROM ShipItem " + 
 				"WHERE sid = ?");
@@ -86,21 +96,27 @@ public ResultSet processShipment(int sid)
 				quantity = rs.getInt("quantity");
 				supPrice = rs.getFloat("supPrice");
 
-				ps = con.prepareStatement(
+				update = MvbOracleConnection.getInstance().prepareStatement(con, 
 					"UPDATE Item " +
 					"SET quantity = quantity + ?, sellPrice = (? * 1.2) " + 
 					"WHERE upc = ?");
 				
-				ps.setInt(1, quantity);
-				ps.setFloat(2, supPrice);
-				ps.setInt(3, upc);
+				update.setInt(1, quantity);
+				update.setFloat(2, supPrice);
+				update.setInt(3, upc);
 
-				ps.executeUpdate();
+				update.executeUpdate();
 
+				MvbOracleConnection.getInstance().closeStatement(update);
+				update = null;
 			}
 			
 			con.commit();
 
+			// the new prices are computed by the database
+			ShoppingCart.pricesChanged();
+			BillSession.pricesChanged();
+
 			return rs;
 		}
 
@@ -108,6 +124,10 @@ public ResultSet processShipment(int sid)
 				ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 				fireExceptionGenerated(event);
 
+				MvbOracleConnection.getInstance().closeStatement(update);
+				MvbOracleConnection.getInstance().closeStatement(ps);
+				MvbOracleConnection.getInstance().releaseConnection(con);
+
 				return null;
 			}
 		}
@@ -118,18 +138,46 @@ public ResultSet processShipment(int sid)
 	 * Returns true if the change has been successfully made, returns false otherwise.
 	 */
 	public boolean setDeliveredDate(int receiptID, Date deliveredDate){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement(
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			// a pending order is updated first, so that DeliveryCapacity
+			// can be told that it is no longer pending
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, 
 					"UPDATE Purchase " +
 					"SET deliveredDate = ? " +
-					"WHERE receiptID = ?");
+					"WHERE receiptID = ? AND deliveredDate IS NULL");
 			
 			ps.setDate(1, deliveredDate);
 			ps.setInt(2, receiptID);
 			
-			ps.executeUpdate();
+			boolean wasPending = (ps.executeUpdate() > 0);
+
+			if (!wasPending) {
+				MvbOracleConnection.getInstance().closeStatement(ps);
+
+				ps = MvbOracleConnection.getInstance().prepareStatement(con, 
+						"UPDATE Purchase " +
+						"SET deliveredDate = ? " +
+						"WHERE receiptID = ?");
+
+				ps.setDate(1, deliveredDate);
+				ps.setInt(2, receiptID);
+
+				ps.executeUpdate();
+			}
 			
 			con.commit();
+
+			if (wasPending && deliveredDate != null) {
+				DeliveryCapacity.getInstance().delivered();
+			} else if (!wasPending && deliveredDate == null) {
+				// the order may be pending again
+				DeliveryCapacity.getInstance().invalidate();
+			}
 			
 			return true;
 		}
@@ -141,7 +189,8 @@ public ResultSet processShipment(int sid)
 
 			try
 			{
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false; 
 			}
 			catch (SQLException ex2)
@@ -151,12 +200,20 @@ public ResultSet processShipment(int sid)
 				return false; 
 			}
 		}
-		
+		finally
+		{
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
 	}
 	
 	public ResultSet showDailyReportAllItems(Date date){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement(
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, 
 					"SELECT i.upc, i.category, SUM(pi.quantity) AS totalUnits, SUM(i.sellPrice) AS totalCost " +
 					"FROM Purchase p, PurchaseItem pi, Item i " +
 					"WHERE pi.receiptID = p.receiptID AND pi.upc = i.upc AND p.purDate = ? " +
@@ -178,13 +235,20 @@ public ResultSet processShipment(int sid)
 	    		fireExceptionGenerated(event);
 	    		// no need to commit or rollback since it is only a query
 
+	    		MvbOracleConnection.getInstance().closeStatement(ps);
+	    		MvbOracleConnection.getInstance().releaseConnection(con);
+
 	    		return null;
 	    	}
 		}
 	
 	public ResultSet showDailyReportCategorialTotal(Date date){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement(
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, 
 					"SELECT i.category, SUM(pi.quantity) AS totalSaleCategory, SUM(i.sellPrice) AS totalCategoryCost "  +
 					"FROM Purchase p, PurchaseItem pi, Item i " +
 					"WHERE pi.receiptID = p.receiptID AND pi.upc = i.upc AND p.purDate = ? " +
@@ -206,13 +270,20 @@ public ResultSet processShipment(int sid)
 	    		fireExceptionGenerated(event);
 	    		// no need to commit or rollback since it is only a query
 
+	    		MvbOracleConnection.getInstance().closeStatement(ps);
+	    		MvbOracleConnection.getInstance().releaseConnection(con);
+
 	    		return null;
 	    	}
 		}
 	
 	public ResultSet showDailyReportTotal(Date date){
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement(
+			con = MvbOracleConnection.getInstance().getConnection();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, 
 					"SELECT SUM(pi.quantity) AS totalSalesOverall, SUM(i.sellPrice) AS totalMoneyMade "  +
 					"FROM Purchase p, PurchaseItem pi, Item i " +
 					"WHERE p.receiptID = pi.receiptID AND pi.upc = i.upc AND p.purDate = ?");
@@ -233,6 +304,9 @@ public ResultSet processShipment(int sid)
 	    		fireExceptionGenerated(event);
 	    		// no need to commit or rollback since it is only a query
 
+	    		MvbOracleConnection.getInstance().closeStatement(ps);
+	    		MvbOracleConnection.getInstance().releaseConnection(con);
+
 	    		return null;
 	    	}
 		}
@@ -241,8 +315,13 @@ public ResultSet processShipment(int sid)
 	 * Returns an non-updatable result set for Shipment
 	 */
 	public ResultSet showShipment() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT s.* FROM shipment s",
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT s.* FROM shipment s",
 					ResultSet.TYPE_SCROLL_INSENSITIVE,
 					ResultSet.CONCUR_READ_ONLY);
 
@@ -254,33 +333,13 @@ public ResultSet processShipment(int sid)
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
 	
-	/*
- 	* Returns the database connection used by this customer model
- 	*/
-	public Connection getConnection()
-	{
-		return con; 
-	}
-
-	/*
- 	* This method allows members of this class to clean up after itself 
- 	* before it is garbage collected. It is called by the garbage collector.
- 	*/ 
-	protected void finalize() throws Throwable
-	{
-		if (ps != null)
-		{
-			ps.close();
-		}
-
-		// finalize() must call super.finalize() as the last thing it does
-		super.finalize();	
-	}
-
 
 /******************************************************************************
  * Below are the methods to add and remove ExceptionListeners.
@@ -320,10 +379,6 @@ public ResultSet processShipment(int sid)
 		}
 	}
 
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
-
 }
 	
 
@@ -9,9 +9,12 @@ import javax.swing.border.*;
 
 import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
+import ca.ubc.cs304.main.EditEvent;
+import ca.ubc.cs304.main.EditListener;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.math.BigDecimal;
 import java.sql.*;
@@ -134,21 +137,13 @@ public class PurchaseController implements ActionListener, ExceptionListener
      */
     private void showAllPurchases()
     {
-	ResultSet rs = purchase.showPurchase();
-	
-	// CustomTableModel maintains the result set's data, e.g., if  
-	// the result set is updatable, it will update the database
-	// when the table's data is modified.  
-	CustomTableModel model = new CustomTableModel(purchase.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	// register to be notified of any exceptions that occur in the model and table
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	// Adds the table to the scrollpane.
-	// By default, a JTable does not have scroll bars.
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading purchases", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return purchase.showPurchase();
+	    }
+	}.start();
     }
 
 
@@ -157,15 +152,25 @@ public class PurchaseController implements ActionListener, ExceptionListener
      */
     private void editAllPurchases()
     {
-	ResultSet rs = purchase.editPurchase();
-	
-	CustomTableModel model = new CustomTableModel(purchase.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
+	new TableTask(mvb, "Loading purchases for editing", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return purchase.editPurchase();
+	    }
 
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	mvb.addTable(data);
+	    protected void tableShown(CustomTable table)
+	    {
+		// an edited delivered date can change the pending orders
+		table.getCustomModel().addEditListener(new EditListener()
+		{
+		    public void editsApplied(EditEvent e)
+		    {
+			DeliveryCapacity.getInstance().invalidate();
+		    }
+		});
+	    }
+	}.start();
     }
 
 
@@ -438,7 +443,7 @@ public class PurchaseController implements ActionListener, ExceptionListener
 		
 		mvb.updateStatusBar("Inserting purchase...");
 
-		if (purchase.insertPurchase(cid, cardno, expire, expected, delivered))
+		if (purchase.insertPurchase(cid, cardno, expire, expected, delivered) != 0)
 		{
 		    mvb.updateStatusBar("Operation successful.");
 		    showAllPurchases();
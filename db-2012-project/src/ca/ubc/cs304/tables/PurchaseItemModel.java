@@ -4,32 +4,36 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 
 public class PurchaseItemModel {
 	
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 	
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public PurchaseItemModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	/*
 	 * Insert a PurchaseItem Returns true if the insert is successful; false
 	 * otherwise.
 	 */
 	public boolean insertPurchaseItem(Integer pirid, Integer piupc, Integer piquantity) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO purchaseitem VALUES (?,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO purchaseitem VALUES (?,?,?)");
 
 			ps.setInt(1, pirid.intValue());
 
@@ -39,7 +43,6 @@ public class PurchaseItemModel {
 
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
 			return true;
 
@@ -48,13 +51,17 @@ public class PurchaseItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
@@ -66,9 +73,14 @@ public class PurchaseItemModel {
      */
     public boolean updatePurchaseItem(int receiptID, int upc, int quantity)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE purchaseitem SET quantity = ? WHERE receiptID = ? AND upc = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE purchaseitem SET quantity = ? WHERE receiptID = ? AND upc = ?");
 
 	    ps.setInt(1, quantity);
 	    
@@ -78,7 +90,6 @@ public class PurchaseItemModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
 	    return true; 
@@ -90,7 +101,8 @@ public class PurchaseItemModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -100,6 +112,11 @@ public class PurchaseItemModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -107,8 +124,13 @@ public class PurchaseItemModel {
 	 * otherwise.
 	 */
 	public boolean deletePurchaseItem(Integer rid, Integer upc) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM purchaseitem WHERE receiptid = ? AND upc = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM purchaseitem WHERE receiptid = ? AND upc = ?");
 
 			ps.setInt(1, rid.intValue());
 
@@ -116,7 +138,6 @@ public class PurchaseItemModel {
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
 			return true;
@@ -125,60 +146,67 @@ public class PurchaseItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
 	/*
-     * Returns a ResultSet containing all purchaseItem tuples. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
-     */ 
-    public ResultSet showPurchaseItem()
+	 * Returns a read only table model of all purchase items. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
+	 */ 
+    public CustomTableModel showPurchaseItem()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT pi.* FROM purchaseitem pi", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT pi.* FROM purchaseitem pi", "pi.receiptID, pi.upc");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
 	
 	/*
-	 * Returns an updatable result set for PurchaseItem
+	 * Returns an editable table model of all rows of PurchaseItem. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editPurchaseItem() {
+	public CustomTableModel editPurchaseItem() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT pi.* FROM purchaseitem pi",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT pi.*, ROWIDTOCHAR(pi.ROWID) FROM purchaseitem pi");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "purchaseitem", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -189,9 +217,14 @@ public class PurchaseItemModel {
      */ 
     public boolean findPurchaseItem(int receiptID, int upc)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT * FROM purchaseitem WHERE receiptID = ? AND upc = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT * FROM purchaseitem WHERE receiptID = ? AND upc = ?");
 
 	    ps.setInt(1, receiptID);
 	    
@@ -215,29 +248,11 @@ public class PurchaseItemModel {
 
 	    return false; 
 	}
-    }
-	
-	/*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-	
-	/*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -279,7 +294,4 @@ public class PurchaseItemModel {
 		}
 	}
 	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
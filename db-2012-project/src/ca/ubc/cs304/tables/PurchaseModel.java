@@ -5,83 +5,96 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class PurchaseModel {
 
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public PurchaseModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 
 	/*
-	 * Insert a Purchase Returns true if the insert is successful; false
-	 * otherwise. prid and pdate cannot be null.
+	 * Insert a Purchase. Returns its receipt number, taken from
+	 * IdAllocator, if the insert is successful; 0 otherwise.
 	 */
-	public boolean insertPurchase(String pcid,
+	public int insertPurchase(String pcid,
 			String pcardno, Date pexpire, Date pexpect, Date pdeliv) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO purchase VALUES (receipt_counter.nextval,sysdate,?,?,?,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			int prid = IdAllocator.RECEIPTS.next(con);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO purchase VALUES (?,sysdate,?,?,?,?,?)");
+
+			ps.setInt(1, prid);
 
 			// set pcid
 			if (pcid != null) {
-				ps.setString(1, pcid);
+				ps.setString(2, pcid);
 			} else {
-				ps.setString(1, null);
+				ps.setString(2, null);
 			}
 			// set pcard no 16 digit cc#
 			if (pcardno != null) {
-				ps.setString(2, pcardno);
+				ps.setString(3, pcardno);
 			} else {
-				ps.setString(2, null);
+				ps.setString(3, null);
 			}
 			// set pexpire
 			if (pexpire != null) {
-				ps.setDate(3, pexpire);
+				ps.setDate(4, pexpire);
 			} else {
-				ps.setNull(3, Types.DATE);
+				ps.setNull(4, Types.DATE);
 			}
 			// set pexpect
 			if (pexpect != null) {
-				ps.setDate(4, pexpect);
+				ps.setDate(5, pexpect);
 			} else {
-				ps.setNull(4, Types.DATE);
+				ps.setNull(5, Types.DATE);
 			}
 			// set pdeliv
 			if (pdeliv != null) {
-				ps.setDate(5, pdeliv);
+				ps.setDate(6, pdeliv);
 			} else {
-				ps.setNull(5, Types.DATE);
+				ps.setNull(6, Types.DATE);
 			}
 
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
-			return true;
+
+			DeliveryCapacity.getInstance().invalidate();
+			return prid;
 
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
-				return false;
+				if (con != null)
+					con.rollback();
+				return 0;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
-				return false;
+				return 0;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 
@@ -94,9 +107,14 @@ public class PurchaseModel {
     public boolean updatePurchase(int receiptID, String cid, String cardno, 
     		Date expire, Date expectedDate, Date deliveredDate)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE purchase SET cid = ?, cardno = ?," +
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE purchase SET cid = ?, cardno = ?," +
 	    		"expire = ?, expectedDate = ?, deliveredDate = ? WHERE receiptID = ?");
 
 	    ps.setString(1, cid);
@@ -129,9 +147,10 @@ public class PurchaseModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
+	    DeliveryCapacity.getInstance().invalidate();
+
 	    return true; 
 	}
 	catch (SQLException ex)
@@ -141,7 +160,8 @@ public class PurchaseModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -151,6 +171,11 @@ public class PurchaseModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -158,76 +183,89 @@ public class PurchaseModel {
 	 * otherwise.
 	 */
 	public boolean deletePurchase(Integer prid) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM purchase WHERE receiptid = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM purchase WHERE receiptid = ?");
 
 			ps.setInt(1, prid.intValue());
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
+			DeliveryCapacity.getInstance().invalidate();
+
 			return true;
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 
 	/*
-     * Returns a ResultSet containing all purchases. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
-     */ 
-    public ResultSet showPurchase()
+	 * Returns a read only table model of all purchases. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
+	 */ 
+    public CustomTableModel showPurchase()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT p.* FROM purchase p", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT p.* FROM purchase p", "p.receiptID");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
 	
 	/*
-	 * Returns an updatable result set for Purchase
+	 * Returns an editable table model of all rows of Purchase. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editPurchase() {
+	public CustomTableModel editPurchase() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT p.* FROM purchase p",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT p.*, ROWIDTOCHAR(p.ROWID) FROM purchase p");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "purchase", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -238,9 +276,14 @@ public class PurchaseModel {
      */ 
     public boolean findPurchase(int receiptID)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT receiptID FROM purchase where receiptID = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT receiptID FROM purchase where receiptID = ?");
 
 	    ps.setInt(1, receiptID);
 
@@ -262,29 +305,11 @@ public class PurchaseModel {
 
 	    return false; 
 	}
-    }
-	
-	/*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-
-    /*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -325,9 +350,5 @@ public class PurchaseModel {
 			}
 		}
 	}
-	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 
 }
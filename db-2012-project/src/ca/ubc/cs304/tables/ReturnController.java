@@ -7,11 +7,11 @@ import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*; 
 
-import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.math.BigDecimal;
 import java.sql.*;
@@ -132,21 +132,13 @@ public class ReturnController implements ActionListener, ExceptionListener
      */
     private void showAllReturns()
     {
-	ResultSet rs = ret.showReturn();
-	
-	// CustomTableModel maintains the result set's data, e.g., if  
-	// the result set is updatable, it will update the database
-	// when the table's data is modified.  
-	CustomTableModel model = new CustomTableModel(ret.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	// register to be notified of any exceptions that occur in the model and table
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	// Adds the table to the scrollpane.
-	// By default, a JTable does not have scroll bars.
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading returns", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return ret.showReturn();
+	    }
+	}.start();
     }
 
 
@@ -155,15 +147,13 @@ public class ReturnController implements ActionListener, ExceptionListener
      */
     private void editAllReturns()
     {
-	ResultSet rs = ret.editReturn();
-	
-	CustomTableModel model = new CustomTableModel(ret.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading returns for editing", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return ret.editReturn();
+	    }
+	}.start();
     }
 
 
@@ -304,7 +294,7 @@ public class ReturnController implements ActionListener, ExceptionListener
 
 		mvb.updateStatusBar("Inserting return...");
 
-		if (ret.insertReturn(recID))
+		if (ret.insertReturn(recID) != 0)
 		{
 		    mvb.updateStatusBar("Operation successful.");
 		    showAllReturns();
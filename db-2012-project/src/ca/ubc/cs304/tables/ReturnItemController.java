@@ -7,11 +7,11 @@ import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*; 
 
-import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.math.BigDecimal;
 import java.sql.*;
@@ -132,21 +132,13 @@ public class ReturnItemController implements ActionListener, ExceptionListener
      */
     private void showAllReturnItems()
     {
-	ResultSet rs = returnItem.showReturnItem();
-	
-	// CustomTableModel maintains the result set's data, e.g., if  
-	// the result set is updatable, it will update the database
-	// when the table's data is modified.  
-	CustomTableModel model = new CustomTableModel(returnItem.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	// register to be notified of any exceptions that occur in the model and table
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	// Adds the table to the scrollpane.
-	// By default, a JTable does not have scroll bars.
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading return items", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return returnItem.showReturnItem();
+	    }
+	}.start();
     }
 
 
@@ -155,15 +147,13 @@ public class ReturnItemController implements ActionListener, ExceptionListener
      */
     private void editAllReturnItems()
     {
-	ResultSet rs = returnItem.editReturnItem();
-	
-	CustomTableModel model = new CustomTableModel(returnItem.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading return items for editing", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return returnItem.editReturnItem();
+	    }
+	}.start();
     }
 
 
@@ -3,30 +3,34 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class ReturnItemModel {
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 	
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ReturnItemModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	/*
 	 * Insert a ReturnItem. Returns true if the insert is successful; false
 	 * otherwise.
 	 */
 	public boolean insertReturnItem(Integer retid, Integer upc, Integer quantity) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO returnitem VALUES (?,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO returnitem VALUES (?,?,?)");
 
 			ps.setInt(1, retid.intValue());
 
@@ -36,7 +40,6 @@ public class ReturnItemModel {
 
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
 			return true;
 
@@ -45,13 +48,17 @@ public class ReturnItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
@@ -63,9 +70,14 @@ public class ReturnItemModel {
      */
     public boolean updateReturnItem(int retID, int upc, int quantity)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE returnitem SET quantity = ? WHERE retid = ? AND upc = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE returnitem SET quantity = ? WHERE retid = ? AND upc = ?");
 
 	    ps.setInt(1, quantity);
 	    
@@ -75,7 +87,6 @@ public class ReturnItemModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
 	    return true; 
@@ -87,7 +98,8 @@ public class ReturnItemModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -97,6 +109,11 @@ public class ReturnItemModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -104,8 +121,13 @@ public class ReturnItemModel {
 	 * otherwise.
 	 */
 	public boolean deleteReturnItem(Integer retid, Integer upc) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM returnitem WHERE retid = ? AND upc=?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM returnitem WHERE retid = ? AND upc=?");
 
 			ps.setInt(1, retid.intValue());
 			
@@ -113,7 +135,6 @@ public class ReturnItemModel {
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
 			return true;
@@ -122,60 +143,67 @@ public class ReturnItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
 	/*
-     * Returns a ResultSet containing all returnItem tuples. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
-     */ 
-    public ResultSet showReturnItem()
+	 * Returns a read only table model of all return items. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
+	 */ 
+    public CustomTableModel showReturnItem()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT ri.* FROM returnitem ri", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT ri.* FROM returnitem ri", "ri.retID, ri.upc");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
 	
 	/*
-	 * Returns an updatable result set for ReturnItem
+	 * Returns an editable table model of all rows of ReturnItem. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editReturnItem() {
+	public CustomTableModel editReturnItem() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT ri.* FROM returnitem ri",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT ri.*, ROWIDTOCHAR(ri.ROWID) FROM returnitem ri");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "returnitem", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -186,9 +214,14 @@ public class ReturnItemModel {
      */ 
     public boolean findReturnItem(int retID, int upc)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT * FROM returnitem WHERE retID = ? AND upc = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT * FROM returnitem WHERE retID = ? AND upc = ?");
 
 	    ps.setInt(1, retID);
 	    
@@ -212,29 +245,11 @@ public class ReturnItemModel {
 
 	    return false; 
 	}
-    }
-    
-    /*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-	
-	/*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -276,7 +291,4 @@ public class ReturnItemModel {
 		}
 	}
 	
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
@@ -3,53 +3,63 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class ReturnModel {
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 	
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ReturnModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	
 	/*
-	 * Insert a Return. Returns true if the insert is successful; false
-	 * otherwise.
+	 * Insert a Return. Returns its return ID, taken from IdAllocator, if
+	 * the insert is successful; 0 otherwise.
 	 */
-	public boolean insertReturn(Integer rid) {
+	public int insertReturn(Integer rid) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO return VALUES (return_counter.nextval,sysdate,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			int retid = IdAllocator.RETURNS.next(con);
 
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO return VALUES (?,sysdate,?)");
 
-			ps.setInt(1, rid.intValue());
+			ps.setInt(1, retid);
+
+			ps.setInt(2, rid.intValue());
 			
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
-			return true;
+			return retid;
 
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
-				return false;
+				if (con != null)
+					con.rollback();
+				return 0;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
-				return false;
+				return 0;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
@@ -61,9 +71,14 @@ public class ReturnModel {
      */
     public boolean updateReturn(int retID, int receiptID)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE return SET receiptID = ? WHERE retID = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE return SET receiptID = ? WHERE retID = ?");
 
 	    ps.setInt(1, retID);
 	    
@@ -71,7 +86,6 @@ public class ReturnModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
 	    return true; 
@@ -83,7 +97,8 @@ public class ReturnModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -93,6 +108,11 @@ public class ReturnModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -100,14 +120,18 @@ public class ReturnModel {
 	 * otherwise.
 	 */
 	public boolean deleteReturn(Integer retid) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM return WHERE retid = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM return WHERE retid = ?");
 
 			ps.setInt(1, retid.intValue());
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
 			return true;
@@ -116,60 +140,67 @@ public class ReturnModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
 	/*
-     * Returns a ResultSet containing all Returns. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
-     */ 
-    public ResultSet showReturn()
+	 * Returns a read only table model of all returns. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
+	 */ 
+    public CustomTableModel showReturn()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT r.* FROM return r", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT r.* FROM return r", "r.retID");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
 	
 	/*
-	 * Returns an updatable result set for Return
+	 * Returns an editable table model of all rows of Return. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editReturn() {
+	public CustomTableModel editReturn() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT r.* FROM return r",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT r.*, ROWIDTOCHAR(r.ROWID) FROM return r");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "return", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -180,9 +211,14 @@ public class ReturnModel {
      */ 
     public boolean findReturn(int retID)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT * FROM return WHERE retID = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT * FROM return WHERE retID = ?");
 
 	    ps.setInt(1, retID);
 
@@ -204,29 +240,11 @@ public class ReturnModel {
 
 	    return false; 
 	}
-    }
-	
-	/*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-	
-	/*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -268,7 +286,4 @@ public class ReturnModel {
 		}
 	}
 
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
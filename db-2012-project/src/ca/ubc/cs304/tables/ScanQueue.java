@@ -0,0 +1,218 @@
+package ca.ubc.cs304.tables;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.event.EventListenerList;
+
+import ca.ubc.cs304.main.ExceptionEvent;
+import ca.ubc.cs304.main.ExceptionListener;
+
+/*
+ * ScanQueue takes the barcode scans of an in-store purchase as fast as
+ * the clerk can scan, without waiting for the database. scan() only
+ * adds the scan to a lock-free queue and returns. A worker thread takes
+ * all the scans queued so far, adds up the repeats of each item into one
+ * quantity and adds them to the bill with BillSession.addAll(), which
+ * knows most items already and reads the rest with one query. While it
+ * does, the next scans queue up and are added together next, so the
+ * slower the database, the larger the batches, and the bill table is
+ * redrawn once per batch rather than once per scan.
+ *
+ * The listener is told about each batch on the worker thread, and the
+ * ExceptionListeners about a batch that could not be added, whatever
+ * the error, after which the worker goes on with the next. close()
+ * waits until every scan queued has been added, e.g. before the bill is
+ * paid.
+ */
+public class ScanQueue {
+	private BillSession bill;
+	private Listener listener;
+
+	private ConcurrentLinkedQueue<Scan> queue = new ConcurrentLinkedQueue<Scan>();
+
+	private Thread worker;
+
+	private volatile boolean closed = false;
+
+	protected EventListenerList listenerList = new EventListenerList();
+
+	/*
+	 * Told about the scans added to the bill.
+	 */
+	public interface Listener {
+		/*
+		 * Called once the scans of a batch have been added to the bill;
+		 * unknown holds the UPCs of the scans of items that do not exist.
+		 */
+		void scansAdded(int scans, List<Integer> unknown);
+	}
+
+	private static class Scan {
+		int upc;
+		int quantity;
+
+		Scan(int upc, int quantity) {
+			this.upc = upc;
+			this.quantity = quantity;
+		}
+	}
+
+	/*
+	 * Creates a queue for the bill and starts its worker.
+	 */
+	public ScanQueue(BillSession bill, Listener listener) {
+		this.bill = bill;
+		this.listener = listener;
+
+		worker = new Thread("Scan queue") {
+			public void run() {
+				while (true) {
+					// closed is read first, so that the scans queued
+					// before close() are taken below
+					boolean last = closed;
+
+					if (!addQueued() && !last) {
+						LockSupport.park(this);
+					}
+
+					if (last && queue.isEmpty()) {
+						return;
+					}
+				}
+			}
+		};
+
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/*
+	 * Queues quantity copies of the item and returns at once.
+	 */
+	public void scan(int upc, int quantity) {
+		if (closed) {
+			throw new IllegalStateException("The scan queue is closed.");
+		}
+
+		queue.add(new Scan(upc, quantity));
+		LockSupport.unpark(worker);
+	}
+
+	/*
+	 * Returns true once close() has been called.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/*
+	 * Waits until every scan queued has been added to the bill and stops
+	 * the worker. Further scans are refused.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(worker);
+
+		boolean interrupted = false;
+
+		while (worker.isAlive()) {
+			try {
+				worker.join();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Adds the scans queued so far to the bill, one line per item.
+	 * Returns false if there were none.
+	 */
+	private boolean addQueued() {
+		Map<Integer, Integer> quantities = new LinkedHashMap<Integer, Integer>();
+		int scans = 0;
+		Scan scan;
+
+		while ((scan = queue.poll()) != null) {
+			Integer key = Integer.valueOf(scan.upc);
+			Integer quantity = quantities.get(key);
+
+			quantities.put(key, Integer.valueOf((quantity == null ? 0 : quantity.intValue()) + scan.quantity));
+			scans++;
+		}
+
+		if (scans == 0) {
+			return false;
+		}
+
+		List<Integer> unknown;
+
+		// the clerk scans them again
+		try {
+			unknown = bill.addAll(quantities);
+		} catch (SQLException ex) {
+			ExceptionEvent event = new ExceptionEvent(this, scans + " scans were not added: " + ex.getMessage());
+			fireExceptionGenerated(event);
+			return true;
+		} catch (RuntimeException ex) {
+			ExceptionEvent event = new ExceptionEvent(this, scans + " scans were not added: " + ex);
+			fireExceptionGenerated(event);
+			return true;
+		}
+
+		try {
+			listener.scansAdded(scans, unknown);
+		} catch (RuntimeException ex) {
+			// the scans are on the bill, which is shown again with the next
+			ExceptionEvent event = new ExceptionEvent(this, "The bill was not shown: " + ex);
+			fireExceptionGenerated(event);
+		}
+
+		return true;
+	}
+
+	/******************************************************************************
+	 * Below are the methods to add and remove ExceptionListeners.
+	 *
+	 * Whenever an exception occurs in ScanQueue, an exception event
+	 * is sent to all registered ExceptionListeners.
+	 ******************************************************************************/
+
+	public void addExceptionListener(ExceptionListener l)
+	{
+		listenerList.add(ExceptionListener.class, l);
+	}
+
+
+	public void removeExceptionListener(ExceptionListener l)
+	{
+		listenerList.remove(ExceptionListener.class, l);
+	}
+
+	/*
+	 * This method notifies all registered ExceptionListeners. The code below is
+	 * similar to the example in the Java 2 API documentation for the
+	 * EventListenerList class.
+	 */
+	public void fireExceptionGenerated(ExceptionEvent ex) {
+		// Guaranteed to return a non-null array
+		Object[] listeners = listenerList.getListenerList();
+
+		// Process the listeners last to first, notifying
+		// those that are interested in this event.
+		for (int i = listeners.length - 2; i >= 0; i -= 2) {
+			if (listeners[i] == ExceptionListener.class) {
+				((ExceptionListener) listeners[i + 1]).exceptionGenerated(ex);
+			}
+		}
+	}
+}
@@ -5,23 +5,22 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class ShipItemModel {
 
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ShipItemModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 
 	/*
@@ -30,8 +29,13 @@ public class ShipItemModel {
 	 */
 	public boolean insertShipItem(Integer sid, Integer upc, BigDecimal sprice,
 			Integer squantity) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO shipitem VALUES (?,?,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO shipitem VALUES (?,?,?,?)");
 
 			ps.setInt(1, sid.intValue());
 
@@ -43,7 +47,6 @@ public class ShipItemModel {
 
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
 			return true;
 
@@ -52,13 +55,17 @@ public class ShipItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 
@@ -70,9 +77,14 @@ public class ShipItemModel {
      */
     public boolean updateShipItem(int sid, int upc, BigDecimal supPrice, int quantity)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE shipitem SET supPrice = ?, quantity = ? WHERE " +
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE shipitem SET supPrice = ?, quantity = ? WHERE " +
 	    		"sid = ? AND upc = ?");
 
 	    ps.setBigDecimal(1, supPrice);
@@ -85,7 +97,6 @@ public class ShipItemModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
 	    return true; 
@@ -97,7 +108,8 @@ public class ShipItemModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -107,6 +119,11 @@ public class ShipItemModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -114,8 +131,13 @@ public class ShipItemModel {
 	 * otherwise.
 	 */
 	public boolean deleteShipItem(Integer sid, Integer upc) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM shipitem WHERE sid = ? AND upc = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM shipitem WHERE sid = ? AND upc = ?");
 
 			ps.setInt(1, sid.intValue());
 
@@ -123,7 +145,6 @@ public class ShipItemModel {
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
 			return true;
@@ -132,60 +153,67 @@ public class ShipItemModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 
 	/*
-     * Returns a ResultSet containing all shipItem tuples. The ResultSet is
-     * scroll insensitive and read only. If there is an error, null
-     * is returned.
-     */ 
-    public ResultSet showShipItem()
+	 * Returns a read only table model of all shipment items. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
+	 */ 
+    public CustomTableModel showShipItem()
     {
 	try
-	{	 
-	    ps = con.prepareStatement("SELECT si.* FROM shipitem si", 
-				      ResultSet.TYPE_SCROLL_INSENSITIVE,
-				      ResultSet.CONCUR_READ_ONLY);
-
-	    ResultSet rs = ps.executeQuery();
-
-	    return rs; 
+	{
+	    return new PagedTableModel("SELECT si.* FROM shipitem si", "si.sid, si.upc");
 	}
 	catch (SQLException ex)
 	{
 	    ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 	    fireExceptionGenerated(event);
-	    // no need to commit or rollback since it is only a query
 
 	    return null; 
 	}
     }
 	
 	/*
-	 * Returns an updatable result set for ShipItem
+	 * Returns an editable table model of all rows of ShipItem. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editShipItem() {
+	public CustomTableModel editShipItem() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT si.* FROM shipitem si",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT si.*, ROWIDTOCHAR(si.ROWID) FROM shipitem si");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "shipitem", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -196,9 +224,14 @@ public class ShipItemModel {
      */ 
     public boolean findShipItem(int sid, int upc)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT * FROM shipitem WHERE sid = ? AND upc = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT * FROM shipitem WHERE sid = ? AND upc = ?");
 
 	    ps.setInt(1, sid);
 	    
@@ -222,29 +255,11 @@ public class ShipItemModel {
 
 	    return false; 
 	}
-    }
-	
-	/*
-     * Returns the database connection used by this customer model
-     */
-    public Connection getConnection()
-    {
-	return con; 
-    }
-	
-	/*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
     }
 
 
@@ -286,7 +301,4 @@ public class ShipItemModel {
 		}
 	}
 
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
@@ -7,11 +7,11 @@ import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*; 
 
-import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.sql.*;
 import java.text.DateFormat;
@@ -136,21 +136,13 @@ public class ShipmentController implements ActionListener, ExceptionListener
      */
     private void showAllShipments()
     {
-	ResultSet rs = shipment.showShipment();
-	
-	// CustomTableModel maintains the result set's data, e.g., if  
-	// the result set is updatable, it will update the database
-	// when the table's data is modified.  
-	CustomTableModel model = new CustomTableModel(shipment.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	// register to be notified of any exceptions that occur in the model and table
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	// Adds the table to the scrollpane.
-	// By default, a JTable does not have scroll bars.
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading shipments", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return shipment.showShipment();
+	    }
+	}.start();
     }
 
 
@@ -159,15 +151,13 @@ public class ShipmentController implements ActionListener, ExceptionListener
      */
     private void editAllShipments()
     {
-	ResultSet rs = shipment.editShipment();
-	
-	CustomTableModel model = new CustomTableModel(shipment.getConnection(), rs);
-	CustomTable data = new CustomTable(model);
-
-	model.addExceptionListener(this);
-	data.addExceptionListener(this);
-	    
-	mvb.addTable(data);
+	new TableTask(mvb, "Loading shipments for editing", this)
+	{
+	    protected CustomTableModel createModel()
+	    {
+		return shipment.editShipment();
+	    }
+	}.start();
     }
 
 
@@ -343,7 +333,7 @@ public class ShipmentController implements ActionListener, ExceptionListener
 
 		mvb.updateStatusBar("Inserting shipment...");
 
-		if (shipment.insertShipment(supName, sdate))
+		if (shipment.insertShipment(supName, sdate) != 0)
 		{
 		    mvb.updateStatusBar("Operation successful.");
 		    showAllShipments();
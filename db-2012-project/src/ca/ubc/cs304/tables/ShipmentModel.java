@@ -4,55 +4,66 @@ import java.sql.*;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbOracleConnection;
+import ca.ubc.cs304.main.PagedTableModel;
 
 public class ShipmentModel {
 
-	protected PreparedStatement ps = null;
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ShipmentModel() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
 	}
 	
 	/*
-	 * Insert a Shipment  Returns true if the insert
-	 * is successful; false otherwise.
+	 * Insert a Shipment. Returns its shipment ID, taken from IdAllocator,
+	 * if the insert is successful; 0 otherwise.
 	 */
-	public boolean insertShipment(String supname, Date sdate) {
+	public int insertShipment(String supname, Date sdate) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("INSERT INTO shipment VALUES (shipment_counter.nextval,?,?)");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			int sid = IdAllocator.SHIPMENTS.next(con);
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO shipment VALUES (?,?,?)");
 
-			ps.setString(1, supname);
+			ps.setInt(1, sid);
 
-			ps.setDate(2, sdate);
+			ps.setString(2, supname);
+
+			ps.setDate(3, sdate);
 
 			ps.executeUpdate();
 			
-			if(commit)
 			con.commit();
-			return true;
+			return sid;
 
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
-				return false;
+				if (con != null)
+					con.rollback();
+				return 0;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
-				return false;
+				return 0;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
@@ -62,9 +73,14 @@ public class ShipmentModel {
      */
     public boolean updateShipment(int sid, String shipSupName, Date shipDate)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("UPDATE shipment SET supName = ?, shipDate = ? WHERE sid = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "UPDATE shipment SET supName = ?, shipDate = ? WHERE sid = ?");
 
 	    ps.setString(1, shipSupName);
 	    
@@ -74,7 +90,6 @@ public class ShipmentModel {
 	    
 	    ps.executeUpdate();
 	    
-	    if(commit)
 	    con.commit();
 
 	    return true; 
@@ -86,7 +101,8 @@ public class ShipmentModel {
 	    
 	    try
 	    {
-		con.rollback();
+		if (con != null)
+			con.rollback();
 		return false; 
 	    }
 	    catch (SQLException ex2)
@@ -96,6 +112,11 @@ public class ShipmentModel {
 		 return false; 
 	    }
 	}
+	finally
+	{
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
+	}
     }
 	
 	/*
@@ -103,14 +124,18 @@ public class ShipmentModel {
 	 * otherwise.
 	 */
 	public boolean deleteShipment(Integer sid) {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("DELETE FROM shipment WHERE sid = ?");
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "DELETE FROM shipment WHERE sid = ?");
 
 			ps.setInt(1, sid.intValue());
 
 			ps.executeUpdate();
 
-			if(commit)
 			con.commit();
 
 			return true;
@@ -119,54 +144,63 @@ public class ShipmentModel {
 			fireExceptionGenerated(event);
 
 			try {
-				con.rollback();
+				if (con != null)
+					con.rollback();
 				return false;
 			} catch (SQLException ex2) {
 				event = new ExceptionEvent(this, ex2.getMessage());
 				fireExceptionGenerated(event);
 				return false;
 			}
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
 		}
 	}
 	
 	/*
-	 * Returns an non-updatable result set for Shipment
+	 * Returns a read only table model of all shipments. Rows are fetched
+	 * from the database a page at a time as they are displayed. If
+	 * there is an error, null is returned.
 	 */
-	public ResultSet showShipment() {
+	public CustomTableModel showShipment() {
 		try {
-			ps = con.prepareStatement("SELECT s.* FROM shipment s",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_READ_ONLY);
-
-			ResultSet rs = ps.executeQuery();
-
-			return rs;
+			return new PagedTableModel("SELECT s.* FROM shipment s", "s.sid");
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
-			// no need to commit or rollback since it is only a query
 
 			return null;
 		}
 	}
 	
 	/*
-	 * Returns an updatable result set for Shipment
+	 * Returns an editable table model of all rows of Shipment. Each row
+	 * carries its ROWID, and changes made in the table are written
+	 * back with an UPDATE on that ROWID. The rows are read by
+	 * the model's streamRows(). If there is an error, null is
+	 * returned.
 	 */
-	public ResultSet editShipment() {
+	public CustomTableModel editShipment() {
+		Connection con = null;
+		PreparedStatement ps = null;
+
 		try {
-			ps = con.prepareStatement("SELECT s.* FROM shipment s",
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_UPDATABLE);
+			con = MvbOracleConnection.getInstance().getConnection();
 
-			ResultSet rs = ps.executeQuery();
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT s.*, ROWIDTOCHAR(s.ROWID) FROM shipment s");
 
-			return rs;
+			// the model streams the rows, then closes the result set and
+			// releases the connection
+			return new CustomTableModel(ps.executeQuery(), "shipment", true);
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 			// no need to commit or rollback since it is only a query
 
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+
 			return null;
 		}
 	}
@@ -177,9 +211,14 @@ public class ShipmentModel {
      */ 
     public boolean findShipment(int sid)
     {
+	Connection con = null;
+	PreparedStatement ps = null;
+
 	try
-	{	
-	    ps = con.prepareStatement("SELECT sid FROM shipment where sid = ?");
+	{
+	    con = MvbOracleConnection.getInstance().getConnection();
+
+	    ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT sid FROM shipment where sid = ?");
 
 	    ps.setInt(1, sid);
 
@@ -201,30 +240,11 @@ public class ShipmentModel {
 
 	    return false; 
 	}
-    }
-
-
-    /*
-     * This method allows members of this class to clean up after itself 
-     * before it is garbage collected. It is called by the garbage collector.
-     */ 
-    protected void finalize() throws Throwable
-    {
-	if (ps != null)
+	finally
 	{
-	    ps.close();
+	    MvbOracleConnection.getInstance().closeStatement(ps);
+	    MvbOracleConnection.getInstance().releaseConnection(con);
 	}
-
-	// finalize() must call super.finalize() as the last thing it does
-	super.finalize();	
-    }
-    
-	/*
-     * Returns the database connection used by this shipment model
-     */
-    public Connection getConnection()
-    {
-	return con; 
     }
 
 
@@ -266,7 +286,4 @@ public class ShipmentModel {
 		}
 	}
 
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
 }
@@ -6,14 +6,20 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*; 
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import ca.ubc.cs304.main.CustomTable;
 import ca.ubc.cs304.main.CustomTableModel;
+import ca.ubc.cs304.main.DbTask;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.MvbView;
+import ca.ubc.cs304.main.TableTask;
 
 import java.math.BigDecimal;
 import java.sql.*;
@@ -25,8 +31,10 @@ import java.text.SimpleDateFormat;
  * ShopController is a control class that handles action events 
  * on the Customer menu. It also updates the GUI based on 
  * which menu item the user selected. This class contains the following 
- * inner class: ItemSearchDialog. ItemSearchDialog is a dialog box that allows a 
- * user to search for an item.
+ * inner classes: ItemSearchDialog and SongSearchDialog. ItemSearchDialog is 
+ * a dialog box that allows a user to search for an item, and 
+ * SongSearchDialog one that allows a user to search for an item by the 
+ * title of a song on it.
  *
  * ShopController implements the ExceptionListener interface which
  * allows it to be notified of any Exceptions that occur in ShopTransactions.
@@ -39,7 +47,22 @@ public class ShopController implements ActionListener, ExceptionListener
 	private MvbView mvb;
 	private ShopTransactions shop = null;
 	private JTable table = null;
-	private ResultSet rs = null;
+
+	// the search that is running, if any; a new search cancels it
+	private TableTask searchTask = null;
+
+	// how long typing in the search dialog must pause before the search
+	// runs, in milliseconds
+	private static final int SEARCH_DELAY = 60;
+
+	// the number of items in a page of search results
+	private static final int SEARCH_PAGE_ITEMS = 100;
+
+	// the next page is loaded when this few rows are left to scroll to
+	private static final int SEARCH_PAGE_MARGIN = 20;
+
+	// the most completions suggested for a search field
+	private static final int SUGGESTIONS = 8;
 
 	// constants used for describing the outcome of an operation
 	public static final int OPERATIONSUCCESS = 0;
@@ -53,6 +76,9 @@ public class ShopController implements ActionListener, ExceptionListener
 
 		// register to receive exception events from customer
 		shop.addExceptionListener(this);
+
+		// and from the thread that writes the orders
+		CheckoutPipeline.getInstance().addExceptionListener(this);
 	}
 
 
@@ -74,6 +100,15 @@ public class ShopController implements ActionListener, ExceptionListener
 			return; 
 		}
 
+		if (actionCommand.equals("Song Search"))
+		{
+			SongSearchDialog sDialog = new SongSearchDialog(mvb);
+			sDialog.pack();
+			mvb.centerWindow(sDialog);
+			sDialog.setVisible(true);
+			return; 
+		}
+
 		if (actionCommand.equals("Item Add"))
 		{
 			QuantityDialog qDialog= new QuantityDialog(mvb);
@@ -92,14 +127,7 @@ public class ShopController implements ActionListener, ExceptionListener
 
 		if (actionCommand.equals("Checkout"))
 		{
-			if(!shop.isCartEmpty()) {
-				CheckoutDialog cDialog= new CheckoutDialog(mvb);
-				cDialog.pack();
-				mvb.centerWindow(cDialog);
-				cDialog.setVisible(true);
-			} else {
-				JOptionPane.showMessageDialog(mvb, "No items in shopping cart!");
-			}
+			showCheckout();
 			return;
 		}
 
@@ -137,36 +165,120 @@ public class ShopController implements ActionListener, ExceptionListener
 
 
 	/*
-	 * This method displays all search results in a non-editable JTable
+	 * This method searches for items in the background and displays the 
+	 * results in a non-editable JTable. A search that is still running 
+	 * is cancelled, along with any statement it is executing, e.g. while
+	 * the catalog index is being loaded. A preview search, run while the
+	 * customer is typing, does not report in the status bar. 
+	 *
+	 * The most popular items are shown first, SEARCH_PAGE_ITEMS at a 
+	 * time; the next page is loaded when the customer scrolls near the
+	 * end of the table (see ResultPager). If nothing matches, the search
+	 * is repeated allowing for spelling mistakes, and the closest and 
+	 * most popular items are shown instead, in one page.
 	 */
-	private void showResults(ResultSet rs)
+	private void showResults(final String title, final String cat, final String lead, final boolean preview)
+	{
+		if (searchTask != null)
+		{
+			searchTask.cancelTask();
+		}
+
+		searchTask = new TableTask(mvb, "Searching for items", this)
+		{
+			private volatile boolean fuzzy = false;
+			private volatile Object[] last = null;
+
+			protected CustomTableModel createModel()
+			{
+				java.util.List<Object[]> rows = shop.searchItemsPage(title, cat, lead, null, SEARCH_PAGE_ITEMS);
+
+				if (rows == null)
+				{
+					return null;
+				}
+
+				if (rows.isEmpty())
+				{
+					fuzzy = true;
+					return shop.searchItems(title, cat, lead, SEARCH_PAGE_ITEMS, true);
+				}
+
+				last = rows.get(rows.size() - 1);
+				return shop.searchModel(rows);
+			}
+
+			protected void tableShown(CustomTable data)
+			{
+				resultsShown(data);
+
+				if (last != null)
+				{
+					new ResultPager(data, title, cat, lead, last);
+				}
+
+				if (fuzzy && data.getRowCount() > 0)
+				{
+					mvb.updateStatusBar("No exact matches; showing the closest items.");
+				}
+				else if (!preview)
+				{
+					mvb.updateStatusBar("Search complete.");
+				}
+			}
+		};
+
+		searchTask.start();
+	}
+
+	/*
+	 * This method searches for the items that have a song whose title 
+	 * contains song in the background and displays them, best matches
+	 * first, in a non-editable JTable.
+	 */
+	private void showSongResults(final String song)
+	{
+		if (searchTask != null)
+		{
+			searchTask.cancelTask();
+		}
+
+		searchTask = new TableTask(mvb, "Searching for songs", this)
+		{
+			protected CustomTableModel createModel()
+			{
+				return shop.searchSongs(song);
+			}
+
+			protected void tableShown(CustomTable data)
+			{
+				resultsShown(data);
+				mvb.updateStatusBar("Search complete.");
+			}
+		};
+
+		searchTask.start();
+	}
+
+	/*
+	 * Lets the customer add the item selected in a table of search 
+	 * results to the shopping cart.
+	 */
+	private void resultsShown(final CustomTable data)
 	{
-		// CustomTableModel maintains the result set's data, e.g., if  
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.  
-		CustomTableModel model = new CustomTableModel(shop.getConnection(), rs);
-		final CustomTable data = new CustomTable(model);
 		table = data;
 
-		// register to be notified of any exceptions that occur in the model and table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
-		
 		data.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		data.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
-			
+
 			@Override
 			public void valueChanged(ListSelectionEvent e) {
 				if(!data.getSelectionModel().isSelectionEmpty()) {
 					mvb.enableAddItem();
 				}
-				
+
 			}
 		});
-
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
 	}
 
 	/*
@@ -174,45 +286,103 @@ public class ShopController implements ActionListener, ExceptionListener
 	 */
 	private void showShoppingCart()
 	{
-		ResultSet rs = shop.showShoppingCart();
+		new TableTask(mvb, "Loading shopping cart", this)
+		{
+			protected CustomTableModel createModel()
+			{
+				return shop.showShoppingCart();
+			}
+		}.start();
+	}
+
+	/*
+	 * This method clears the customer's shopping cart.
+	 */
+	private void clearShoppingCart()
+	{
+		new TableTask(mvb, "Clearing shopping cart", this)
+		{
+			protected CustomTableModel createModel()
+			{
+				shop.clearShoppingCart();
 
-		// CustomTableModel maintains the result set's data, e.g., if  
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.  
-		CustomTableModel model = new CustomTableModel(shop.getConnection(), rs);
-		CustomTable data = new CustomTable(model);
+				return shop.showShoppingCart();
+			}
+		}.start();
+	}
 
-		// register to be notified of any exceptions that occur in the model and table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
+	/*
+	 * This method adds an item to the customer's shopping cart in the 
+	 * background and then displays the shopping cart.
+	 */
+	private void addToCart(final int upc, final int quantity)
+	{
+		new DbTask<Boolean>(mvb, "Adding item to shopping cart")
+		{
+			protected Boolean work()
+			{
+				return Boolean.valueOf(shop.checkItems(upc, quantity));
+			}
 
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
+			protected void succeeded(Boolean added)
+			{
+				if (added.booleanValue()) {
+					mvb.updateStatusBar("Item added to shopping cart.");
+					showShoppingCart();
+				} else {
+					mvb.updateStatusBar("Item not added to shopping cart.");
+				}
+			}
+		}.start();
 	}
 
 	/*
-	 * This method clears the customer's shopping cart.
+	 * This method loads the customer's shopping cart and its total in the
+	 * background and then opens the checkout dialog, unless the cart is empty.
 	 */
-	private void clearShoppingCart()
+	private void showCheckout()
 	{
-		shop.clearShoppingCart();
+		new DbTask<CustomTableModel>(mvb, "Loading shopping cart")
+		{
+			private BigDecimal total = null;
 
-		ResultSet rs = shop.showShoppingCart();
+			protected CustomTableModel work()
+			{
+				if (shop.isCartEmpty())
+				{
+					return null;
+				}
 
-		// CustomTableModel maintains the result set's data, e.g., if  
-		// the result set is updatable, it will update the database
-		// when the table's data is modified.  
-		CustomTableModel model = new CustomTableModel(shop.getConnection(), rs);
-		CustomTable data = new CustomTable(model);
+				total = shop.totalAmount();
 
-		// register to be notified of any exceptions that occur in the model and table
-		model.addExceptionListener(this);
-		data.addExceptionListener(this);
+				return shop.showShoppingCart();
+			}
 
-		// Adds the table to the scrollpane.
-		// By default, a JTable does not have scroll bars.
-		mvb.addTable(data);
+			protected void succeeded(CustomTableModel cart)
+			{
+				if (cart == null)
+				{
+					JOptionPane.showMessageDialog(mvb, "No items in shopping cart!");
+					return;
+				}
+
+				// the error has already been reported to the status bar
+				if (total == null)
+				{
+					return;
+				}
+
+				CheckoutDialog cDialog= new CheckoutDialog(mvb, cart, total);
+				cDialog.pack();
+				mvb.centerWindow(cDialog);
+				cDialog.setVisible(true);
+			}
+
+			protected void discard(CustomTableModel cart)
+			{
+				cart.close();
+			}
+		}.start();
 	}
 
 	/*
@@ -224,6 +394,12 @@ public class ShopController implements ActionListener, ExceptionListener
 		private JTextField icat = new JTextField(12);
 		private JTextField ilead = new JTextField(30);
 
+		// runs a preview search once the customer stops typing
+		private Timer searchTimer;
+
+		// loads the catalog index when it is not current
+		private DbTask<Object> loadTask = null;
+
 
 		/*
 		 * Constructor. Creates the dialog's GUI.
@@ -305,6 +481,43 @@ public class ShopController implements ActionListener, ExceptionListener
 			ilead.addActionListener(this);
 			ilead.setActionCommand("OK");
 
+			// search as the customer types, once typing pauses
+			searchTimer = new Timer(SEARCH_DELAY, new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					previewSearch();
+				}
+			});
+			searchTimer.setRepeats(false);
+
+			DocumentListener typing = new DocumentListener()
+			{
+				public void insertUpdate(DocumentEvent e)
+				{
+					searchTimer.restart();
+				}
+
+				public void removeUpdate(DocumentEvent e)
+				{
+					searchTimer.restart();
+				}
+
+				public void changedUpdate(DocumentEvent e)
+				{
+					// attribute changes do not change the search
+				}
+			};
+
+			ititle.getDocument().addDocumentListener(typing);
+			icat.getDocument().addDocumentListener(typing);
+			ilead.getDocument().addDocumentListener(typing);
+
+			// suggest titles, categories and singers as the customer types
+			new Suggestions(ititle, CatalogIndex.TITLE);
+			new Suggestions(icat, CatalogIndex.CATEGORY);
+			new Suggestions(ilead, CatalogIndex.LEAD);
+
 			// panel for the OK and cancel buttons
 			JPanel buttonPane = new JPanel();
 			buttonPane.setLayout(new BoxLayout(buttonPane, BoxLayout.X_AXIS));
@@ -338,6 +551,92 @@ public class ShopController implements ActionListener, ExceptionListener
 					dispose();
 				}
 			});
+
+			// the first search loads the catalog index; load it now, so that
+			// searching as the customer types is fast from the start
+			if (!CatalogIndex.getInstance().isCurrent())
+			{
+				loadCatalog();
+			}
+		}
+
+
+		/*
+		 * Loads the catalog index in a task of its own, which a new
+		 * search does not cancel, and shows what has been typed so far
+		 * once it is loaded.
+		 */
+		private void loadCatalog()
+		{
+			loadTask = new DbTask<Object>(mvb, "Loading the catalog")
+			{
+				protected Object work() throws SQLException
+				{
+					CatalogIndex.getInstance().refresh();
+					return null;
+				}
+
+				protected void succeeded(Object result)
+				{
+					if (isDisplayable())
+					{
+						showPreview();
+					}
+				}
+			};
+
+			loadTask.start();
+		}
+
+
+		public void dispose()
+		{
+			searchTimer.stop();
+			super.dispose();
+		}
+
+
+		/*
+		 * Searches for what has been typed so far. Unlike validateSearch(),
+		 * the category need not be complete, since every field matches 
+		 * the start of words.
+		 */ 
+		private void previewSearch()
+		{
+			// the search runs once the index is loaded
+			if (loadTask != null && !loadTask.isDone())
+			{
+				return;
+			}
+
+			// a search that loaded the index itself would be cancelled,
+			// load and all, by the search for the next keystroke
+			if (!CatalogIndex.getInstance().isCurrent())
+			{
+				loadCatalog();
+				return;
+			}
+
+			showPreview();
+		}
+
+
+		/*
+		 * Runs the preview search for previewSearch().
+		 */ 
+		private void showPreview()
+		{
+			String title = ititle.getText().trim();
+			String cat = icat.getText().trim();
+			String lead = ilead.getText().trim();
+
+			if (title.length() == 0 && cat.length() == 0 && lead.length() == 0)
+			{
+				return; 
+			}
+
+			showResults(title.length() == 0 ? null : title, cat.length() == 0 ? null : cat, 
+					lead.length() == 0 ? null : lead, true);
 		}
 
 
@@ -421,11 +720,7 @@ public class ShopController implements ActionListener, ExceptionListener
 
 				mvb.updateStatusBar("Searching for item...");
 
-				rs = shop.searchItems(title, cat, lead);
-
-				mvb.updateStatusBar("Search complete.");
-
-				showResults(rs);
+				showResults(title, cat, lead, false);
 
 				return OPERATIONSUCCESS;
 
@@ -439,6 +734,385 @@ public class ShopController implements ActionListener, ExceptionListener
 		}
 	}
 
+	/*
+	 * This class loads the next page of item search results when the 
+	 * customer scrolls near the end of the table, until a page comes 
+	 * back empty. Pages are fetched from the row after the last one 
+	 * loaded, rather than by position, so they stay consistent however
+	 * the table is sorted.
+	 */
+	class ResultPager implements ChangeListener
+	{
+		private CustomTable table;
+		private JViewport viewport;
+		private String title;
+		private String cat;
+		private String lead;
+
+		// the last row loaded, and the page being loaded, if any
+		private Object[] last;
+		private DbTask<java.util.List<Object[]>> pageTask = null;
+
+
+		public ResultPager(CustomTable table, String title, String cat, String lead, Object[] last)
+		{
+			this.table = table;
+			this.title = title;
+			this.cat = cat;
+			this.lead = lead;
+			this.last = last;
+
+			// the table leaves the viewport when another table is shown
+			viewport = (JViewport) table.getParent();
+			viewport.addChangeListener(this);
+		}
+
+
+		/*
+		 * Event handler for scrolling the table
+		 */ 
+		public void stateChanged(ChangeEvent e)
+		{
+			// the table is no longer shown
+			if (viewport.getView() != table)
+			{
+				viewport.removeChangeListener(this);
+				return;
+			}
+
+			if (pageTask != null)
+			{
+				return;
+			}
+
+			Rectangle visible = viewport.getViewRect();
+			int lastVisible = table.rowAtPoint(new Point(0, visible.y + visible.height - 1));
+
+			if (lastVisible < 0)
+			{
+				lastVisible = table.getRowCount() - 1;
+			}
+
+			if (lastVisible >= table.getRowCount() - SEARCH_PAGE_MARGIN)
+			{
+				loadPage();
+			}
+		}
+
+
+		private void loadPage()
+		{
+			final Object[] after = last;
+
+			pageTask = new DbTask<java.util.List<Object[]>>(mvb, "Loading more items")
+			{
+				protected java.util.List<Object[]> work()
+				{
+					return shop.searchItemsPage(title, cat, lead, after, SEARCH_PAGE_ITEMS);
+				}
+
+				protected void succeeded(java.util.List<Object[]> rows)
+				{
+					if (rows == null || rows.isEmpty())
+					{
+						// no more pages; stop listening
+						viewport.removeChangeListener(ResultPager.this);
+						return;
+					}
+
+					last = rows.get(rows.size() - 1);
+					pageTask = null;
+					table.getCustomModel().addRows(rows);
+				}
+
+				protected void failed(Throwable cause)
+				{
+					super.failed(cause);
+					pageTask = null;
+				}
+			};
+
+			pageTask.start();
+		}
+	}
+
+	/*
+	 * This class shows completions of what is typed in a search field, 
+	 * from CatalogIndex, in a list under the field. The arrow keys 
+	 * choose a completion, Enter or a click puts it in the field, and 
+	 * Escape hides the list.
+	 */
+	class Suggestions extends KeyAdapter implements DocumentListener
+	{
+		private JTextField field;
+		private int catalogField;
+
+		private JPopupMenu popup = new JPopupMenu();
+		private JList<String> list = new JList<String>();
+
+		// true while a completion is put in the field
+		private boolean accepting = false;
+
+
+		/*
+		 * Suggests values of catalogField, one of CatalogIndex.TITLE, 
+		 * CATEGORY and LEAD, for field.
+		 */
+		public Suggestions(JTextField field, int catalogField)
+		{
+			this.field = field;
+			this.catalogField = catalogField;
+
+			// the customer keeps typing in the field
+			popup.setFocusable(false);
+			list.setFocusable(false);
+			list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+			popup.add(list);
+
+			list.addMouseListener(new MouseAdapter()
+			{
+				public void mouseClicked(MouseEvent e)
+				{
+					accept();
+				}
+			});
+
+			field.getDocument().addDocumentListener(this);
+			field.addKeyListener(this);
+		}
+
+
+		public void insertUpdate(DocumentEvent e)
+		{
+			suggest();
+		}
+
+		public void removeUpdate(DocumentEvent e)
+		{
+			suggest();
+		}
+
+		public void changedUpdate(DocumentEvent e)
+		{
+			// attribute changes do not change the suggestions
+		}
+
+
+		/*
+		 * Event handler for the keys that choose a completion
+		 */ 
+		public void keyPressed(KeyEvent e)
+		{
+			if (!popup.isVisible())
+			{
+				return;
+			}
+
+			int selected = list.getSelectedIndex();
+
+			switch (e.getKeyCode())
+			{
+			case KeyEvent.VK_DOWN:
+				list.setSelectedIndex(Math.min(selected + 1, list.getModel().getSize() - 1));
+				e.consume();
+				break;
+
+			case KeyEvent.VK_UP:
+				list.setSelectedIndex(Math.max(selected - 1, 0));
+				e.consume();
+				break;
+
+			case KeyEvent.VK_ENTER:
+				// with nothing chosen, Enter searches as usual
+				if (selected >= 0)
+				{
+					accept();
+					e.consume();
+				}
+				break;
+
+			case KeyEvent.VK_ESCAPE:
+				popup.setVisible(false);
+				e.consume();
+				break;
+			}
+		}
+
+
+		/*
+		 * Shows the completions of the field's text, if there are any.
+		 * The index answers from memory, in well under a millisecond.
+		 */ 
+		private void suggest()
+		{
+			if (accepting)
+			{
+				return;
+			}
+
+			final String text = field.getText().trim();
+			java.util.List<String> found = CatalogIndex.getInstance().complete(catalogField, text, SUGGESTIONS);
+
+			if (text.length() == 0 || found.isEmpty() 
+					|| (found.size() == 1 && found.get(0).equalsIgnoreCase(text)))
+			{
+				popup.setVisible(false);
+				return;
+			}
+
+			list.setListData(found.toArray(new String[found.size()]));
+
+			// the field cannot show a popup while its document is changing
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					// unless the customer typed on or the dialog closed
+					if (field.isShowing() && field.getText().trim().equals(text))
+					{
+						popup.pack();
+						popup.show(field, 0, field.getHeight());
+					}
+				}
+			});
+		}
+
+
+		/*
+		 * Puts the chosen completion in the field.
+		 */ 
+		private void accept()
+		{
+			String value = list.getSelectedValue();
+
+			popup.setVisible(false);
+
+			if (value != null)
+			{
+				accepting = true;
+				field.setText(value);
+				accepting = false;
+			}
+		}
+	}
+
+	/*
+	 * This class creates a dialog box for searching for an item by the
+	 * title of a song on it.
+	 */
+	class SongSearchDialog extends JDialog implements ActionListener
+	{
+		private JTextField isong = new JTextField(60);
+
+
+		/*
+		 * Constructor. Creates the dialog's GUI.
+		 */
+		public SongSearchDialog(JFrame parent)
+		{
+			super(parent, "Search by song", true);
+			setResizable(false);
+
+			JPanel contentPane = new JPanel(new BorderLayout());
+			setContentPane(contentPane);
+			contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+			// this panel will contain the text field label and the text field.
+			JPanel inputPane = new JPanel();
+			inputPane.setBorder(BorderFactory.createCompoundBorder(
+					new TitledBorder(new EtchedBorder(), "Song fields"), 
+					new EmptyBorder(5, 5, 5, 5)));
+
+			GridBagLayout gb = new GridBagLayout();
+			GridBagConstraints c = new GridBagConstraints();
+			inputPane.setLayout(gb);
+
+			// create and place song title label
+			JLabel label = new JLabel("Song title: ", SwingConstants.RIGHT);
+			c.gridwidth = GridBagConstraints.RELATIVE;
+			c.insets = new Insets(5, 0, 0, 5);
+			c.anchor = GridBagConstraints.EAST;
+			gb.setConstraints(label, c);
+			inputPane.add(label);
+
+			// place song title field
+			c.gridwidth = GridBagConstraints.REMAINDER;
+			c.insets = new Insets(5, 0, 0, 0);
+			c.anchor = GridBagConstraints.WEST;
+			gb.setConstraints(isong, c);
+			inputPane.add(isong);
+
+			// when the return key is pressed in the field, the action 
+			// performed by the ok button is executed
+			isong.addActionListener(this);
+			isong.setActionCommand("OK");
+
+			// panel for the OK and cancel buttons
+			JPanel buttonPane = new JPanel();
+			buttonPane.setLayout(new BoxLayout(buttonPane, BoxLayout.X_AXIS));
+			buttonPane.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 2));
+
+			JButton OKButton = new JButton("OK");
+			JButton cancelButton = new JButton("Cancel");
+			OKButton.addActionListener(this);
+			OKButton.setActionCommand("OK");
+			cancelButton.addActionListener(new ActionListener()
+			{
+				public void actionPerformed(ActionEvent e)
+				{
+					dispose();
+				}
+			});
+
+			// add the buttons to buttonPane
+			buttonPane.add(Box.createHorizontalGlue());
+			buttonPane.add(OKButton);
+			buttonPane.add(Box.createRigidArea(new Dimension(10,0)));
+			buttonPane.add(cancelButton);
+
+			contentPane.add(inputPane, BorderLayout.CENTER);
+			contentPane.add(buttonPane, BorderLayout.SOUTH);
+
+			addWindowListener(new WindowAdapter() 
+			{
+				public void windowClosing(WindowEvent e)
+				{
+					dispose();
+				}
+			});
+		}
+
+
+		/*
+		 * Event handler for the OK button in SongSearchDialog
+		 */ 
+		public void actionPerformed(ActionEvent e)
+		{
+			String actionCommand = e.getActionCommand();
+
+			if (actionCommand.equals("OK"))
+			{
+				String song = isong.getText().trim();
+
+				// Disallow blank searches
+				if (song.length() != 0)
+				{
+					mvb.updateStatusBar("Searching for song...");
+					showSongResults(song);
+					dispose();
+				}
+				else
+				{
+					Toolkit.getDefaultToolkit().beep();
+
+					// display a popup to inform the user of the validation error
+					JOptionPane errorPopup = new JOptionPane();
+					errorPopup.showMessageDialog(this, "Invalid Input", "Error", JOptionPane.ERROR_MESSAGE);
+				}	
+			}
+		}
+	}
+
 	/*
 	 * This class creates a dialog box for adding an item.
 	 */
@@ -579,49 +1253,28 @@ public class ShopController implements ActionListener, ExceptionListener
 					return VALIDATIONERROR;
 				}
 
-				int stock = -1;
+				// the search results are read from the table rather than
+				// the result set, which is closed once the table is filled
+				int row = table.getSelectedRow();
 
-				try {
-					rs.absolute(table.getSelectedRow()+1);
-					stock = rs.getInt(5);
-				} catch (SQLException e) {
-					mvb.updateStatusBar(e.getMessage());
+				if (row < 0)
 					return VALIDATIONERROR;
-				}
 
-				int upc = -1;
+				int stock = ((Number) table.getModel().getValueAt(row, 4)).intValue();
 
-				try {
-					rs.absolute(table.getSelectedRow()+1);
-					upc = rs.getInt(1);
-				} catch (SQLException e) {
-					mvb.updateStatusBar(e.getMessage());
-					return VALIDATIONERROR;
-				}
+				int upc = ((Number) table.getModel().getValueAt(row, 0)).intValue();
 
 				mvb.updateStatusBar("Adding item to shopping cart...");
 
 				if(quantity <= stock){
-					if(shop.checkItems(upc, quantity)) {
-						mvb.updateStatusBar("Item added to shopping cart.");
-						showShoppingCart();
-						return OPERATIONSUCCESS;
-					} else {
-						mvb.updateStatusBar("Item not added to shopping cart.");
-						return OPERATIONFAILED;
-					}
+					addToCart(upc, quantity);
+					return OPERATIONSUCCESS;
 				} else {
 					int result = JOptionPane.showConfirmDialog(this, "Not enough stock! Buy " + stock + " instead?" ,
 							"Not enough stock!", JOptionPane.YES_NO_OPTION);
 					if(result == JOptionPane.YES_OPTION) {
-						if(shop.checkItems(upc, stock)) {
-							mvb.updateStatusBar("Item added to shopping cart.");
-							showShoppingCart();
-							return OPERATIONSUCCESS;
-						} else {
-							mvb.updateStatusBar("Item not added to shopping cart.");
-							return OPERATIONFAILED;
-						}
+						addToCart(upc, stock);
+						return OPERATIONSUCCESS;
 					} else {
 						mvb.updateStatusBar("Item not added to shopping cart.");
 						return OPERATIONFAILED;
@@ -654,19 +1307,24 @@ public class ShopController implements ActionListener, ExceptionListener
 		private JTextField cardExp = new JTextField(5);
 
 		// The items
-		private CustomTableModel model = new CustomTableModel(shop.getConnection(), shop.showShoppingCart());
-		private CustomTable table = new CustomTable(model);
+		private CustomTableModel model;
+		private CustomTable table;
 
-		private double total = shop.totalAmount().doubleValue();
+		private double total;
 
 		/*
-		 * Constructor. Creates the dialog's GUI.
+		 * Constructor. Creates the dialog's GUI from the shopping cart 
+		 * and its total, which are loaded before the dialog is opened.
 		 */
-		public CheckoutDialog(JFrame parent)
+		public CheckoutDialog(JFrame parent, CustomTableModel cart, BigDecimal cartTotal)
 		{
 			super(parent, "Checkout", true);
 			setResizable(false);
 
+			model = cart;
+			table = new CustomTable(model);
+			total = cartTotal.doubleValue();
+
 			JPanel contentPane = new JPanel(new BorderLayout());
 			setContentPane(contentPane);
 			contentPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -842,17 +1500,31 @@ public class ShopController implements ActionListener, ExceptionListener
 
 				mvb.updateStatusBar("Processing order...");
 
-				int expectedDays = shop.checkout(cardnumber, expire);
+				final String card = cardnumber;
+				final Date expiry = expire;
 
-				if (expectedDays != -1) {
-					mvb.updateStatusBar("Order processed. Expect delivery in " + expectedDays + " days.");
-					showShoppingCart();
-					return OPERATIONSUCCESS;
-				}
-				else {
-					mvb.updateStatusBar("Order failed.");
-					return OPERATIONFAILED;
-				}
+				// the order is placed in the background; the dialog closes
+				// right away and the outcome is shown in the status bar
+				new DbTask<Integer>(mvb, "Processing order")
+				{
+					protected Integer work()
+					{
+						return Integer.valueOf(shop.checkout(card, expiry));
+					}
+
+					protected void succeeded(Integer expectedDays)
+					{
+						if (expectedDays.intValue() != -1) {
+							mvb.updateStatusBar("Order processed. Expect delivery in " + expectedDays + " days.");
+							showShoppingCart();
+						}
+						else {
+							mvb.updateStatusBar("Order failed.");
+						}
+					}
+				}.start();
+
+				return OPERATIONSUCCESS;
 			}
 			catch (NumberFormatException ex)
 			{
@@ -2,131 +2,189 @@ package ca.ubc.cs304.tables;
 
 import java.math.BigDecimal;
 import java.sql.*;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.event.EventListenerList;
 
+import ca.ubc.cs304.main.CustomTableModel;
 import ca.ubc.cs304.main.ExceptionEvent;
 import ca.ubc.cs304.main.ExceptionListener;
 import ca.ubc.cs304.main.LoginWindow;
-import ca.ubc.cs304.main.MvbOracleConnection;
 
 public class ShopTransactions {
 
 	protected static int MAXIMUM_DAILY_TRANSACTIONS = 50;
 
-	protected PreparedStatement ps = null;
+	// the columns of the search results
+	private static final String[] SEARCH_COLUMNS = { "UPC", "TITLE", "CATEGORY", "LEADINGSINGER", "STOCK", "SOLD" };
+	private static final int[] SEARCH_TYPES = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+			Types.INTEGER, Types.INTEGER };
+
+	// the columns of the song search results; UPC and STOCK are where
+	// they are in the item search results
+	private static final String[] SONG_COLUMNS = { "UPC", "SONG", "TITLE", "PRICE", "STOCK" };
+	private static final int[] SONG_TYPES = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.DECIMAL,
+			Types.INTEGER };
+
+	// the columns of the shopping cart
+	private static final String[] CART_COLUMNS = { "UPC", "TITLE", "QUANTITY", "PRICE" };
+	private static final int[] CART_TYPES = { Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.DECIMAL };
+
+	// the most rows a song search returns
+	private static final int SONG_SEARCH_ROWS = 500;
+
 	protected EventListenerList listenerList = new EventListenerList();
-	protected Connection con = null;
-	protected boolean commit = true;
 
 	/*
-	 * Default constructor Precondition: The Connection object in
-	 * MvbOracleConnection must be a valid database connection.
+	 * Default constructor Precondition: MvbOracleConnection
+	 * must be connected to the database.
 	 */
 	public ShopTransactions() {
-		con = MvbOracleConnection.getInstance().getConnection();
+		// empty
+	}
+
+	/*
+	 * Returns a read only table model of the items matching the input
+	 * parameters, one row per item and lead singer. Each word given
+	 * must be the start of a word of the item's title, category or lead
+	 * singer respectively; null parameters are ignored. The search is
+	 * answered from CatalogIndex rather than the database. If there is
+	 * an error, null is returned.
+	 */ 
+	public CustomTableModel searchItems(String title, String category, String lead)
+	{
+		return searchItems(title, category, lead, Integer.MAX_VALUE);
 	}
 
 	/*
-	 * Returns a ResultSet containing items matching input parameters. The ResultSet is
-	 * scroll insensitive and read only. If there is an error, null is returned.
+	 * Same as searchItems(title, category, lead), but returns at most
+	 * limit rows, those with the lowest UPCs.
 	 */ 
-	public ResultSet searchItems(String title, String category, String lead)
+	public CustomTableModel searchItems(String title, String category, String lead, int limit)
+	{
+		return searchItems(title, category, lead, limit, false);
+	}
+
+	/*
+	 * Same as searchItems(title, category, lead, limit) if fuzzy is 
+	 * false. If it is true, words may also be misspelt, and the rows are
+	 * ordered by how close the item is to the search, then by how many
+	 * copies of it were sold. See CatalogIndex.
+	 */ 
+	public CustomTableModel searchItems(String title, String category, String lead, int limit, boolean fuzzy)
 	{
 		try
-		{	 
-			// count non-null args
-			int argCount = 0;
-			int currentArg = 1;
-
-			if(title != null) argCount++;
-			if(category != null) argCount++;
-			if(lead != null) argCount++;
-
-			int argsLeft = argCount;
-			// Customize query depending on given parameters
-			StringBuffer statement = new StringBuffer("SELECT item.upc, title, category, " +
-					"name AS leadingsinger, stock FROM item, leadsinger WHERE item.upc = leadsinger.upc AND ");
-			if(title != null) {
-				statement.append("title = ?");
-				argsLeft--;
-				if(argsLeft > 0) statement.append(" AND ");
-			}
-			if(category != null) {
-				statement.append("category = ?");
-				argsLeft--;
-				if(argsLeft > 0) statement.append(" AND ");
-			}
-			if(lead != null) {
-				statement.append("name = ?");
-			}
+		{
+			List<Object[]> rows = CatalogIndex.getInstance().search(title, category, lead, limit, fuzzy);
 
-			ps = con.prepareStatement(statement.toString(), 
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_READ_ONLY);
+			return searchModel(rows);
+		}
+		catch (SQLException ex)
+		{
+			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
+			fireExceptionGenerated(event);
 
-			if(title != null) {
-				ps.setString(1, title);
-				currentArg++;
-			}
-			if(category != null) {
-				ps.setString(currentArg, category);
-				currentArg++;
-			}
-			if(lead != null) {
-				ps.setString(currentArg, lead);
-			}
+			return null; 
+		}
+	}
+
+	/*
+	 * Returns the rows of the next n items matching the input parameters,
+	 * as searchItems(title, category, lead) would, but with the most 
+	 * popular items first. after is the last row of the previous page, 
+	 * or null for the first page; fewer than n items means there are no
+	 * more. See CatalogIndex.searchPage(). If there is an error, null is
+	 * returned.
+	 */ 
+	public List<Object[]> searchItemsPage(String title, String category, String lead, Object[] after, int n)
+	{
+		try
+		{
+			return CatalogIndex.getInstance().searchPage(title, category, lead, after, n);
+		}
+		catch (SQLException ex)
+		{
+			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
+			fireExceptionGenerated(event);
 
-			ResultSet rs = ps.executeQuery();
+			return null; 
+		}
+	}
+
+	/*
+	 * Returns a read only table model of item search rows, e.g. a page 
+	 * returned by searchItemsPage(). Further pages can be added to it 
+	 * with CustomTableModel.addRows().
+	 */ 
+	public CustomTableModel searchModel(List<Object[]> rows)
+	{
+		return new CustomTableModel(SEARCH_COLUMNS, SEARCH_TYPES, rows);
+	}
 
-			return rs; 
+	/*
+	 * Returns a read only table model of the songs whose title contains
+	 * song, ignoring case, with the title, price and stock of the item
+	 * each is on, best matches first. The search is answered from 
+	 * SongIndex rather than the database. If there is an error, null is
+	 * returned.
+	 */ 
+	public CustomTableModel searchSongs(String song)
+	{
+		try
+		{
+			List<Object[]> rows = SongIndex.getInstance().search(song, SONG_SEARCH_ROWS);
+
+			return new CustomTableModel(SONG_COLUMNS, SONG_TYPES, rows);
 		}
 		catch (SQLException ex)
 		{
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
-			// no need to commit or rollback since it is only a query
 
 			return null; 
 		}
 	}
 
+	/*
+	 * Reserves quantity copies of the item and adds them to the current
+	 * customer's shopping cart. The cart is kept in memory and written to
+	 * shoppingcart in the background; see ShoppingCart and 
+	 * StockReservations.
+	 */
 	public boolean checkItems(int upc, int quantity) {
 		String login = LoginWindow.getLogin();
+		StockReservations stock = StockReservations.getInstance();
+		boolean reserved = false;
+		boolean added = false;
 
 		try
 		{
-			ps = con.prepareStatement("INSERT INTO shoppingcart " +
-					"VALUES(?,?,?)");
-
-			ps.setString(1, login);
-
-			ps.setInt(2, upc);
+			reserved = stock.reserve(login, upc, quantity);
 
-			ps.setInt(3, quantity);
+			if (!reserved)
+			{
+				ExceptionEvent event = new ExceptionEvent(this, "Not enough stock of item " + upc + ".");
+				fireExceptionGenerated(event);
 
-			ps.executeUpdate();
+				return false;
+			}
 
-			con.commit();
+			added = ShoppingCart.getCart(login).add(upc, quantity);
 
-			return true; 
+			return added;
 		}
 		catch (SQLException ex)
 		{
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
-			try
-			{
-				con.rollback();
-				return false; 
-			}
-			catch (SQLException ex2)
-			{
-				event = new ExceptionEvent(this, ex2.getMessage());
-				fireExceptionGenerated(event);
-				return false; 
-			}
+			return false; 
+		}
+		finally
+		{
+			if (reserved && !added)
+				stock.release(login, upc, quantity);
 		}
 	}
 
@@ -135,58 +193,35 @@ public class ShopTransactions {
 	 */ 
 	public boolean isCartEmpty()
 	{
-		String login = LoginWindow.getLogin();
-
 		try
-		{	 
-			ps = con.prepareStatement("SELECT upc FROM shoppingcart WHERE cid = ?", 
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_READ_ONLY);
-
-			ps.setString(1, login);
-
-			ResultSet rs = ps.executeQuery();
-
-			return !rs.first();
+		{
+			return ShoppingCart.getCart(LoginWindow.getLogin()).isEmpty();
 		}
 		catch (SQLException ex)
 		{
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
-			// no need to commit or rollback since it is only a query
 
 			return false; 
 		}
 	}
 
 	/*
-	 * Returns a ResultSet containing customer's shopping cart. The ResultSet is
-	 * scroll insensitive and read only. If there is an error, null
-	 * is returned.
+	 * Returns a read only table model of the customer's shopping cart, 
+	 * one row per item. If there is an error, null is returned.
 	 */ 
-	public ResultSet showShoppingCart()
+	public CustomTableModel showShoppingCart()
 	{
-		String login = LoginWindow.getLogin();
-
 		try
-		{	 
-			ps = con.prepareStatement("SELECT s.upc, i.title, s.quantity , i.sellPrice AS price " +
-					"FROM shoppingcart s, item i " +
-					"WHERE s.upc = i.upc AND s.cid = ?", 
-					ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_READ_ONLY);
-
-			ps.setString(1, login);
-
-			ResultSet rs = ps.executeQuery();
+		{
+			List<Object[]> rows = ShoppingCart.getCart(LoginWindow.getLogin()).rows();
 
-			return rs; 
+			return new CustomTableModel(CART_COLUMNS, CART_TYPES, rows);
 		}
 		catch (SQLException ex)
 		{
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
-			// no need to commit or rollback since it is only a query
 
 			return null; 
 		}
@@ -196,25 +231,11 @@ public class ShopTransactions {
 	 * Calculates the total cost of the customer's shopping cart
 	 */
 	public BigDecimal totalAmount() {
-		String login = LoginWindow.getLogin();
-
 		try {
-			ps = con.prepareStatement("SELECT SUM(i.sellPrice * s.quantity) " +
-					"FROM Item i, Shoppingcart s " +
-					"WHERE i.upc = s.upc AND s.cid = ?");
-
-			ps.setString(1, login);
-
-			ResultSet rs = ps.executeQuery();
-
-			rs.next();
-
-			return rs.getBigDecimal(1);
-
+			return ShoppingCart.getCart(LoginWindow.getLogin()).total();
 		} catch (SQLException ex) {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
-			// no need to commit or rollback since it is only a query
 
 			return null; 
 		}
@@ -222,35 +243,17 @@ public class ShopTransactions {
 
 
 	/*
-	 * Clears the current customer's shopping cart and updates stock
+	 * Clears the current customer's shopping cart and releases the 
+	 * stock reserved for it
 	 */
 	public boolean clearShoppingCart() {
 		String login = LoginWindow.getLogin();
 
 		try
 		{
-			ps = con.prepareStatement(
-					"UPDATE Item I " +
-							"SET stock = (SELECT stock + quantity " +
-							"FROM Shoppingcart " +
-							"WHERE Shoppingcart.upc = I.upc " +
-							"AND Shoppingcart.cid = ?) " +
-					"WHERE EXISTS (SELECT s.upc FROM Shoppingcart s WHERE I.upc = s.upc AND s.cid = ?)");
-
-			ps.setString(1, login);
-
-			ps.setString(2, login);
-
-			ps.executeUpdate();
+			ShoppingCart.getCart(login).clear();
 
-			ps = con.prepareStatement("DELETE FROM Shoppingcart " +
-					"WHERE cid = ?");
-
-			ps.setString(1, login);
-
-			ps.executeUpdate();
-
-			con.commit();
+			StockReservations.getInstance().releaseAll(login);
 
 			return true; 
 		}
@@ -259,84 +262,60 @@ public class ShopTransactions {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
-			try
-			{
-				con.rollback();
-				return false; 
-			}
-			catch (SQLException ex2)
-			{
-				event = new ExceptionEvent(this, ex2.getMessage());
-				fireExceptionGenerated(event);
-				return false; 
-			}
+			return false; 
 		}
 	}
 
 	/*
 	 * Buys the items in the customer's shopping cart and returns the expected number of days to delivery 
-	 * if successful, -1 if not.
+	 * if successful, -1 if not. The order is written by CheckoutPipeline, together with the orders of
+	 * other customers checking out at the same time.
 	 */
 	public int checkout(String cardno, Date expire) {
 		String login = LoginWindow.getLogin();
+		ShoppingCart cart = ShoppingCart.getCart(login);
+		DeliveryCapacity capacity = DeliveryCapacity.getInstance();
+		boolean booked = false;
+		boolean committed = false;
 
 		try
 		{
-			ps = con.prepareStatement("SELECT count(receiptID) FROM Purchase WHERE deliveredDate IS NULL");
-
-			ResultSet rs = ps.executeQuery();
-
-			rs.next();
-
-			int pendingOrders = rs.getInt(1);
-
-			int deliverDate = pendingOrders / MAXIMUM_DAILY_TRANSACTIONS + 1;
-
-			ps = con.prepareStatement(
-					"INSERT INTO Purchase VALUES(receipt_counter.nextval, sysdate, ?, ?, ?, " +
-					"sysdate + ?, null)");
-
-			ps.setString(1, login);
-
-			ps.setString(2, cardno);
-
-			ps.setDate(3, expire);
+			// the order removes the cart from shoppingcart, so the cart's
+			// pending changes are written first
+			cart.flush();
 
-			ps.setInt(4, deliverDate);
+			Map<Integer, Integer> quantities = cart.quantities();
 
-			ps.executeUpdate();
-
-			ps = con.prepareStatement("INSERT INTO PurchaseItem " +
-					"SELECT receipt_counter.currval, s.upc, s.quantity " +
-					"FROM Shoppingcart s " +
-					"WHERE s.cid = ?");
-
-			ps.setString(1, login);
+			// the cart's reservations may have expired; the order is only
+			// placed if every copy in it can still be reserved
+			if (!StockReservations.getInstance().claim(login, quantities))
+			{
+				ExceptionEvent event = new ExceptionEvent(this, "Not enough stock to fill the order.");
+				fireExceptionGenerated(event);
 
-			ps.executeUpdate();
-			
-			ps = con.prepareStatement(
-					"UPDATE Item I " +
-							"SET stock = (SELECT stock - quantity " +
-							"FROM Shoppingcart " +
-							"WHERE Shoppingcart.upc = I.upc " +
-							"AND Shoppingcart.cid = ?) " +
-					"WHERE EXISTS (SELECT s.upc FROM Shoppingcart s WHERE I.upc = s.upc AND s.cid = ?)");
+				return -1;
+			}
 
-			ps.setString(1, login);
+			// the order takes the next delivery slot, which is given back 
+			// if it is not committed
+			int deliverDate = capacity.book();
 
-			ps.setString(2, login);
+			booked = true;
 
-			ps.executeUpdate();
+			CheckoutPipeline.getInstance().checkout(login, cardno, expire, deliverDate, quantities);
 
-			ps = con.prepareStatement("DELETE FROM Shoppingcart " +
-					"WHERE cid = ?");
+			committed = true;
 
-			ps.setString(1, login);
+			cart.emptied(quantities);
 
-			ps.executeUpdate();
+			// item.stock is updated in the background
+			StockReservations.getInstance().sold(login, quantities);
 
-			con.commit();
+			for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+				CatalogIndex.getInstance().stockChanged(e.getKey().intValue(), -e.getValue().intValue());
+				CatalogIndex.getInstance().itemSold(e.getKey().intValue(), e.getValue().intValue());
+				SongIndex.getInstance().stockChanged(e.getKey().intValue(), -e.getValue().intValue());
+			}
 
 			return deliverDate;
 		}
@@ -345,41 +324,15 @@ public class ShopTransactions {
 			ExceptionEvent event = new ExceptionEvent(this, ex.getMessage());
 			fireExceptionGenerated(event);
 
-			try
-			{
-				con.rollback();
-				return -1; 
-			}
-			catch (SQLException ex2)
-			{
-				event = new ExceptionEvent(this, ex2.getMessage());
-				fireExceptionGenerated(event);
-				return -1; 
-			}
+			return -1; 
 		}
-	}
-
-	/*
-	 * Returns the database connection used by this customer model
-	 */
-	public Connection getConnection()
-	{
-		return con; 
-	}
-
-	/*
-	 * This method allows members of this class to clean up after itself 
-	 * before it is garbage collected. It is called by the garbage collector.
-	 */ 
-	protected void finalize() throws Throwable
-	{
-		if (ps != null)
+		finally
 		{
-			ps.close();
+			if (committed)
+				capacity.confirm();
+			else if (booked)
+				capacity.cancel();
 		}
-
-		// finalize() must call super.finalize() as the last thing it does
-		super.finalize();	
 	}
 
 
@@ -421,8 +374,4 @@ public class ShopTransactions {
 		}
 	}
 
-	public void setCommit(boolean commit) {
-		this.commit = commit;
-	}
-
 }
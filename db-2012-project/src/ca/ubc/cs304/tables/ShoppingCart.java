@@ -0,0 +1,669 @@
+package ca.ubc.cs304.tables;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.util.*;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * ShoppingCart is a customer's shopping cart kept in memory for the
+ * session, so that showing the cart, checking whether it is empty and
+ * totalling it need no queries. The cart is read from shoppingcart the
+ * first time it is used, with one line per item: adding an item that is
+ * in the cart already adds to its quantity.
+ *
+ * The total is kept as lines are added, removed or repriced rather than
+ * summed each time. It is a whole number of cents, as are the prices, so
+ * keeping it is exact and needs no BigDecimal arithmetic; prices are
+ * rounded to cents as the sellPrice column does. ItemModel reports new
+ * prices through priceChanged(), and code that changes prices it does
+ * not know, e.g. processing a shipment, calls pricesChanged(), which
+ * makes each cart read its prices again the next time it is used. Every
+ * CHECK_INTERVAL the total of each cart is checked against the sum over
+ * shoppingcart, and a cart that does not match is read again.
+ *
+ * Changes are written to shoppingcart behind the customer's back,
+ * WRITE_DELAY after the first change that is not yet written. Only the
+ * latest quantity of each item changed since the last write is written,
+ * so adding the same item several times costs one write, and all the
+ * items are written in one batch and one commit. ShopTransactions calls
+ * flush() to write them right away before it reads shoppingcart, e.g.
+ * at checkout. A write that fails is retried after another WRITE_DELAY,
+ * and the changes still pending are written when the program exits.
+ */
+public class ShoppingCart {
+	// how long a change waits to be written, so that the changes made
+	// in the meantime are written with it
+	public static final long WRITE_DELAY = 2000;
+
+	// how often the totals are checked against the database
+	public static final long CHECK_INTERVAL = 10 * 60 * 1000;
+
+	// prices and totals are kept in units of 10^-SCALE dollars
+	private static final int SCALE = 2;
+
+	// the carts by customer id
+	private static Map<String, ShoppingCart> _carts = new HashMap<String, ShoppingCart>();
+
+	// writes the carts' changes in the background
+	private static Timer _writer = null;
+
+	private String cid;
+
+	// the lines by UPC, in the order the items were added
+	private Map<Integer, Line> lines = new LinkedHashMap<Integer, Line>();
+
+	// the UPCs of the lines changed since the last write; a UPC that is
+	// no longer in lines is deleted from shoppingcart
+	private Set<Integer> changed = new HashSet<Integer>();
+
+	// the total price, in cents
+	private long total = 0;
+	private boolean loaded = false;
+
+	// true if the prices may have changed since they were read
+	private boolean stale = false;
+
+	// true while a write is scheduled
+	private boolean scheduled = false;
+
+	// held while the changes are written, so that two writes of the
+	// same cart do not overlap
+	private final Object writeLock = new Object();
+
+	private static class Line {
+		int upc;
+		String title;
+		BigDecimal price;
+		long cents;
+		int quantity;
+
+		void setPrice(BigDecimal price) {
+			this.price = price;
+			this.cents = cents(price);
+		}
+	}
+
+	private ShoppingCart(String cid) {
+		this.cid = cid;
+	}
+
+	/*
+	 * Returns the shopping cart of the given customer
+	 */
+	public static synchronized ShoppingCart getCart(String cid) {
+		ShoppingCart cart = _carts.get(cid);
+
+		if (cart == null) {
+			cart = new ShoppingCart(cid);
+			_carts.put(cid, cart);
+		}
+
+		return cart;
+	}
+
+	/*
+	 * Adds quantity of the item to the cart. Returns false if there is
+	 * no such item.
+	 */
+	public synchronized boolean add(int upc, int quantity) throws SQLException {
+		load();
+
+		Integer key = Integer.valueOf(upc);
+		Line line = lines.get(key);
+
+		if (line == null) {
+			line = findItem(upc);
+
+			if (line == null) {
+				return false;
+			}
+
+			lines.put(key, line);
+		}
+
+		line.quantity += quantity;
+		total += line.cents * quantity;
+
+		changed.add(key);
+		schedule();
+
+		return true;
+	}
+
+	/*
+	 * Removes the item from the cart.
+	 */
+	public synchronized void remove(int upc) throws SQLException {
+		load();
+		drop(upc);
+	}
+
+	/*
+	 * Removes every item from the cart.
+	 */
+	public synchronized void clear() throws SQLException {
+		load();
+
+		changed.addAll(lines.keySet());
+		lines.clear();
+		total = 0;
+
+		schedule();
+	}
+
+	/*
+	 * Takes the quantities ordered, by UPC, out of the cart once checkout
+	 * has deleted the cart from shoppingcart. What was added since the
+	 * quantities were read stays in the cart and is written again.
+	 */
+	public synchronized void emptied(Map<Integer, Integer> ordered) {
+		for (Map.Entry<Integer, Integer> e : ordered.entrySet()) {
+			Line line = lines.get(e.getKey());
+
+			if (line == null) {
+				continue;
+			}
+
+			int quantity = Math.min(line.quantity, e.getValue().intValue());
+
+			line.quantity -= quantity;
+			total -= line.cents * quantity;
+
+			if (line.quantity == 0) {
+				lines.remove(e.getKey());
+				changed.remove(e.getKey());
+			}
+		}
+
+		// checkout deleted their rows too
+		if (!lines.isEmpty()) {
+			changed.addAll(lines.keySet());
+			schedule();
+		}
+	}
+
+	/*
+	 * Records a new price for an item, in every cart it is in.
+	 */
+	public static void priceChanged(int upc, BigDecimal price) {
+		for (ShoppingCart cart : carts()) {
+			cart.reprice(upc, price);
+		}
+	}
+
+	/*
+	 * Records that the prices of some items changed, without saying
+	 * which or to what; every cart reads its prices again when it is
+	 * next used.
+	 */
+	public static void pricesChanged() {
+		for (ShoppingCart cart : carts()) {
+			synchronized (cart) {
+				cart.stale = true;
+			}
+		}
+	}
+
+	/*
+	 * Records an item that was deleted, removing it from every cart.
+	 */
+	public static void itemDeleted(int upc) {
+		for (ShoppingCart cart : carts()) {
+			cart.drop(upc);
+		}
+	}
+
+	public synchronized boolean isEmpty() throws SQLException {
+		load();
+
+		return lines.isEmpty();
+	}
+
+	/*
+	 * Returns the total price of the items in the cart.
+	 */
+	public synchronized BigDecimal total() throws SQLException {
+		load();
+
+		return BigDecimal.valueOf(total, SCALE);
+	}
+
+	/*
+	 * Returns one row of {upc, title, quantity, price} per item in the
+	 * cart, in the order they were added.
+	 */
+	public synchronized List<Object[]> rows() throws SQLException {
+		load();
+
+		List<Object[]> rows = new ArrayList<Object[]>(lines.size());
+
+		for (Line line : lines.values()) {
+			rows.add(new Object[] { Integer.valueOf(line.upc), line.title, Integer.valueOf(line.quantity), line.price });
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Returns the quantity of each item in the cart, by UPC.
+	 */
+	public synchronized Map<Integer, Integer> quantities() throws SQLException {
+		load();
+
+		Map<Integer, Integer> quantities = new HashMap<Integer, Integer>();
+
+		for (Line line : lines.values()) {
+			quantities.put(Integer.valueOf(line.upc), Integer.valueOf(line.quantity));
+		}
+
+		return quantities;
+	}
+
+	/*
+	 * Writes the changes not yet written to shoppingcart and commits
+	 * them. If the write fails, the changes stay pending.
+	 */
+	public void flush() throws SQLException {
+		synchronized (writeLock) {
+			Map<Integer, Integer> quantities = new HashMap<Integer, Integer>();
+
+			synchronized (this) {
+				for (Integer upc : changed) {
+					Line line = lines.get(upc);
+
+					quantities.put(upc, Integer.valueOf(line == null ? 0 : line.quantity));
+				}
+
+				changed.clear();
+			}
+
+			if (quantities.isEmpty()) {
+				return;
+			}
+
+			try {
+				write(quantities);
+			} catch (SQLException ex) {
+				synchronized (this) {
+					// keep the newer changes made while writing
+					changed.addAll(quantities.keySet());
+				}
+
+				throw ex;
+			}
+		}
+	}
+
+	/*
+	 * Writes every cart's pending changes; the errors are ignored.
+	 */
+	public static void flushAll() {
+		for (ShoppingCart cart : carts()) {
+			try {
+				cart.flush();
+			} catch (SQLException ex) {
+				// nothing more can be done while the program exits
+			}
+		}
+	}
+
+	/*
+	 * Compares the total with the sum over shoppingcart, once the
+	 * pending changes are written, and reads the cart again if they
+	 * differ. Returns true if they matched.
+	 */
+	public boolean check() throws SQLException {
+		synchronized (writeLock) {
+			flush();
+
+			BigDecimal sum = sum();
+
+			synchronized (this) {
+				// the cart changed while it was summed; check it next time
+				if (!changed.isEmpty()) {
+					return true;
+				}
+
+				if (cents(sum) == total) {
+					return true;
+				}
+
+				lines.clear();
+				total = 0;
+				loaded = false;
+				load();
+
+				return false;
+			}
+		}
+	}
+
+	/*
+	 * Returns the total over the cart's rows in shoppingcart.
+	 */
+	private BigDecimal sum() throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT SUM(i.sellPrice * s.quantity) FROM item i, shoppingcart s "
+							+ "WHERE i.upc = s.upc AND s.cid = ?");
+
+			ps.setString(1, cid);
+
+			ResultSet rs = ps.executeQuery();
+
+			rs.next();
+
+			BigDecimal sum = rs.getBigDecimal(1);
+
+			rs.close();
+
+			return (sum == null ? BigDecimal.ZERO : sum);
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+
+	/*
+	 * Replaces the rows of the changed items in shoppingcart with one row
+	 * each, or none if the item was removed.
+	 */
+	private void write(Map<Integer, Integer> quantities) throws SQLException {
+		Connection con = null;
+		PreparedStatement delete = null;
+		PreparedStatement insert = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			delete = MvbOracleConnection.getInstance().prepareStatement(con,
+					"DELETE FROM shoppingcart WHERE cid = ? AND upc = ?");
+
+			insert = MvbOracleConnection.getInstance().prepareStatement(con, "INSERT INTO shoppingcart VALUES(?,?,?)");
+
+			boolean inserts = false;
+
+			for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+				delete.setString(1, cid);
+				delete.setInt(2, e.getKey().intValue());
+				delete.addBatch();
+
+				if (e.getValue().intValue() > 0) {
+					insert.setString(1, cid);
+					insert.setInt(2, e.getKey().intValue());
+					insert.setInt(3, e.getValue().intValue());
+					insert.addBatch();
+					inserts = true;
+				}
+			}
+
+			delete.executeBatch();
+
+			if (inserts) {
+				insert.executeBatch();
+			}
+
+			con.commit();
+		} catch (SQLException ex) {
+			if (con != null) {
+				try {
+					con.rollback();
+				} catch (SQLException ex2) {
+					// the first error is the one reported
+				}
+			}
+
+			throw ex;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(insert);
+			MvbOracleConnection.getInstance().closeStatement(delete);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+
+	/*
+	 * Schedules a write of the pending changes unless one is scheduled
+	 * already. Called with the cart locked.
+	 */
+	private void schedule() {
+		if (scheduled) {
+			return;
+		}
+
+		scheduled = true;
+
+		writer().schedule(new TimerTask() {
+			public void run() {
+				synchronized (ShoppingCart.this) {
+					scheduled = false;
+				}
+
+				try {
+					flush();
+				} catch (SQLException ex) {
+					synchronized (ShoppingCart.this) {
+						schedule();
+					}
+				}
+			}
+		}, WRITE_DELAY);
+	}
+
+	/*
+	 * Returns the timer that writes and checks the carts, creating it the
+	 * first time along with a shutdown hook that writes what is still
+	 * pending.
+	 */
+	private static synchronized Timer writer() {
+		if (_writer == null) {
+			_writer = new Timer("Shopping cart writer", true);
+
+			_writer.schedule(new TimerTask() {
+				public void run() {
+					for (ShoppingCart cart : carts()) {
+						try {
+							cart.check();
+						} catch (SQLException ex) {
+							// the cart is checked again next time
+						}
+					}
+				}
+			}, CHECK_INTERVAL, CHECK_INTERVAL);
+
+			Runtime.getRuntime().addShutdownHook(new Thread("Shopping cart flush") {
+				public void run() {
+					flushAll();
+				}
+			});
+		}
+
+		return _writer;
+	}
+
+	private static synchronized List<ShoppingCart> carts() {
+		return new ArrayList<ShoppingCart>(_carts.values());
+	}
+
+	/*
+	 * Returns price in cents, rounded as sellPrice is.
+	 */
+	private static long cents(BigDecimal price) {
+		return price.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValue();
+	}
+
+	private synchronized void drop(int upc) {
+		Integer key = Integer.valueOf(upc);
+		Line line = lines.remove(key);
+
+		if (line != null) {
+			total -= line.cents * line.quantity;
+
+			changed.add(key);
+			schedule();
+		}
+	}
+
+	private synchronized void reprice(int upc, BigDecimal price) {
+		Line line = lines.get(Integer.valueOf(upc));
+
+		if (line != null) {
+			total -= line.cents * line.quantity;
+			line.setPrice(price);
+			total += line.cents * line.quantity;
+		}
+	}
+
+	/*
+	 * Reads the cart from shoppingcart the first time it is used, and the
+	 * prices again if they are stale. Rows of the same item are merged 
+	 * into one line, which is written back as one row.
+	 */
+	private void load() throws SQLException {
+		if (loaded) {
+			if (stale) {
+				readPrices();
+			}
+
+			return;
+		}
+
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT s.upc, i.title, s.quantity, i.sellPrice FROM shoppingcart s, item i "
+							+ "WHERE s.upc = i.upc AND s.cid = ?");
+
+			ps.setString(1, cid);
+
+			ResultSet rs = ps.executeQuery();
+
+			while (rs.next()) {
+				Integer upc = Integer.valueOf(rs.getInt(1));
+				Line line = lines.get(upc);
+
+				if (line == null) {
+					line = new Line();
+					line.upc = upc.intValue();
+					line.title = rs.getString(2);
+					line.setPrice(rs.getBigDecimal(4));
+					lines.put(upc, line);
+				} else {
+					changed.add(upc);
+				}
+
+				line.quantity += rs.getInt(3);
+				total += line.cents * rs.getInt(3);
+			}
+
+			rs.close();
+		} catch (SQLException ex) {
+			lines.clear();
+			changed.clear();
+			total = 0;
+			throw ex;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+
+		loaded = true;
+		stale = false;
+
+		if (!changed.isEmpty()) {
+			schedule();
+		}
+	}
+
+	/*
+	 * Returns an empty line for the item, or null if there is no such
+	 * item.
+	 */
+	private Line findItem(int upc) throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT title, sellPrice FROM item WHERE upc = ?");
+
+			ps.setInt(1, upc);
+
+			ResultSet rs = ps.executeQuery();
+			Line line = null;
+
+			if (rs.next()) {
+				line = new Line();
+				line.upc = upc;
+				line.title = rs.getString(1);
+				line.setPrice(rs.getBigDecimal(2));
+			}
+
+			rs.close();
+
+			return line;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+
+	/*
+	 * Reads the prices of the items in the cart again and reprices them.
+	 */
+	private void readPrices() throws SQLException {
+		if (lines.isEmpty()) {
+			stale = false;
+			return;
+		}
+
+		StringBuilder sql = new StringBuilder("SELECT upc, sellPrice FROM item WHERE upc IN (?");
+
+		for (int i = 1; i < lines.size(); i++) {
+			sql.append(", ?");
+		}
+
+		sql.append(")");
+
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con, sql.toString());
+
+			int i = 1;
+
+			for (Integer upc : lines.keySet()) {
+				ps.setInt(i++, upc.intValue());
+			}
+
+			ResultSet rs = ps.executeQuery();
+
+			while (rs.next()) {
+				reprice(rs.getInt(1), rs.getBigDecimal(2));
+			}
+
+			rs.close();
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+
+		stale = false;
+	}
+}
@@ -0,0 +1,556 @@
+package ca.ubc.cs304.tables;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * SongIndex is an in-memory index over the song titles in hassong, used
+ * to find the items a song is on. Every three character substring of a
+ * lower case title, a trigram, maps to a sorted array of the songs that
+ * contain it, so that the songs containing a search string are found by
+ * intersecting the arrays of its trigrams rather than by scanning every
+ * title, as LIKE '%x%' would. Each candidate is then checked against
+ * the whole string. Strings shorter than three characters have no
+ * trigrams and are matched against every title.
+ *
+ * Matches are ranked by how well the title matches: an equal title
+ * first, then titles starting with the string, then titles with a word
+ * starting with it, then the rest; shorter titles first within each.
+ * The title, price and stock of each song's item are kept with the
+ * index, so results need no join.
+ *
+ * Like CatalogIndex, the index is loaded with one query the first time
+ * it is searched, kept current by HasSongModel, ItemModel and
+ * ShopTransactions, and reloaded after invalidate() or once it is
+ * older than MAX_AGE. All methods are synchronized, except that a new
+ * index is read into a SongIndex of its own, without the lock, and
+ * swapped in under it, so that stock changes reported by checkouts do
+ * not wait for the load. The changes reported while it is read are
+ * made to the new index too before it is swapped in.
+ */
+public class SongIndex {
+	// the index is reloaded on the next search once it is this old
+	public static final long MAX_AGE = CatalogIndex.MAX_AGE;
+
+	private static SongIndex _index = null;
+
+	// the items that have songs, by UPC
+	private Map<Integer, Item> items = new HashMap<Integer, Item>();
+
+	// the songs by number; a removed song leaves a null
+	private List<Song> songs = new ArrayList<Song>();
+
+	// trigram -> numbers of the songs containing it
+	private Map<String, CatalogIndex.Postings> trigrams = new HashMap<String, CatalogIndex.Postings>();
+
+	private boolean loaded = false;
+	private long loadedAt = 0;
+
+	// held while the index is loaded, so that one load runs at a time
+	private final Object loading = new Object();
+
+	// the changes reported while the index is loaded, to be made to the
+	// new index; null while it is not loaded
+	private List<Change> pending = null;
+
+	// set if invalidate() is called while the index is loaded
+	private boolean missed = false;
+
+	private static class Item {
+		int upc;
+		String title;
+		int stock;
+		BigDecimal price;
+
+		// the item's songs, so that they are found without a scan
+		List<Song> songs = new ArrayList<Song>(2);
+	}
+
+	private static class Song {
+		int number;
+		Item item;
+		String title;
+		String lower;
+	}
+
+	/*
+	 * A change reported while the index is loaded.
+	 */
+	private interface Change {
+		void apply(SongIndex index);
+	}
+
+	/*
+	 * A song that matched and how well, lower is better.
+	 */
+	private static class Match {
+		Song song;
+		int quality;
+
+		Match(Song song, int quality) {
+			this.song = song;
+			this.quality = quality;
+		}
+	}
+
+	// best matches first
+	private static final Comparator<Match> RANK = new Comparator<Match>() {
+		public int compare(Match m1, Match m2) {
+			if (m1.quality != m2.quality) {
+				return m1.quality - m2.quality;
+			}
+
+			if (m1.song.title.length() != m2.song.title.length()) {
+				return m1.song.title.length() - m2.song.title.length();
+			}
+
+			return m1.song.item.upc - m2.song.item.upc;
+		}
+	};
+
+	// the most trigrams of a search string whose songs are intersected;
+	// the candidates are checked against the whole string anyway
+	private static final int MAX_TRIGRAMS = 3;
+
+	private SongIndex() {
+		// empty
+	}
+
+	/*
+	 * Returns the instance of SongIndex
+	 */
+	public static synchronized SongIndex getInstance() {
+		if (_index == null) {
+			_index = new SongIndex();
+		}
+
+		return _index;
+	}
+
+	/*
+	 * Returns one row of {upc, song, item title, price, stock} for each
+	 * song whose title contains text, ignoring case, best matches first.
+	 * At most limit rows are returned.
+	 */
+	public List<Object[]> search(String text, int limit) throws SQLException {
+		refresh();
+
+		synchronized (this) {
+			return find(text, limit);
+		}
+	}
+
+	/*
+	 * Returns the rows for search().
+	 */
+	private List<Object[]> find(String text, int limit) {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		String lower = (text == null ? "" : text.trim().toLowerCase());
+
+		if (lower.length() == 0) {
+			return rows;
+		}
+
+		List<Match> matches = new ArrayList<Match>();
+
+		if (lower.length() < 3) {
+			for (Song song : songs) {
+				if (song != null && song.lower.indexOf(lower) >= 0) {
+					matches.add(new Match(song, quality(song.lower, lower)));
+				}
+			}
+		} else {
+			for (int number : candidates(lower)) {
+				Song song = songs.get(number);
+
+				// a song can have the trigrams without having the string
+				if (song.lower.indexOf(lower) >= 0) {
+					matches.add(new Match(song, quality(song.lower, lower)));
+				}
+			}
+		}
+
+		if (matches.size() > limit) {
+			// keep the best limit matches, with the worst of them on top
+			PriorityQueue<Match> best = new PriorityQueue<Match>(limit + 1, Collections.reverseOrder(RANK));
+
+			for (Match match : matches) {
+				if (best.size() < limit) {
+					best.add(match);
+				} else if (RANK.compare(match, best.peek()) < 0) {
+					best.poll();
+					best.add(match);
+				}
+			}
+
+			matches = new ArrayList<Match>(best);
+		}
+
+		Collections.sort(matches, RANK);
+
+		for (int i = 0; i < matches.size(); i++) {
+			Song song = matches.get(i).song;
+
+			rows.add(new Object[] { Integer.valueOf(song.item.upc), song.title, song.item.title, song.item.price,
+					Integer.valueOf(song.item.stock) });
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Returns true if the index is loaded and not older than MAX_AGE.
+	 */
+	public synchronized boolean isCurrent() {
+		return loaded && System.currentTimeMillis() - loadedAt <= MAX_AGE;
+	}
+
+	/*
+	 * Loads the index from the database unless it is current. The new
+	 * index is read without the lock, so the old one can be searched
+	 * and changed in the meantime. The changes reported while it is
+	 * read are kept and made to it before it is swapped in, except for
+	 * invalidate(), after which it is used but not current, so that the
+	 * next search loads it again. A change committed just before the
+	 * load's query started may be counted twice, e.g. a sale's stock,
+	 * until the next load.
+	 */
+	public void refresh() throws SQLException {
+		if (isCurrent()) {
+			return;
+		}
+
+		synchronized (loading) {
+			synchronized (this) {
+				// another thread may have loaded it while this one waited
+				if (isCurrent()) {
+					return;
+				}
+
+				pending = new ArrayList<Change>();
+				missed = false;
+			}
+
+			SongIndex fresh = new SongIndex();
+
+			try {
+				fresh.load();
+
+				synchronized (this) {
+					for (Change change : pending) {
+						change.apply(fresh);
+					}
+
+					items = fresh.items;
+					songs = fresh.songs;
+					trigrams = fresh.trigrams;
+
+					loaded = true;
+					loadedAt = (fresh.loaded && !missed ? System.currentTimeMillis() : 0);
+				}
+			} finally {
+				synchronized (this) {
+					pending = null;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Makes the next search reload the index from the database.
+	 */
+	public synchronized void invalidate() {
+		loaded = false;
+
+		if (pending != null) {
+			missed = true;
+		}
+	}
+
+	/*
+	 * Records a song that was added to an item.
+	 */
+	public synchronized void songAdded(final int upc, final String title) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(SongIndex index) {
+					index.songAdded(upc, title);
+				}
+			});
+		}
+
+		if (!loaded) {
+			return;
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (item == null) {
+			// the item's title, price and stock are not known yet
+			invalidate();
+			return;
+		}
+
+		addSong(item, title);
+	}
+
+	/*
+	 * Records a song that was removed from an item.
+	 */
+	public synchronized void songRemoved(final int upc, final String title) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(SongIndex index) {
+					index.songRemoved(upc, title);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (!loaded || item == null) {
+			return;
+		}
+
+		for (Song song : item.songs) {
+			if (song.title.equals(title)) {
+				removeSong(song);
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Records an item that was inserted or updated.
+	 */
+	public synchronized void itemChanged(final int upc, final String title, final int stock,
+			final BigDecimal price) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(SongIndex index) {
+					index.itemChanged(upc, title, stock, price);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		// an item without songs cannot be found
+		if (loaded && item != null) {
+			item.title = title;
+			item.stock = stock;
+			item.price = price;
+		}
+	}
+
+	/*
+	 * Records an item that was deleted, with its songs.
+	 */
+	public synchronized void itemDeleted(final int upc) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(SongIndex index) {
+					index.itemDeleted(upc);
+				}
+			});
+		}
+
+		Item item = items.remove(Integer.valueOf(upc));
+
+		if (!loaded || item == null) {
+			return;
+		}
+
+		// removeSong() takes each song off the list
+		while (!item.songs.isEmpty()) {
+			removeSong(item.songs.get(item.songs.size() - 1));
+		}
+	}
+
+	/*
+	 * Records a change in an item's stock.
+	 */
+	public synchronized void stockChanged(final int upc, final int difference) {
+		if (pending != null) {
+			pending.add(new Change() {
+				public void apply(SongIndex index) {
+					index.stockChanged(upc, difference);
+				}
+			});
+		}
+
+		Item item = items.get(Integer.valueOf(upc));
+
+		if (loaded && item != null) {
+			item.stock += difference;
+		}
+	}
+
+	/*
+	 * Loads every song with its item into this index, which is a new one
+	 * that refresh() swaps in, so it needs no lock.
+	 */
+	private void load() throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"SELECT hs.upc, hs.title, i.title, i.stock, i.sellPrice FROM hassong hs, item i "
+							+ "WHERE hs.upc = i.upc");
+
+			ps.setFetchSize(500);
+
+			ResultSet rs = ps.executeQuery();
+
+			while (rs.next()) {
+				Integer upc = Integer.valueOf(rs.getInt(1));
+				Item item = items.get(upc);
+
+				if (item == null) {
+					item = new Item();
+					item.upc = upc.intValue();
+					item.title = rs.getString(3);
+					item.stock = rs.getInt(4);
+					item.price = rs.getBigDecimal(5);
+
+					items.put(upc, item);
+				}
+
+				addSong(item, rs.getString(2));
+			}
+
+			rs.close();
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+
+		loaded = true;
+	}
+
+	private void addSong(Item item, String title) {
+		Song song = new Song();
+
+		song.number = songs.size();
+		song.item = item;
+		song.title = title;
+		song.lower = title.toLowerCase();
+
+		songs.add(song);
+		item.songs.add(song);
+
+		for (int i = 0; i + 3 <= song.lower.length(); i++) {
+			String trigram = song.lower.substring(i, i + 3);
+			CatalogIndex.Postings postings = trigrams.get(trigram);
+
+			if (postings == null) {
+				postings = new CatalogIndex.Postings();
+				trigrams.put(trigram, postings);
+			}
+
+			postings.add(song.number);
+		}
+	}
+
+	private void removeSong(Song song) {
+		songs.set(song.number, null);
+		song.item.songs.remove(song);
+
+		for (int i = 0; i + 3 <= song.lower.length(); i++) {
+			String trigram = song.lower.substring(i, i + 3);
+			CatalogIndex.Postings postings = trigrams.get(trigram);
+
+			if (postings != null) {
+				postings.remove(song.number);
+
+				if (postings.size == 0) {
+					trigrams.remove(trigram);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the numbers of the songs containing the MAX_TRIGRAMS
+	 * rarest trigrams of text, which is at least three characters long.
+	 */
+	private int[] candidates(String text) {
+		List<CatalogIndex.Postings> lists = new ArrayList<CatalogIndex.Postings>();
+
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			CatalogIndex.Postings postings = trigrams.get(text.substring(i, i + 3));
+
+			if (postings == null) {
+				return new int[0];
+			}
+
+			lists.add(postings);
+		}
+
+		// start from the rarest trigram and narrow its songs down with
+		// the next rarest
+		Collections.sort(lists, new Comparator<CatalogIndex.Postings>() {
+			public int compare(CatalogIndex.Postings p1, CatalogIndex.Postings p2) {
+				return p1.size - p2.size;
+			}
+		});
+
+		while (lists.size() > MAX_TRIGRAMS) {
+			lists.remove(lists.size() - 1);
+		}
+
+		int[] result = Arrays.copyOf(lists.get(0).numbers, lists.get(0).size);
+		int found = result.length;
+
+		for (int j = 1; j < lists.size() && found > 0; j++) {
+			CatalogIndex.Postings other = lists.get(j);
+			int kept = 0;
+
+			// both arrays are sorted; walk them together
+			for (int i = 0, k = 0; i < found && k < other.size;) {
+				if (result[i] < other.numbers[k]) {
+					i++;
+				} else if (result[i] > other.numbers[k]) {
+					k++;
+				} else {
+					result[kept++] = result[i];
+					i++;
+					k++;
+				}
+			}
+
+			found = kept;
+		}
+
+		return Arrays.copyOf(result, found);
+	}
+
+	/*
+	 * Returns how well a title containing text matches it: 0 if it is
+	 * the title, 1 if the title starts with it, 2 if a word of the title
+	 * starts with it, otherwise 3.
+	 */
+	private static int quality(String title, String text) {
+		if (title.equals(text)) {
+			return 0;
+		}
+
+		if (title.startsWith(text)) {
+			return 1;
+		}
+
+		for (int i = title.indexOf(text); i > 0; i = title.indexOf(text, i + 1)) {
+			if (!Character.isLetterOrDigit(title.charAt(i - 1))) {
+				return 2;
+			}
+		}
+
+		return 3;
+	}
+}
@@ -0,0 +1,629 @@
+package ca.ubc.cs304.tables;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.ubc.cs304.main.MvbOracleConnection;
+
+/*
+ * StockReservations holds the stock of the items in the customers'
+ * shopping carts, so that two customers cannot buy the same copies.
+ * Adding an item to a cart reserves that many copies, which fails if
+ * fewer are available: on hand and not reserved by anyone. Checkout
+ * turns the reservations into sales, and clearing the cart releases
+ * them. A customer's reservations expire TIME_TO_LIVE after the last
+ * item was added; the cart keeps the items, and checkout reserves them
+ * again if they are still available.
+ *
+ * The stock on hand of each item is read from item.stock the first time
+ * the item is reserved. Each item is locked separately, so customers
+ * buying different items do not wait for each other. Sales are applied
+ * here first and written to item.stock in the background, SYNC_DELAY
+ * after the first one not yet written, as one batch of relative updates
+ * with one commit; a write that fails is retried after another
+ * SYNC_DELAY, and what is left is written when the program exits.
+ *
+ * ItemModel reports the stock it sets through stockSet(), and code that
+ * changes stock it does not know calls invalidate(), which makes each
+ * item read its stock again when it is next reserved.
+ */
+public class StockReservations {
+	// how long a customer's reservations last after the last one
+	public static final long TIME_TO_LIVE = 30 * 60 * 1000;
+
+	// how long a sale waits to be written to item.stock, so that the
+	// sales made in the meantime are written with it
+	public static final long SYNC_DELAY = 1000;
+
+	// how often expired reservations are released
+	private static final long SWEEP_INTERVAL = 60 * 1000;
+
+	private static StockReservations _reservations = null;
+
+	// the items reserved so far, by UPC
+	private ConcurrentHashMap<Integer, Stock> stocks = new ConcurrentHashMap<Integer, Stock>();
+
+	// the reservations by customer id
+	private ConcurrentHashMap<String, Holder> holders = new ConcurrentHashMap<String, Holder>();
+
+	private long timeToLive = TIME_TO_LIVE;
+
+	// writes the sales and releases expired reservations
+	private Timer timer;
+
+	// true while a write is scheduled; guarded by this
+	private boolean scheduled = false;
+
+	// held while item.stock is read or written, so that a read does not
+	// see sales that have been written but not yet marked as written
+	private final Object syncLock = new Object();
+
+	/*
+	 * An item's stock. Reads and changes of its fields lock it.
+	 */
+	private static class Stock {
+		int upc;
+
+		// false if stock must be read from item.stock again
+		boolean known = false;
+
+		// the copies on hand, including the sales not yet written
+		int onHand;
+
+		// the copies reserved
+		int reserved;
+
+		// the change in stock not yet written to item.stock
+		int unsynced;
+
+		// changed when onHand is set from outside, so that a write in
+		// progress does not mark the new value as written
+		int generation;
+
+		Stock(int upc) {
+			this.upc = upc;
+		}
+	}
+
+	/*
+	 * A customer's reservations, by UPC. Once released, a holder is no
+	 * longer in holders and is not used again. Locked before any Stock.
+	 */
+	private static class Holder {
+		Map<Integer, Integer> quantities = new HashMap<Integer, Integer>();
+		long expiresAt;
+		boolean released = false;
+	}
+
+	private StockReservations() {
+		timer = new Timer("Stock reservations", true);
+
+		timer.schedule(new TimerTask() {
+			public void run() {
+				releaseExpired();
+			}
+		}, SWEEP_INTERVAL, SWEEP_INTERVAL);
+
+		Runtime.getRuntime().addShutdownHook(new Thread("Stock sync") {
+			public void run() {
+				try {
+					sync();
+				} catch (SQLException ex) {
+					// nothing more can be done while the program exits
+				}
+			}
+		});
+	}
+
+	/*
+	 * Returns the instance of StockReservations
+	 */
+	public static synchronized StockReservations getInstance() {
+		if (_reservations == null) {
+			_reservations = new StockReservations();
+		}
+
+		return _reservations;
+	}
+
+	/*
+	 * Reserves quantity copies of the item for the customer. Returns false,
+	 * reserving nothing, if fewer are available.
+	 */
+	public boolean reserve(String cid, int upc, int quantity) throws SQLException {
+		Stock stock = stock(upc);
+
+		while (true) {
+			Holder holder = holder(cid);
+
+			synchronized (holder) {
+				if (holder.released) {
+					continue;
+				}
+
+				synchronized (stock) {
+					if (!stock.known) {
+						// invalidated since it was read; read it again
+					} else if (stock.onHand - stock.reserved < quantity) {
+						return false;
+					} else {
+						stock.reserved += quantity;
+						add(holder.quantities, upc, quantity);
+						holder.expiresAt = System.currentTimeMillis() + timeToLive;
+						return true;
+					}
+				}
+			}
+
+			read(stock);
+		}
+	}
+
+	/*
+	 * Releases up to quantity copies of the item reserved for the
+	 * customer.
+	 */
+	public void release(String cid, int upc, int quantity) {
+		Holder holder = holders.get(cid);
+
+		if (holder == null) {
+			return;
+		}
+
+		synchronized (holder) {
+			Integer held = holder.quantities.get(Integer.valueOf(upc));
+
+			if (held != null) {
+				unreserve(holder, upc, Math.min(quantity, held.intValue()));
+			}
+		}
+	}
+
+	/*
+	 * Releases every reservation of the customer.
+	 */
+	public void releaseAll(String cid) {
+		Holder holder = holders.get(cid);
+
+		if (holder != null) {
+			synchronized (holder) {
+				release(cid, holder);
+			}
+		}
+	}
+
+	/*
+	 * Makes sure the customer holds a reservation for each quantity, by
+	 * UPC, reserving what is missing, e.g. after the reservations expired.
+	 * Returns false, reserving nothing more, if some item is not
+	 * available.
+	 */
+	public boolean claim(String cid, Map<Integer, Integer> quantities) throws SQLException {
+		for (Integer upc : quantities.keySet()) {
+			stock(upc.intValue());
+		}
+
+		while (true) {
+			Holder holder = holder(cid);
+			Map<Integer, Integer> taken = new HashMap<Integer, Integer>();
+			boolean unknown = false;
+			boolean tooFew = false;
+
+			synchronized (holder) {
+				if (holder.released) {
+					continue;
+				}
+
+				for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+					Integer held = holder.quantities.get(e.getKey());
+					int missing = e.getValue().intValue() - (held == null ? 0 : held.intValue());
+
+					if (missing <= 0) {
+						continue;
+					}
+
+					// a deleted item cannot be bought
+					Stock stock = stocks.get(e.getKey());
+
+					if (stock == null) {
+						tooFew = true;
+						break;
+					}
+
+					synchronized (stock) {
+						if (!stock.known) {
+							unknown = true;
+							break;
+						}
+
+						if (stock.onHand - stock.reserved < missing) {
+							tooFew = true;
+							break;
+						}
+
+						stock.reserved += missing;
+					}
+
+					add(holder.quantities, e.getKey().intValue(), missing);
+					taken.put(e.getKey(), Integer.valueOf(missing));
+				}
+
+				if (!unknown && !tooFew) {
+					holder.expiresAt = System.currentTimeMillis() + timeToLive;
+					return true;
+				}
+
+				// give back what this call took
+				for (Map.Entry<Integer, Integer> e : taken.entrySet()) {
+					unreserve(holder, e.getKey().intValue(), e.getValue().intValue());
+				}
+
+				if (tooFew) {
+					return false;
+				}
+			}
+
+			// some stock was invalidated since it was read
+			for (Integer upc : quantities.keySet()) {
+				stock(upc.intValue());
+			}
+		}
+	}
+
+	/*
+	 * Turns the customer's reservations for the quantities, by UPC, into
+	 * sales, once they have been claimed and the order committed. Copies
+	 * reserved beyond the quantities, e.g. for items added to the cart
+	 * while the order was placed, stay reserved. The sales are written
+	 * to item.stock in the background.
+	 */
+	public void sold(String cid, Map<Integer, Integer> quantities) {
+		Holder holder = holders.get(cid);
+
+		if (holder == null) {
+			// the reservations were released; the copies are sold anyway
+			holder = new Holder();
+		}
+
+		synchronized (holder) {
+			for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+				Integer held = holder.quantities.get(e.getKey());
+				int quantity = e.getValue().intValue();
+
+				if (held != null) {
+					unreserve(holder, e.getKey().intValue(), Math.min(quantity, held.intValue()));
+				}
+
+				Stock stock = stocks.get(e.getKey());
+
+				if (stock == null) {
+					continue;
+				}
+
+				synchronized (stock) {
+					stock.onHand -= quantity;
+					stock.unsynced -= quantity;
+				}
+			}
+
+			if (holder.quantities.isEmpty()) {
+				release(cid, holder);
+			}
+		}
+
+		schedule();
+	}
+
+	/*
+	 * Returns the copies of the item available to be reserved, or -1 if
+	 * the item has not been read yet.
+	 */
+	public int available(int upc) {
+		Stock stock = stocks.get(Integer.valueOf(upc));
+
+		if (stock == null) {
+			return -1;
+		}
+
+		synchronized (stock) {
+			return (stock.known ? stock.onHand - stock.reserved : -1);
+		}
+	}
+
+	/*
+	 * Records the stock an item was set to, e.g. by ItemModel. The
+	 * sales not yet written are dropped, since the update replaced them.
+	 */
+	public void stockSet(int upc, int onHand) {
+		Stock stock = stocks.get(Integer.valueOf(upc));
+
+		if (stock != null) {
+			synchronized (stock) {
+				stock.onHand = onHand;
+				stock.unsynced = 0;
+				stock.generation++;
+				stock.known = true;
+			}
+		}
+	}
+
+	/*
+	 * Records an item that was deleted.
+	 */
+	public void itemDeleted(int upc) {
+		stocks.remove(Integer.valueOf(upc));
+	}
+
+	/*
+	 * Makes each item read its stock again when it is next reserved. As
+	 * in invalidate(upcs), a read in progress finishes first.
+	 */
+	public void invalidate() {
+		synchronized (syncLock) {
+			for (Stock stock : stocks.values()) {
+				synchronized (stock) {
+					stock.known = false;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Makes the given items read their stock again when they are next
+	 * reserved, e.g. after a sale written to item.stock directly. A read
+	 * in progress finishes first, so it cannot keep the old stock.
+	 */
+	public void invalidate(Collection<Integer> upcs) {
+		synchronized (syncLock) {
+			for (Integer upc : upcs) {
+				Stock stock = stocks.get(upc);
+
+				if (stock != null) {
+					synchronized (stock) {
+						stock.known = false;
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Writes the sales not yet written to item.stock and commits them.
+	 */
+	public void sync() throws SQLException {
+		synchronized (syncLock) {
+			List<Stock> changed = new ArrayList<Stock>();
+			List<int[]> written = new ArrayList<int[]>();
+
+			for (Stock stock : stocks.values()) {
+				synchronized (stock) {
+					if (stock.unsynced != 0) {
+						changed.add(stock);
+						written.add(new int[] { stock.unsynced, stock.generation });
+					}
+				}
+			}
+
+			if (changed.isEmpty()) {
+				return;
+			}
+
+			write(changed, written);
+
+			for (int i = 0; i < changed.size(); i++) {
+				Stock stock = changed.get(i);
+
+				synchronized (stock) {
+					if (stock.generation == written.get(i)[1]) {
+						stock.unsynced -= written.get(i)[0];
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Releases the reservations that have expired.
+	 */
+	public void releaseExpired() {
+		long now = System.currentTimeMillis();
+
+		for (Map.Entry<String, Holder> e : holders.entrySet()) {
+			Holder holder = e.getValue();
+
+			synchronized (holder) {
+				if (!holder.released && holder.expiresAt < now) {
+					release(e.getKey(), holder);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Returns the item's stock, reading it if it is new.
+	 */
+	private Stock stock(int upc) throws SQLException {
+		Integer key = Integer.valueOf(upc);
+		Stock stock = stocks.get(key);
+
+		if (stock == null) {
+			Stock other = stocks.putIfAbsent(key, stock = new Stock(upc));
+
+			if (other != null) {
+				stock = other;
+			}
+		}
+
+		if (!stock.known) {
+			read(stock);
+		}
+
+		return stock;
+	}
+
+	/*
+	 * Returns the customer's holder, adding one if there is none.
+	 */
+	private Holder holder(String cid) {
+		Holder holder = holders.get(cid);
+
+		if (holder == null) {
+			Holder other = holders.putIfAbsent(cid, holder = new Holder());
+
+			if (other != null) {
+				holder = other;
+			}
+		}
+
+		return holder;
+	}
+
+	/*
+	 * Releases quantity of the copies of the item the holder, which is
+	 * locked, has reserved.
+	 */
+	private void unreserve(Holder holder, int upc, int quantity) {
+		Integer key = Integer.valueOf(upc);
+		int left = holder.quantities.get(key).intValue() - quantity;
+
+		if (left > 0) {
+			holder.quantities.put(key, Integer.valueOf(left));
+		} else {
+			holder.quantities.remove(key);
+		}
+
+		Stock stock = stocks.get(key);
+
+		if (stock != null) {
+			synchronized (stock) {
+				stock.reserved -= quantity;
+			}
+		}
+	}
+
+	/*
+	 * Releases every reservation of the holder, which is locked, and
+	 * retires it.
+	 */
+	private void release(String cid, Holder holder) {
+		for (Map.Entry<Integer, Integer> e : holder.quantities.entrySet()) {
+			Stock stock = stocks.get(e.getKey());
+
+			if (stock != null) {
+				synchronized (stock) {
+					stock.reserved -= e.getValue().intValue();
+				}
+			}
+		}
+
+		holder.quantities.clear();
+		holder.released = true;
+		holders.remove(cid, holder);
+	}
+
+	private static void add(Map<Integer, Integer> quantities, int upc, int quantity) {
+		Integer key = Integer.valueOf(upc);
+		Integer held = quantities.get(key);
+
+		quantities.put(key, Integer.valueOf((held == null ? 0 : held.intValue()) + quantity));
+	}
+
+	/*
+	 * Schedules a write of the sales unless one is scheduled already.
+	 */
+	private synchronized void schedule() {
+		if (scheduled) {
+			return;
+		}
+
+		scheduled = true;
+
+		timer.schedule(new TimerTask() {
+			public void run() {
+				synchronized (StockReservations.this) {
+					scheduled = false;
+				}
+
+				try {
+					sync();
+				} catch (SQLException ex) {
+					schedule();
+				}
+			}
+		}, SYNC_DELAY);
+	}
+
+	/*
+	 * Reads the item's stock on hand from item.stock, adding the sales
+	 * not yet written.
+	 */
+	private void read(Stock stock) throws SQLException {
+		synchronized (syncLock) {
+			Connection con = null;
+			PreparedStatement ps = null;
+
+			try {
+				con = MvbOracleConnection.getInstance().getConnection();
+
+				ps = MvbOracleConnection.getInstance().prepareStatement(con, "SELECT stock FROM item WHERE upc = ?");
+
+				ps.setInt(1, stock.upc);
+
+				ResultSet rs = ps.executeQuery();
+
+				// an item that does not exist has no stock
+				int onHand = (rs.next() ? rs.getInt(1) : 0);
+
+				rs.close();
+
+				synchronized (stock) {
+					stock.onHand = onHand + stock.unsynced;
+					stock.known = true;
+				}
+			} finally {
+				MvbOracleConnection.getInstance().closeStatement(ps);
+				MvbOracleConnection.getInstance().releaseConnection(con);
+			}
+		}
+	}
+
+	/*
+	 * Adds each change written[i][0] to the stock of changed[i] in one
+	 * batch and commits.
+	 */
+	private void write(List<Stock> changed, List<int[]> written) throws SQLException {
+		Connection con = null;
+		PreparedStatement ps = null;
+
+		try {
+			con = MvbOracleConnection.getInstance().getConnection();
+
+			ps = MvbOracleConnection.getInstance().prepareStatement(con,
+					"UPDATE item SET stock = stock + ? WHERE upc = ?");
+
+			for (int i = 0; i < changed.size(); i++) {
+				ps.setInt(1, written.get(i)[0]);
+				ps.setInt(2, changed.get(i).upc);
+				ps.addBatch();
+			}
+
+			ps.executeBatch();
+
+			con.commit();
+		} catch (SQLException ex) {
+			if (con != null) {
+				try {
+					con.rollback();
+				} catch (SQLException ex2) {
+					// the first error is the one reported
+				}
+			}
+
+			throw ex;
+		} finally {
+			MvbOracleConnection.getInstance().closeStatement(ps);
+			MvbOracleConnection.getInstance().releaseConnection(con);
+		}
+	}
+}